@@ -25,8 +25,9 @@ public class SampleSet {
         v1s = new Vertex[pset.capacity];
         d0s = new float[pset.capacity];
         d1s = new float[pset.capacity];
+        Sample[] samples = sfac.getSamples(pset.lons, pset.lats);
         for (int i = 0; i < pset.capacity; i++) {
-            Sample sample = sfac.getSample(pset.lons[i], pset.lats[i]);
+            Sample sample = samples[i];
             if (sample == null) {
                 d0s[i] = Float.NaN;
                 d1s[i] = Float.NaN;
@@ -5,15 +5,9 @@ import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
@@ -29,6 +23,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -40,6 +40,13 @@ import java.util.*;
  * When they are receiving no work, workers are expected to disconnect and re-poll occasionally, on the order of 30
  * seconds. This serves as a signal to the broker that they are still alive and waiting.
  *
+ * The queues are sharded by graph: each graph has its own GraphQueues holding its jobs, its waiting consumers and its
+ * high-priority tasks. Waiting consumers are held in lock-free deques, and the jobs of a graph are guarded by the
+ * monitor of that graph's shard only, so workers and producers on different graphs never contend with one another.
+ * Tasks are matched to consumers by whichever thread made the match possible (a worker polling or a producer
+ * enqueueing) rather than by a single delivery thread, and the HTTP writes happen outside of any lock.
+ * The broker thread itself only wakes up periodically to re-enqueue tasks whose delivery has timed out.
+ *
  * TODO if there is a backlog of work (the usual case when jobs are lined up) workers will constantly change graphs.
  * Because (at least currently) two users never share the same graph, we can get by with pulling tasks cyclically or
  * randomly from all the jobs, and just actively shaping the number of workers with affinity for each graph by forcing
@@ -61,7 +68,8 @@ public class Broker implements Runnable {
     /* How often we should check for delivered tasks that have timed out. */
     private static final int REDELIVERY_INTERVAL_SEC = 10;
 
-    public final CircularList<Job> jobs = new CircularList<>();
+    /** The job ID given to the throwaway jobs used to hand high-priority tasks to normal consumers. */
+    private static final String HIGH_PRIORITY_JOB_ID = "HIGH PRIORITY";
 
     /** the most tasks to deliver to a worker at a time */
     public final int MAX_TASKS_PER_WORKER = 8;
@@ -72,19 +80,17 @@ public class Broker implements Runnable {
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
+    final AtomicInteger nUndeliveredTasks = new AtomicInteger(); // Including normal priority jobs and high-priority tasks.
 
-    private int nWaitingConsumers = 0; // including some that might be closed
+    private final AtomicInteger nWaitingConsumers = new AtomicInteger(); // including some that might be closed
 
-    private int nextTaskId = 0;
+    private final AtomicInteger nextTaskId = new AtomicInteger();
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
-    private long nextRedeliveryCheckTime = System.currentTimeMillis();
-
     static {
         mapper.registerModule(AgencyAndIdSerializer.makeModule());
         mapper.registerModule(QualifiedModeSetSerializer.makeModule());
@@ -100,39 +106,20 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
+    /** The queues for each graph, keyed on graph ID. Shards are created on demand and never removed. */
+    private final ConcurrentMap<String, GraphQueues> queuesByGraph = new ConcurrentHashMap<>();
 
-    /**
-     * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
-     * When a high priority task is first received, we attempt to send it to a worker right away via
-     * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
-     * is available via normal task distribution channels.
-     */
-    private ArrayListMultimap<String, AnalystClusterRequest> stalledHighPriorityTasks = ArrayListMultimap.create();
+    /** All jobs on all graphs, keyed on job ID. */
+    private final ConcurrentMap<String, Job> jobsById = new ConcurrentHashMap<>();
 
     /**
-     * High priority requests that have just come and are about to be sent down a single point channel.
-     * They put here for just 100 ms so that any that arrive together are batched to the same worker.
-     * If we didn't do this, two requests arriving at basically the same time could get fanned out to
-     * two different workers because the second came in in between closing the side channel and the worker
-     * reopening it.
+     * Task IDs are handed out in contiguous blocks, one block per call to enqueueTasks. This maps the first task ID
+     * of each block to the job it was enqueued in, so the job for any task is found with a single floor lookup.
      */
-    private Multimap<String, AnalystClusterRequest> newHighPriorityTasks = ArrayListMultimap.create();
+    private final ConcurrentSkipListMap<Integer, Job> jobsByFirstTaskId = new ConcurrentSkipListMap<>();
 
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
-    private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
-
-    /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
-
-    /**
-     * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
-     * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
-     * machine ID. This way, the same machine will tend to get all single point work for a graph,
-     * so multiple machines won't stay alive to do single point work.
-     */
-    private Multimap<String, WrappedResponse> singlePointChannels = TreeMultimap.create();
+    private final ConcurrentMap<Integer, Response> highPriorityResponses = new ConcurrentHashMap<>();
 
     /** should we work offline */
     private boolean workOffline;
@@ -149,6 +136,113 @@ public class Broker implements Runnable {
      */
     private TObjectLongMap<String> recentlyRequestedWorkers = new TObjectLongHashMap<>();
 
+    /**
+     * All the queues for a single graph. The job list and the jobs themselves (which are not thread safe) are guarded
+     * by the monitor of this object. The consumer deque and the single point channels are concurrent collections that
+     * may be used without holding the monitor.
+     */
+    private static class GraphQueues {
+
+        final String graphId;
+
+        /** The jobs on this graph, which are serviced round-robin. */
+        final CircularList<Job> jobs = new CircularList<>();
+
+        /** Outstanding requests from workers with affinity for this graph. */
+        final Deque<Response> consumers = new ConcurrentLinkedDeque<>();
+
+        /**
+         * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
+         * When a high priority task is first received, we attempt to send it to a worker right away via
+         * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
+         * is available via normal task distribution channels.
+         */
+        final List<AnalystClusterRequest> stalledHighPriorityTasks = new ArrayList<>();
+
+        /**
+         * High priority requests that have just come and are about to be sent down a single point channel.
+         * They put here for just 100 ms so that any that arrive together are batched to the same worker.
+         * If we didn't do this, two requests arriving at basically the same time could get fanned out to
+         * two different workers because the second came in in between closing the side channel and the worker
+         * reopening it.
+         */
+        final List<AnalystClusterRequest> newHighPriorityTasks = new ArrayList<>();
+
+        /**
+         * Side channels used to send single point requests to workers, cutting in front of any other work on said
+         * workers. This is ordered, and the wrapped response defines an order based on machine ID. This way, the
+         * same machine will tend to get all single point work for a graph, so multiple machines won't stay alive to
+         * do single point work.
+         */
+        final NavigableSet<WrappedResponse> singlePointChannels = new ConcurrentSkipListSet<>();
+
+        GraphQueues (String graphId) {
+            this.graphId = graphId;
+        }
+
+        /** @return whether there are tasks on this graph that could be handed to a consumer right now. */
+        synchronized boolean hasTasks () {
+            if (!stalledHighPriorityTasks.isEmpty()) return true;
+            for (Job job : jobs) {
+                if (!job.tasksAwaitingDelivery.isEmpty()) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Move up to maxTasks tasks into the supplied list, preferring high-priority tasks and otherwise drawing
+         * from the next job in the rotation that has tasks awaiting delivery. The tasks are marked delivered before
+         * they are written to the consumer, so a worker that reports completion right away is not ignored.
+         * @return the job the tasks were taken from, or null if there were no tasks.
+         */
+        synchronized Job takeTasks (List<AnalystClusterRequest> tasks, int maxTasks) {
+            if (!stalledHighPriorityTasks.isEmpty()) {
+                // package tasks into a job
+                Job job = new Job(HIGH_PRIORITY_JOB_ID);
+                job.graphId = graphId;
+                Iterator<AnalystClusterRequest> taskIt = stalledHighPriorityTasks.iterator();
+                while (tasks.size() < maxTasks && taskIt.hasNext()) {
+                    AnalystClusterRequest task = taskIt.next();
+                    job.addTask(task);
+                    tasks.add(task);
+                    taskIt.remove();
+                }
+                job.markTasksDelivered(tasks);
+                return job;
+            }
+            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
+            // for the first element.
+            jobs.advance();
+            Job job = jobs.advanceToElement(j -> !j.tasksAwaitingDelivery.isEmpty());
+            if (job == null) return null;
+            while (tasks.size() < maxTasks && !job.tasksAwaitingDelivery.isEmpty()) {
+                tasks.add(job.tasksAwaitingDelivery.poll());
+            }
+            job.markTasksDelivered(tasks);
+            return job;
+        }
+
+        /** Put back tasks taken with takeTasks that could not be delivered. */
+        synchronized void returnTasks (Job job, List<AnalystClusterRequest> tasks) {
+            job.markTasksUndelivered(tasks);
+            if (HIGH_PRIORITY_JOB_ID.equals(job.jobId)) {
+                stalledHighPriorityTasks.addAll(tasks);
+            } else {
+                // put tasks back on (the end of) the queue.
+                job.tasksAwaitingDelivery.addAll(tasks);
+            }
+        }
+
+        /** @return the number of tasks re-enqueued for delivery. */
+        synchronized int redeliver () {
+            int nRedelivered = 0;
+            for (Job job : jobs) {
+                nRedelivered += job.redeliver();
+            }
+            return nRedelivered;
+        }
+    }
+
     // Queue of tasks to complete Delete, Enqueue etc. to avoid synchronizing all the functions ?
     public Broker (Properties brokerConfig, String addr, int port) {
         this.config = brokerConfig;
@@ -198,11 +292,16 @@ public class Broker implements Runnable {
             ec2.setRegion(r);
     }
 
+    /** @return the queues for the given graph, creating them if they do not yet exist. */
+    private GraphQueues queuesForGraph (String graphId) {
+        return queuesByGraph.computeIfAbsent(graphId, GraphQueues::new);
+    }
+
     /**
      * Enqueue a task for execution ASAP, planning to return the response over the same HTTP connection.
      * Low-reliability, no re-delivery.
      */
-    public synchronized void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
+    public void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
         boolean workersAvailable = workersAvailableForGraph(task.graphId);
 
         if (!workersAvailable) {
@@ -221,9 +320,12 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
-            newHighPriorityTasks.put(task.graphId, task);
+            task.taskId = nextTaskId.getAndIncrement();
             highPriorityResponses.put(task.taskId, response);
+            GraphQueues queues = queuesForGraph(task.graphId);
+            synchronized (queues) {
+                queues.newHighPriorityTasks.add(task);
+            }
 
             // wait 100ms to deliver to workers in case another request comes in almost simultaneously
             timer.schedule(new TimerTask() {
@@ -234,84 +336,84 @@ public class Broker implements Runnable {
             }, 100);
         }
 
-        // do not notify task delivery thread just yet as we haven't put anything in the task delivery queue yet.
+        // do not attempt task delivery just yet as we haven't put anything in the task delivery queue yet.
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
-
-        if (tasks.isEmpty())
-            // someone got here first
-            return;
+    public void deliverHighPriorityTasks (String graphId) {
+        GraphQueues queues = queuesForGraph(graphId);
+        List<AnalystClusterRequest> tasks;
+        synchronized (queues) {
+            if (queues.newHighPriorityTasks.isEmpty())
+                // someone got here first
+                return;
+            tasks = new ArrayList<>(queues.newHighPriorityTasks);
+            queues.newHighPriorityTasks.clear();
+        }
 
         // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
-
-        if (!wrs.isEmpty()) {
+        WrappedResponse wr = queues.singlePointChannels.pollFirst();
+        if (wr != null) {
             // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
-
+            // the channel has been removed whether it is dead or alive
             try {
                 wr.response.setContentType("application/json");
                 OutputStream os = wr.response.getOutputStream();
                 mapper.writeValue(os, tasks);
                 os.close();
                 wr.response.resume();
-
-                newHighPriorityTasks.removeAll(graphId);
-
                 return;
             } catch (Exception e) {
                 LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
             }
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
+        synchronized (queues) {
+            queues.stalledHighPriorityTasks.addAll(tasks);
+        }
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
-
-        // wake up delivery thread
-        notify();
+        nUndeliveredTasks.addAndGet(tasks.size());
+        deliverTasks(queues);
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
         Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
-        for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
-            job.addTask(task);
-            nUndeliveredTasks += 1;
-            LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
-            if ( ! task.graphId.equals(job.graphId)) {
-                LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
+        // Reserve a contiguous block of task IDs so the job can later be found from any of them.
+        int firstTaskId = nextTaskId.getAndAdd(tasks.size());
+        GraphQueues queues = queuesForGraph(job.graphId);
+        synchronized (queues) {
+            int taskId = firstTaskId;
+            for (AnalystClusterRequest task : tasks) {
+                task.taskId = taskId++;
+                job.addTask(task);
+                LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
+                if ( ! task.graphId.equals(job.graphId)) {
+                    LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
+                }
             }
         }
-        // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        jobsByFirstTaskId.put(firstTaskId, job);
+        nUndeliveredTasks.addAndGet(tasks.size());
+        // Hand the new tasks to any consumers that are already waiting.
+        deliverTasks(queues);
     }
 
     public boolean workersAvailableForGraph (String graphId) {
         // make sure that we don't assign work to dead workers
         workerCatalog.purgeDeadWorkers();
 
-        return !workerCatalog.workersByGraph.get(graphId).isEmpty();
+        return workerCatalog.hasWorkers(graphId);
     }
 
     /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -319,7 +421,7 @@ public class Broker implements Runnable {
             return;
         }
 
-        if (workerCatalog.observationsByWorkerId.size() >= maxWorkers) {
+        if (workerCatalog.size() >= maxWorkers) {
             LOG.warn("{} workers already started, not starting more; jobs on graph {} will not complete", maxWorkers, graphId);
             return;
         }
@@ -385,7 +487,7 @@ public class Broker implements Runnable {
     }
 
     /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
+    public void registerSuspendedResponse(String graphId, Response response) {
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
         if (workerId != null && !workerId.isEmpty()) {
@@ -395,26 +497,25 @@ public class Broker implements Runnable {
             return;
         }
         // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
-        }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
-        // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        GraphQueues queues = queuesForGraph(graphId);
+        queues.consumers.addLast(response);
+        nWaitingConsumers.incrementAndGet();
+        // Try to hand it some work right away. When working offline the consumer may take tasks on any graph.
+        if (workOffline) {
+            deliverTasks();
+        } else {
+            deliverTasks(queues);
+        }
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
+    public boolean removeSuspendedResponse(String graphId, Response response) {
+        GraphQueues queues = queuesByGraph.get(graphId);
+        if (queues == null) {
             return false;
         }
-        if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+        if (queues.consumers.remove(response)) {
+            nWaitingConsumers.decrementAndGet();
             LOG.debug("Removed closed connection from queue.");
             logQueueStatus();
             return true;
@@ -426,22 +527,22 @@ public class Broker implements Runnable {
      * Register an HTTP connection that can be used to send single point requests directly to
      * workers, bypassing normal task distribution channels.
      */
-    public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
-        singlePointChannels.put(graphAffinity, response);
-        // no need to notify as the side channels are not used by the normal task delivery loop
+    public void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
+        queuesForGraph(graphAffinity).singlePointChannels.add(response);
+        // no need to attempt delivery as the side channels are not used by normal task delivery
     }
 
     /**
      * Remove a single point channel because the connection was closed.
      */
-    public synchronized boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
-        return singlePointChannels.remove(graphAffinity, response);
+    public boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
+        GraphQueues queues = queuesByGraph.get(graphAffinity);
+        return queues != null && queues.singlePointChannels.remove(response);
     }
 
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
-                stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        LOG.info("{} undelivered tasks on {} graphs", nUndeliveredTasks.get(), queuesByGraph.size());
+        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers.get());
         LOG.info("{} total workers", workerCatalog.size());
     }
 
@@ -450,152 +551,99 @@ public class Broker implements Runnable {
      *  marked complete. Enqueue those tasks for redelivery.
      */
     private void redeliver() {
-        if (System.currentTimeMillis() > nextRedeliveryCheckTime) {
-            nextRedeliveryCheckTime += REDELIVERY_INTERVAL_SEC * 1000;
-            LOG.info("Scanning for redelivery...");
-            int nRedelivered = 0;
-            int nInvisible = 0;
-            for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
-                nRedelivered += job.redeliver();
-            }
-            LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
+        LOG.info("Scanning for redelivery...");
+        int nRedelivered = 0;
+        for (GraphQueues queues : queuesByGraph.values()) {
+            nRedelivered += queues.redeliver();
         }
+        LOG.info("{} tasks enqueued for redelivery.", nRedelivered);
+        nUndeliveredTasks.addAndGet(nRedelivered);
     }
 
     /**
-     * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
+     * Attempt to match the tasks on every graph with waiting workers. Unlike in earlier versions this does not block:
+     * matching is attempted whenever new tasks or new consumers arrive.
      */
-    public synchronized void deliverTasks() throws InterruptedException {
-
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
+    public void deliverTasks() {
+        for (GraphQueues queues : queuesByGraph.values()) {
+            deliverTasks(queues);
         }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
-
-        while (nWaitingConsumers == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
-        }
-
-        LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
-
-        // Loop over all jobs and send them to consumers
-        // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
-        // workers on their graph.
-
-        // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
-            String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
-            }
-
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
-            }
-
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
-
-                // package tasks into a job
-                Job job = new Job("HIGH PRIORITY");
-                job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
-                }
-
-                // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
-            }
-        }
-
-        // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
+    }
 
-            // find a job that both has visible tasks and has available workers
+    /**
+     * Hand tasks from the given graph's queues to waiting consumers until we run out of one or the other.
+     * High-priority tasks go first, then the jobs on the graph in turn, one consumer at a time. This way if there
+     * are multiple workers and multiple jobs the jobs will be fairly distributed, more or less.
+     * Any number of threads may call this at once, on the same or different graphs.
+     */
+    private void deliverTasks (GraphQueues queues) {
+        while (queues.hasTasks()) {
             // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
+            Deque<Response> consumers = consumersForGraph(queues);
+            if (consumers == null) {
+                LOG.debug("No consumer found for graph {}.", queues.graphId);
+                return;
             }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
+            Response consumer = consumers.pollFirst();
+            if (consumer == null) {
+                // Another thread took the last consumer since we looked, check again.
+                continue;
             }
-
-            // nothing to see here
-            if (current == null) break;
-
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+            nWaitingConsumers.decrementAndGet();
+            List<AnalystClusterRequest> tasks = new ArrayList<>();
+            Job job = queues.takeTasks(tasks, MAX_TASKS_PER_WORKER);
+            if (job == null) {
+                // Another thread took the last tasks since we looked. Give the consumer back its place in line.
+                consumers.offerFirst(consumer);
+                nWaitingConsumers.incrementAndGet();
+                return;
+            }
+            nUndeliveredTasks.addAndGet(-tasks.size());
+            // TODO inefficiency here: we should mix single point and multipoint in the same response
+            if (!deliver(consumer, tasks)) {
+                queues.returnTasks(job, tasks);
+                nUndeliveredTasks.addAndGet(tasks.size());
             }
-            // deliver this job to only one consumer
-            // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
         }
+    }
 
-        // TODO: graph switching
-
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
+    /**
+     * @return the consumers that may take tasks on the given graph, which when working offline may be those waiting
+     * on any graph. Null if no consumers are waiting.
+     */
+    private Deque<Response> consumersForGraph (GraphQueues queues) {
+        if (!queues.consumers.isEmpty()) return queues.consumers;
+        if (!workOffline) return null;
+        for (GraphQueues other : queuesByGraph.values()) {
+            if (!other.consumers.isEmpty()) return other.consumers;
+        }
+        return null;
     }
 
     /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
+     * This uses a floor lookup on the first task ID of each block of tasks enqueued, so it is logarithmic in the
+     * number of enqueue operations rather than linear in the number of jobs.
      * @return a Job object that contains the given task ID.
      */
     public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
-                return job;
-            }
+        Map.Entry<Integer, Job> entry = jobsByFirstTaskId.floorEntry(taskId);
+        if (entry == null) {
+            return null;
+        }
+        Job job = entry.getValue();
+        synchronized (queuesForGraph(job.graphId)) {
+            return job.containsTask(taskId) ? job : null;
         }
-        return null;
     }
 
     /**
-     * Attempt to hand some tasks from the given job to a waiting consumer connection.
-     * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
-     * @return whether the handoff succeeded.
+     * Attempt to hand the given tasks, which have already been taken from their job and marked delivered, to a
+     * waiting consumer connection. The write will fail if the consumer has closed the connection but it hasn't been
+     * removed from the connection queue yet. This is called without holding any lock, so slow consumers do not hold
+     * up delivery to others.
+     * @return whether the handoff succeeded. If it did not, the caller must put the tasks back.
      */
-    public synchronized boolean deliver (Job job, Response response) {
+    private boolean deliver (Response response, List<AnalystClusterRequest> tasks) {
 
         // Check up-front whether the connection is still open.
         if (!response.getRequest().getRequest().getConnection().isOpen()) {
@@ -603,12 +651,6 @@ public class Broker implements Runnable {
             return false;
         }
 
-        // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
-        }
-
         // Attempt to deliver the tasks to the given consumer.
         try {
             response.setStatus(HttpStatus.OK_200);
@@ -620,16 +662,10 @@ public class Broker implements Runnable {
             LOG.debug("Consumer connection caused IO error, it will be removed.");
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
             response.resume();
-            // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
             return false;
         }
 
-        // Delivery succeeded, move tasks from undelivered to delivered status
         LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
-
         return true;
 
     }
@@ -639,13 +675,15 @@ public class Broker implements Runnable {
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
+    public boolean markTaskCompleted (int taskId) {
         Job job = getJobForTask(taskId);
         if (job == null) {
-            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
+            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.", taskId);
             return false;
         }
-        job.markTaskCompleted(taskId);
+        synchronized (queuesForGraph(job.graphId)) {
+            job.markTaskCompleted(taskId);
+        }
         return true;
     }
 
@@ -656,75 +694,87 @@ public class Broker implements Runnable {
      * without blocking the broker thread.
      * TODO rename to "deregisterSuspendedProducer" and "deregisterSuspendedConsumer" ?
      */
-    public synchronized Response deletePriorityTask (int taskId) {
+    public Response deletePriorityTask (int taskId) {
         return highPriorityResponses.remove(taskId);
     }
 
-    // TODO: occasionally purge closed connections from consumersByGraph
+    // TODO: occasionally purge closed connections from the consumer queues
     // TODO: worker catalog and graph affinity homeostasis
 
+    /**
+     * Task delivery happens on the threads that enqueue tasks and register consumers, so this thread only has to
+     * periodically make timed-out tasks visible again and hand them out.
+     */
     @Override
     public void run() {
         while (true) {
             try {
-                deliverTasks();
+                Thread.sleep(REDELIVERY_INTERVAL_SEC * 1000);
             } catch (InterruptedException e) {
-                LOG.info("Task pump thread was interrupted.");
+                LOG.info("Task redelivery thread was interrupted.");
                 return;
             }
+            redeliver();
+            deliverTasks();
+            logQueueStatus();
         }
     }
 
     /** find the job for a task, creating it if it does not exist */
     public Job findJob (AnalystClusterRequest task) {
-        Job job = findJob(task.jobId);
+        GraphQueues queues = queuesForGraph(task.graphId);
+        synchronized (queues) {
+            Job job = jobsById.get(task.jobId);
 
-        if (job != null)
-            return job;
+            if (job != null)
+                return job;
 
-        job = new Job(task.jobId);
-        job.graphId = task.graphId;
-        jobs.insertAtTail(job);
-        return job;
+            job = new Job(task.jobId);
+            job.graphId = task.graphId;
+            queues.jobs.insertAtTail(job);
+            jobsById.put(job.jobId, job);
+            return job;
+        }
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsById.get(jobId);
     }
 
     /** delete a job */
-    public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+    public boolean deleteJob (String jobId) {
+        Job job = jobsById.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
-        return jobs.remove(job);
+        jobsByFirstTaskId.values().removeIf(j -> j == job);
+        GraphQueues queues = queuesForGraph(job.graphId);
+        synchronized (queues) {
+            nUndeliveredTasks.addAndGet(-job.tasksAwaitingDelivery.size());
+            return queues.jobs.remove(job);
+        }
     }
 
     private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
 
-    public synchronized boolean anyJobsActive() {
-        for (Job job : jobs) {
-            if (!job.isComplete()) return true;
+    public boolean anyJobsActive() {
+        for (Job job : jobsById.values()) {
+            synchronized (queuesForGraph(job.graphId)) {
+                if (!job.isComplete()) return true;
+            }
         }
         return false;
     }
 
-    void activateJob (Job job) {
+    synchronized void activateJob (Job job) {
         activeJobsPerGraph.put(job.graphId, job.jobId);
     }
 
-    void deactivateJob (Job job) {
+    synchronized void deactivateJob (Job job) {
         activeJobsPerGraph.remove(job.graphId, job.jobId);
     }
 
     /**
-     * We wrap responses in a class that has a machine ID, and then put them in a TreeSet so that
+     * We wrap responses in a class that has a machine ID, and then put them in a sorted set so that
      * the machine with the lowest ID on a given graph always gets single-point work. The reason
      * for this is so that a single machine will tend to get single-point work and thus we don't
      * unnecessarily keep multiple multipoint machines alive.
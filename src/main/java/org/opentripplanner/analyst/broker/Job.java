@@ -67,6 +67,13 @@ public class Job {
         }
     }
 
+    /** Reverts markTasksDelivered for tasks that could not be handed to a worker after all. */
+    public void markTasksUndelivered(List<AnalystClusterRequest> tasks) {
+        for (AnalystClusterRequest task : tasks) {
+            invisibleUntil.remove(task.taskId);
+        }
+    }
+
     /**
      * Find all tasks that are currently invisible but have passed their invisibility timeout without being marked
      * completed, and make all these tasks visible again for delivery.
@@ -77,7 +77,12 @@ public class WorkerCatalog {
         return null;
     }
 
-    public int size () {
+    /** Returns true if any live worker has declared affinity for the given graph. */
+    public synchronized boolean hasWorkers (String graphId) {
+        return !workersByGraph.get(graphId).isEmpty();
+    }
+
+    public synchronized int size () {
         return workersByGraph.size();
     }
 
@@ -115,6 +115,9 @@ public class AnalystWorker implements Runnable {
             .maximumSize(200)
             .build();
 
+    /** Second tier of the RAPTOR data cache, which survives restarts. Null if disabled. */
+    private RaptorWorkerDataStore workerDataStore;
+
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
         mgr.setDefaultMaxPerRoute(20);
@@ -185,6 +188,12 @@ public class AnalystWorker implements Runnable {
         this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
         this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
 
+        // RAPTOR data are saved on local disk unless this is explicitly disabled
+        String raptorDataDir = config.getProperty("raptor-data-cache", "cache/raptor_data");
+        if (!"none".equals(raptorDataDir)) {
+            this.workerDataStore = new RaptorWorkerDataStore(new File(raptorDataDir));
+        }
+
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
 
@@ -393,8 +402,18 @@ public class AnalystWorker implements Runnable {
             // But then we'd need to pass in both the cache and the key, which is weird.
             if (transit && !singlePoint) {
                 long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> {
+                    // Not in memory, try the disk store before building the data from the graph.
+                    String key = workerDataStore == null ? null :
+                            RaptorWorkerDataStore.getKey(clusterRequest, objectMapper);
+                    RaptorWorkerData data = key == null ? null : workerDataStore.get(key, graph);
+                    if (data == null) {
+                        data = RepeatedRaptorProfileRouter
+                                .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts);
+                        if (key != null) workerDataStore.put(key, data, graph);
+                    }
+                    return data;
+                });
                 ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
             } else {
                 // The worker will generate a one-time throw-away table.
@@ -407,6 +426,8 @@ public class AnalystWorker implements Runnable {
             try {
                 // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
                 router.includeTimes = clusterRequest.includeTimes;
+                // A single-point request is waited on interactively, use all available cores for it.
+                router.parallelRaptor = singlePoint;
                 envelope = router.route();
                 envelope.id = clusterRequest.id;
                 ts.success = true;
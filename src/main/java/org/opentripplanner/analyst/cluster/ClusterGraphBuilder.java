@@ -27,6 +27,8 @@ public class ClusterGraphBuilder {
 
     private static final String GRAPH_CACHE_DIR = "graph_cache";
 
+    private static final String STOP_TREE_CACHE_FILE = "stop_trees.dat";
+
     private final String graphBucket;
 
     String currGraphId = null;
@@ -93,6 +95,9 @@ public class ClusterGraphBuilder {
         graph.routerId = graphId;
         graph.index(new DefaultStreetVertexIndexFactory());
         graph.index.clusterStopsAsNeeded();
+        graph.buildCompactStreetGraph();
+        // Keep the stop trees next to the inputs, so a restarted worker can load them instead of rebuilding them.
+        graph.index.stopTreeCacheFile = new File(graphDataDirectory, STOP_TREE_CACHE_FILE);
         this.currGraphId = graphId;
         this.currGraph = graph;
         return graph;
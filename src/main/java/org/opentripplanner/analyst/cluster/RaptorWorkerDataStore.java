@@ -0,0 +1,116 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A disk-backed store of RaptorWorkerData, which sits behind the in-memory cache in AnalystWorker. The data are
+ * saved in a compact binary format (see RaptorWorkerData.write) so that a worker that has been restarted, or that
+ * receives tasks from a job another worker already started on, can restore the tables in a fraction of the time it
+ * takes to build them from the Graph.
+ *
+ * The data are keyed on everything that can affect them: the graph, the destination point set, and the profile request
+ * (including the scenario, date and time window) except for the origin, which varies across the tasks of a job.
+ * Only data for point set destinations are stored, since isochrone data are keyed on vertex indexes which are not
+ * stable from one run to the next.
+ */
+public class RaptorWorkerDataStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataStore.class);
+
+    private static final String EXTENSION = ".raptordata";
+
+    private final File directory;
+
+    public RaptorWorkerDataStore (File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * @return the key under which RAPTOR data for the given request are stored, or null if data for this request
+     * should not be stored.
+     */
+    public static String getKey (AnalystClusterRequest clusterRequest, ObjectMapper objectMapper) {
+        if (clusterRequest.destinationPointsetId == null || clusterRequest.graphId == null) return null;
+        try {
+            // The origin varies from one task to the next but does not affect the RAPTOR data.
+            ProfileRequest request = clusterRequest.profileRequest.clone();
+            request.fromLat = request.fromLon = request.toLat = request.toLon = 0;
+            byte[] json = objectMapper.writeValueAsBytes(request);
+            String hash = Hashing.sha1().hashBytes(json).toString();
+            // Keep the key safe for use as a file name.
+            return String.join("_", clusterRequest.graphId, clusterRequest.destinationPointsetId, hash)
+                    .replaceAll("[^A-Za-z0-9_.-]", "-");
+        } catch (CloneNotSupportedException | JsonProcessingException e) {
+            LOG.warn("Unable to make a RAPTOR data store key for request {}", clusterRequest.id, e);
+            return null;
+        }
+    }
+
+    /** @return the RAPTOR data stored under the given key for the given graph, or null if there are none. */
+    public RaptorWorkerData get (String key, Graph graph) {
+        File file = new File(directory, key + EXTENSION);
+        if (!file.exists()) return null;
+        long startTime = System.currentTimeMillis();
+        try {
+            // Reading the whole file at once lets the protobuf decoder work on a flat array, which is much faster
+            // than decoding from a stream.
+            CodedInputStream in = CodedInputStream.newInstance(Files.readAllBytes(file.toPath()));
+            in.setSizeLimit(Integer.MAX_VALUE);
+            RaptorWorkerData data = new RaptorWorkerData(in, graph);
+            LOG.info("Loaded RAPTOR data {} from disk in {} ms", key, System.currentTimeMillis() - startTime);
+            return data;
+        } catch (Exception e) {
+            // Most likely a file written by a different version of OTP or for a graph that has changed.
+            LOG.warn("Unable to load stored RAPTOR data {}, it will be rebuilt.", key, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Save the given RAPTOR data under the given key, if they can be saved. Failures are logged and ignored. */
+    public void put (String key, RaptorWorkerData data, Graph graph) {
+        if (!data.isWritable()) {
+            LOG.info("RAPTOR data {} refer to temporary scenario objects, not storing them.", key);
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        File file = new File(directory, key + EXTENSION);
+        File tempFile = null;
+        try {
+            // Write to a temporary file and move it into place, so that other threads or processes never see a
+            // partially written file.
+            tempFile = File.createTempFile(key, ".tmp", directory);
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024)) {
+                CodedOutputStream out = CodedOutputStream.newInstance(os);
+                data.write(out, graph);
+                out.flush();
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Stored RAPTOR data {} ({} bytes) in {} ms", key, file.length(),
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            LOG.warn("Unable to store RAPTOR data {}", key, e);
+            if (tempFile != null) tempFile.delete();
+        }
+    }
+
+}
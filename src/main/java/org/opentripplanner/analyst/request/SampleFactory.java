@@ -13,10 +13,8 @@
 
 package org.opentripplanner.analyst.request;
 
-import com.google.common.collect.Iterables;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
-import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.LineString;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
@@ -24,8 +22,6 @@ import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.core.SampleSource;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
-import org.opentripplanner.routing.core.TraverseMode;
-import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
@@ -33,6 +29,7 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.OsmVertex;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class SampleFactory implements SampleSource {
 
@@ -57,41 +54,27 @@ public class SampleFactory implements SampleSource {
     @Override
     /** implements SampleSource interface */
     public Sample getSample(double lon, double lat) {
-        Coordinate c = new Coordinate(lon, lat);
-        // query always returns a (possibly empty) list, but never null
-        Envelope env = new Envelope(c);
         // find scaling factor for equirectangular projection
-        double xscale = Math.cos(c.y * Math.PI / 180);
-        env.expandBy(searchRadiusLat / xscale, searchRadiusLat);
-        @SuppressWarnings("unchecked")
-        Collection<Vertex> vertices = graph.streetIndex.getVerticesForEnvelope(env);
-
-        // make sure things are in the radius
+        double xscale = Math.cos(lat * Math.PI / 180);
+        // The segment index only holds walkable streets, so every vertex it returns has a walkable street leaving it.
+        // Vertices may be returned more than once, and those already seen are skipped.
         final TIntDoubleMap distances = new TIntDoubleHashMap();
-
-        for (Vertex v : vertices) {
-            if (!(v instanceof OsmVertex)) continue;
-
+        final List<Vertex> vertices = new ArrayList<>();
+        graph.streetIndex.getStreetSegmentIndex().queryVertices(lat, lon, searchRadiusM, v -> {
+            if (!(v instanceof OsmVertex) || distances.containsKey(v.getIndex())) return;
             // figure ersatz distance
             double dx = (lon - v.getLon()) * xscale;
             double dy = lat - v.getLat();
             distances.put(v.getIndex(), dx * dx + dy * dy);
-        }
+            vertices.add(v);
+        });
 
-        
         List<Vertex> sorted = new ArrayList<Vertex>();
         
+        // make sure things are in the radius
         for (Vertex input : vertices) {
-            if (!(input instanceof OsmVertex &&
-                    distances.get(input.getIndex()) < searchRadiusLat * searchRadiusLat))
-                continue;
-
-            for (StreetEdge e : Iterables.filter(input.getOutgoing(), StreetEdge.class)) {
-                if (e.canTraverse(new TraverseModeSet(TraverseMode.WALK))) {
-                    sorted.add(input);
-                    break;
-                }
-            }
+            if (distances.get(input.getIndex()) < searchRadiusLat * searchRadiusLat)
+                sorted.add(input);
         }
         
         // sort list by distance
@@ -170,6 +153,17 @@ public class SampleFactory implements SampleSource {
         return new Sample(v0, (int) d0, v1, (int) d1);
     }
 
+    /**
+     * Find the samples for many points at once, using all available processors. Linking a point set this way gives the
+     * same samples as calling getSample for each point.
+     * @return one sample per point, null where there is no walkable street within the search radius.
+     */
+    public Sample[] getSamples(double[] lons, double[] lats) {
+        Sample[] samples = new Sample[lons.length];
+        IntStream.range(0, lons.length).parallel().forEach(i -> samples[i] = getSample(lons[i], lats[i]));
+        return samples;
+    }
+
     /**
      * DistanceToPoint.computeDistance() uses a LineSegment, which has a closestPoint method.
      * That finds the true distance every time rather than once the closest segment is known, 
@@ -16,11 +16,13 @@ package org.opentripplanner.api.resource;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Lists;
 
 /**
@@ -41,6 +43,7 @@ public class DebugOutput {
     private List<Long> foundPaths = Lists.newArrayList();
     private long finishedCalculating;
     private long finishedRendering;
+    private boolean summarized;
 
     /* Results, public to cause JAX-RS serialization */
     public long precalculationTime;
@@ -49,6 +52,8 @@ public class DebugOutput {
     public long renderingTime;
     public long totalTime;
     public boolean timedOut;
+    /** The number of states taken from the queue over all the searches made for this request. */
+    public long statesVisited;
 
     /**
      * Record the time when we first began calculating a path for this request
@@ -94,5 +99,13 @@ public class DebugOutput {
         LOG.debug("times to find each path: {}", pathTimes);
         renderingTime = finishedRendering - finishedCalculating;
         totalTime = finishedRendering - startedCalculating;
+        summarized = true;
+    }
+
+    /** @return whether the request got as far as finishedRendering, so that the elapsed times are meaningful. */
+    @XmlTransient
+    @JsonIgnore
+    public boolean isSummarized() {
+        return summarized;
     }
 }
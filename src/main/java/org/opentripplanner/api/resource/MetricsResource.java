@@ -0,0 +1,153 @@
+package org.opentripplanner.api.resource;
+
+import com.google.common.cache.CacheStats;
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
+import org.opentripplanner.util.monitoring.Histogram;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Report counters and histograms of the trip planning requests made to a router, along with the age of the realtime
+ * timetable snapshot and the hit rates of the routing caches. The JSON form is meant to be read by people and scripts,
+ * the plain text form follows the Prometheus exposition format so it can be scraped by monitoring systems.
+ */
+@Path("/routers/{routerId}/metrics")
+public class MetricsResource {
+
+    private static final String PREFIX = "otp_";
+
+    Router router;
+
+    public MetricsResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
+        router = otpServer.getRouter(routerId);
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getMetrics () {
+        RoutingMetrics metrics = router.routingMetrics;
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("routerId", router.id);
+        ret.put("uptimeSeconds", (System.currentTimeMillis() - metrics.startTime) / 1000);
+        ret.put("requests", metrics.requests.sum());
+        ret.put("timeouts", metrics.timeouts.sum());
+        ret.put("pathsNotFound", metrics.pathsNotFound.sum());
+        ret.put("errors", metrics.errors.sum());
+        ret.put("statesVisited", histogram(metrics.statesVisited));
+        ret.put("heuristicMillis", histogram(metrics.heuristicMillis));
+        ret.put("searchMillis", histogram(metrics.searchMillis));
+        ret.put("renderingMillis", histogram(metrics.renderingMillis));
+        ret.put("totalMillis", histogram(metrics.totalMillis));
+        ret.put("realtimeSnapshotAgeSeconds", snapshotAgeSeconds());
+        Map<String, Object> caches = new LinkedHashMap<>();
+        for (Map.Entry<String, CacheStats> entry : cacheStats().entrySet()) {
+            CacheStats stats = entry.getValue();
+            Map<String, Object> cache = new LinkedHashMap<>();
+            cache.put("hits", stats.hitCount());
+            cache.put("misses", stats.missCount());
+            cache.put("evictions", stats.evictionCount());
+            cache.put("hitRate", stats.hitRate());
+            caches.put(entry.getKey(), cache);
+        }
+        ret.put("caches", caches);
+        return Response.status(Response.Status.OK).entity(ret).build();
+    }
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getMetricsText () {
+        RoutingMetrics metrics = router.routingMetrics;
+        String labels = String.format("router=\"%s\"", router.id);
+        StringBuilder sb = new StringBuilder();
+        counter(sb, "plan_requests_total", labels, metrics.requests.sum());
+        counter(sb, "plan_timeouts_total", labels, metrics.timeouts.sum());
+        counter(sb, "plan_paths_not_found_total", labels, metrics.pathsNotFound.sum());
+        counter(sb, "plan_errors_total", labels, metrics.errors.sum());
+        histogram(sb, "plan_states_visited", labels, metrics.statesVisited);
+        histogram(sb, "plan_heuristic_milliseconds", labels, metrics.heuristicMillis);
+        histogram(sb, "plan_search_milliseconds", labels, metrics.searchMillis);
+        histogram(sb, "plan_rendering_milliseconds", labels, metrics.renderingMillis);
+        histogram(sb, "plan_total_milliseconds", labels, metrics.totalMillis);
+        long age = snapshotAgeSeconds();
+        if (age >= 0) {
+            gauge(sb, "realtime_snapshot_age_seconds", labels, age);
+        }
+        for (Map.Entry<String, CacheStats> entry : cacheStats().entrySet()) {
+            String cacheLabels = String.format("%s,cache=\"%s\"", labels, entry.getKey());
+            CacheStats stats = entry.getValue();
+            counter(sb, "cache_hits_total", cacheLabels, stats.hitCount());
+            counter(sb, "cache_misses_total", cacheLabels, stats.missCount());
+            counter(sb, "cache_evictions_total", cacheLabels, stats.evictionCount());
+        }
+        return Response.status(Response.Status.OK).entity(sb.toString()).build();
+    }
+
+    /** @return the age of the realtime timetable snapshot in seconds, or -1 if there is no realtime data. */
+    private long snapshotAgeSeconds () {
+        TimetableSnapshotSource source = router.graph.timetableSnapshotSource;
+        if (source == null || source.getLastCommitTime() < 0) return -1;
+        return (System.currentTimeMillis() - source.getLastCommitTime()) / 1000;
+    }
+
+    private Map<String, CacheStats> cacheStats () {
+        Map<String, CacheStats> ret = new LinkedHashMap<>();
+        if (router.graph.streetSearchCache != null) {
+            ret.put("streetSearch", router.graph.streetSearchCache.stats());
+        }
+        if (router.raptorPathFinder != null) {
+            ret.put("raptorPlanData", router.raptorPathFinder.getPlanDataStats());
+        }
+        return ret;
+    }
+
+    private static Map<String, Object> histogram (Histogram histogram) {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("count", histogram.getCount());
+        ret.put("sum", histogram.getSum());
+        ret.put("p50", histogram.getPercentileBound(0.5));
+        ret.put("p90", histogram.getPercentileBound(0.9));
+        ret.put("p99", histogram.getPercentileBound(0.99));
+        ret.put("bounds", histogram.getBounds());
+        ret.put("counts", histogram.getCounts());
+        return ret;
+    }
+
+    private static void counter (StringBuilder sb, String name, String labels, long value) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        sb.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void gauge (StringBuilder sb, String name, String labels, long value) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+        sb.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /** Write a histogram with cumulative buckets, as Prometheus expects. */
+    private static void histogram (StringBuilder sb, String name, String labels, Histogram histogram) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" histogram\n");
+        long[] bounds = histogram.getBounds();
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String le = i < bounds.length ? Long.toString(bounds[i]) : "+Inf";
+            sb.append(PREFIX).append(name).append("_bucket{").append(labels).append(",le=\"").append(le)
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(PREFIX).append(name).append("_sum{").append(labels).append("} ").append(histogram.getSum())
+                .append('\n');
+        sb.append(PREFIX).append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+}
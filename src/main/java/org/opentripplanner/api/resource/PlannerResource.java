@@ -64,13 +64,15 @@ public class    PlannerResource extends RoutingResource {
         // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
         Response response = new Response(uriInfo);
         RoutingRequest request = null;
+        Router router = null;
+        Exception planningError = null;
         try {
 
             /* Fill in request fields from query parameters via shared superclass method, catching any errors. */
             request = super.buildRequest();
 
             /* Find some good GraphPaths through the OTP Graph. */
-            Router router = otpServer.getRouter(request.routerId);
+            router = otpServer.getRouter(request.routerId);
             GraphPathFinder gpFinder = new GraphPathFinder(router); // we could also get a persistent router-scoped GraphPathFinder but there's no setup cost here
             List<GraphPath> paths = gpFinder.graphPathFinderEntryPoint(request);
 
@@ -79,6 +81,7 @@ public class    PlannerResource extends RoutingResource {
             response.setPlan(plan);
 
         } catch (Exception e) {
+            planningError = e;
             PlannerError error = new PlannerError(e);
             if(!PlannerError.isPlanningError(e.getClass()))
                 LOG.warn("Error while planning path: ", e);
@@ -88,6 +91,9 @@ public class    PlannerResource extends RoutingResource {
                 if (request.rctx != null) {
                     response.debugOutput = request.rctx.debugOutput;
                 }
+                if (router != null) {
+                    router.routingMetrics.record(response.debugOutput, planningError);
+                }
                 request.cleanup(); // TODO verify that this cleanup step is being done on Analyst web services
             }       
         }
@@ -0,0 +1,321 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A hash map whose snapshots share structure with the map they were taken from, so taking a snapshot costs nothing
+ * and the map can go on being modified after a snapshot at a cost proportional to the number of entries changed
+ * rather than the total number of entries.
+ *
+ * This is a hash array mapped trie: each node holds up to 32 slots selected by five bits of the key's hash, and each
+ * slot holds either an entry or a child node covering the next five bits. Keys whose hashes are entirely identical
+ * end up together in a collision node at the bottom of the trie, which is searched linearly.
+ *
+ * Every node records the edit generation that created it. A writable map may modify nodes of its own generation in
+ * place, which avoids copying a node over and over when many changes are made between two snapshots. Taking a
+ * snapshot moves the writable map on to a new generation, after which any node it shares with the snapshot is copied
+ * (along with its path up to the root) the first time it needs to change. Snapshots themselves are read-only.
+ *
+ * Like HashMap this is not thread safe for writing, but any number of threads may read a snapshot while the map it
+ * came from is modified. Null keys and values are not supported.
+ */
+public class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** Nodes at a shift beyond this have used up all the hash bits and are collision nodes. */
+    private static final int MAX_SHIFT = 30;
+
+    private static final class Node {
+
+        /** The generation of the map that created this node, which may modify it in place. */
+        final Object edit;
+
+        /** For a normal node, which of the 32 slots are present. Unused in collision nodes. */
+        int bitmap;
+
+        /**
+         * Pairs of [key, value] for each slot present, in slot order. A null key means the value is a child Node.
+         * In a collision node, all pairs are entries.
+         */
+        Object[] array;
+
+        Node(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    private Node root;
+
+    private int size;
+
+    /** The current edit generation, or null if this map is a read-only snapshot. */
+    private Object edit;
+
+    /** Set by put and remove when the number of entries has changed. */
+    private boolean sizeChanged;
+
+    public PersistentHashMap() {
+        this.edit = new Object();
+    }
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+        this.edit = null;
+    }
+
+    /**
+     * @return a read-only map holding the entries currently in this one. It shares all its nodes with this map, and
+     * will not see any later changes to this map.
+     */
+    public PersistentHashMap<K, V> snapshot() {
+        // Start a new generation so that nodes now shared with the snapshot are copied before being changed.
+        if (edit != null) edit = new Object();
+        return new PersistentHashMap<>(root, size);
+    }
+
+    public boolean isReadOnly() {
+        return edit == null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while (node != null) {
+            Object[] array = node.array;
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i])) return (V) array[i + 1];
+                }
+                return null;
+            }
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) return null;
+            int i = index(node.bitmap, bit);
+            Object k = array[i];
+            if (k == null) {
+                node = (Node) array[i + 1];
+                shift += BITS;
+            } else {
+                return key.equals(k) ? (V) array[i + 1] : null;
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /** Associate the given value with the given key, replacing any existing value. */
+    public void put(K key, V value) {
+        checkWritable();
+        if (key == null || value == null) {
+            throw new NullPointerException("PersistentHashMap does not support null keys or values.");
+        }
+        sizeChanged = false;
+        root = put(root, 0, hash(key), key, value);
+        if (sizeChanged) size += 1;
+    }
+
+    /** Remove the entry for the given key, if there is one. */
+    public void remove(K key) {
+        checkWritable();
+        sizeChanged = false;
+        root = remove(root, 0, hash(key), key);
+        if (sizeChanged) size -= 1;
+    }
+
+    public void clear() {
+        checkWritable();
+        root = null;
+        size = 0;
+    }
+
+    /** Call the given function on every entry, in no particular order. The map must not be modified meanwhile. */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, (BiConsumer<Object, Object>) action);
+    }
+
+    private static void forEach(Node node, BiConsumer<Object, Object> action) {
+        if (node == null) return;
+        Object[] array = node.array;
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] == null) {
+                forEach((Node) array[i + 1], action);
+            } else {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+    }
+
+    private Node put(Node node, int shift, int hash, Object key, Object value) {
+        if (node == null) {
+            sizeChanged = true;
+            if (shift > MAX_SHIFT) return new Node(edit, 0, new Object[] { key, value });
+            return new Node(edit, bit(hash, shift), new Object[] { key, value });
+        }
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array[i + 1] == value) return node;
+                    Node editable = editable(node);
+                    editable.array[i + 1] = value;
+                    return editable;
+                }
+            }
+            sizeChanged = true;
+            Node editable = editable(node);
+            editable.array = insertPair(array, array.length, key, value);
+            return editable;
+        }
+        int bit = bit(hash, shift);
+        int i = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            sizeChanged = true;
+            Node editable = editable(node);
+            editable.array = insertPair(array, i, key, value);
+            editable.bitmap |= bit;
+            return editable;
+        }
+        Object k = array[i];
+        Object v = array[i + 1];
+        if (k == null) {
+            Node child = (Node) v;
+            Node newChild = put(child, shift + BITS, hash, key, value);
+            if (newChild == child) return node;
+            Node editable = editable(node);
+            editable.array[i + 1] = newChild;
+            return editable;
+        }
+        if (key.equals(k)) {
+            if (v == value) return node;
+            Node editable = editable(node);
+            editable.array[i + 1] = value;
+            return editable;
+        }
+        // Two different keys share this slot, push both down into a new child node.
+        Node child = put(null, shift + BITS, hash(k), k, v);
+        child = put(child, shift + BITS, hash, key, value);
+        Node editable = editable(node);
+        editable.array[i] = null;
+        editable.array[i + 1] = child;
+        return editable;
+    }
+
+    /** @return the node with the key removed, which is null if it is left empty. */
+    private Node remove(Node node, int shift, int hash, Object key) {
+        if (node == null) return null;
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    sizeChanged = true;
+                    if (array.length == 2) return null;
+                    Node editable = editable(node);
+                    editable.array = removePair(array, i);
+                    return editable;
+                }
+            }
+            return node;
+        }
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0) return node;
+        int i = index(node.bitmap, bit);
+        Object k = array[i];
+        if (k == null) {
+            Node child = (Node) array[i + 1];
+            Node newChild = remove(child, shift + BITS, hash, key);
+            if (newChild == child) return node;
+            if (newChild != null) {
+                Node editable = editable(node);
+                editable.array[i + 1] = newChild;
+                return editable;
+            }
+        } else if (!key.equals(k)) {
+            return node;
+        } else {
+            sizeChanged = true;
+        }
+        // Either the entry itself or a child that is now empty must be removed from this node.
+        if (node.bitmap == bit) return null;
+        Node editable = editable(node);
+        editable.array = removePair(array, i);
+        editable.bitmap ^= bit;
+        return editable;
+    }
+
+    /** @return the given node if it belongs to the current generation, otherwise a copy that does. */
+    private Node editable(Node node) {
+        if (node.edit == edit) return node;
+        return new Node(edit, node.bitmap, node.array.clone());
+    }
+
+    private void checkWritable() {
+        if (edit == null) {
+            throw new IllegalStateException("This PersistentHashMap is a read-only snapshot.");
+        }
+    }
+
+    private static Object[] insertPair(Object[] array, int i, Object key, Object value) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        newArray[i] = key;
+        newArray[i + 1] = value;
+        System.arraycopy(array, i, newArray, i + 2, array.length - i);
+        return newArray;
+    }
+
+    private static Object[] removePair(Object[] array, int i) {
+        Object[] newArray = new Object[array.length - 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+        return newArray;
+    }
+
+    /** Spread the higher bits of the hash code downward as HashMap does, since we consume the low bits first. */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /** @return the position in a node's array of the pair for the slot with the given bit. */
+    private static int index(int bitmap, int bit) {
+        return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+}
@@ -0,0 +1,207 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A binary heap that, unlike BinHeap, supports a decrease-key operation. Elements may be associated with a
+ * non-negative integer index (typically a vertex index) and at most one element per index is held in the queue.
+ * Inserting an element for an index that is already in the queue replaces the queued element and moves it to its new
+ * position, rather than leaving a stale copy in the queue to be discarded when it is extracted.
+ *
+ * Elements may also be inserted without an index, in which case they behave exactly as in BinHeap. This allows mixing
+ * in a few elements that do not fit the single-element-per-index model (e.g. states arriving at a vertex through a
+ * turn-restricted edge).
+ *
+ * The position of each index in the heap is tracked in an array indexed by that index, so this is only suitable when
+ * indexes are dense. The array grows as needed.
+ */
+public class IndexedBinHeap<T> {
+
+    private static final double GROW_FACTOR = 2.0;
+
+    /** Index value for elements that were inserted without an index. */
+    public static final int NO_INDEX = -1;
+
+    private double[] prio;
+    private T[] elem;
+    /** The index associated with the element at each heap position, or NO_INDEX. */
+    private int[] indexes;
+    /** For each index, its position in the heap, or 0 if it is not in the heap (the heap is 1-based). */
+    private int[] positions;
+    private int size;
+    private int capacity;
+
+    public IndexedBinHeap() {
+        this(1000, 1000);
+    }
+
+    /**
+     * @param capacity the initial number of elements the heap can hold without resizing.
+     * @param maxIndex the initial size of the table of positions, which should be one more than the highest index.
+     */
+    @SuppressWarnings("unchecked")
+    public IndexedBinHeap(int capacity, int maxIndex) {
+        if (capacity < 10) capacity = 10;
+        this.capacity = capacity;
+        elem = (T[]) new Object[capacity + 1];
+        prio = new double[capacity + 1];
+        indexes = new int[capacity + 1];
+        positions = new int[Math.max(maxIndex, 10)];
+        size = 0;
+        prio[0] = Double.NEGATIVE_INFINITY; // set sentinel
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[1];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    public T peek_min() {
+        if (size > 0)
+            return elem[1];
+        else
+            return null;
+    }
+
+    /** @return the index of the minimum element, which is NO_INDEX if it was inserted without one. */
+    public int peek_min_index() {
+        if (size > 0)
+            return indexes[1];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum element.");
+    }
+
+    /** @return true if an element with the given index is currently in the queue. */
+    public boolean contains(int index) {
+        return index >= 0 && index < positions.length && positions[index] != 0;
+    }
+
+    /** @return the key of the element queued under the given index, or positive infinity if there is none. */
+    public double key(int index) {
+        return contains(index) ? prio[positions[index]] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Insert an element that is not associated with any index. */
+    public void insert(T e, double p) {
+        size += 1;
+        if (size > capacity)
+            resize((int) (capacity * GROW_FACTOR));
+        siftUp(size, e, NO_INDEX, p);
+    }
+
+    /**
+     * If no element is queued under the given index, insert the element with the given key. Otherwise replace the
+     * queued element with the given one and move it according to the new key. The new key is normally lower (hence
+     * the name) but a higher key is also handled, which happens when elements are ordered on something other than
+     * the criterion used to decide that one replaces another.
+     */
+    public void insert_or_dec_key(int index, T e, double p) {
+        if (index < 0) {
+            insert(e, p);
+            return;
+        }
+        if (index >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(index + 1, (int) (positions.length * GROW_FACTOR)));
+        }
+        int i = positions[index];
+        if (i == 0) {
+            size += 1;
+            if (size > capacity)
+                resize((int) (capacity * GROW_FACTOR));
+            siftUp(size, e, index, p);
+        } else if (p > prio[i]) {
+            siftDown(i, e, index, p);
+        } else {
+            siftUp(i, e, index, p);
+        }
+    }
+
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[1];
+        int minIndex = indexes[1];
+        if (minIndex != NO_INDEX) positions[minIndex] = 0;
+        T lastElem = elem[size];
+        int lastIndex = indexes[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        size -= 1;
+        if (size > 0) {
+            siftDown(1, lastElem, lastIndex, lastPrio);
+        }
+        return minElem;
+    }
+
+    /** Empties the queue. This is proportional to the number of elements still in the queue. */
+    public void reset() {
+        for (int i = 1; i <= size; i++) {
+            if (indexes[i] != NO_INDEX) positions[indexes[i]] = 0;
+            elem[i] = null;
+        }
+        size = 0;
+    }
+
+    public void resize(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("IndexedBinHeap contains too many elements to fit in new capacity.");
+        this.capacity = capacity;
+        prio = Arrays.copyOf(prio, capacity + 1);
+        elem = Arrays.copyOf(elem, capacity + 1);
+        indexes = Arrays.copyOf(indexes, capacity + 1);
+    }
+
+    /** Place the given element at heap position i or above, moving parents down as necessary. */
+    private void siftUp(int i, T e, int index, double p) {
+        while (prio[i/2] > p) {
+            place(i, elem[i/2], indexes[i/2], prio[i/2]);
+            i /= 2;
+        }
+        place(i, e, index, p);
+    }
+
+    /** Place the given element at heap position i or below, moving children up as necessary. */
+    private void siftDown(int i, T e, int index, double p) {
+        while (i * 2 <= size) {
+            int child = i * 2;
+            if (child != size && prio[child + 1] < prio[child])
+                child++;
+            if (p > prio[child]) {
+                place(i, elem[child], indexes[child], prio[child]);
+                i = child;
+            } else break;
+        }
+        place(i, e, index, p);
+    }
+
+    private void place(int i, T e, int index, double p) {
+        elem[i] = e;
+        indexes[i] = index;
+        prio[i] = p;
+        if (index != NO_INDEX) positions[index] = i;
+    }
+
+}
@@ -0,0 +1,92 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How long each graph builder module took and how much heap it used, so that slow or memory-hungry stages of a build
+ * can be found. It is logged at the end of the build and saved as JSON next to the graph.
+ *
+ * Heap use is sampled periodically while the modules run and includes garbage not yet collected. Modules running at
+ * the same time share the heap, so each of them reports the peak of their combined use.
+ */
+public class BuildReport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BuildReport.class);
+
+    /** One entry per module, in the order the modules were added to the graph builder. */
+    public List<ModuleReport> modules = new ArrayList<>();
+
+    /** Whether independent modules were allowed to run concurrently. */
+    public boolean parallel;
+
+    /** The wall time of the whole build in milliseconds, which is less than the sum of the modules when they overlap. */
+    public long totalMillis;
+
+    /** The highest heap use sampled during the whole build, in bytes. */
+    public long peakHeapBytes;
+
+    public static class ModuleReport {
+
+        /** The class name of the module. */
+        public String module;
+
+        /** The positions of the modules this one had to wait for. */
+        public List<Integer> waitedFor;
+
+        /** When the module started, in milliseconds since the start of the build. */
+        public long startMillis;
+
+        public long wallMillis;
+
+        public long peakHeapBytes;
+
+        /** Whether the module ran to completion. */
+        public boolean completed;
+
+        synchronized void sampleHeap(long usedBytes) {
+            peakHeapBytes = Math.max(peakHeapBytes, usedBytes);
+        }
+    }
+
+    public void log() {
+        LOG.info("Graph builder modules ({}):", parallel ? "concurrent where possible" : "sequential");
+        for (ModuleReport report : modules) {
+            LOG.info(String.format("  %-40s start %8.1fs  took %8.1fs  peak heap %6d MB%s", report.module,
+                    report.startMillis / 1000.0, report.wallMillis / 1000.0, report.peakHeapBytes / 1024 / 1024,
+                    report.completed ? "" : "  (not completed)"));
+        }
+        LOG.info(String.format("Graph builder modules took %.1fs in total, peak heap %d MB", totalMillis / 1000.0,
+                peakHeapBytes / 1024 / 1024));
+    }
+
+    /** Save the report as JSON. Failing to do so does not fail the build. */
+    public void save(File file) {
+        try {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, this);
+            LOG.info("Saved graph build report to {}", file);
+        } catch (IOException e) {
+            LOG.warn("Could not save graph build report to {}", file, e);
+        }
+    }
+
+}
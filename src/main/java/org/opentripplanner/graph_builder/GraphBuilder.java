@@ -16,6 +16,7 @@ package org.opentripplanner.graph_builder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
@@ -49,14 +50,14 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
  * This makes a Graph out of various inputs like GTFS and OSM.
- * It is modular: GraphBuilderModules are placed in a list and run in sequence.
+ * It is modular: GraphBuilderModules are placed in a list and run in sequence, or concurrently where their declared
+ * prerequisites allow it (see GraphBuilderScheduler).
  */
 public class GraphBuilder implements Runnable {
     
@@ -64,6 +65,9 @@ public class GraphBuilder implements Runnable {
 
     public static final String BUILDER_CONFIG_FILENAME = "build-config.json";
 
+    /** The name of the file saved next to the graph that reports the time and memory taken by each module. */
+    public static final String BUILD_REPORT_FILENAME = "build-report.json";
+
     private List<GraphBuilderModule> _graphBuilderModules = new ArrayList<GraphBuilderModule>();
 
     private File graphFile;
@@ -82,6 +86,12 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** Should the graph be saved as a sectioned graph file rather than a single Java serialization stream? */
+    public boolean sectionedGraphFile = false;
+
+    /** Should independent modules run concurrently rather than strictly in the order they were added? */
+    public boolean parallelModules = false;
+
     public void addModule(GraphBuilderModule loader) {
         _graphBuilderModules.add(loader);
     }
@@ -103,6 +113,11 @@ public class GraphBuilder implements Runnable {
         }
     }
 
+    /** Build on top of the given graph rather than an empty one. */
+    public void setBaseGraph(Graph baseGraph) {
+        this.graph = baseGraph;
+    }
+
     public void addMode(RoutingRequest mo) {
         _modeList.add(mo);
     }
@@ -155,17 +170,17 @@ public class GraphBuilder implements Runnable {
             builder.checkInputs();
         }
         
-        HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilderModule load : _graphBuilderModules)
-            load.buildGraph(graph, extra);
+        BuildReport report = new GraphBuilderScheduler(_graphBuilderModules).run(graph, parallelModules);
+        report.log();
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                graph.save(graphFile, sectionedGraphFile);
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
+            report.save(new File(graphFile.getParentFile(), BUILD_REPORT_FILENAME));
         } else {
             LOG.info("Not saving graph to disk, as requested.");
         }
@@ -202,6 +217,8 @@ public class GraphBuilder implements Runnable {
         // Load the router config JSON to fail fast, but we will only apply it later when a router starts up
         graphBuilder.routerConfig = OTPMain.loadJson(new File(dir, Router.ROUTER_CONFIG_FILENAME));
         LOG.info(ReflectionLibrary.dumpFields(builderParams));
+        graphBuilder.sectionedGraphFile = builderParams.sectionedGraphFile;
+        graphBuilder.parallelModules = builderParams.parallelModules;
         for (File file : dir.listFiles()) {
             switch (InputFileType.forFile(file)) {
                 case GTFS:
@@ -230,7 +247,28 @@ public class GraphBuilder implements Runnable {
             LOG.error("Found no input files from which to build a graph in {}", dir);
             return null;
         }
-        if ( hasOSM ) {
+        // When the street graph is cached, reuse it if the street inputs are unchanged, or build it first and save it
+        // before adding transit. Elevation is then applied before linking rather than after, which gives the same
+        // result as linking splits street edges into edges without elevation.
+        StreetGraphCache streetGraphCache = null;
+        boolean reuseStreets = false;
+        if (builderParams.streetGraphCache && hasOSM) {
+            List<File> streetInputs = Lists.newArrayList(osmFiles);
+            if (demFile != null) streetInputs.add(demFile);
+            try {
+                streetGraphCache = new StreetGraphCache(new File(params.cacheDirectory, "streets"), streetInputs,
+                        builderConfig);
+                Graph streetGraph = streetGraphCache.load();
+                if (streetGraph != null) {
+                    graphBuilder.setBaseGraph(streetGraph);
+                    reuseStreets = true;
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not hash street graph inputs, not caching the street graph.", e);
+                streetGraphCache = null;
+            }
+        }
+        if ( hasOSM && !reuseStreets ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
                 OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
@@ -247,8 +285,14 @@ public class GraphBuilder implements Runnable {
             osmModule.staticBikeRental = builderParams.staticBikeRental;
             osmModule.staticBikeParkAndRide = builderParams.staticBikeParkAndRide;
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
+            osmModule.nodeStore = builderParams.osmNodeStore;
             graphBuilder.addModule(osmModule);
             graphBuilder.addModule(new PruneFloatingIslands());
+            if (streetGraphCache != null) {
+                GraphBuilderModule elevationBuilder = elevationModule(builderParams, params, demFile);
+                if (elevationBuilder != null) graphBuilder.addModule(elevationBuilder);
+                graphBuilder.addModule(streetGraphCache.saveModule());
+            }
         }
         if ( hasGTFS ) {
             List<GtfsBundle> gtfsBundles = Lists.newArrayList();
@@ -275,8 +319,34 @@ public class GraphBuilder implements Runnable {
         // This module is outside the hasGTFS conditional block because it also links things like bike rental
         // which need to be handled even when there's no transit.
         graphBuilder.addModule(new StreetLinkerModule());
-        // Load elevation data and apply it to the streets.
+        // Load elevation data and apply it to the streets, unless that was done while building the cached street graph.
         // We want to do run this module after loading the OSM street network but before finding transfers.
+        if (streetGraphCache == null) {
+            GraphBuilderModule elevationBuilder = elevationModule(builderParams, params, demFile);
+            if (elevationBuilder != null) graphBuilder.addModule(elevationBuilder);
+        }
+        if ( hasGTFS ) {
+            // The stops can be linked to each other once they are already linked to the street network.
+            if ( ! builderParams.useTransfersTxt) {
+                // This module will use streets or straight line distance depending on whether OSM data is found in the graph.
+                graphBuilder.addModule(new DirectTransferGenerator());
+            }
+        }
+        if (builderParams.contractionHierarchies && hasOSM) {
+            // The street network must be complete, including the splits made when linking transit stops.
+            graphBuilder.addModule(new ContractionHierarchyModule());
+        }
+        graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
+        if (builderParams.htmlAnnotations) {
+            graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
+        }
+        graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        return graphBuilder;
+    }
+
+    /** @return the module applying elevation from the configured source, or null if there is none. */
+    private static GraphBuilderModule elevationModule(GraphBuilderParameters builderParams,
+            CommandLineParameters params, File demFile) {
         if (builderParams.elevationBucket != null) {
             // Download the elevation tiles from an Amazon S3 bucket
             S3BucketConfig bucketConfig = builderParams.elevationBucket;
@@ -288,33 +358,18 @@ public class GraphBuilder implements Runnable {
             awsTileSource.awsBucketName = bucketConfig.bucketName;
             NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
             gcf.tileSource = awsTileSource;
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
+            return new ElevationModule(gcf);
         } else if (builderParams.fetchElevationUS) {
             // Download the elevation tiles from the official web service
             File cacheDirectory = new File(params.cacheDirectory, "ned");
             ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
+            return new ElevationModule(gcf);
         } else if (demFile != null) {
             // Load the elevation from a file in the graph inputs directory
             ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
-        }
-        if ( hasGTFS ) {
-            // The stops can be linked to each other once they are already linked to the street network.
-            if ( ! builderParams.useTransfersTxt) {
-                // This module will use streets or straight line distance depending on whether OSM data is found in the graph.
-                graphBuilder.addModule(new DirectTransferGenerator());
-            }
-        }
-        graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
-        if (builderParams.htmlAnnotations) {
-            graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
+            return new ElevationModule(gcf);
         }
-        graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
-        return graphBuilder;
+        return null;
     }
 
     /**
@@ -338,7 +393,7 @@ public class GraphBuilder implements Runnable {
             if (name.endsWith(".osm")) return OSM;
             if (name.endsWith(".osm.xml")) return OSM;
             if (name.endsWith(".tif") || name.endsWith(".tiff")) return DEM; // Digital elevation model (elevation raster)
-            if (name.equals("Graph.obj")) return GRAPH;
+            if (name.equals("Graph.obj") || name.equals(BUILD_REPORT_FILENAME)) return GRAPH;
             if (name.equals(GraphBuilder.BUILDER_CONFIG_FILENAME) || name.equals(Router.ROUTER_CONFIG_FILENAME)) {
                 return CONFIG;
             }
@@ -0,0 +1,248 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a list of graph builder modules, either one after the other in list order or concurrently where the parts of
+ * the graph they declare (see GraphBuilderModule.provides and getPrerequisites) show that they do not interfere.
+ *
+ * A module waits for every earlier module that provides one of its prerequisites, that needs something it provides,
+ * or that provides the same thing. A module that provides nothing is assumed to touch the whole graph and waits for
+ * all earlier modules, and all later modules wait for it. So the graph is the same as if the modules ran in list
+ * order, as far as the declarations are accurate, except for the order in which vertices are created: when modules
+ * run concurrently, vertex indexes depend on how their work interleaves and are not reproducible from run to run. This
+ * means a StopTreeCache saved for one build does not match its fingerprint against another build.
+ *
+ * Concurrent modules share the graph, so anything they both write must be thread safe, such as the vertex map, the
+ * services and annotations, and the graph envelope that both OSM loading and transit stop creation update.
+ */
+public class GraphBuilderScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphBuilderScheduler.class);
+
+    /** How often to sample heap use while modules run. */
+    private static final long HEAP_SAMPLE_MILLIS = 100;
+
+    private final List<GraphBuilderModule> modules;
+
+    /* For each module, the positions of the earlier modules it must wait for. */
+    private final List<List<Integer>> dependencies = new ArrayList<>();
+
+    public GraphBuilderScheduler(List<GraphBuilderModule> modules) {
+        this.modules = modules;
+        for (int later = 0; later < modules.size(); later++) {
+            List<Integer> waitFor = new ArrayList<>();
+            for (int earlier = 0; earlier < later; earlier++) {
+                if (mustFollow(modules.get(earlier), modules.get(later))) waitFor.add(earlier);
+            }
+            dependencies.add(waitFor);
+        }
+    }
+
+    /** @return whether the later module must wait for the earlier one to finish. */
+    static boolean mustFollow(GraphBuilderModule earlier, GraphBuilderModule later) {
+        List<String> earlierProvides = earlier.provides();
+        List<String> laterProvides = later.provides();
+        if (earlierProvides.isEmpty() || laterProvides.isEmpty()) return true;
+        return !Collections.disjoint(earlierProvides, later.getPrerequisites())
+                || !Collections.disjoint(earlier.getPrerequisites(), laterProvides)
+                || !Collections.disjoint(earlierProvides, laterProvides);
+    }
+
+    /** @return the positions of the earlier modules the given module must wait for. */
+    public List<Integer> getDependencies(int module) {
+        return dependencies.get(module);
+    }
+
+    /**
+     * Build the graph with all the modules, starting each one as soon as the modules it waits for are finished when
+     * parallel is true. If a module fails, no further modules are started, and the first failure is rethrown once
+     * the running modules have finished.
+     */
+    public BuildReport run(Graph graph, boolean parallel) {
+        BuildReport report = new BuildReport();
+        report.parallel = parallel;
+        for (int m = 0; m < modules.size(); m++) {
+            BuildReport.ModuleReport moduleReport = new BuildReport.ModuleReport();
+            moduleReport.module = modules.get(m).getClass().getSimpleName();
+            moduleReport.waitedFor = dependencies.get(m);
+            report.modules.add(moduleReport);
+        }
+        Set<BuildReport.ModuleReport> running = ConcurrentHashMap.newKeySet();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("graph-builder-heap-sampler").setDaemon(true).build());
+        long startTime = System.currentTimeMillis();
+        sampler.scheduleAtFixedRate(() -> {
+            long used = usedHeap();
+            for (BuildReport.ModuleReport moduleReport : running) moduleReport.sampleHeap(used);
+            synchronized (report) {
+                report.peakHeapBytes = Math.max(report.peakHeapBytes, used);
+            }
+        }, 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            if (parallel) {
+                runConcurrently(graph, report, running, startTime);
+            } else {
+                HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
+                for (int m = 0; m < modules.size(); m++) {
+                    runModule(m, graph, extra, report, running, startTime);
+                }
+            }
+        } finally {
+            sampler.shutdownNow();
+            report.totalMillis = System.currentTimeMillis() - startTime;
+        }
+        return report;
+    }
+
+    private void runConcurrently(Graph graph, BuildReport report, Set<BuildReport.ModuleReport> running,
+            long startTime) {
+        int nModules = modules.size();
+        List<List<Integer>> dependents = new ArrayList<>();
+        int[] nWaitingFor = new int[nModules];
+        for (int m = 0; m < nModules; m++) {
+            dependents.add(new ArrayList<>());
+            nWaitingFor[m] = dependencies.get(m).size();
+        }
+        for (int m = 0; m < nModules; m++) {
+            for (int d : dependencies.get(m)) dependents.get(d).add(m);
+        }
+
+        // Every module gets a thread when it starts, so the number of modules running at once is only limited by
+        // their dependencies.
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(nModules, 1),
+                new ThreadFactoryBuilder().setNameFormat("graph-builder-%d").setDaemon(true).build());
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+        HashMap<Class<?>, Object> extra = new SynchronizedHashMap<Class<?>, Object>();
+        int nRunning = 0;
+        Throwable failure = null;
+        try {
+            for (int m = 0; m < nModules; m++) {
+                if (nWaitingFor[m] == 0) {
+                    submit(completion, m, graph, extra, report, running, startTime);
+                    nRunning++;
+                }
+            }
+            while (nRunning > 0) {
+                int finished;
+                try {
+                    finished = completion.take().get();
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    nRunning--;
+                    continue;
+                }
+                nRunning--;
+                for (int d : dependents.get(finished)) {
+                    if (--nWaitingFor[d] == 0 && failure == null) {
+                        submit(completion, d, graph, extra, report, running, startTime);
+                        nRunning++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building graph", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException(failure);
+    }
+
+    private void submit(CompletionService<Integer> completion, int module, Graph graph,
+            HashMap<Class<?>, Object> extra, BuildReport report, Set<BuildReport.ModuleReport> running,
+            long startTime) {
+        completion.submit(() -> {
+            runModule(module, graph, extra, report, running, startTime);
+            return module;
+        });
+    }
+
+    private void runModule(int module, Graph graph, HashMap<Class<?>, Object> extra, BuildReport report,
+            Set<BuildReport.ModuleReport> running, long startTime) {
+        BuildReport.ModuleReport moduleReport = report.modules.get(module);
+        long moduleStart = System.currentTimeMillis();
+        moduleReport.startMillis = moduleStart - startTime;
+        moduleReport.sampleHeap(usedHeap());
+        running.add(moduleReport);
+        LOG.info("Running graph builder module {}", moduleReport.module);
+        try {
+            modules.get(module).buildGraph(graph, extra);
+            moduleReport.completed = true;
+        } finally {
+            running.remove(moduleReport);
+            moduleReport.sampleHeap(usedHeap());
+            moduleReport.wallMillis = System.currentTimeMillis() - moduleStart;
+        }
+        LOG.info("Graph builder module {} took {} ms", moduleReport.module, moduleReport.wallMillis);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The map of extra objects modules hand on to later modules, made safe for modules running at the same time.
+     * Modules only use it to put and get entries.
+     */
+    private static class SynchronizedHashMap<K, V> extends HashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized V get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized V put(K key, V value) {
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return super.containsKey(key);
+        }
+
+        @Override
+        public synchronized V remove(Object key) {
+            return super.remove(key);
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A street-only graph (OSM streets with island pruning and elevation applied) saved by an earlier build, so that a
+ * build whose street inputs have not changed can load it and only add transit, which takes minutes rather than
+ * hours on large regions.
+ *
+ * Cached graphs are keyed on a hash of the content of the street input files (OSM and DEM), the build configuration
+ * and the OTP version, so they are reused automatically when those are unchanged and ignored otherwise. Only the
+ * most recent street graph is kept in the cache directory.
+ */
+public class StreetGraphCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetGraphCache.class);
+
+    private static final String PREFIX = "streets-";
+
+    private static final String SUFFIX = ".graph";
+
+    private final File directory;
+
+    /** The hex hash of the inputs identifying the street graph. */
+    public final String key;
+
+    /**
+     * @param directory where to keep the cached street graph
+     * @param inputs the files the street graph is built from
+     * @param builderConfig the build configuration, which affects how the streets are built
+     */
+    public StreetGraphCache(File directory, List<File> inputs, JsonNode builderConfig) throws IOException {
+        this.directory = directory;
+        this.key = computeKey(inputs, builderConfig);
+    }
+
+    /** @return a hash of the names and content of the given files in any order, the config and the OTP version. */
+    static String computeKey(List<File> inputs, JsonNode builderConfig) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<File> sorted = new ArrayList<>(inputs);
+        sorted.sort(Comparator.comparing(File::getName));
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(MavenVersion.VERSION.version, Charsets.UTF_8);
+        hasher.putString(MavenVersion.VERSION.commit, Charsets.UTF_8);
+        hasher.putString(builderConfig == null ? "" : builderConfig.toString(), Charsets.UTF_8);
+        for (File input : sorted) {
+            hasher.putString(input.getName(), Charsets.UTF_8);
+            hasher.putBytes(com.google.common.io.Files.asByteSource(input).hash(Hashing.sha1()).asBytes());
+        }
+        String key = hasher.hash().toString();
+        LOG.info("Hashed street graph inputs in {} ms: {}", System.currentTimeMillis() - startTime, key);
+        return key;
+    }
+
+    public File getFile() {
+        return new File(directory, PREFIX + key + SUFFIX);
+    }
+
+    /**
+     * @return the street graph cached for these inputs, or null if there is none. A file that cannot be read, for
+     * instance because it was saved by another version of OTP, is deleted.
+     */
+    public Graph load() {
+        File file = getFile();
+        if (!file.exists()) {
+            LOG.info("No cached street graph for these inputs, building the streets.");
+            return null;
+        }
+        try {
+            Graph graph = Graph.load(file, LoadLevel.DEBUG);
+            // The indexes made on loading only know about the streets. The modules adding transit rebuild them when
+            // they are missing.
+            graph.index = null;
+            graph.streetIndex = null;
+            LOG.info("Reusing cached street graph {}", file);
+            return graph;
+        } catch (Exception e) {
+            LOG.warn("Could not load cached street graph {}, building the streets.", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * @return a module that saves the graph as it is when the module runs, which should be just after the street
+     * modules and before any transit is added. Failing to save is logged and does not fail the build.
+     */
+    public GraphBuilderModule saveModule() {
+        return new SaveModule();
+    }
+
+    /* A named class rather than an anonymous one, so that it shows up in the build report. */
+    private class SaveModule implements GraphBuilderModule {
+
+        @Override
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            save(graph);
+        }
+
+        @Override
+        public void checkInputs() {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new RuntimeException("Cannot create street graph cache directory " + directory);
+            }
+        }
+
+    }
+
+    private void save(Graph graph) {
+        File file = getFile();
+        File tempFile = null;
+        try {
+            // Write to a temporary file and move it into place, so that a build that fails or is interrupted while
+            // saving never leaves a partial graph under the name of the complete one.
+            tempFile = File.createTempFile(PREFIX, ".tmp", directory);
+            graph.save(tempFile, true);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Saved street graph to {} ({} bytes)", file, file.length());
+        } catch (Exception e) {
+            LOG.warn("Unable to save street graph to {}", file, e);
+            if (tempFile != null) tempFile.delete();
+            return;
+        }
+        // Street graphs are large, and ones for older inputs are unlikely to be used again.
+        File[] cached = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (cached == null) return;
+        for (File old : cached) {
+            if (!old.equals(file) && old.delete()) {
+                LOG.info("Deleted outdated street graph {}", old);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.StreetProfile;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Build contraction hierarchies of the street network for fixed-weight street profiles, which are saved with the
+ * graph and used to answer car and bicycle requests without transit. This must run after every module that changes
+ * the street network, including the linking of transit stops, which splits street edges.
+ */
+public class ContractionHierarchyModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyModule.class);
+
+    private final List<StreetProfile> profiles;
+
+    public ContractionHierarchyModule() {
+        this(Arrays.asList(StreetProfile.values()));
+    }
+
+    public ContractionHierarchyModule(List<StreetProfile> profiles) {
+        this.profiles = profiles;
+    }
+
+    public List<String> provides() {
+        return Collections.emptyList();
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        graph.contractionHierarchies = new EnumMap<>(StreetProfile.class);
+        for (StreetProfile profile : profiles) {
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, profile);
+            LOG.info("Contraction hierarchy for {} has {} nodes and {} shortcuts.", profile,
+                    hierarchy.countNodes(), hierarchy.countShortcuts());
+            graph.contractionHierarchies.put(profile, hierarchy);
+        }
+    }
+
+    @Override
+    public void checkInputs() {
+        // no inputs
+    }
+
+}
@@ -51,7 +51,8 @@ public class DirectTransferGenerator implements GraphBuilderModule {
     }
 
     public List<String> getPrerequisites() {
-        return Arrays.asList("street to transit");
+        // Walking costs depend on the slope of the streets, so the transfers found depend on elevation data if any.
+        return Arrays.asList("street to transit", "elevation");
     }
 
     @Override
@@ -14,7 +14,6 @@
 package org.opentripplanner.graph_builder.module;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -56,7 +55,7 @@ public class PruneFloatingIslands implements GraphBuilderModule {
     private StreetLinkerModule transitToStreetNetwork;
 
     public List<String> provides() {
-        return Collections.emptyList();
+        return Arrays.asList("streets");
     }
 
     public List<String> getPrerequisites() {
@@ -34,13 +34,14 @@ public class StreetLinkerModule implements GraphBuilderModule {
     private static final Logger LOG = LoggerFactory.getLogger(StreetLinkerModule.class);
 
     public List<String> provides() {
-        return Arrays.asList("street to transit", "linking");
+        // Linking splits street edges.
+        return Arrays.asList("street to transit", "linking", "streets");
     }
 
     public List<String> getPrerequisites() {
-        return Arrays.asList("streets"); // don't include transit, because we also link P+Rs and bike rental stations,
-        // which you could have without transit. However, if you have transit, this module should be run after it
-        // is loaded.
+        // Transit is only waited for when it is present: we also link P+Rs and bike rental stations, which you could
+        // have without transit.
+        return Arrays.asList("streets", "transit");
     }
 
     @Override
@@ -45,7 +45,7 @@ public class TransitToTaggedStopsModule implements GraphBuilderModule {
     }
 
     public List<String> getPrerequisites() {
-        return Arrays.asList("streets"); // why not "transit" ?
+        return Arrays.asList("streets", "transit");
     }
 
     @Override
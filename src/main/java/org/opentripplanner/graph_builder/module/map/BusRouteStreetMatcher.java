@@ -44,7 +44,8 @@ public class BusRouteStreetMatcher implements GraphBuilderModule {
     private static final Logger log = LoggerFactory.getLogger(BusRouteStreetMatcher.class);
 
     public List<String> provides() {
-        return Arrays.asList("edge matching");
+        // The matched street geometries are stored on the transit hops.
+        return Arrays.asList("edge matching", "transit");
     }
 
     public List<String> getPrerequisites() {
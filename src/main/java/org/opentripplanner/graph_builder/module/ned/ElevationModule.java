@@ -42,6 +42,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -52,6 +55,9 @@ import java.util.List;
  * where each (x,y) pair represents one sample, with the x-coord representing the distance along
  * the edge measured from the start, and the y-coord representing the sampled elevation at that
  * point (both in meters).
+ *
+ * Profiles are sampled from several threads when the coverage allows it, then assigned to the edges in the order of
+ * the graph's vertices, so the result does not depend on thread scheduling.
  */
 public class ElevationModule implements GraphBuilderModule {
 
@@ -59,11 +65,9 @@ public class ElevationModule implements GraphBuilderModule {
 
     private ElevationGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
-
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private final LongAdder nPointsEvaluated = new LongAdder();
+    private final LongAdder nPointsOutsideDEM = new LongAdder();
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -71,6 +75,14 @@ public class ElevationModule implements GraphBuilderModule {
      */
     private double distanceBetweenSamplesM = 10;
 
+    private boolean sampleInParallel = true;
+
+    /**
+     * GeoTIFF rasters no larger than this many bytes are copied into memory so that they can be sampled in parallel.
+     * Defaults to a quarter of the maximum heap size.
+     */
+    private long maxInMemoryBytes = Runtime.getRuntime().maxMemory() / 4;
+
     public ElevationModule() { /* This makes me a "bean" */ };
     
     public ElevationModule(ElevationGridCoverageFactory factory) {
@@ -93,42 +105,92 @@ public class ElevationModule implements GraphBuilderModule {
         distanceBetweenSamplesM = distance;
     }
 
+    /**
+     * Sample the edges from several threads when the coverage allows it (the default), or from the calling thread only.
+     * The profiles are the same either way.
+     */
+    public void setSampleInParallel(boolean sampleInParallel) {
+        this.sampleInParallel = sampleInParallel;
+    }
+
+    /**
+     * Set the size in bytes of the largest GeoTIFF raster that will be copied into memory. Larger rasters are read
+     * lazily from the file and sampled from the calling thread only.
+     */
+    public void setMaxInMemoryBytes(long maxInMemoryBytes) {
+        this.maxInMemoryBytes = maxInMemoryBytes;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
         Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
-        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
-        // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
-        // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Interpolators are not thread-safe and GeoTIFF
+        // coverages read their pixels lazily from the file, so a raster small enough is loaded into memory once and
+        // each thread gets its own interpolator over it. A larger raster is read lazily through a single interpolator
+        // and sampled sequentially. UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle interpolation
+        // internally and can be shared between threads. Any other coverage is sampled sequentially.
+        final ThreadLocal<Coverage> coverages;
+        boolean parallel = sampleInParallel;
+        if (gridCov instanceof GridCoverage2D) {
+            GridCoverage2D gridCov2D = (GridCoverage2D) gridCov;
+            long rasterBytes = GeotiffGridCoverageFactoryImpl.getRasterBytes(gridCov2D);
+            // TODO might bicubic interpolation give better results?
+            if (parallel && rasterBytes <= maxInMemoryBytes) {
+                log.info("Copying {} MB elevation raster into memory to sample it in parallel.", rasterBytes >> 20);
+                GridCoverage2D inMemory = GeotiffGridCoverageFactoryImpl.loadIntoMemory(gridCov2D);
+                coverages = ThreadLocal.withInitial(() -> Interpolator2D.create(inMemory, new InterpolationBilinear()));
+            } else {
+                log.info("Reading {} MB elevation raster from file as needed and sampling it sequentially.",
+                        rasterBytes >> 20);
+                Coverage interpolator = Interpolator2D.create(gridCov2D, new InterpolationBilinear());
+                coverages = ThreadLocal.withInitial(() -> interpolator);
+                parallel = false;
+            }
+        } else {
+            coverages = ThreadLocal.withInitial(() -> gridCov);
+            parallel &= gridCov instanceof UnifiedGridCoverage;
+        }
         log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
-                    }
+                    edges.add((StreetWithElevationEdge) ee);
                 }
             }
         }
+        PackedCoordinateSequence[] profiles = new PackedCoordinateSequence[edges.size()];
+        AtomicInteger nProcessed = new AtomicInteger();
+        IntStream range = IntStream.range(0, edges.size());
+        (parallel ? range.parallel() : range).forEach(i -> {
+            profiles[i] = computeProfile(coverages.get(), edges.get(i));
+            int n = nProcessed.incrementAndGet();
+            if (n % 50000 == 0) {
+                log.info("set elevation on {}/{} edges", n, edges.size());
+                long outside = nPointsOutsideDEM.sum();
+                long evaluated = nPointsEvaluated.sum();
+                double failurePercentage = outside * 100.0 / evaluated;
+                if (failurePercentage > 50) {
+                    log.warn("Fetching elevation failed at {}/{} points ({}%)", outside, evaluated, failurePercentage);
+                    log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                            "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
+                }
+            }
+        });
+
+        // Assign the profiles one edge at a time, in the order the edges were found.
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (int i = 0; i < profiles.length; i++) {
+            StreetWithElevationEdge edgeWithElevation = edges.get(i);
+            if (profiles[i] != null && edgeWithElevation.setElevationProfile(profiles[i], false)) {
+                log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edgeWithElevation)));
+            }
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
+        }
 
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
@@ -331,14 +393,16 @@ public class ElevationModule implements GraphBuilderModule {
     }
 
     /**
-     * Processes a single street edge, creating and assigning the elevation profile.
+     * Samples the elevation profile of a single street edge, without assigning it. This may be called from several
+     * threads at once, each with its own coverage.
      * 
+     * @param coverage the coverage to sample, used only by the calling thread
      * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @return the elevation profile, or null if the edge already has one
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
+    private PackedCoordinateSequence computeProfile(Coverage coverage, StreetWithElevationEdge ee) {
         if (ee.getElevationProfile() != null) {
-            return; /* already set up */
+            return null; /* already set up */
         }
         Geometry g = ee.getGeometry();
         Coordinate[] coords = g.getCoordinates();
@@ -353,7 +417,7 @@ public class ElevationModule implements GraphBuilderModule {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, getElevation(coverage, coords[0])));
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -363,20 +427,15 @@ public class ElevationModule implements GraphBuilderModule {
             }
 
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, getElevation(coverage, internal)));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        coordList.add(new Coordinate(edgeLenM, getElevation(coverage, coords[coords.length - 1])));
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
-
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return new PackedCoordinateSequence.Double(coordList.toArray(coordArr));
     }
 
     /**
@@ -427,21 +486,23 @@ public class ElevationModule implements GraphBuilderModule {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      * 
+     * @param coverage the coverage to sample
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
+    private double getElevation(Coverage coverage, Coordinate c) {
+        return getElevation(coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
+     * @param coverage the coverage to sample
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(double x, double y) {
+    private double getElevation(Coverage coverage, double x, double y) {
         double values[] = new double[1];
         try {
             // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
@@ -451,9 +512,9 @@ public class ElevationModule implements GraphBuilderModule {
             // rasters to also use (long, lat).
             coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.increment();
         }
-        nPointsEvaluated += 1;
+        nPointsEvaluated.increment();
         return values[0];
     }
 
@@ -14,6 +14,7 @@
 package org.opentripplanner.graph_builder.module.ned;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.factory.Hints;
 import org.geotools.gce.geotiff.GeoTiffFormat;
 import org.geotools.gce.geotiff.GeoTiffReader;
@@ -22,6 +23,9 @@ import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.media.jai.TiledImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.io.File;
 import java.io.IOException;
 
@@ -57,6 +61,36 @@ public class GeotiffGridCoverageFactoryImpl implements ElevationGridCoverageFact
         return coverage;
     }
 
+    /** @return the number of bytes needed to hold all the pixels of the given coverage in memory. */
+    public static long getRasterBytes(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        SampleModel sampleModel = image.getSampleModel();
+        long bitsPerPixel = 0;
+        for (int size : sampleModel.getSampleSize()) bitsPerPixel += size;
+        return (long) image.getWidth() * image.getHeight() * bitsPerPixel / 8;
+    }
+
+    /**
+     * @return a copy of the given coverage with all its pixels held in memory. GeoTIFF coverages read their pixels
+     * from the file as they are needed, which is slow when sampling many points and is not safe from several threads.
+     * The pixels of the copy can be read from any number of threads at once.
+     */
+    public static GridCoverage2D loadIntoMemory(GridCoverage2D coverage) {
+        RenderedImage image = coverage.getRenderedImage();
+        TiledImage copy = new TiledImage(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight(),
+                image.getTileGridXOffset(), image.getTileGridYOffset(), image.getSampleModel(), image.getColorModel());
+        // Copy one tile at a time, rather than the whole raster from getData() which would briefly hold a second full
+        // copy of the pixels. The copy has the same tile grid, so each source tile fills exactly one tile of the copy.
+        // Unlike the TiledImage constructor taking a source image, this does not defer copying.
+        for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+            for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++) {
+                copy.setData(image.getTile(tx, ty));
+            }
+        }
+        return new GridCoverageFactory().create(coverage.getName(), copy, coverage.getGridGeometry(),
+                coverage.getSampleDimensions(), null, coverage.getProperties());
+    }
+
     @Override
     public void checkInputs() {
         if (!path.canRead()) {
@@ -13,9 +13,10 @@
 
 package org.opentripplanner.graph_builder.module.ned;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.Interpolator2D;
 import org.opengis.coverage.Coverage;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
 import org.opentripplanner.graph_builder.services.ned.NEDTileSource;
@@ -23,7 +24,6 @@ import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.media.jai.InterpolationBilinear;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -32,6 +32,7 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -42,6 +43,13 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
 
     private static final Logger LOG = LoggerFactory.getLogger(NEDGridCoverageFactoryImpl.class);
 
+    /**
+     * NED tiles already loaded into memory, keyed on their path and modification time, so that building several graphs
+     * over the same area in one JVM reads each tile only once. Soft values let the tiles be dropped under memory
+     * pressure.
+     */
+    private static final Cache<String, GridCoverage2D> tileCache = CacheBuilder.newBuilder().softValues().build();
+
     private Graph graph;
 
     /** All tiles for the DEM stitched into a single coverage. */
@@ -122,11 +130,9 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
             tileSource.setCacheDirectory(cacheDirectory);
             List<File> paths = tileSource.getNEDTiles();
             // Make one grid coverage for each NED tile, adding them all to a single UnifiedGridCoverage.
+            // The unified coverage interpolates within each tile, separately for each thread.
             for (File path : paths) {
-                GeotiffGridCoverageFactoryImpl factory = new GeotiffGridCoverageFactoryImpl(path);
-                // TODO might bicubic interpolation give better results?
-                GridCoverage2D regionCoverage = Interpolator2D.create(factory.getGridCoverage(),
-                        new InterpolationBilinear());
+                GridCoverage2D regionCoverage = getTile(path);
                 if (unifiedCoverage == null) {
                     unifiedCoverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
                 } else {
@@ -137,6 +143,17 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
         return unifiedCoverage;
     }
 
+    /** @return the coverage of the NED tile in the given file with its pixels held in memory, from the cache if possible. */
+    private static GridCoverage2D getTile(File path) {
+        String key = path.getAbsolutePath() + ":" + path.lastModified();
+        try {
+            return tileCache.get(key, () -> GeotiffGridCoverageFactoryImpl.loadIntoMemory(
+                    new GeotiffGridCoverageFactoryImpl(path).getGridCoverage()));
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error loading NED tile " + path, e.getCause());
+        }
+    }
+
     /**
      * Grab the rather voluminous vertical datum files from the OTP web server and save them in the NED cache directory.
      */
@@ -15,6 +15,7 @@ package org.opentripplanner.graph_builder.module.ned;
 
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -24,6 +25,7 @@ import org.opengis.geometry.DirectPosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.media.jai.InterpolationBilinear;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,6 +33,9 @@ import java.util.List;
  * Stitches together multiple elevation maps into a single elevation map,
  * hackily.  This is horrible, but the geotools way of doing things is
  * too slow.   
+ *
+ * Evaluation is thread-safe: each thread evaluates the regions through its own bilinear interpolators, which share the
+ * underlying grids. Regions must all be added before evaluation begins.
  * @author novalis
  *
  */
@@ -40,7 +45,10 @@ public class UnifiedGridCoverage extends AbstractCoverage {
 
     private static Logger log = LoggerFactory.getLogger(UnifiedGridCoverage.class);
     
-    private ArrayList<Coverage> regions;
+    private ArrayList<GridCoverage2D> regions;
+
+    /* The interpolators of each thread for the regions, in the same order. */
+    private transient ThreadLocal<List<Coverage>> interpolators = ThreadLocal.withInitial(ArrayList::new);
 
     private List<VerticalDatum> datums;
 
@@ -49,9 +57,9 @@ public class UnifiedGridCoverage extends AbstractCoverage {
      * in the same way. However, the superclass constructor (AbstractCoverage) needs a coverage to copy properties from.
      * So the first sub-coverage needs to be passed in at construction time.
      */
-    protected UnifiedGridCoverage(CharSequence name, Coverage coverage, List<VerticalDatum> datums) {
+    protected UnifiedGridCoverage(CharSequence name, GridCoverage2D coverage, List<VerticalDatum> datums) {
         super(name, coverage);
-        regions = new ArrayList<Coverage>();
+        regions = new ArrayList<GridCoverage2D>();
         regions.add(coverage);
         this.datums = datums;
     }
@@ -65,9 +73,11 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     public double[] evaluate(DirectPosition point, double[] values)
             throws PointOutsideCoverageException, CannotEvaluateException {
 
-        for (Coverage region : regions) {
+        List<Coverage> threadRegions = getInterpolators();
+        for (int i = 0; i < regions.size(); i++) {
+            Coverage region = threadRegions.get(i);
             // GeneralEnvelope has a contains method, OpenGIS Envelope does not
-            GeneralEnvelope env = ((GeneralEnvelope)region.getEnvelope());
+            GeneralEnvelope env = ((GeneralEnvelope)regions.get(i).getEnvelope());
             // Check envelope to avoid incurring exception construction overhead (PointOutsideCoverageException),
             // especially important when there are many regions.
             if (env.contains(point)) {
@@ -97,6 +107,16 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         return null;
     }
     
+    /** @return the interpolators of the calling thread for all the regions, making any that are missing. */
+    private List<Coverage> getInterpolators() {
+        List<Coverage> threadRegions = interpolators.get();
+        while (threadRegions.size() < regions.size()) {
+            // TODO might bicubic interpolation give better results?
+            threadRegions.add(Interpolator2D.create(regions.get(threadRegions.size()), new InterpolationBilinear()));
+        }
+        return threadRegions;
+    }
+
     @Override
     public int getNumSampleDimensions() {
         return regions.get(0).getNumSampleDimensions();
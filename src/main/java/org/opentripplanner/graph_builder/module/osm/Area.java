@@ -17,8 +17,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+import gnu.trove.map.TLongObjectMap;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.openstreetmap.model.OSMNode;
 import org.opentripplanner.openstreetmap.model.OSMWay;
@@ -47,7 +47,7 @@ class Area {
     private MultiPolygon jtsMultiPolygon;
 
     Area(OSMWithTags parent, List<OSMWay> outerRingWays, List<OSMWay> innerRingWays,
-            Map<Long, OSMNode> _nodes) {
+            TLongObjectMap<OSMNode> _nodes) {
         this.parent = parent;
         // ring assignment
         List<List<Long>> innerRingNodes = constructRings(innerRingWays);
@@ -0,0 +1,68 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * An OSMNodeStore keeping the coordinates in primitive lists on the heap, indexed by a primitive hash map from node ID
+ * to position. This takes a fraction of the memory of a map of OSMNode objects and accepts nodes in any order.
+ */
+public class HeapNodeStore implements OSMNodeStore {
+
+    private TLongIntMap positionForId = new TLongIntHashMap(100000, 0.5f, 0, -1);
+
+    private TDoubleArrayList lats = new TDoubleArrayList();
+
+    private TDoubleArrayList lons = new TDoubleArrayList();
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        positionForId.put(id, lats.size());
+        lats.add(lat);
+        lons.add(lon);
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return positionForId.containsKey(id);
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        int position = positionForId.get(id);
+        if (position < 0) return null;
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = lats.get(position);
+        node.lon = lons.get(position);
+        return node;
+    }
+
+    @Override
+    public long size() {
+        return lats.size();
+    }
+
+    @Override
+    public void close() {
+        positionForId = new TLongIntHashMap();
+        lats = new TDoubleArrayList();
+        lons = new TDoubleArrayList();
+    }
+
+}
@@ -17,6 +17,11 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.list.TLongList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -30,7 +35,6 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
-import org.opentripplanner.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,8 +44,14 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /*
+     * Map of the nodes used in areas, tagged nodes and stops keyed by their OSM ID. The other nodes used in ways,
+     * which are the vast majority, are only kept as coordinates in the node store.
+     */
+    private TLongObjectMap<OSMNode> nodesById = new TLongObjectHashMap<OSMNode>();
+
+    /* Coordinates of the untagged nodes used in ways but not in areas. */
+    private final OSMNodeStore nodeStore;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -68,7 +78,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private List<Area> bikeParkingAreas = new ArrayList<Area>();
 
     /* Map of all area OSMWay for a given node */
-    private Map<Long, Set<OSMWay>> areasForNode = new HashMap<Long, Set<OSMWay>>();
+    private TLongObjectMap<Set<OSMWay>> areasForNode = new TLongObjectHashMap<Set<OSMWay>>();
 
     /* Map of all area OSMWay for a given node */
     private List<OSMWay> singleWayAreas = new ArrayList<OSMWay>();
@@ -79,10 +89,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -115,8 +125,42 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
-    public OSMNode getNode(Long nodeId) {
-        return nodesById.get(nodeId);
+    public OSMDatabase() {
+        this(new HeapNodeStore());
+    }
+
+    /** @param nodeStore where to keep the coordinates of untagged way nodes, see OSMNodeStore. */
+    public OSMDatabase(OSMNodeStore nodeStore) {
+        this.nodeStore = nodeStore;
+    }
+
+    /**
+     * @return the node with the given ID. Untagged way nodes are made anew from the node store on each call, so nodes
+     * should be compared by ID rather than by identity.
+     */
+    public OSMNode getNode(long nodeId) {
+        OSMNode node = nodesById.get(nodeId);
+        return node != null ? node : nodeStore.get(nodeId);
+    }
+
+    private boolean containsNode(long nodeId) {
+        return nodesById.containsKey(nodeId) || nodeStore.contains(nodeId);
+    }
+
+    /**
+     * Keep the given node as an object from now on, so that the same instance is returned for it every time. This is
+     * needed when a node becomes part of an area.
+     */
+    private OSMNode keepNodeObject(OSMNode node) {
+        OSMNode existing = nodesById.get(node.getId());
+        if (existing != null) return existing;
+        nodesById.put(node.getId(), node);
+        return node;
+    }
+
+    /** Release the node store once the graph has been built from this database. */
+    public void close() {
+        nodeStore.close();
     }
 
     public Collection<OSMWay> getWays() {
@@ -163,7 +207,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         return wayLevels.get(way);
     }
 
-    public boolean isNodeSharedByMultipleAreas(Long nodeId) {
+    public boolean isNodeSharedByMultipleAreas(long nodeId) {
         Set<OSMWay> areas = areasForNode.get(nodeId);
         if (areas == null) {
             return false;
@@ -171,7 +215,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         return areas.size() > 1;
     }
 
-    public boolean isNodeBelongsToWay(Long nodeId) {
+    public boolean isNodeBelongsToWay(long nodeId) {
         return waysNodeIds.contains(nodeId);
     }
 
@@ -193,13 +237,18 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 .isStop()))
             return;
 
-        if (nodesById.containsKey(node.getId()))
+        if (containsNode(node.getId()))
             return;
 
-        nodesById.put(node.getId(), node);
+        if (node.getTags() == null && !areaNodeIds.contains(node.getId())) {
+            nodeStore.put(node.getId(), node.lat, node.lon);
+        } else {
+            nodesById.put(node.getId(), node);
+        }
 
-        if (nodesById.size() % 100000 == 0)
-            LOG.debug("nodes=" + nodesById.size());
+        long nNodes = nodesById.size() + nodeStore.size();
+        if (nNodes % 100000 == 0)
+            LOG.debug("nodes=" + nNodes);
     }
 
     @Override
@@ -230,7 +279,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
                 for (Long node : way.getNodeRefs()) {
-                    MapUtils.addToMapSet(areasForNode, node, way);
+                    addAreaForNode(node, way);
                 }
             }
             return;
@@ -373,8 +422,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
             // For each segment of the way
             for (int i = 0; i < way.getNodeRefs().size() - 1; i++) {                
-                OSMNode nA = nodesById.get(way.getNodeRefs().get(i));
-                OSMNode nB = nodesById.get(way.getNodeRefs().get(i + 1));
+                OSMNode nA = getNode(way.getNodeRefs().get(i));
+                OSMNode nB = getNode(way.getNodeRefs().get(i + 1));
                 if (nA == null || nB == null) {
                     continue;
                 }
@@ -431,7 +480,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     // prefer inserting into the ring segment to inserting into the way, so as to reduce graph complexity
                     if (checkIntersectionDistance(p, nA, epsilon)) {
                     	// insert node A into the ring segment
-                        splitNode = nA;
+                        splitNode = keepNodeObject(nA);
                         
                         if (ringSegment.ring.nodes.contains(splitNode))
                         	// This node is already a part of this ring (perhaps we inserted it previously). No need to connect again.
@@ -445,7 +494,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     }
                     else if (checkIntersectionDistance(p, nB, epsilon)) {
                     	// insert node B into the ring segment
-                        splitNode = nB;
+                        splitNode = keepNodeObject(nB);
                         
                         if (ringSegment.ring.nodes.contains(splitNode))
                         	continue;
@@ -581,11 +630,20 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void addAreaForNode(long nodeId, OSMWay way) {
+        Set<OSMWay> areas = areasForNode.get(nodeId);
+        if (areas == null) {
+            areas = new HashSet<OSMWay>();
+            areasForNode.put(nodeId, areas);
+        }
+        areas.add(way);
+    }
+
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
-            List<Long> nodes = way.getNodeRefs();
+            TLongList nodes = way.getNodeRefArray();
             if (nodes.size() > 1) {
                 nodeSet.addAll(nodes);
             }
@@ -649,7 +707,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
                     }
-                    MapUtils.addToMapSet(areasForNode, nodeId, way);
+                    addAreaForNode(nodeId, way);
                 }
                 if (role.equals("inner")) {
                     innerWays.add(way);
@@ -899,8 +957,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     platformArea = relationsById.get(member.getRef());
                 else
                     LOG.warn("Too many areas in relation " + relation.getId());
-            } else if ("node".equals(member.getType()) && nodesById.containsKey(member.getRef())) {
-                platformsNodes.add(nodesById.get(member.getRef()));
+            } else if ("node".equals(member.getType()) && containsNode(member.getRef())) {
+                platformsNodes.add(getNode(member.getRef()));
             }
         }
         if (platformArea != null && !platformsNodes.isEmpty())
@@ -0,0 +1,68 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+import java.io.IOException;
+
+/**
+ * Storage for the coordinates of the untagged OSM nodes that OSMDatabase keeps for ways. These make up the vast majority
+ * of the nodes in a region, so keeping each of them as an OSMNode object in a map of boxed IDs takes most of the memory
+ * of a street graph build. A store keeps only the ID and coordinates of each node, and makes a new OSMNode each time
+ * one is requested, so callers must not rely on the identity of the nodes it returns.
+ *
+ * Nodes are added during the third (node) phase of loading and only read afterward. Stores are not thread-safe.
+ */
+public interface OSMNodeStore {
+
+    /** The available kinds of store, which can be chosen with the osmNodeStore graph builder parameter. */
+    enum Type {
+        /** Primitive arrays on the heap, with a hash index on the node IDs. */
+        HEAP,
+        /** Sorted arrays in direct memory outside the heap. */
+        OFF_HEAP,
+        /** Sorted arrays in a memory-mapped temporary file, which the operating system can page out. */
+        MAPPED_FILE;
+
+        public OSMNodeStore create() {
+            switch (this) {
+                case OFF_HEAP:
+                    return new SortedNodeStore(null);
+                case MAPPED_FILE:
+                    try {
+                        return new SortedNodeStore(SortedNodeStore.createTempFile());
+                    } catch (IOException e) {
+                        throw new RuntimeException("Unable to create a temporary file for OSM nodes", e);
+                    }
+                default:
+                    return new HeapNodeStore();
+            }
+        }
+    }
+
+    /** Add a node. Nodes should be added at most once. */
+    void put(long id, double lat, double lon);
+
+    boolean contains(long id);
+
+    /** @return a new untagged node with the given ID and its coordinates, or null if there is no such node. */
+    OSMNode get(long id);
+
+    long size();
+
+    /** Release the memory or files held by this store. It must not be used afterward. */
+    void close();
+
+}
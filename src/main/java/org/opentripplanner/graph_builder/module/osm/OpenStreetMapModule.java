@@ -118,6 +118,12 @@ public class OpenStreetMapModule implements GraphBuilderModule {
      */
     public boolean staticBikeParkAndRide;
 
+    /**
+     * Where to keep the coordinates of the OSM nodes used in ways while building. The default keeps them on the heap;
+     * the other stores keep them outside the heap, which allows building much larger regions. (default HEAP)
+     */
+    public OSMNodeStore.Type nodeStore = OSMNodeStore.Type.HEAP;
+
     public List<String> provides() {
         return Arrays.asList("streets", "turns");
     }
@@ -161,7 +167,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = new OSMDatabase(nodeStore.create());
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
@@ -173,6 +179,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
         }
         LOG.info("Building street graph from OSM");
         handler.buildGraph(extra);
+        osmdb.close();
         graph.hasStreets = true;
         //Calculates envelope for OSM
         graph.calculateEnvelope();
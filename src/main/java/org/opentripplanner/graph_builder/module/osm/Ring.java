@@ -16,8 +16,8 @@ package org.opentripplanner.graph_builder.module.osm;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
+import gnu.trove.map.TLongObjectMap;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.openstreetmap.model.OSMNode;
 import org.opentripplanner.visibility.VLPoint;
@@ -62,7 +62,7 @@ public class Ring {
         geometry = new VLPolygon(vertices);
     }
 
-    public Ring(List<Long> osmNodes, Map<Long, OSMNode> _nodes) {
+    public Ring(List<Long> osmNodes, TLongObjectMap<OSMNode> _nodes) {
         ArrayList<VLPoint> vertices = new ArrayList<VLPoint>();
         nodes = new ArrayList<OSMNode>(osmNodes.size());
         for (long nodeId : osmNodes) {
@@ -0,0 +1,186 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An OSMNodeStore keeping (id, lat, lon) entries outside the heap, in fixed-size chunks of direct memory or of a
+ * memory-mapped temporary file, and finding nodes by binary search.
+ *
+ * OSM files list their nodes in ascending order of ID, so the entries are simply appended. Whenever a node arrives
+ * with an ID lower than the previous one (for instance at the start of a second input file) a new run of entries
+ * begins, and lookups search each run in turn. This stays fast as long as there are few runs, which is the case for
+ * sorted inputs.
+ */
+public class SortedNodeStore implements OSMNodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SortedNodeStore.class);
+
+    /* Each entry holds the ID, latitude and longitude of a node. */
+    private static final int ENTRY_BYTES = 24;
+
+    /* 4M entries, 96MB per chunk. */
+    private static final int CHUNK_BITS = 22;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private static final long CHUNK_BYTES = ENTRY_BYTES << CHUNK_BITS;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    /* The file the chunks are mapped from, or null if they are in direct memory. */
+    private final FileChannel channel;
+
+    /* The position of the first entry of each run of ascending IDs. The last run ends at size. */
+    private final TLongList runStarts = new TLongArrayList();
+
+    private long size = 0;
+
+    private long lastId;
+
+    /** @return a temporary file for a store, which is deleted when the store is closed or the JVM exits. */
+    static File createTempFile() throws IOException {
+        File file = File.createTempFile("otp-osm-nodes", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** @param file the file to map the entries from, or null to keep them in direct memory. */
+    public SortedNodeStore(File file) {
+        if (file == null) {
+            channel = null;
+            return;
+        }
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open OSM node file " + file, e);
+        }
+        LOG.info("Storing OSM nodes in memory-mapped file {}", file);
+    }
+
+    @Override
+    public void put(long id, double lat, double lon) {
+        if (size == 0 || id <= lastId) {
+            runStarts.add(size);
+        }
+        int chunk = (int) (size >>> CHUNK_BITS);
+        if (chunk == chunks.size()) {
+            chunks.add(allocateChunk(chunk));
+        }
+        ByteBuffer buffer = chunks.get(chunk);
+        int offset = (int) (size & CHUNK_MASK) * ENTRY_BYTES;
+        buffer.putLong(offset, id);
+        buffer.putDouble(offset + 8, lat);
+        buffer.putDouble(offset + 16, lon);
+        lastId = id;
+        size++;
+    }
+
+    private ByteBuffer allocateChunk(int chunk) {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+        }
+        try {
+            // Mapping past the end of the file extends it.
+            return channel.map(FileChannel.MapMode.READ_WRITE, chunk * CHUNK_BYTES, CHUNK_BYTES);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to extend OSM node file", e);
+        }
+    }
+
+    private long getId(long position) {
+        return chunks.get((int) (position >>> CHUNK_BITS)).getLong((int) (position & CHUNK_MASK) * ENTRY_BYTES);
+    }
+
+    private double getDouble(long position, int field) {
+        return chunks.get((int) (position >>> CHUNK_BITS))
+                .getDouble((int) (position & CHUNK_MASK) * ENTRY_BYTES + field);
+    }
+
+    /** @return the position of the entry for the given ID, or -1 if there is none. */
+    private long find(long id) {
+        for (int r = 0; r < runStarts.size(); r++) {
+            long lo = runStarts.get(r);
+            long hi = (r + 1 < runStarts.size() ? runStarts.get(r + 1) : size) - 1;
+            if (id < getId(lo) || id > getId(hi)) continue;
+            while (lo <= hi) {
+                long mid = (lo + hi) >>> 1;
+                long midId = getId(mid);
+                if (midId < id) {
+                    lo = mid + 1;
+                } else if (midId > id) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return find(id) >= 0;
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        long position = find(id);
+        if (position < 0) return null;
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = getDouble(position, 8);
+        node.lon = getDouble(position, 16);
+        return node;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /** @return the number of runs of ascending IDs, which is the number of binary searches a lookup may take. */
+    public int getRunCount() {
+        return runStarts.size();
+    }
+
+    @Override
+    public void close() {
+        // Direct and mapped buffers are released when they are garbage collected. Closing the channel deletes the file.
+        chunks.clear();
+        runStarts.clear();
+        size = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close OSM node file", e);
+            }
+        }
+    }
+
+}
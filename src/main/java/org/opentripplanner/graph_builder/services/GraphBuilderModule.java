@@ -13,6 +13,7 @@
 
 package org.opentripplanner.graph_builder.services;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
@@ -27,4 +28,20 @@ public interface GraphBuilderModule {
     /** Check that all inputs to the graphbuilder are valid; throw an exception if not. */
     public void checkInputs();
 
+    /**
+     * @return the names of the parts of the graph this module creates or modifies, such as "streets" or "transit".
+     * A module declaring nothing is assumed to touch the whole graph, and never runs alongside other modules.
+     */
+    public default List<String> provides() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the names of the parts of the graph this module reads. The module runs after any earlier module
+     * providing them; a prerequisite that no module provides is not an error, as many inputs are optional.
+     */
+    public default List<String> getPrerequisites() {
+        return Collections.emptyList();
+    }
+
 }
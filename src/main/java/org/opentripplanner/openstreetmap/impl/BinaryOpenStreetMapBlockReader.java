@@ -0,0 +1,289 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.openstreetmap.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.model.OSMWithTags;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a PBF file in several passes, one per kind of entity, decompressing and decoding its blocks in parallel.
+ *
+ * The blocks of a PBF file are compressed independently. Each pass reads the raw blocks in sequence on the calling
+ * thread and hands them to a pool of worker threads, which inflate them and turn their contents into OSM entities.
+ * The entities are then passed to the content handler on the calling thread, block by block in file order, so the
+ * handler sees exactly the same sequence of calls as with a sequential parser and need not be thread-safe.
+ *
+ * The first pass reads every block and records where each one is and which kinds of entities it holds. Later passes
+ * use this index to read only the blocks holding the kinds they want. Since PBF files are normally sorted by kind,
+ * the way and node passes skip most of the file.
+ */
+public class BinaryOpenStreetMapBlockReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryOpenStreetMapBlockReader.class);
+
+    /* Bits for the kinds of entities in a block. */
+    private static final int NODES = 1;
+    private static final int WAYS = 2;
+    private static final int RELATIONS = 4;
+
+    /* Limits of the PBF format. */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private final File path;
+
+    private final ExecutorService executor;
+
+    /* How many blocks may be read ahead of the one being handed to the content handler. */
+    private final int maxPendingBlocks;
+
+    /* Strings shared by all blocks, so that equal tag keys and values are kept only once. */
+    private final ConcurrentMap<String, String> stringTable = new ConcurrentHashMap<>();
+
+    /* The data blocks of the file in file order, recorded during the first pass. */
+    private List<BlockInfo> index = null;
+
+    private static class BlockInfo {
+        long position;
+        int size;
+        int kinds;
+    }
+
+    public BinaryOpenStreetMapBlockReader(File path, int nThreads) {
+        this.path = path;
+        this.maxPendingBlocks = nThreads * 4;
+        this.executor = Executors.newFixedThreadPool(nThreads,
+                new ThreadFactoryBuilder().setNameFormat("pbf-decoder-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Read one pass over the file, giving the handler the entities of the requested kinds. The first pass reads the
+     * whole file, later ones only the blocks that hold the requested kinds.
+     */
+    public void read(OpenStreetMapContentHandler handler, boolean nodes, boolean ways, boolean relations)
+            throws IOException {
+        int kinds = (nodes ? NODES : 0) | (ways ? WAYS : 0) | (relations ? RELATIONS : 0);
+        long startTime = System.currentTimeMillis();
+        Deque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+        if (index == null) {
+            List<BlockInfo> newIndex = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path),
+                    1024 * 1024))) {
+                long position = 0;
+                while (true) {
+                    int headerSize;
+                    try {
+                        headerSize = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                        throw new IOException("Invalid PBF block header size " + headerSize);
+                    }
+                    byte[] headerBytes = new byte[headerSize];
+                    in.readFully(headerBytes);
+                    Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                    int size = header.getDatasize();
+                    if (size < 0 || size > MAX_BLOB_SIZE) {
+                        throw new IOException("Invalid PBF block size " + size);
+                    }
+                    position += 4 + headerSize;
+                    byte[] blob = new byte[size];
+                    in.readFully(blob);
+                    if ("OSMData".equals(header.getType())) {
+                        BlockInfo info = new BlockInfo();
+                        info.position = position;
+                        info.size = size;
+                        newIndex.add(info);
+                        submit(pending, blob, kinds, info);
+                    } else if ("OSMHeader".equals(header.getType())) {
+                        submit(pending, blob, kinds, null);
+                    } else {
+                        LOG.warn("Skipping PBF block of unknown type {}", header.getType());
+                    }
+                    position += size;
+                    drainPending(pending, handler, maxPendingBlocks);
+                }
+                drainPending(pending, handler, 0);
+            }
+            index = newIndex;
+        } else {
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                int nRead = 0;
+                for (BlockInfo info : index) {
+                    if ((info.kinds & kinds) == 0) continue;
+                    byte[] blob = new byte[info.size];
+                    file.seek(info.position);
+                    file.readFully(blob);
+                    submit(pending, blob, kinds, info);
+                    nRead++;
+                    drainPending(pending, handler, maxPendingBlocks);
+                }
+                drainPending(pending, handler, 0);
+                LOG.debug("Read {} of {} PBF blocks", nRead, index.size());
+            }
+        }
+        LOG.info("Read PBF pass in {} ms", System.currentTimeMillis() - startTime);
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    /** The entities of one block in file order. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        final List<OSMWithTags> entities = new ArrayList<>();
+
+        @Override
+        public void addNode(OSMNode node) {
+            entities.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            entities.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            entities.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+
+        void sendTo(OpenStreetMapContentHandler handler) {
+            for (OSMWithTags entity : entities) {
+                if (entity instanceof OSMNode) {
+                    handler.addNode((OSMNode) entity);
+                } else if (entity instanceof OSMWay) {
+                    handler.addWay((OSMWay) entity);
+                } else {
+                    handler.addRelation((OSMRelation) entity);
+                }
+            }
+        }
+    }
+
+    /** @param info the index entry of a data block, or null for the header block. */
+    private void submit(Deque<Future<DecodedBlock>> pending, byte[] blob, int kinds, BlockInfo info) {
+        pending.add(executor.submit(() -> decode(blob, kinds, info)));
+    }
+
+    /** Hand decoded blocks to the handler in order until no more than maxPending remain, waiting for them as needed. */
+    private void drainPending(Deque<Future<DecodedBlock>> pending, OpenStreetMapContentHandler handler,
+            int maxPending) throws IOException {
+        while (pending.size() > maxPending) {
+            DecodedBlock block;
+            try {
+                block = pending.removeFirst().get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while decoding PBF blocks", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to decode PBF block", e.getCause());
+            }
+            block.sendTo(handler);
+        }
+    }
+
+    /**
+     * Inflate and decode a block, recording the kinds of entity it holds in its index entry. This runs on the worker
+     * threads. The index entries are only read again in later passes, after the futures of this pass have completed.
+     */
+    private DecodedBlock decode(byte[] blobBytes, int kinds, BlockInfo info)
+            throws InvalidProtocolBufferException, DataFormatException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        byte[] data;
+        if (blob.hasRaw()) {
+            data = blob.getRaw().toByteArray();
+        } else if (blob.hasZlibData()) {
+            data = new byte[blob.getRawSize()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(blob.getZlibData().toByteArray());
+                inflater.inflate(data);
+                if (!inflater.finished()) {
+                    throw new DataFormatException("PBF block is larger than its declared size");
+                }
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new DataFormatException("Unsupported PBF block compression");
+        }
+
+        DecodedBlock decoded = new DecodedBlock();
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(decoded, stringTable);
+        if (info == null) {
+            parser.parse(Osmformat.HeaderBlock.parseFrom(data));
+            return decoded;
+        }
+        Osmformat.PrimitiveBlock block = Osmformat.PrimitiveBlock.parseFrom(data);
+        int blockKinds = 0;
+        for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+            if (group.getNodesCount() > 0 || group.hasDense()) blockKinds |= NODES;
+            if (group.getWaysCount() > 0) blockKinds |= WAYS;
+            if (group.getRelationsCount() > 0) blockKinds |= RELATIONS;
+        }
+        // Later passes only read the index, and run after it is complete.
+        if (index == null) info.kinds = blockKinds;
+        if ((blockKinds & kinds) != 0) {
+            parser.setParseNodes((kinds & NODES) != 0);
+            parser.setParseWays((kinds & WAYS) != 0);
+            parser.setParseRelations((kinds & RELATIONS) != 0);
+            parser.parse(block);
+        }
+        return decoded;
+    }
+
+}
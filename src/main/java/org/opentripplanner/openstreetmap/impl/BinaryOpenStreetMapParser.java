@@ -33,10 +33,19 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     private boolean _parseWays = true;
     private boolean _parseRelations = true;
     private boolean _parseNodes = true;
-    private Map<String, String> stringTable = new HashMap<String, String>();
+    private Map<String, String> stringTable;
 
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
+        this(handler, new HashMap<String, String>());
+    }
+
+    /**
+     * @param stringTable the table used to internalize strings, which may be shared by parsers of different blocks if
+     *                    it is thread-safe.
+     */
+    public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler, Map<String, String> stringTable) {
         _handler = handler;
+        this.stringTable = stringTable;
     }
 
     // The strings are already being pulled from a string table in the PBF file,
@@ -44,9 +53,8 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     // String.intern grinds to a halt on large PBF files (as it did on GTFS import), so 
     // we implement our own. 
     public String internalize(String s) {
-        String fromTable = stringTable.get(s);
+        String fromTable = stringTable.putIfAbsent(s, s);
         if (fromTable == null) {
-            stringTable.put(s, s);
             return s;
         } 
         return fromTable;
@@ -16,12 +16,16 @@
 
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.TDecorators;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> _nodes = new ArrayList<Long>();
+    /* Kept as primitives to save memory, since there are several times as many node references as ways. */
+    private TLongList _nodes = new TLongArrayList(4);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         _nodes.add(nodeRef.getRef());
@@ -35,7 +39,13 @@ public class OSMWay extends OSMWithTags {
         _nodes.add(index, nodeRef);
     }
 
+    /** @return a live view of the node references of this way. */
     public List<Long> getNodeRefs() {
+        return TDecorators.wrap(_nodes);
+    }
+
+    /** @return the node references of this way, without boxing. */
+    public TLongList getNodeRefArray() {
         return _nodes;
     }
 
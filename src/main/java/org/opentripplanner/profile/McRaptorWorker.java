@@ -0,0 +1,281 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A multi-criteria RAPTOR search (McRAPTOR) from one origin to one destination at a single departure time, over the
+ * flat timetables of a RaptorPlanData. Instead of the single earliest arrival time per stop kept by the RaptorWorker,
+ * each stop holds a bag of labels that are Pareto-optimal in arrival time and walk distance, and as in plain RAPTOR
+ * each round adds one ride, which makes the number of transfers the third criterion. One search therefore finds the
+ * whole set of itineraries that are not beaten on all three criteria by another one, where the usual point to point
+ * search finds one itinerary per search.
+ *
+ * Labels keep a pointer to the label they were reached from, so that the itineraries can be reconstructed.
+ *
+ * See "Round-Based Public Transit Routing", Delling, Pajor and Werneck, section 4.
+ */
+public class McRaptorWorker {
+
+    /** A way to reach a stop: by walking from the origin, riding a vehicle, or transferring from another stop. */
+    public static class Label {
+
+        /** The stop index in the RaptorPlanData. */
+        public final int stop;
+
+        /** The time of arrival at the stop, in seconds since the start of the service day. */
+        public final int time;
+
+        /** The total distance walked to reach the stop, in meters. */
+        public final int walkDistance;
+
+        /** The number of rides taken to reach the stop. */
+        public final int round;
+
+        /** The label this one was reached from, which is null for the labels made from the access search. */
+        public final Label parent;
+
+        /** For labels reached by riding, the pattern index and the positions of the stops in the pattern. Else -1. */
+        public final int pattern, boardPosition, alightPosition;
+
+        /** Set when a label is replaced by a better one found later in the same round. */
+        boolean dominated;
+
+        Label(int stop, int time, int walkDistance, int round, Label parent, int pattern, int boardPosition,
+              int alightPosition) {
+            this.stop = stop;
+            this.time = time;
+            this.walkDistance = walkDistance;
+            this.round = round;
+            this.parent = parent;
+            this.pattern = pattern;
+            this.boardPosition = boardPosition;
+            this.alightPosition = alightPosition;
+        }
+
+        public boolean isRide() {
+            return pattern >= 0;
+        }
+
+        /** @return true if this label is at least as good as the given one on every criterion. */
+        boolean dominates(int otherTime, int otherWalkDistance) {
+            return time <= otherTime && walkDistance <= otherWalkDistance;
+        }
+    }
+
+    /** An itinerary reaching the destination by walking from the stop of the given label. */
+    public static class Result {
+
+        public final Label label;
+
+        public final int arrivalTime;
+
+        public final int walkDistance;
+
+        Result(Label label, int arrivalTime, int walkDistance) {
+            this.label = label;
+            this.arrivalTime = arrivalTime;
+            this.walkDistance = walkDistance;
+        }
+
+        public int getTransfers() {
+            return label.round - 1;
+        }
+    }
+
+    /** A trip boarded while scanning a pattern, which gives a label at each of the later stops. */
+    private static class Ride {
+        final int trip;
+        final int boardPosition;
+        final Label boardLabel;
+
+        Ride(int trip, int boardPosition, Label boardLabel) {
+            this.trip = trip;
+            this.boardPosition = boardPosition;
+            this.boardLabel = boardLabel;
+        }
+    }
+
+    private final RaptorPlanData data;
+
+    /** The minimum time between arriving at a stop and boarding a vehicle there, for the first vehicle and later ones. */
+    private final int boardSlack, transferSlack;
+
+    /** Walk speed in meters per second, used to compute the duration of transfers. */
+    private final double walkSpeed;
+
+    /** For each stop, the labels of all rounds so far that have not been dominated. */
+    private final List<Label>[] bags;
+
+    /** The itineraries found so far that have not been dominated. */
+    private final List<Result> results = new ArrayList<>();
+
+    /* The stops reached from the destination, with their walk times and distances to the destination. */
+    private TIntIntMap egressTimes, egressDistances;
+
+    @SuppressWarnings("unchecked")
+    public McRaptorWorker(RaptorPlanData data, int boardSlack, int transferSlack, double walkSpeed) {
+        this.data = data;
+        this.boardSlack = boardSlack;
+        this.transferSlack = transferSlack;
+        this.walkSpeed = walkSpeed;
+        this.bags = new List[data.nStops];
+    }
+
+    /**
+     * Run the search.
+     * @param departureTime the departure time from the origin, in seconds since the start of the service day.
+     * @param accessTimes the walk time in seconds from the origin to each stop it reaches, by stop index.
+     * @param accessDistances the walk distance in meters from the origin to each stop, by stop index.
+     * @param maxRides the number of rounds, which is one more than the maximum number of transfers.
+     * @return the itineraries that are Pareto-optimal in arrival time, transfers and walk distance, sorted by
+     * arrival time and then number of transfers.
+     */
+    public List<Result> route(int departureTime, TIntIntMap accessTimes, TIntIntMap accessDistances,
+                              TIntIntMap egressTimes, TIntIntMap egressDistances, int maxRides) {
+        this.egressTimes = egressTimes;
+        this.egressDistances = egressDistances;
+        List<Label> marked = new ArrayList<>();
+        for (TIntIntIterator it = accessTimes.iterator(); it.hasNext(); ) {
+            it.advance();
+            Label label = new Label(it.key(), departureTime + it.value(), accessDistances.get(it.key()), 0,
+                    null, -1, -1, -1);
+            if (add(label)) marked.add(label);
+        }
+        for (int round = 1; round <= maxRides && !marked.isEmpty(); round++) {
+            List<Label> rides = scanPatterns(marked, round);
+            marked = new ArrayList<>(rides);
+            for (Label ride : rides) {
+                if (ride.dominated) continue;
+                int[] transfers = data.transfersForStop[ride.stop];
+                for (int i = 0; i < transfers.length; i += 2) {
+                    int distance = transfers[i + 1];
+                    Label transfer = new Label(transfers[i], ride.time + (int) Math.ceil(distance / walkSpeed),
+                            ride.walkDistance + distance, round, ride, -1, -1, -1);
+                    if (add(transfer)) marked.add(transfer);
+                }
+            }
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result r1, Result r2) {
+                if (r1.arrivalTime != r2.arrivalTime) return r1.arrivalTime - r2.arrivalTime;
+                if (r1.label.round != r2.label.round) return r1.label.round - r2.label.round;
+                return r1.walkDistance - r2.walkDistance;
+            }
+        });
+        return results;
+    }
+
+    /** Ride every pattern through a stop marked in the last round, from the first such stop on. */
+    private List<Label> scanPatterns(List<Label> marked, int round) {
+        BitSet markedStops = new BitSet(data.nStops);
+        BitSet markedPatterns = new BitSet(data.nPatterns);
+        for (Label label : marked) {
+            if (label.dominated) continue;
+            markedStops.set(label.stop);
+            for (int pattern : data.patternsForStop[label.stop]) markedPatterns.set(pattern);
+        }
+        List<Label> rides = new ArrayList<>();
+        List<Ride> routeBag = new ArrayList<>();
+        for (int p = markedPatterns.nextSetBit(0); p >= 0; p = markedPatterns.nextSetBit(p + 1)) {
+            RaptorWorkerTimetable timetable = data.timetables[p];
+            routeBag.clear();
+            for (int position = 0; position < timetable.stopIndices.length; position++) {
+                int stop = timetable.stopIndices[position];
+                // First alight from the trips already boarded, then board from labels of the previous round.
+                if (!routeBag.isEmpty() && data.patterns[p].canAlight(position)) {
+                    for (Ride ride : routeBag) {
+                        Label label = new Label(stop, timetable.getArrival(ride.trip, position),
+                                ride.boardLabel.walkDistance, round, ride.boardLabel, p, ride.boardPosition, position);
+                        if (add(label)) rides.add(label);
+                    }
+                }
+                if (markedStops.get(stop) && data.patterns[p].canBoard(position)) {
+                    for (Label label : bags[stop]) {
+                        if (label.round != round - 1 || label.dominated) continue;
+                        int slack = round == 1 ? boardSlack : transferSlack;
+                        int trip = findTrip(timetable, position, label.time + slack);
+                        if (trip >= 0) addRide(routeBag, new Ride(trip, position, label));
+                    }
+                }
+            }
+        }
+        return rides;
+    }
+
+    /**
+     * @return the index of the first trip leaving the given stop position at or after the given time, or -1 if there
+     * is none. Trips are sorted and assumed not to overtake one another, as in RaptorWorkerTimetable.
+     */
+    private static int findTrip(RaptorWorkerTimetable timetable, int position, int time) {
+        int lo = 0, hi = timetable.nTrips;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timetable.getDeparture(mid, position) < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < timetable.nTrips ? lo : -1;
+    }
+
+    /** Keep only the rides on which no other ride is on an earlier or equal trip having walked no further. */
+    private static void addRide(List<Ride> routeBag, Ride ride) {
+        for (Ride other : routeBag) {
+            if (other.trip <= ride.trip && other.boardLabel.walkDistance <= ride.boardLabel.walkDistance) return;
+        }
+        routeBag.removeIf(other -> ride.trip <= other.trip &&
+                ride.boardLabel.walkDistance <= other.boardLabel.walkDistance);
+        routeBag.add(ride);
+    }
+
+    /**
+     * Add a label to the bag of its stop unless it is dominated there or by an itinerary already found. Labels of the
+     * same round that it dominates are marked as such. Labels of earlier rounds are never dominated, since they have
+     * fewer transfers.
+     * @return true if the label was added.
+     */
+    private boolean add(Label label) {
+        // Going on from this label can only make it later, longer to walk and with more transfers.
+        for (Result result : results) {
+            if (result.label.round <= label.round && result.arrivalTime <= label.time &&
+                    result.walkDistance <= label.walkDistance) return false;
+        }
+        List<Label> bag = bags[label.stop];
+        if (bag == null) {
+            bag = new ArrayList<>(4);
+            bags[label.stop] = bag;
+        }
+        for (Label other : bag) {
+            if (!other.dominated && other.dominates(label.time, label.walkDistance)) return false;
+        }
+        for (Label other : bag) {
+            if (other.round == label.round && label.dominates(other.time, other.walkDistance)) {
+                other.dominated = true;
+            }
+        }
+        bag.removeIf(other -> other.dominated);
+        bag.add(label);
+        if (egressTimes.containsKey(label.stop) && label.round > 0) {
+            addResult(new Result(label, label.time + egressTimes.get(label.stop),
+                    label.walkDistance + egressDistances.get(label.stop)));
+        }
+        return true;
+    }
+
+    private void addResult(Result result) {
+        for (Result other : results) {
+            if (other.label.round <= result.label.round && other.arrivalTime <= result.arrivalTime &&
+                    other.walkDistance <= result.walkDistance) return;
+        }
+        results.removeIf(other -> result.label.round <= other.label.round &&
+                result.arrivalTime <= other.arrivalTime && result.walkDistance <= other.walkDistance);
+        results.add(result);
+    }
+
+}
@@ -1,8 +1,6 @@
 package org.opentripplanner.profile;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 import org.apache.commons.math3.util.FastMath;
 import org.opentripplanner.analyst.ResultSet;
 import org.opentripplanner.analyst.SampleSet;
@@ -25,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static org.apache.commons.math3.util.FastMath.toRadians;
 
@@ -64,6 +64,13 @@ public class PropagatedTimesStore {
     // number of times to bootstrap the mean.
     public final int N_BOOTSTRAPS = 400;
 
+    /**
+     * The number of targets whose statistics are computed together. The times for a block of targets are read a row
+     * at a time, so this should be large enough to make good use of each cache line and small enough that the
+     * per-block buffers stay in cache.
+     */
+    private static final int BLOCK_SIZE = 256;
+
     private static final Random random = new Random();
 
     public PropagatedTimesStore(Graph graph) {
@@ -91,7 +98,7 @@ public class PropagatedTimesStore {
             return;
 
         // assume array is rectangular
-        int stops = times[0].length;
+        int nTargets = times[0].length;
 
         // cache random numbers. This should be fine as we're mixing it with the number of minutes
         // at which each destination is accessible, which is sometimes not 120, as well as the stop
@@ -100,67 +107,109 @@ public class PropagatedTimesStore {
         // the maximum number of times we're sampling from is generally 120 and we modulo this,
         // so the pigeonhole principle applies.
         // this is effectively a "random number generator" with phase 10007
-        int[] randomNumbers = random.ints().limit(10007).map(Math::abs).toArray();
-        int nextRandom = 0;
-
-        // loop over stops on the outside so we can bootstrap
-        STOPS: for (int stop = 0; stop < stops; stop++) {
-            // compute the average
-            int sum = 0;
-            int count = 0;
-
-            TIntList timeList = new TIntArrayList();
-
-            ITERATIONS: for (int i = 0; i < times.length; i++) {
-                if (times[i][stop] == RaptorWorker.UNREACHED)
-                    continue ITERATIONS;
+        int[] randomNumbers = confidenceCalculationMethod == ConfidenceCalculationMethod.BOOTSTRAP ?
+                random.ints().limit(10007).map(Math::abs).toArray() : null;
+
+        // Split the targets into contiguous ranges that are summarized in parallel. There are a few ranges per
+        // thread so that the work is evenly spread even if some parts of the region are reached more often.
+        int nBlocks = (nTargets + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int nRanges = Math.min(nBlocks, ForkJoinPool.getCommonPoolParallelism() * 4);
+        if (nRanges <= 1) {
+            summarizeRange(times, 0, nTargets, confidenceCalculationMethod, randomNumbers);
+        } else {
+            int blocksPerRange = (nBlocks + nRanges - 1) / nRanges;
+            IntStream.range(0, nRanges).parallel().forEach(r -> {
+                int from = r * blocksPerRange * BLOCK_SIZE;
+                int to = Math.min(from + blocksPerRange * BLOCK_SIZE, nTargets);
+                if (from < to) summarizeRange(times, from, to, confidenceCalculationMethod, randomNumbers);
+            });
+        }
+    }
 
-                sum += times[i][stop];
-                count++;
-                timeList.add(times[i][stop]);
+    /**
+     * Compute the summary statistics for the targets in the given range, one block of BLOCK_SIZE targets at a time.
+     * The times for a block are read row by row (one departure minute or Monte Carlo draw at a time) so that every
+     * access to the time matrix is sequential. The buffers are allocated once for the whole range and reused for each
+     * block, rather than allocating a list for every target.
+     */
+    private void summarizeRange (int[][] times, int from, int to, ConfidenceCalculationMethod method,
+                                 int[] randomNumbers) {
+        int nIterations = times.length;
+        boolean keepTimes = method == ConfidenceCalculationMethod.BOOTSTRAP ||
+                method == ConfidenceCalculationMethod.PERCENTILE;
+        int[] blockMin = new int[BLOCK_SIZE];
+        int[] blockMax = new int[BLOCK_SIZE];
+        long[] blockSum = new long[BLOCK_SIZE];
+        int[] blockCount = new int[BLOCK_SIZE];
+        // for each target in the block, the times at which it was reached in a slice of length nIterations
+        int[] blockTimes = keepTimes ? new int[BLOCK_SIZE * nIterations] : null;
+        int[] bootMeans = method == ConfidenceCalculationMethod.BOOTSTRAP ? new int[N_BOOTSTRAPS] : null;
+        int nextRandom = from;
+
+        for (int blockStart = from; blockStart < to; blockStart += BLOCK_SIZE) {
+            int blockSize = Math.min(BLOCK_SIZE, to - blockStart);
+            Arrays.fill(blockMin, Integer.MAX_VALUE);
+            Arrays.fill(blockMax, Integer.MIN_VALUE);
+            Arrays.fill(blockSum, 0);
+            Arrays.fill(blockCount, 0);
+
+            for (int i = 0; i < nIterations; i++) {
+                int[] row = times[i];
+                for (int t = 0; t < blockSize; t++) {
+                    int time = row[blockStart + t];
+                    if (time == RaptorWorker.UNREACHED)
+                        continue;
+                    if (time < blockMin[t]) blockMin[t] = time;
+                    if (time > blockMax[t]) blockMax[t] = time;
+                    blockSum[t] += time;
+                    if (keepTimes) blockTimes[t * nIterations + blockCount[t]] = time;
+                    blockCount[t]++;
+                }
             }
 
-            if (count == 0)
-                continue STOPS;
+            for (int t = 0; t < blockSize; t++) {
+                int count = blockCount[t];
+                if (count == 0)
+                    continue;
+
+                int target = blockStart + t;
+                avgs[target] = (int) (blockSum[t] / count);
+                int offset = t * nIterations;
 
-            avgs[stop] = sum / count;
+                switch (method) {
+                case BOOTSTRAP:
+                    // now bootstrap out a 95% confidence interval on the time
+                    for (int boot = 0; boot < N_BOOTSTRAPS; boot++) {
+                        long bsum = 0;
 
-            switch (confidenceCalculationMethod) {
-            case BOOTSTRAP:
-                // now bootstrap out a 95% confidence interval on the time
-                int[] bootMeans = new int[N_BOOTSTRAPS];
-                for (int boot = 0; boot < N_BOOTSTRAPS; boot++) {
-                    int bsum = 0;
+                        // sample from the Monte Carlo distribution with replacement
+                        for (int iter = 0; iter < count; iter++) {
+                            bsum += blockTimes[offset + randomNumbers[nextRandom++ % randomNumbers.length] % count];
+                        }
 
-                    // sample from the Monte Carlo distribution with replacement
-                    for (int iter = 0; iter < count; iter++) {
-                        bsum += timeList
-                                .get(randomNumbers[nextRandom++ % randomNumbers.length] % count);
-                        //bsum += timeList.get(random.nextInt(count));
+                        bootMeans[boot] = (int) (bsum / count);
                     }
 
-                    bootMeans[boot] = bsum / count;
+                    Arrays.sort(bootMeans);
+                    // 2.5 percentile of distribution of means
+                    mins[target] = bootMeans[N_BOOTSTRAPS / 40];
+                    // 97.5 percentile of distribution of means
+                    maxs[target] = bootMeans[N_BOOTSTRAPS - N_BOOTSTRAPS / 40];
+                    break;
+                case PERCENTILE:
+                    Arrays.sort(blockTimes, offset, offset + count);
+                    mins[target] = blockTimes[offset + count / 40];
+                    maxs[target] = blockTimes[offset + 39 * count / 40];
+                    break;
+                case NONE:
+                    mins[target] = maxs[target] = avgs[target];
+                    break;
+                case MIN_MAX:
+                default:
+                    mins[target] = blockMin[t];
+                    maxs[target] = blockMax[t];
+                    break;
                 }
-
-                Arrays.sort(bootMeans);
-                // 2.5 percentile of distribution of means
-                mins[stop] = bootMeans[N_BOOTSTRAPS / 40];
-                // 97.5 percentile of distribution of means
-                maxs[stop] = bootMeans[N_BOOTSTRAPS - N_BOOTSTRAPS / 40];
-                break;
-            case PERCENTILE:
-                timeList.sort();
-                mins[stop] = timeList.get(timeList.size() / 40);
-                maxs[stop] = timeList.get(39 * timeList.size() / 40);
-                break;
-            case NONE:
-                mins[stop] = maxs[stop] = avgs[stop];
-                break;
-            case MIN_MAX:
-            default:
-                mins[stop] = timeList.min();
-                maxs[stop] = timeList.max();
-                break;
             }
         }
     }
@@ -0,0 +1,123 @@
+package org.opentripplanner.profile;
+
+import com.google.common.collect.Iterables;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flat timetables for all the trips running on one service day, for point to point RAPTOR searches with the
+ * McRaptorWorker. This is the same representation RaptorWorkerData uses for profile routing, made of one
+ * RaptorWorkerTimetable per pattern, but it keeps the TripPattern and TransitStop behind each pattern and stop index
+ * so that the itineraries found can be turned back into paths through the graph.
+ *
+ * Only scheduled trips are included, as they appear in the scheduled timetables. Frequency-based trips are left out.
+ * Times are in seconds since midnight at the start of the service day.
+ */
+public class RaptorPlanData {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPlanData.class);
+
+    /** Trips are included if they run at any time in this many seconds after the start of the service day. */
+    private static final int SERVICE_DAY_SECONDS = 48 * 60 * 60;
+
+    public final ServiceDate serviceDate;
+
+    public final int nStops;
+
+    public final int nPatterns;
+
+    /** The stop vertex for each stop index. */
+    public final TransitStop[] stops;
+
+    /** The stop index for each stop vertex index, or -1 for stops no pattern serves on this day. */
+    public final TIntIntMap indexForStop;
+
+    /** The trip pattern for each pattern index. */
+    public final TripPattern[] patterns;
+
+    /** The timetable for each pattern index, whose stopIndices are the stop indices of this data. */
+    public final RaptorWorkerTimetable[] timetables;
+
+    /** For each stop, the indices of the patterns passing through it. */
+    public final int[][] patternsForStop;
+
+    /** For each stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. */
+    public final int[][] transfersForStop;
+
+    public RaptorPlanData(Graph graph, ServiceDate serviceDate) {
+        long start = System.currentTimeMillis();
+        this.serviceDate = serviceDate;
+        TimeWindow window = new TimeWindow(0, SERVICE_DAY_SECONDS, graph.index.servicesRunning(serviceDate));
+        TaskStatistics ts = new TaskStatistics();
+
+        List<TransitStop> stopList = new ArrayList<>();
+        List<TripPattern> patternList = new ArrayList<>();
+        List<RaptorWorkerTimetable> timetableList = new ArrayList<>();
+        indexForStop = new TIntIntHashMap(graph.index.stopForId.size(), 0.75f, Integer.MIN_VALUE, -1);
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            RaptorWorkerTimetable timetable = RaptorWorkerTimetable.forPattern(graph, pattern, window, null, ts);
+            if (timetable == null || !timetable.hasScheduledTrips()) continue;
+            timetable.dataIndex = patternList.size();
+            int[] stopIndices = new int[pattern.getStops().size()];
+            int i = 0;
+            for (Stop stop : pattern.getStops()) {
+                TransitStop stopVertex = graph.index.stopVertexForStop.get(stop);
+                int stopIndex = indexForStop.get(stopVertex.getIndex());
+                if (stopIndex == -1) {
+                    stopIndex = stopList.size();
+                    indexForStop.put(stopVertex.getIndex(), stopIndex);
+                    stopList.add(stopVertex);
+                }
+                stopIndices[i++] = stopIndex;
+            }
+            timetable.stopIndices = stopIndices;
+            patternList.add(pattern);
+            timetableList.add(timetable);
+        }
+        nStops = stopList.size();
+        nPatterns = patternList.size();
+        stops = stopList.toArray(new TransitStop[nStops]);
+        patterns = patternList.toArray(new TripPattern[nPatterns]);
+        timetables = timetableList.toArray(new RaptorWorkerTimetable[nPatterns]);
+
+        TIntList[] patternLists = new TIntList[nStops];
+        for (int s = 0; s < nStops; s++) patternLists[s] = new TIntArrayList();
+        for (int p = 0; p < nPatterns; p++) {
+            for (int stopIndex : timetables[p].stopIndices) {
+                // A pattern may pass through the same stop twice, only record it once.
+                if (!patternLists[stopIndex].contains(p)) patternLists[stopIndex].add(p);
+            }
+        }
+        patternsForStop = new int[nStops][];
+        transfersForStop = new int[nStops][];
+        for (int s = 0; s < nStops; s++) {
+            patternsForStop[s] = patternLists[s].toArray();
+            TIntList transfers = new TIntArrayList();
+            for (SimpleTransfer transfer : Iterables.filter(stops[s].getOutgoing(), SimpleTransfer.class)) {
+                int target = indexForStop.get(transfer.getToVertex().getIndex());
+                if (target != -1) {
+                    transfers.add(target);
+                    transfers.add((int) transfer.getDistance());
+                }
+            }
+            transfersForStop[s] = transfers.isEmpty() ? RaptorWorkerData.EMPTY_INT_ARRAY : transfers.toArray();
+        }
+        LOG.info("Made RAPTOR timetables for {}: {} patterns, {} trips and {} stops in {} msec.", serviceDate,
+                nPatterns, ts.scheduledTripCount, nStops, System.currentTimeMillis() - start);
+    }
+
+}
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
 /**
@@ -49,6 +50,20 @@ public class RaptorWorker {
     /** If there are no schedules, the number of Monte Carlo draws to take */
     public static final int TOTAL_MONTE_CARLO_COUNT = 99;
 
+    /**
+     * When the departure window is split up for parallel computation, the minimum number of departure minutes handled
+     * by each worker. Each chunk but the last is searched twice (see runRaptor) and the first minute of each chunk is as
+     * expensive as a full search, so chunks that are too short would waste most of the parallel speedup.
+     */
+    public static final int MIN_MINUTES_PER_CHUNK = 5;
+
+    /**
+     * If true, split the departure window into chunks of consecutive minutes and search them in parallel on the
+     * common ForkJoin pool, each chunk with its own worker state. This is meant for single high-priority requests;
+     * when many origins are being computed at once they are already spread over all the available cores.
+     */
+    public boolean parallel = false;
+
     int max_time = 0;
     int round = 0;
     List<int[]> timesPerStopPerRound;
@@ -100,6 +115,12 @@ public class RaptorWorker {
 
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption used for frequency-based trips in the current search. This is usually the one from the
+     * request, but is temporarily changed to compute the best and worst cases.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -111,6 +132,7 @@ public class RaptorWorker {
         stopsTouched = new BitSet(data.nStops);
         patternsTouched = new BitSet(data.nPatterns);
         this.req = req; 
+        this.boardingAssumption = req.boardingAssumption;
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
@@ -130,6 +152,20 @@ public class RaptorWorker {
      * @param nonTransitTimes the time to reach all targets without transit. Targets can be vertices or points/samples.
      */
     public PropagatedTimesStore runRaptor (Graph graph, TIntIntMap accessTimes, int[] nonTransitTimes, TaskStatistics ts) {
+        PropagatedTimesStore propagatedTimesStore = new PropagatedTimesStore(graph, data.nTargets);
+        int[][] timesAtTargetsEachIteration = runIterations(accessTimes, nonTransitTimes, ts);
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration,
+                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        return propagatedTimesStore;
+    }
+
+    /**
+     * Run the searches for every departure minute (and frequency draw) of the time window.
+     * @return the travel times to each target for each iteration, from the latest departure minute to the earliest.
+     */
+    int[][] runIterations (TIntIntMap accessTimes, int[] nonTransitTimes, TaskStatistics ts) {
         long beginCalcTime = System.currentTimeMillis();
         TIntIntMap initialStops = new TIntIntHashMap();
         TIntIntIterator initialIterator = accessTimes.iterator();
@@ -140,8 +176,6 @@ public class RaptorWorker {
             initialStops.put(stopIndex, accessTime);
         }
 
-        PropagatedTimesStore propagatedTimesStore = new PropagatedTimesStore(graph, data.nTargets);
-
         // optimization: if no schedules, only run Monte Carlo
         int fromTime = req.fromTime;
         int monteCarloDraws = MONTE_CARLO_COUNT_PER_MINUTE;
@@ -152,7 +186,8 @@ public class RaptorWorker {
         }
 
         // if no frequencies, don't run Monte Carlo
-        int iterations = (req.toTime - fromTime - 60) / 60 + 1;
+        int nMinutes = (req.toTime - fromTime - 60) / 60 + 1;
+        int iterations = nMinutes;
 
         // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
         // So only update the number of iterations when we're actually going to use all of them, to
@@ -170,15 +205,129 @@ public class RaptorWorker {
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        // the number of iterations that were actually computed
+        int iteration;
+
+        int nChunks = 1;
+        if (parallel) {
+            nChunks = Math.min(nMinutes / MIN_MINUTES_PER_CHUNK, ForkJoinPool.getCommonPoolParallelism() + 1);
+        }
+
+        if (nChunks <= 1) {
+            iteration = this.runMinutes(initialStops, nonTransitTimes, fromTime, monteCarloDraws, 0, nMinutes,
+                    timesAtTargetsEachIteration);
+        } else {
+            // Each chunk is a range of consecutive departure minutes searched by a separate worker, which writes into
+            // its own part of the results array. Note that we reuse our own state for the first chunk.
+            int minutesPerChunk = (nMinutes + nChunks - 1) / nChunks;
+            RaptorWorker[] workers = new RaptorWorker[nChunks];
+            workers[0] = this;
+            for (int c = 1; c < nChunks; c++) {
+                workers[c] = new RaptorWorker(data, req);
+            }
+            final int finalFromTime = fromTime, finalMonteCarloDraws = monteCarloDraws;
+            LOG.info("Searching {} departure minutes in {} parallel chunks", nMinutes, nChunks);
+            // Range-RAPTOR carries the stop times of each departure minute over to the next earlier one, which can
+            // keep trips that a search from the earlier minute alone would cut off at MAX_DURATION. To give the same
+            // results as searching all the minutes in one worker, each chunk must start from the stop times of all
+            // the later chunks. Those only depend on the scheduled searches, so first run the scheduled searches of
+            // every chunk but the last in parallel, then carry their stop times over in order of departure minute.
+            RaptorWorker[] laterChunks = new RaptorWorker[nChunks - 1];
+            IntStream.range(0, nChunks - 1).parallel().forEach(c -> {
+                laterChunks[c] = new RaptorWorker(data, req);
+                laterChunks[c].runScheduledMinutes(initialStops, finalFromTime, c * minutesPerChunk,
+                        Math.min((c + 1) * minutesPerChunk, nMinutes));
+            });
+            for (int c = 1; c < nChunks; c++) {
+                if (c > 1) workers[c].carryOver(workers[c - 1]);
+                workers[c].carryOver(laterChunks[c - 1]);
+            }
+            iteration = IntStream.range(0, nChunks).parallel().map(c -> {
+                int firstMinute = c * minutesPerChunk;
+                int endMinute = Math.min(firstMinute + minutesPerChunk, nMinutes);
+                return workers[c].runMinutes(initialStops, nonTransitTimes, finalFromTime, finalMonteCarloDraws,
+                        firstMinute, endMinute, timesAtTargetsEachIteration);
+            }).sum();
+            for (int c = 1; c < nChunks; c++) {
+                totalPropagationTime += workers[c].totalPropagationTime;
+            }
+        }
+
+        // make sure we filled the array, otherwise results are garbage.
+        // This implies a bug in OTP, but it has happened in the past when we did
+        // not set the number of iterations correctly.
+        // iteration should be incremented past end of array by ++ in assignment above
+        if (iteration != iterations)
+            throw new IllegalStateException("Iterations did not completely fill output array");
+
+        // When running in parallel, the propagation time is summed over all threads and may exceed the wall clock time.
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
+        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
+        ts.propagation = (int) totalPropagationTime;
+        ts.transitSearch = (int) Math.max(calcTime - totalPropagationTime, 0);
+        //dumpVariableByte(timesAtTargetsEachMinute);
+        return timesAtTargetsEachIteration;
+    }
+
+    /**
+     * Run only the scheduled searches for a range of departure minutes, without propagating to the targets. This
+     * leaves the worker with the stop times that range-RAPTOR would carry over to the minute before the range.
+     */
+    private void runScheduledMinutes (TIntIntMap initialStops, int fromTime, int firstMinute, int endMinute) {
+        for (int n = firstMinute, departureTime = req.toTime - 60 - n * 60; n < endMinute && departureTime >= fromTime;
+             departureTime -= 60, n++) {
+            this.runRaptorScheduled(initialStops, departureTime);
+        }
+    }
+
+    /**
+     * Take over the stop times another worker found for later departure minutes, as if this worker had searched those
+     * minutes itself before its own. As within a range-RAPTOR search, a time is only replaced by a strictly better one.
+     */
+    private void carryOver (RaptorWorker later) {
+        for (int s = 0; s < data.nStops; s++) {
+            if (later.bestTimes[s] < bestTimes[s]) {
+                bestTimes[s] = later.bestTimes[s];
+                previousPatterns[s] = later.previousPatterns[s];
+            }
+            if (later.bestNonTransferTimes[s] < bestNonTransferTimes[s]) {
+                bestNonTransferTimes[s] = later.bestNonTransferTimes[s];
+            }
+        }
+    }
+
+    /**
+     * Run the searches for a range of departure minutes, counting backward from the end of the time window, and store
+     * the travel times to the targets in the corresponding rows of timesAtTargetsEachIteration.
+     *
+     * @param firstMinute the number of the first (latest) departure minute to search, where zero is the end of the window.
+     * @param endMinute one past the number of the last (earliest) departure minute to search.
+     * @return the number of iterations computed, which is the number of rows filled in timesAtTargetsEachIteration.
+     */
+    private int runMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int fromTime, int monteCarloDraws,
+                            int firstMinute, int endMinute, int[][] timesAtTargetsEachIteration) {
+        int iterationsPerMinute = data.hasFrequencies ? monteCarloDraws + 2 : 1;
+
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
+        // Stop times carried over from later departure minutes by another worker would already have been propagated
+        // to the targets had this worker searched those minutes itself.
+        allStopsTouched.clear();
+        for (int s = 0; s < data.nStops; s++) {
+            if (bestNonTransferTimes[s] != UNREACHED) allStopsTouched.set(s);
+        }
+        this.doPropagation(bestNonTransferTimes, scheduledTimesAtTargets, req.toTime);
+
         // current iteration
-        int iteration = 0;
+        int iteration = firstMinute * iterationsPerMinute;
 
         // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        for (int n = firstMinute, departureTime = req.toTime - 60 - n * 60; n < endMinute && departureTime >= fromTime;
+             departureTime -= 60, n++) {
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
@@ -208,20 +357,19 @@ public class RaptorWorker {
                     // special cases: calculate the best and the worst cases as well
                     // Note that this (intentionally) does not affect searches where the user has requested
                     // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
+                    // The request itself is not modified, since it may be shared with other workers.
                     if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
                     else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                    else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
                         // use a new Monte Carlo draw each time
                         offsets.randomize();
 
                     this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
                             previousPatternsCopy);
 
-                    req.boardingAssumption = requestedBoardingAssumption;
+                    boardingAssumption = req.boardingAssumption;
 
                     // do propagation
                     int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
@@ -244,26 +392,7 @@ public class RaptorWorker {
                         .toArray();
             }
         }
-
-        // make sure we filled the array, otherwise results are garbage.
-        // This implies a bug in OTP, but it has happened in the past when we did
-        // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
-
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+        return iteration - firstMinute * iterationsPerMinute;
     }
 
     public void dumpVariableByte(int[][] array) {
@@ -366,7 +495,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
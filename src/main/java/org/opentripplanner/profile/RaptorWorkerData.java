@@ -4,6 +4,8 @@ import com.beust.jcommander.internal.Lists;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.iterator.TObjectIntIterator;
@@ -34,6 +36,7 @@ import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetSearchCache;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
@@ -44,12 +47,14 @@ import org.opentripplanner.transit.TransitLayer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
 public class RaptorWorkerData implements Serializable {
@@ -58,6 +63,10 @@ public class RaptorWorkerData implements Serializable {
     /** we use empty int arrays for various things, e.g. transfers from isolated stops. They're immutable so only use one */
     public static final int[] EMPTY_INT_ARRAY = new int[0];
 
+    /** Identifies the binary format written by write(). Change the version whenever the format changes. */
+    private static final int BINARY_FORMAT_MAGIC = 0x52575244; // "RWRD"
+    private static final int BINARY_FORMAT_VERSION = 1;
+
     public final int nStops;
 
     public final int nPatterns;
@@ -462,10 +471,12 @@ public class RaptorWorkerData implements Serializable {
                 Vertex tstop = graph.getVertexById(stop);
                 boolean isPermanentStop = tstop != null && TransitStop.class.isInstance(tstop);
                 // convert distance to time
-                int[] distancesForStop = isPermanentStop ? stc.distancesForStop.get(tstop) : temporaryStopTreeCache.get(stop);
+                int[] distancesForStop = isPermanentStop ? stc.distances : temporaryStopTreeCache.get(stop);
+                int start = isPermanentStop ? stc.getStart(tstop) : 0;
+                int end = isPermanentStop ? stc.getEnd(tstop) : distancesForStop.length;
                 TIntList timesForStop = new TIntArrayList();
 
-                for (int i = 0; i < distancesForStop.length; i += 2) {
+                for (int i = start; i < end; i += 2) {
                     int vidx = distancesForStop[i];
                     int dist = distancesForStop[i + 1];
 
@@ -542,16 +553,22 @@ public class RaptorWorkerData implements Serializable {
                 int stop = stopIt.next();
 
                 int[] distancesForStop;
+                int start, end;
                 
                 Vertex tstop = graph.getVertexById(stop);
-                if (tstop != null && TransitStop.class.isInstance(tstop))
+                if (tstop != null && TransitStop.class.isInstance(tstop)) {
                     // permanent stop
-                    distancesForStop = stc.distancesForStop.get(tstop);
-                else
+                    distancesForStop = stc.distances;
+                    start = stc.getStart(tstop);
+                    end = stc.getEnd(tstop);
+                } else {
                     // temporary stop
                     distancesForStop = temporaryStopTreeCache.get(stop);
+                    start = 0;
+                    end = distancesForStop.length;
+                }
 
-                STREET: for (int i = 0; i < distancesForStop.length; i++) {
+                STREET: for (int i = start; i < end; i++) {
                     int v = distancesForStop[i++];
                     int d = distancesForStop[i];
 
@@ -638,6 +655,47 @@ public class RaptorWorkerData implements Serializable {
         }
 
         // and handle the additional stops
+        addTemporaryStops(accessTimes, v -> {
+            State s = spt.getState(v);
+            return s == null ? Double.POSITIVE_INFINITY : s.getWalkDistance();
+        }, walkSpeed);
+
+        return accessTimes;
+    }
+
+    /**
+     * Find stops from the states of a cached street search (StreetSearchCache.Result), including temporary stops.
+     * The result must hold the best state at each vertex, and access times are computed from walk distances as above.
+     */
+    public TIntIntMap findStopsNear (StreetSearchCache.Result states, Graph graph, float walkSpeed) {
+        TIntIntMap entryForVertex = new TIntIntHashMap(states.size(), 0.5f, -1, -1);
+        for (int i = 0; i < states.size(); i++) {
+            entryForVertex.put(states.getVertex(i).getIndex(), i);
+        }
+        TIntIntMap accessTimes = new TIntIntHashMap();
+
+        for (TransitStop tstop : graph.index.stopVertexForStop.values()) {
+            int i = entryForVertex.get(tstop.getIndex());
+            int stopIndex = indexForStop.get(tstop.getIndex());
+            if (i != -1 && stopIndex != -1) {
+                accessTimes.put(stopIndex, (int) (states.getWalkDistance(i) / walkSpeed));
+            }
+        }
+
+        addTemporaryStops(accessTimes, v -> {
+            int i = entryForVertex.get(v.getIndex());
+            return i == -1 ? Double.POSITIVE_INFINITY : states.getWalkDistance(i);
+        }, walkSpeed);
+
+        return accessTimes;
+    }
+
+    /**
+     * Add the stops added by a scenario to the given access times, which are found from the walk distances to the
+     * vertices their samples are linked to.
+     * @param walkDistance the walk distance to a vertex, or positive infinity if it was not reached.
+     */
+    private void addTemporaryStops (TIntIntMap accessTimes, ToDoubleFunction<Vertex> walkDistance, float walkSpeed) {
         for (TObjectIntIterator<AddTripPattern.TemporaryStop> it = addedStops.iterator(); it.hasNext();) {
             it.advance();
             
@@ -649,20 +707,12 @@ public class RaptorWorkerData implements Serializable {
             double dist = Double.POSITIVE_INFINITY;
 
             if (tstop.sample.v0 != null) {
-                State s0 = spt.getState(tstop.sample.v0);
-
-                if (s0 != null) {
-                    dist = s0.getWalkDistance() + tstop.sample.d0;
-                }
+                dist = walkDistance.applyAsDouble(tstop.sample.v0) + tstop.sample.d0;
             }
 
             if (tstop.sample.v1 != null) {
-                State s1 = spt.getState(tstop.sample.v1);
-
-                if (s1 != null) {
-                    double d1 = s1.getWalkDistance() + tstop.sample.d1;
-                    dist = Double.isInfinite(dist) ? d1 : Math.min(d1, dist);
-                }
+                double d1 = walkDistance.applyAsDouble(tstop.sample.v1) + tstop.sample.d1;
+                dist = Math.min(d1, dist);
             }
 
             if (Double.isInfinite(dist))
@@ -671,8 +721,131 @@ public class RaptorWorkerData implements Serializable {
             // NB using the index in the worker data not the index in the graph!
             accessTimes.put(it.value(), (int) (dist / walkSpeed));
         }
+    }
 
-        return accessTimes;
+    /**
+     * @return true if this data can be written with write(). Stops added by a scenario and transfer rules refer to
+     * objects that only exist for the duration of a request, so data built with them cannot be saved.
+     */
+    public boolean isWritable () {
+        return addedStops.isEmpty() && transferRules.isEmpty() && baseTransferRules.isEmpty();
+    }
+
+    /**
+     * Write this data in a compact binary format, using variable-length delta-coded integers. Transit stops are
+     * identified by their vertex labels rather than their vertex indexes, which change each time a graph is loaded,
+     * so the data can be read back against another copy of the same graph. Targets are written as-is, so they should
+     * be the points of a sample set rather than vertex indexes.
+     */
+    public void write (CodedOutputStream out, Graph graph) throws IOException {
+        if (!isWritable()) {
+            throw new IllegalStateException("RaptorWorkerData with scenario stops or transfer rules cannot be saved.");
+        }
+        String[] labelForStop = new String[nStops];
+        for (TransitStop tstop : graph.index.stopVertexForStop.values()) {
+            int stopIndex = indexForStop.get(tstop.getIndex());
+            if (stopIndex != -1) labelForStop[stopIndex] = tstop.getLabel();
+        }
+        out.writeFixed32NoTag(BINARY_FORMAT_MAGIC);
+        out.writeUInt32NoTag(BINARY_FORMAT_VERSION);
+        out.writeUInt32NoTag(nStops);
+        out.writeUInt32NoTag(nPatterns);
+        out.writeUInt32NoTag(nTargets);
+        out.writeBoolNoTag(hasSchedules);
+        out.writeBoolNoTag(hasFrequencies);
+        out.writeInt32NoTag(boardingAssumption == null ? -1 : boardingAssumption.ordinal());
+        for (String label : labelForStop) {
+            if (label == null) {
+                throw new IllegalStateException("RaptorWorkerData contains a stop that is not in the graph.");
+            }
+            out.writeStringNoTag(label);
+        }
+        writeIntArrays(out, transfersForStop.toArray(new int[0][]));
+        writeIntArrays(out, patternsForStop.toArray(new int[0][]));
+        writeIntArrays(out, targetsForStop.toArray(new int[0][]));
+        out.writeUInt32NoTag(timetablesForPattern.size());
+        for (RaptorWorkerTimetable timetable : timetablesForPattern) {
+            out.writeBoolNoTag(timetable != null);
+            if (timetable != null) timetable.write(out);
+        }
+    }
+
+    /**
+     * Read data written by write(), resolving the transit stops against the given graph.
+     * @throws IOException if the data is not in the expected format or refers to stops that are not in the graph.
+     */
+    public RaptorWorkerData (CodedInputStream in, Graph graph) throws IOException {
+        if (in.readFixed32() != BINARY_FORMAT_MAGIC || in.readUInt32() != BINARY_FORMAT_VERSION) {
+            throw new IOException("Not RaptorWorkerData, or written in an unsupported version of the format.");
+        }
+        nStops = in.readUInt32();
+        nPatterns = in.readUInt32();
+        nTargets = in.readUInt32();
+        hasSchedules = in.readBool();
+        hasFrequencies = in.readBool();
+        int assumption = in.readInt32();
+        boardingAssumption = assumption < 0 ? null : RaptorWorkerTimetable.BoardingAssumption.values()[assumption];
+        indexForStop = new TIntIntHashMap(nStops, 0.75f, Integer.MIN_VALUE, -1);
+        for (int s = 0; s < nStops; s++) {
+            String label = in.readString();
+            Vertex v = graph.getVertex(label);
+            if (v == null) {
+                throw new IOException("Transit stop " + label + " is not in the graph.");
+            }
+            indexForStop.put(v.getIndex(), s);
+            stopNames.add(label);
+        }
+        transfersForStop.addAll(Arrays.asList(readIntArrays(in)));
+        patternsForStop.addAll(Arrays.asList(readIntArrays(in)));
+        targetsForStop.addAll(Arrays.asList(readIntArrays(in)));
+        int nTimetables = in.readUInt32();
+        timetablesForPattern = new ArrayList<>(nTimetables);
+        for (int p = 0; p < nTimetables; p++) {
+            timetablesForPattern.add(in.readBool() ? RaptorWorkerTimetable.read(in, this) : null);
+        }
+    }
+
+    /** Write an array of ints, which may be null, as a length followed by zigzag-encoded differences. */
+    static void writeIntArray (CodedOutputStream out, int[] array) throws IOException {
+        // zero means null, otherwise one more than the length
+        out.writeUInt32NoTag(array == null ? 0 : array.length + 1);
+        if (array == null) return;
+        int prev = 0;
+        for (int value : array) {
+            // Most arrays are increasing times or (target, time) pairs, so differences are smaller than the values.
+            out.writeSInt32NoTag(value - prev);
+            prev = value;
+        }
+    }
+
+    static int[] readIntArray (CodedInputStream in) throws IOException {
+        int length = in.readUInt32();
+        if (length == 0) return null;
+        int[] array = new int[length - 1];
+        int prev = 0;
+        for (int i = 0; i < array.length; i++) {
+            prev += in.readSInt32();
+            array[i] = prev;
+        }
+        return array;
+    }
+
+    static void writeIntArrays (CodedOutputStream out, int[][] arrays) throws IOException {
+        out.writeUInt32NoTag(arrays == null ? 0 : arrays.length + 1);
+        if (arrays == null) return;
+        for (int[] array : arrays) {
+            writeIntArray(out, array);
+        }
+    }
+
+    static int[][] readIntArrays (CodedInputStream in) throws IOException {
+        int length = in.readUInt32();
+        if (length == 0) return null;
+        int[][] arrays = new int[length - 1][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = readIntArray(in);
+        }
+        return arrays;
     }
 
     /** half a sample: the index in the sample set, and the distance to one of the vertices */
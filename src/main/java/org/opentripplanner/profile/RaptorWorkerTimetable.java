@@ -2,6 +2,8 @@ package org.opentripplanner.profile;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import org.opentripplanner.analyst.cluster.TaskStatistics;
 import org.opentripplanner.analyst.scenario.AddTripPattern;
 import org.opentripplanner.analyst.scenario.Scenario;
@@ -14,6 +16,7 @@ import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.BitSet;
 import java.util.Collection;
@@ -245,6 +248,35 @@ public class RaptorWorkerTimetable implements Serializable {
         return this.timesPerTrip != null && this.timesPerTrip.length > 0;
     }
 
+    /** Write this timetable in the compact binary format used by RaptorWorkerData.write. */
+    void write (CodedOutputStream out) throws IOException {
+        out.writeUInt32NoTag(nTrips);
+        out.writeUInt32NoTag(nStops);
+        out.writeInt32NoTag(mode);
+        out.writeUInt32NoTag(dataIndex);
+        RaptorWorkerData.writeIntArray(out, stopIndices);
+        RaptorWorkerData.writeIntArrays(out, timesPerTrip);
+        RaptorWorkerData.writeIntArrays(out, frequencyTrips);
+        RaptorWorkerData.writeIntArray(out, headwaySecs);
+        RaptorWorkerData.writeIntArray(out, startTimes);
+        RaptorWorkerData.writeIntArray(out, endTimes);
+    }
+
+    /** Read a timetable written by write(), belonging to the given RaptorWorkerData. */
+    static RaptorWorkerTimetable read (CodedInputStream in, RaptorWorkerData raptorData) throws IOException {
+        RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(in.readUInt32(), in.readUInt32());
+        rwtt.mode = in.readInt32();
+        rwtt.dataIndex = in.readUInt32();
+        rwtt.stopIndices = RaptorWorkerData.readIntArray(in);
+        rwtt.timesPerTrip = RaptorWorkerData.readIntArrays(in);
+        rwtt.frequencyTrips = RaptorWorkerData.readIntArrays(in);
+        rwtt.headwaySecs = RaptorWorkerData.readIntArray(in);
+        rwtt.startTimes = RaptorWorkerData.readIntArray(in);
+        rwtt.endTimes = RaptorWorkerData.readIntArray(in);
+        rwtt.raptorData = raptorData;
+        return rwtt;
+    }
+
     /**
      * This is a factory function rather than a constructor to avoid calling the super constructor for rejected patterns.
      * BannedRoutes is formatted as agencyid_routeid.
@@ -16,12 +16,14 @@ import org.opentripplanner.analyst.scenario.AddTripPattern;
 import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.algorithm.StreetStateArena;
 import org.opentripplanner.routing.core.RoutingRequest;
-import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetSearchCache;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -70,7 +72,8 @@ public class RepeatedRaptorProfileRouter {
      */
     public RaptorWorkerData raptorWorkerData;
 
-    private ShortestPathTree preTransitSpt;
+    /** The best state at each vertex reached by the street search from the origin, see findInitialStops. */
+    private StreetSearchCache.Result preTransitStates;
 
     /** The sum of all earliest-arrival travel times to a given transit stop. Will be divided to create an average. */
     TObjectLongMap<TransitStop> accumulator = new TObjectLongHashMap<TransitStop>();
@@ -89,6 +92,9 @@ public class RepeatedRaptorProfileRouter {
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    // Set this field to true before routing to search the departure minutes in parallel (see RaptorWorker.parallel).
+    public boolean parallelRaptor = false;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -151,17 +157,12 @@ public class RepeatedRaptorProfileRouter {
         // Create an array containing the best travel time in seconds to each vertex in the graph when not using transit.
         int[] nonTransitTimes = new int[Vertex.getMaxIndex()];
         Arrays.fill(nonTransitTimes, Integer.MAX_VALUE);
-        for (State state : preTransitSpt.getAllStates()) {
+        for (int i = 0; i < preTransitStates.size(); i++) {
             // Note that we are using the walk distance divided by speed here in order to be consistent with the
             // least-walk optimization in the initial stop search (and the stop tree cache which is used at egress)
             // TODO consider why this matters, I'm using reported travel time from the states
-            int time = (int) state.getElapsedTimeSeconds();
-            int vidx = state.getVertex().getIndex();
-            int otime = nonTransitTimes[vidx];
-            // There may be dominated states in the SPT. Make sure we don't include them here.
-            if (otime > time) {
-                nonTransitTimes[vidx] = time;
-            }
+            // This is the lowest elapsed time of all states at the vertex, there may be dominated states in the SPT.
+            nonTransitTimes[preTransitStates.getVertex(i).getIndex()] = preTransitStates.getElapsedSeconds(i);
         }
         ts.initialStopSearch = (int) (System.currentTimeMillis() - initialStopStartTime);
 
@@ -177,6 +178,7 @@ public class RepeatedRaptorProfileRouter {
 
         if (transit) {
             RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            worker.parallel = parallelRaptor;
             propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
             ts.initialStopCount = transitStopAccessTimes.size();
         } else {
@@ -212,8 +214,9 @@ public class RepeatedRaptorProfileRouter {
     }
 
     /**
-     * Find all transit stops accessible by streets around the origin, leaving behind a shortest path tree of the
-     * reachable area in the field preTransitSpt.
+     * Find all transit stops accessible by streets around the origin, leaving behind the best states in the
+     * reachable area in the field preTransitStates. Walking searches to reach transit are taken from the graph's
+     * street search cache when the same location has been searched before with the same parameters.
      *
      * @param data the raptor data table to use. If this is null (i.e. there is no transit) range is extended,
      *             and we don't care if we actually find any stops, we just want the tree of on-street distances.
@@ -267,13 +270,33 @@ public class RepeatedRaptorProfileRouter {
         rr.numItineraries = 1;
         rr.longDistance = true;
 
-        AStar aStar = new AStar();
-        preTransitSpt = aStar.getShortestPathTree(rr, 5);
+        StreetSearchCache cache = data == null ? null : graph.streetSearchCache;
+        StreetSearchCache.Key key = cache == null ? null : StreetSearchCache.key("profile access", rr, rr.rctx.origin);
+        preTransitStates = cache == null ? null : cache.get(key);
+        ShortestPathTree preTransitSpt = null;
+        if (preTransitStates == null && data != null && graph.compactStreetGraph != null &&
+                !rr.modes.getBicycle() && !rr.modes.getCar()) {
+            // A walk access search only needs distances, which the street state arena finds without State objects.
+            StreetStateArena arena = StreetStateArena.forCurrentThread(graph.compactStreetGraph);
+            preTransitStates = new GenericDijkstra(rr).getStreetStates(arena, true, Integer.MAX_VALUE).toResult();
+            if (cache != null) cache.put(key, preTransitStates);
+        } else if (preTransitStates == null) {
+            AStar aStar = new AStar();
+            preTransitSpt = aStar.getShortestPathTree(rr, 5);
+            preTransitStates = StreetSearchCache.Result.fromShortestPathTree(preTransitSpt);
+            // A search cut short by the time limit has only reached part of the stops, so do not reuse it.
+            if (cache != null && !rr.rctx.debugOutput.timedOut) cache.put(key, preTransitStates);
+        } else {
+            LOG.debug("Reusing cached street search from origin");
+        }
 
         // Return nearest stops if we're using transit,
-        // otherwise return null and leave preTransitSpt around for later use.
+        // otherwise return null and leave preTransitStates around for later use.
         if (data != null) {
-            TIntIntMap accessTimes = data.findStopsNear(preTransitSpt, graph, rr.modes.contains(TraverseMode.BICYCLE), request.walkSpeed);
+            // A cached search is always a walk search, whose access times come from walk distances.
+            TIntIntMap accessTimes = preTransitSpt == null ?
+                    data.findStopsNear(preTransitStates, graph, request.walkSpeed) :
+                    data.findStopsNear(preTransitSpt, graph, rr.modes.contains(TraverseMode.BICYCLE), request.walkSpeed);
             LOG.info("Found {} transit stops", accessTimes.size());
             return accessTimes;
         } else {
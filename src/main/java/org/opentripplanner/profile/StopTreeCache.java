@@ -1,8 +1,8 @@
 package org.opentripplanner.profile;
 
-import com.beust.jcommander.internal.Maps;
-
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.algorithm.StreetStateArena;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -14,61 +14,142 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.stream.IntStream;
 
 /**
  * Keeps travel distances from all transit stops in a particular Graph to their nearby street nodes.
  * This allows us to propagate travel times out from transit to streets much faster in one-to-many analyst queries.
  * The StopTreeCache has a fixed distance cutoff, so will be unable to provide distance information for vertices beyond
  * that cutoff distance.
+ *
+ * The trees of all stops are stored one after the other in a single flat array of (streetVertexIndex, distanceMeters)
+ * pairs, the tree of a stop running from getStart(stop) to getEnd(stop). This keeps the whole cache in three arrays
+ * rather than one per stop, and lets it be saved to and loaded from a file quickly (see save and load).
  */
 public class StopTreeCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(StopTreeCache.class);
+
+    /* Marks a stop tree cache file, followed by the version of the format. */
+    private static final int MAGIC = 0x53545243;
+    private static final int VERSION = 1;
+
     final int maxWalkMeters;
-    // Flattened 2D array of (streetVertexIndex, distanceFromStop) for each TransitStop
-    public final Map<TransitStop, int[]> distancesForStop = Maps.newHashMap();
+
+    /** The vertex indexes of the stops in the cache, in ascending order. */
+    private final int[] stopVertices;
+
+    /** The tree of the stop at position i in stopVertices is distances[offsets[i]] to distances[offsets[i + 1] - 1]. */
+    private final int[] offsets;
+
+    /** Flattened 2D array of (streetVertexIndex, distanceFromStop) pairs for all stops. */
+    public final int[] distances;
 
     public StopTreeCache (Graph graph, int maxWalkMeters) {
         this.maxWalkMeters = maxWalkMeters;
         LOG.info("Caching distances to nearby street intersections from each transit stop...");
-        graph.index.stopVertexForStop.values().parallelStream().forEach(tstop -> {
-            RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
-            rr.batch = (true);
-            rr.setRoutingContext(graph, tstop, tstop);
-            AStar astar = new AStar();
-            rr.longDistance = true;
-            rr.setNumItineraries(1);
-
-            // since we're storing distances and later using them to optimize
-            // (in the profile propagation code we optimize on distance / walkSpeed
-            //  not the actual time including turn costs etc.),
-            // we need to optimize on distance here as well.
-            rr.maxWalkDistance = maxWalkMeters;
-            rr.softWalkLimiting = false;
-            rr.dominanceFunction = new DominanceFunction.LeastWalk();
-
-            ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
+        long startTime = System.currentTimeMillis();
+        TransitStop[] stops = graph.index.stopVertexForStop.values().toArray(new TransitStop[0]);
+        Arrays.sort(stops, Comparator.comparingInt(Vertex::getIndex));
+        int[][] trees = new int[stops.length][];
+        // Parallel streams run on the common fork-join pool. Each worker thread makes its searches in its own arena.
+        IntStream.range(0, stops.length).parallel().forEach(i -> trees[i] = makeTree(graph, stops[i]));
+
+        stopVertices = new int[stops.length];
+        offsets = new int[stops.length + 1];
+        for (int i = 0; i < stops.length; i++) {
+            stopVertices[i] = stops[i].getIndex();
+            offsets[i + 1] = offsets[i] + trees[i].length;
+        }
+        distances = new int[offsets[stops.length]];
+        for (int i = 0; i < stops.length; i++) {
+            System.arraycopy(trees[i], 0, distances, offsets[i], trees[i].length);
+        }
+        LOG.info("Done caching distances to nearby street intersections from {} transit stops in {} ms.",
+                stops.length, System.currentTimeMillis() - startTime);
+    }
+
+    private StopTreeCache (int maxWalkMeters, int[] stopVertices, int[] offsets, int[] distances) {
+        this.maxWalkMeters = maxWalkMeters;
+        this.stopVertices = stopVertices;
+        this.offsets = offsets;
+        this.distances = distances;
+    }
+
+    /** @return the flattened (vertexIndex, distance) pairs of the tree of the given stop, without any empty pairs. */
+    private int[] makeTree (Graph graph, TransitStop tstop) {
+        RoutingRequest rr = new RoutingRequest(TraverseMode.WALK);
+        rr.batch = (true);
+        rr.setRoutingContext(graph, tstop, tstop);
+        rr.longDistance = true;
+        rr.setNumItineraries(1);
+
+        // since we're storing distances and later using them to optimize
+        // (in the profile propagation code we optimize on distance / walkSpeed
+        //  not the actual time including turn costs etc.),
+        // we need to optimize on distance here as well.
+        rr.maxWalkDistance = maxWalkMeters;
+        rr.softWalkLimiting = false;
+        rr.dominanceFunction = new DominanceFunction.LeastWalk();
+
+        int[] tree;
+        if (graph.compactStreetGraph != null) {
+            StreetStateArena arena = StreetStateArena.forCurrentThread(graph.compactStreetGraph);
+            new GenericDijkstra(rr).getStreetStates(arena, true, Integer.MAX_VALUE);
+            tree = new int[arena.size() * 2];
+            int i = 0;
+            for (int s = 0; s < arena.size(); s++) {
+                int v = arena.getVertex(s);
+                // Skip states that were later improved on.
+                if (arena.getBestState(v) != s) continue;
+                tree[i++] = v;
+                tree[i++] = (int) arena.getWalkDistance(s);
+            }
+            tree = Arrays.copyOf(tree, i);
+        } else {
+            ShortestPathTree spt = new AStar().getShortestPathTree(rr, 5); // timeout in seconds
             // Copy vertex indices and distances into a flattened 2D array
-            int[] distances = new int[spt.getVertexCount() * 2];
+            tree = new int[spt.getVertexCount() * 2];
             int i = 0;
             for (Vertex vertex : spt.getVertices()) {
                 State state = spt.getState(vertex);
-                
+
                 if (state == null)
                     continue;
-                
-                distances[i++] = vertex.getIndex();
-                distances[i++] = (int) state.getWalkDistance();
+
+                tree[i++] = vertex.getIndex();
+                tree[i++] = (int) state.getWalkDistance();
             }
+            tree = Arrays.copyOf(tree, i);
+        }
+        rr.cleanup();
+        return tree;
+    }
 
-            rr.cleanup();
+    /** @return the position of the first pair in the tree of the given stop, which is also getEnd if it has none. */
+    public int getStart (Vertex stop) {
+        int i = Arrays.binarySearch(stopVertices, stop.getIndex());
+        return i < 0 ? 0 : offsets[i];
+    }
 
-            synchronized (distancesForStop) {
-                distancesForStop.put(tstop, distances);
-            }
-        });
-        LOG.info("Done caching distances to nearby street intersections from each transit stop.");
+    /** @return the position following the last pair in the tree of the given stop. */
+    public int getEnd (Vertex stop) {
+        int i = Arrays.binarySearch(stopVertices, stop.getIndex());
+        return i < 0 ? 0 : offsets[i + 1];
     }
 
     /**
@@ -79,9 +160,9 @@ public class StopTreeCache {
     public void propagateStop(TransitStop transitStop, int baseTimeSeconds, double walkSpeed, int[] targetArray) {
         // Iterate over street intersections in the vicinity of this particular transit stop.
         // Shift the time range at this transit stop, merging it into that for all reachable street intersections.
-        int[] distances = distancesForStop.get(transitStop);
-        int v = 0;
-        while (v < distances.length) {
+        int v = getStart(transitStop);
+        int end = getEnd(transitStop);
+        while (v < end) {
             // Unravel flattened 2D array
             int vertexIndex = distances[v++];
             int distance = distances[v++];
@@ -96,4 +177,105 @@ public class StopTreeCache {
 
     }
 
+    /**
+     * Save this cache to the given file, so that it can be loaded with the same graph instead of being rebuilt.
+     * Vertex indexes are not stable from one run to the next, so they are saved relative to the lowest vertex index in
+     * the graph along with a fingerprint of the vertex labels in index order, which load checks. Failures are logged
+     * and ignored.
+     */
+    public void save (File file, Graph graph) {
+        long startTime = System.currentTimeMillis();
+        int base = getMinVertexIndex(graph);
+        File tempFile = null;
+        try {
+            // Write to a temporary file and move it into place, so that other processes never see a partially written
+            // file.
+            tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile), 1024 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(maxWalkMeters);
+                out.writeLong(getFingerprint(graph, base));
+                out.writeInt(stopVertices.length);
+                out.writeInt(distances.length);
+                for (int v : stopVertices) out.writeInt(v - base);
+                for (int o : offsets) out.writeInt(o);
+                for (int i = 0; i < distances.length; i += 2) {
+                    out.writeInt(distances[i] - base);
+                    out.writeInt(distances[i + 1]);
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Saved stop tree cache to {} ({} bytes) in {} ms", file, file.length(),
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            LOG.warn("Unable to save stop tree cache to {}", file, e);
+            if (tempFile != null) tempFile.delete();
+        }
+    }
+
+    /**
+     * Load a cache saved with save from the given file, which is memory-mapped and copied in bulk into the arrays.
+     * @return the cache, or null if there is no file or it was not made with the given graph and walk distance. A file
+     * that cannot be used is deleted, so that it is replaced when the rebuilt cache is saved.
+     */
+    public static StopTreeCache load (File file, Graph graph, int maxWalkMeters) {
+        if (!file.exists()) return null;
+        long startTime = System.currentTimeMillis();
+        int base = getMinVertexIndex(graph);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("not a stop tree cache file of the current version");
+            }
+            if (buffer.getInt() != maxWalkMeters) {
+                throw new IOException("stop trees were made with a different walk distance");
+            }
+            if (buffer.getLong() != getFingerprint(graph, base)) {
+                throw new IOException("stop trees were made with a different graph");
+            }
+            int nStops = buffer.getInt();
+            int nDistances = buffer.getInt();
+            IntBuffer ints = buffer.asIntBuffer();
+            int[] stopVertices = new int[nStops];
+            int[] offsets = new int[nStops + 1];
+            int[] distances = new int[nDistances];
+            ints.get(stopVertices);
+            ints.get(offsets);
+            ints.get(distances);
+            for (int i = 0; i < nStops; i++) stopVertices[i] += base;
+            for (int i = 0; i < nDistances; i += 2) distances[i] += base;
+            LOG.info("Loaded stop tree cache for {} transit stops from {} in {} ms", nStops, file,
+                    System.currentTimeMillis() - startTime);
+            return new StopTreeCache(maxWalkMeters, stopVertices, offsets, distances);
+        } catch (Exception e) {
+            // Most likely a file written by a different version of OTP or for a graph that has changed.
+            LOG.warn("Unable to load stop tree cache from {}, it will be rebuilt.", file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static int getMinVertexIndex (Graph graph) {
+        int min = Integer.MAX_VALUE;
+        for (Vertex v : graph.getVertices()) min = Math.min(min, v.getIndex());
+        return min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    /** @return a hash of the vertex labels in order of vertex index relative to base, with gaps hashed as zero. */
+    private static long getFingerprint (Graph graph, int base) {
+        Collection<Vertex> vertices = graph.getVertices();
+        int maxIndex = base;
+        for (Vertex v : vertices) maxIndex = Math.max(maxIndex, v.getIndex());
+        String[] labels = new String[maxIndex - base + 1];
+        for (Vertex v : vertices) labels[v.getIndex() - base] = v.getLabel();
+        long hash = labels.length;
+        for (String label : labels) {
+            hash = hash * 1000003 + (label == null ? 0 : label.hashCode());
+        }
+        return hash;
+    }
+
 }
@@ -18,7 +18,6 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -63,7 +62,7 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        StateQueue pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -132,7 +131,7 @@ public class AStar {
         // reaching its target. 
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<State>(initialSize);
+        runState.pq = StateQueue.create(options, options.dominanceFunction, initialSize);
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -157,8 +156,7 @@ public class AStar {
         runState.u = runState.pq.extract_min();
         
         // check that this state has not been dominated
-        // and mark vertex as visited
-        if (!runState.spt.visit(runState.u)) {
+        if (!runState.spt.containsState(runState.u)) {
             // state has been dominated since it was added to the priority queue, so it is
             // not in any optimal path. drop it on the floor and try the next one.
             return false;
@@ -175,7 +173,7 @@ public class AStar {
 
         runState.nVisited += 1;
         
-        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
+        Collection<Edge> edges = runState.rctx.temporaryEdges.getEdges(runState.u_vertex, runState.options.arriveBy);
         for (Edge edge : edges) {
 
             // Iterate over traversal results. When an edge leads nowhere (as indicated by
@@ -236,6 +234,7 @@ public class AStar {
     }
     
     void runSearch(long abortTime){
+        int visitedBefore = runState.nVisited;
         /* the core of the A* algorithm */
         while (!runState.pq.empty()) { // Until the priority queue is empty:
             /*
@@ -298,6 +297,7 @@ public class AStar {
             }
 
         }
+        runState.options.rctx.debugOutput.statesVisited += runState.nVisited - visitedBefore;
     }
 
     /** @return the shortest path, or null if none is found */
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.algorithm;
 
+import com.google.common.collect.Lists;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SkipEdgeStrategy;
@@ -20,12 +21,17 @@ import org.opentripplanner.routing.algorithm.strategies.SkipTraverseResultStrate
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.TemporaryEdgeOverlay;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
+import java.util.List;
+
 /**
  * Find the shortest path between graph vertices using Dijkstra's algorithm.
  *
@@ -66,11 +72,14 @@ public class GenericDijkstra {
 
     public ShortestPathTree getShortestPathTree(State initialState) {
         Vertex target = null;
+        TemporaryEdgeOverlay temporaryEdges = TemporaryEdgeOverlay.EMPTY;
         if (options.rctx != null) {
             target = initialState.getOptions().rctx.target;
+            temporaryEdges = options.rctx.temporaryEdges;
         }
-        ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(options);
-        BinHeap<State> queue = new BinHeap<State>(1000);
+        DominanceFunction dominanceFunction = new DominanceFunction.MinimumWeight();
+        ShortestPathTree spt = dominanceFunction.getNewShortestPathTree(options);
+        StateQueue queue = StateQueue.create(options, dominanceFunction, 1000);
 
         spt.add(initialState);
         queue.insert(initialState, initialState.getWeight());
@@ -83,7 +92,7 @@ public class GenericDijkstra {
                 traverseVisitor.visitVertex(u);
             }
 
-            if (!spt.getStates(u_vertex).contains(u)) {
+            if (!spt.containsState(u)) {
                 continue;
             }
 
@@ -97,7 +106,7 @@ public class GenericDijkstra {
                 break;
             }
 
-            for (Edge edge : options.arriveBy ? u_vertex.getIncoming() : u_vertex.getOutgoing()) {
+            for (Edge edge : temporaryEdges.getEdges(u_vertex, options.arriveBy)) {
                 if (skipEdgeStrategy != null &&
                     skipEdgeStrategy.shouldSkipEdge(initialState.getVertex(), null, u, edge, spt, options)) {
                     continue;
@@ -127,6 +136,100 @@ public class GenericDijkstra {
         return spt;
     }
 
+    /**
+     * Search the street network from the origin of the request without creating State objects, keeping the states in
+     * the given arena instead, which is cleared first. This follows street edges in a single mode (driving if the
+     * request allows cars, otherwise cycling if it allows bicycles, otherwise walking) and links to transit stops, but
+     * does not enter stations or board vehicles, so the stops reached are the ends of the search. Costs are those of
+     * CompactStreetGraph, without turn costs, and the walk limit is always a hard one. Temporary vertices at the origin
+     * are left through their temporary edges with ordinary states. The strategies and the visitor are not used.
+     *
+     * @param minimizeDistance if true, find the shortest paths by walk distance rather than by weight, as the
+     *                         LeastWalk dominance function does.
+     * @param maxSeconds the maximum duration of the search, or Integer.MAX_VALUE for no limit.
+     * @return the arena, which holds the best state at each vertex reached.
+     */
+    public StreetStateArena getStreetStates(StreetStateArena arena, boolean minimizeDistance, int maxSeconds) {
+        CompactStreetGraph streetGraph = arena.streetGraph;
+        arena.clear();
+        TraverseMode mode = options.modes.getCar() ? TraverseMode.CAR :
+                options.modes.getBicycle() ? TraverseMode.BICYCLE : TraverseMode.WALK;
+        boolean arriveBy = options.arriveBy;
+        double maxWalk = options.maxWalkDistance;
+        TemporaryEdgeOverlay temporaryEdges = options.rctx.temporaryEdges;
+
+        // Leave the temporary vertices around the origin with ordinary states, then continue in the arena.
+        List<State> initialStates = Lists.newArrayList(new State(options));
+        for (int i = 0; i < initialStates.size(); i++) {
+            State s0 = initialStates.get(i);
+            if (streetGraph.contains(s0.getVertex())) {
+                enqueueArenaState(arena, s0.getVertex().getIndex(), (int) s0.getElapsedTimeSeconds(),
+                        s0.getWeight(), s0.getWalkDistance(), StreetStateArena.NONE, StreetStateArena.NONE,
+                        minimizeDistance);
+                continue;
+            }
+            for (Edge edge : temporaryEdges.getEdges(s0.getVertex(), arriveBy)) {
+                for (State s1 = edge.traverse(s0); s1 != null; s1 = s1.getNextResult()) {
+                    initialStates.add(s1);
+                }
+            }
+        }
+
+        int[] offsets = arriveBy ? streetGraph.incomingOffsets : streetGraph.outgoingOffsets;
+        int[] adjacent = arriveBy ? streetGraph.incomingEdges : streetGraph.outgoingEdges;
+        int[] otherVertex = arriveBy ? streetGraph.fromVertex : streetGraph.toVertex;
+        IndexedBinHeap<Object> queue = arena.queue;
+        while (!queue.empty()) {
+            int v = queue.peek_min_index();
+            queue.extract_min();
+            int s0 = arena.getBestState(v);
+            int seconds0 = arena.getElapsedSeconds(s0);
+            double weight0 = arena.getWeight(s0);
+            double walk0 = arena.getWalkDistance(s0);
+            int back = arena.getBackEdge(s0);
+            boolean cameByLink = back != StreetStateArena.NONE && streetGraph.isLink(back);
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int e = adjacent[i];
+                int seconds1;
+                double weight1, walk1 = walk0;
+                if (streetGraph.isStreet(e)) {
+                    if (!streetGraph.canTraverse(e, options, mode)) continue;
+                    seconds1 = seconds0 + (int) Math.ceil(streetGraph.getTraversalTime(e, options, mode));
+                    weight1 = weight0 + streetGraph.getTraversalWeight(e, options, mode);
+                    if (!mode.isDriving()) {
+                        walk1 += streetGraph.getDistance(e);
+                        if (walk1 > maxWalk) continue;
+                    }
+                } else if (streetGraph.isLink(e)) {
+                    // As in StreetTransitLink.traverse, two links may not be taken in a row.
+                    if (cameByLink) continue;
+                    if (options.wheelchairAccessible && !streetGraph.isWheelchairAccessible(e)) continue;
+                    int linkSeconds = streetGraph.getLinkSeconds(e);
+                    seconds1 = seconds0 + linkSeconds;
+                    weight1 = weight0 + linkSeconds;
+                } else {
+                    continue;
+                }
+                if (seconds1 > maxSeconds || weight1 > options.maxWeight) continue;
+                enqueueArenaState(arena, otherVertex[e], seconds1, weight1, walk1, s0, e, minimizeDistance);
+            }
+        }
+        return arena;
+    }
+
+    /** Add a state to the arena and the queue if it is better than the best state already at its vertex. */
+    private static void enqueueArenaState(StreetStateArena arena, int v, int seconds, double weight, double walk,
+            int back, int edge, boolean minimizeDistance) {
+        double priority = minimizeDistance ? walk : weight;
+        int existing = arena.getBestState(v);
+        if (existing != StreetStateArena.NONE &&
+                (minimizeDistance ? arena.getWalkDistance(existing) : arena.getWeight(existing)) <= priority) {
+            return;
+        }
+        arena.setBestState(v, arena.add(v, seconds, weight, walk, back, edge));
+        arena.queue.insert_or_dec_key(v, null, priority);
+    }
+
     public void setHeuristic(RemainingWeightHeuristic heuristic) {
         this.heuristic = heuristic;
     }
@@ -0,0 +1,69 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.DominanceFunction;
+
+/**
+ * The priority queue of the states of a search. When the dominance function keeps a single state per vertex, an
+ * improved state replaces the one queued for its vertex in an IndexedBinHeap, unless the request opts out of
+ * decrease-key. Otherwise every improved state is inserted in a BinHeap, and dominated ones are discarded when they
+ * are extracted.
+ */
+class StateQueue {
+
+    private final BinHeap<State> pq;
+
+    private final IndexedBinHeap<State> indexedPq;
+
+    private StateQueue(BinHeap<State> pq, IndexedBinHeap<State> indexedPq) {
+        this.pq = pq;
+        this.indexedPq = indexedPq;
+    }
+
+    /** Make the queue suited to a search with the given request and dominance function. */
+    static StateQueue create(RoutingRequest options, DominanceFunction dominanceFunction, int initialSize) {
+        // The queue index of a state depends on the turn restrictions of the graph of the routing context.
+        if (options.decreaseKey && options.rctx != null && dominanceFunction.allowsDecreaseKey(options)) {
+            return new StateQueue(null, new IndexedBinHeap<State>(initialSize, Vertex.getMaxIndex()));
+        }
+        return new StateQueue(new BinHeap<State>(initialSize), null);
+    }
+
+    void insert(State state, double key) {
+        if (indexedPq != null) {
+            indexedPq.insert_or_dec_key(DominanceFunction.getQueueIndex(state), state, key);
+        } else {
+            pq.insert(state, key);
+        }
+    }
+
+    State extract_min() {
+        return indexedPq != null ? indexedPq.extract_min() : pq.extract_min();
+    }
+
+    boolean empty() {
+        return indexedPq != null ? indexedPq.empty() : pq.empty();
+    }
+
+    double peek_min_key() {
+        return indexedPq != null ? indexedPq.peek_min_key() : pq.peek_min_key();
+    }
+
+}
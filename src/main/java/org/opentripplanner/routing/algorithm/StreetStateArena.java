@@ -0,0 +1,177 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.impl.StreetSearchCache;
+
+import java.util.Arrays;
+
+/**
+ * The states of a street-only search, stored as parallel arrays rather than as State objects, together with the
+ * per-vertex table and priority queue of the search. A state is identified by its position in the arrays, and refers
+ * to the state it was reached from by position too, so paths can be followed back without any objects.
+ *
+ * An arena is meant to be kept and reused for many searches on the same graph (for instance one per worker thread):
+ * clearing it only resets the entries touched by the previous search, and its arrays keep their capacity, so a search
+ * allocates nothing once the arena has grown to the size of the searches made with it. It is not thread-safe.
+ *
+ * See GenericDijkstra.getStreetStates for the search that fills it.
+ */
+public class StreetStateArena {
+
+    /** Marks the absence of a state, back state or back edge. */
+    public static final int NONE = -1;
+
+    private static final ThreadLocal<StreetStateArena> arenas = new ThreadLocal<>();
+
+    public final CompactStreetGraph streetGraph;
+
+    /* State columns. */
+    private int[] vertex;
+    private int[] elapsedSeconds;
+    private double[] weight;
+    private double[] walkDistance;
+    private int[] backState;
+    private int[] backEdge;
+    private int size = 0;
+
+    /* For each vertex index, the best state at that vertex in the current search, or NONE. */
+    private final int[] bestState;
+
+    /* Queue of vertex indices, whose elements are unused. */
+    final IndexedBinHeap<Object> queue;
+
+    /** @return an arena for the given street graph kept by the calling thread, made the first time it is needed. */
+    public static StreetStateArena forCurrentThread(CompactStreetGraph streetGraph) {
+        StreetStateArena arena = arenas.get();
+        if (arena == null || arena.streetGraph != streetGraph) {
+            arena = new StreetStateArena(streetGraph);
+            arenas.set(arena);
+        }
+        return arena;
+    }
+
+    public StreetStateArena(CompactStreetGraph streetGraph) {
+        this.streetGraph = streetGraph;
+        int capacity = 1024;
+        vertex = new int[capacity];
+        elapsedSeconds = new int[capacity];
+        weight = new double[capacity];
+        walkDistance = new double[capacity];
+        backState = new int[capacity];
+        backEdge = new int[capacity];
+        bestState = new int[streetGraph.nVertices];
+        Arrays.fill(bestState, NONE);
+        queue = new IndexedBinHeap<>(1000, streetGraph.nVertices);
+    }
+
+    /** Forget all the states of the previous search, keeping the capacity of the arrays. */
+    public void clear() {
+        for (int s = 0; s < size; s++) {
+            bestState[vertex[s]] = NONE;
+        }
+        size = 0;
+        queue.reset();
+    }
+
+    /** @return the position of the new state. */
+    public int add(int v, int seconds, double w, double walk, int back, int edge) {
+        if (size == vertex.length) {
+            int capacity = size * 2;
+            vertex = Arrays.copyOf(vertex, capacity);
+            elapsedSeconds = Arrays.copyOf(elapsedSeconds, capacity);
+            weight = Arrays.copyOf(weight, capacity);
+            walkDistance = Arrays.copyOf(walkDistance, capacity);
+            backState = Arrays.copyOf(backState, capacity);
+            backEdge = Arrays.copyOf(backEdge, capacity);
+        }
+        vertex[size] = v;
+        elapsedSeconds[size] = seconds;
+        weight[size] = w;
+        walkDistance[size] = walk;
+        backState[size] = back;
+        backEdge[size] = edge;
+        return size++;
+    }
+
+    /** @return the number of states created by the current search, including those which were later improved on. */
+    public int size() {
+        return size;
+    }
+
+    /** @return the best state at the given vertex in the current search, or NONE if it was not reached. */
+    public int getBestState(int v) {
+        return v < bestState.length ? bestState[v] : NONE;
+    }
+
+    void setBestState(int v, int state) {
+        bestState[v] = state;
+    }
+
+    public int getVertex(int state) {
+        return vertex[state];
+    }
+
+    public int getElapsedSeconds(int state) {
+        return elapsedSeconds[state];
+    }
+
+    public double getWeight(int state) {
+        return weight[state];
+    }
+
+    public double getWalkDistance(int state) {
+        return walkDistance[state];
+    }
+
+    /** @return the state this one was reached from, or NONE for an initial state. */
+    public int getBackState(int state) {
+        return backState[state];
+    }
+
+    /** @return the index in the CompactStreetGraph of the edge this state was reached by, or NONE. */
+    public int getBackEdge(int state) {
+        return backEdge[state];
+    }
+
+    /**
+     * @return the elapsed time in seconds of the best state at each vertex, indexed by vertex index, with
+     * Integer.MAX_VALUE for unreached vertices. This is the form SampleSet.eval takes to link the results of the search
+     * to a point set.
+     */
+    public int[] getElapsedSecondsByVertex() {
+        int[] times = new int[streetGraph.nVertices];
+        Arrays.fill(times, Integer.MAX_VALUE);
+        for (int s = 0; s < size; s++) {
+            if (bestState[vertex[s]] == s) times[vertex[s]] = elapsedSeconds[s];
+        }
+        return times;
+    }
+
+    /**
+     * @return the best state at each vertex in the compact form kept by the StreetSearchCache, which is also what the
+     * profile router works from.
+     */
+    public StreetSearchCache.Result toResult() {
+        StreetSearchCache.Result result = new StreetSearchCache.Result();
+        for (int s = 0; s < size; s++) {
+            if (bestState[vertex[s]] != s) continue;
+            result.add(streetGraph.getVertex(vertex[s]), weight[s], elapsedSeconds[s], walkDistance[s]);
+        }
+        return result.trim();
+    }
+
+}
@@ -13,16 +13,17 @@
 
 package org.opentripplanner.routing.algorithm.strategies;
 
-import com.google.common.collect.Lists;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.StreetTransitLink;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetSearchCache;
 import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.ShortestPathTree;
@@ -30,8 +31,6 @@ import org.opentripplanner.routing.vertextype.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-
 /**
  * Euclidean heuristics are terrible for transit because the maximum transit speed is quite high, especially relative
  * to the walk speed. Transit can require going away from the destination in Euclidean space to get closer according
@@ -75,7 +74,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     
     RoutingRequest options;
     
-    BinHeap<Vertex> q;
+    /** Queue for the backward search, keyed on vertex index so that improved vertices are rekeyed in place. */
+    IndexedBinHeap<Vertex> q;
 
     boolean finished = false;
     
@@ -120,18 +120,13 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         // make sure distance table is initialized before starting thread
         LOG.debug("initializing heuristic computation thread");
         // Forward street search first, mark street vertices around the origin so H evaluates to 0
-        List<State> search = streetSearch(options, false, abortTime); // ~30 msec
-        if (search == null) return; // Search timed out
+        if (streetSearch(options, false, abortTime) == null) return; // Search timed out
         LOG.debug("end foreward street search {} ms", System.currentTimeMillis() - start);
         // create a new priority queue
-        q = new BinHeap<Vertex>();
+        q = new IndexedBinHeap<Vertex>(1000, Vertex.getMaxIndex());
         // Save weight to reach street vertices around the destination.
         // Also enqueue states for each stop within walking distance of the destination.
-        search = streetSearch(options, true, abortTime);
-        if (search == null) return; // Search timed out
-        for (State stopState : search) {
-            q.insert(stopState.getVertex(), stopState.getWeight());
-        }
+        if (streetSearch(options, true, abortTime) == null) return; // Search timed out
         LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
         // once street searches are done, raise the limits to max
         // because hard walk limiting is incorrect and is observed to cause problems 
@@ -155,8 +150,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             double uw = q.peek_min_key();
             Vertex u = q.extract_min();
             //LOG.info("dequeued weight {} at {}", uw, u);
-//            // Ignore vertices that could be rekeyed (but are not rekeyed in this implementation).
-//            if (uw > weights.get(u)) continue;
+            // Vertices are rekeyed when a better weight is found, so no stale entries come out of the queue.
             // The weight of the queue head is uniformly increasing. This is the highest ever seen.
             maxFound = uw;
             
@@ -164,7 +158,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 //                    Double.isInfinite(uw) ? -1.0 : uw);
 
             // OUTgoing for heuristic search when main search is arriveBy 
-            for (Edge e : options.arriveBy ? u.getOutgoing() : u.getIncoming()) {
+            for (Edge e : options.rctx.temporaryEdges.getEdges(u, !options.arriveBy)) {
                 // Do not enter streets in this phase.
                 if (e instanceof StreetTransitLink) continue;
                 Vertex v = options.arriveBy ? e.getToVertex() : e.getFromVertex();
@@ -179,7 +173,10 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 if (vw < old_vw) {
                     // including when old_vw is infinite because it is not yet touched
                     weights.put(v, vw);
-                    q.insert(v, vw); 
+                    // Stops enqueued by the street search may already be in the queue with a lower weight.
+                    if (vw < q.key(v.getIndex())) {
+                        q.insert_or_dec_key(v.getIndex(), v, vw);
+                    }
                 }
             }
         }
@@ -263,37 +260,35 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     TODO perhaps reimplement using the generic dijkstra class
     */
 
-    private List<State> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
+    /**
+     * Run the street search from the origin or the target, or take its result from the graph's street search cache,
+     * and record its results in the weights and the queue.
+     * @return the vertices reached and their weights, or null if the search timed out.
+     */
+    StreetSearchCache.Result streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
         rr = rr.clone();
         if (fromTarget)
             rr.setArriveBy( ! rr.arriveBy);
-        List<State> stopStates = Lists.newArrayList();
-        ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(rr);
-        BinHeap<State> pq = new BinHeap<State>();
         Vertex initVertex = fromTarget ? rr.rctx.target : rr.rctx.origin;
-        State initState = new State(initVertex, rr);
-        pq.insert(initState, 0);
-        while ( ! pq.empty()) {
-            /**
-             * Terminate the search prematurely if we've hit our computation wall.
-             */
-            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
-                return null;
-            }
-
-            State s = pq.extract_min();
-            double w = s.getWeight();
-            Vertex v = s.getVertex();
+        StreetSearchCache cache = graph.streetSearchCache;
+        StreetSearchCache.Key key = cache == null ? null : StreetSearchCache.key("heuristic", rr, initVertex);
+        StreetSearchCache.Result result = cache == null ? null : cache.get(key);
+        if (result == null) {
+            result = streetSearch(rr, initVertex, abortTime);
+            if (result == null) return null;
+            if (cache != null) cache.put(key, result);
+        }
+        for (int i = 0; i < result.size(); i++) {
+            Vertex v = result.getVertex(i);
+            double w = result.getWeight(i);
             if (v instanceof TransitVertex) {
-                if (v instanceof TransitStationStop) {
-                    stopStates.add(s);
-                    // Prune street search upon reaching TransitStationStops.
+                if (fromTarget && v instanceof TransitStationStop && w < q.key(v.getIndex())) {
+                    q.insert_or_dec_key(v.getIndex(), v, w);
                 }
                 // Do not save weights at transit stops (or any other Transit Vertices). Since stops may be reached
                 // by SimpleTransfer their weights will be recorded during the main heuristic search.
                 continue;
             }
-            // at this point the vertex is closed (pulled off heap).
             // on reverse search save measured weights.
             // the optimal path may use transit.
             //Without instanceOf check P+R and B+R doesn't work in depart by searches
@@ -312,8 +307,40 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     weights.put(v, w);
                 }
             }
+        }
+        return result;
+    }
+
+    /**
+     * Search the streets from the given vertex, with a request whose arriveBy has been set to match the direction of
+     * the search.
+     * @return every state pulled off the queue, in order, except those at temporary vertices (whose heuristic value is
+     * zero anyway), or null if the search timed out.
+     */
+    private StreetSearchCache.Result streetSearch (RoutingRequest rr, Vertex initVertex, long abortTime) {
+        StreetSearchCache.Result result = new StreetSearchCache.Result();
+        ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(rr);
+        BinHeap<State> pq = new BinHeap<State>();
+        State initState = new State(initVertex, rr);
+        pq.insert(initState, 0);
+        while ( ! pq.empty()) {
+            /**
+             * Terminate the search prematurely if we've hit our computation wall.
+             */
+            if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
+                return null;
+            }
+
+            State s = pq.extract_min();
+            Vertex v = s.getVertex();
+            // at this point the vertex is closed (pulled off heap).
+            if (!(v instanceof TemporaryVertex)) result.add(s);
+            if (v instanceof TransitVertex) {
+                // Prune street search upon reaching TransitStationStops, or any other Transit Vertices.
+                continue;
+            }
             // FIXME should only traverse when state is better than old_weight
-            for (Edge e : rr.arriveBy ? v.getIncoming() : v.getOutgoing()) {
+            for (Edge e : rr.rctx.temporaryEdges.getEdges(v, rr.arriveBy)) {
                 // arriveBy has been set to match actual directional behavior in this subsearch
                 State s1 = e.traverse(s);
                 if (s1 == null)
@@ -323,9 +350,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                 }
             }
         }
-        // return a list of all stops hit
-        LOG.debug("hit stops: {}", stopStates);
-        return stopStates;
+        LOG.debug("settled {} street states", result.size());
+        return result.trim();
     }
  
 }
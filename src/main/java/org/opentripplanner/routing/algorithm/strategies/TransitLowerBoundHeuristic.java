@@ -0,0 +1,153 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.TransitLowerBounds;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.StreetSearchCache;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * A variant of the InterleavedBidirectionalHeuristic that replaces its backward search over the transit network with
+ * lookups in the graph's precomputed TransitLowerBounds. The street searches around the origin and destination are
+ * the same, so street vertices are estimated exactly as before. Transit vertices are estimated from the landmark
+ * tables, so there is no backward transit search to interleave with the main search.
+ *
+ * For a transit vertex at stop X and each stop s reached by the egress search with weight w(s), the remaining weight
+ * is at least min over s of (T(X, s) + w(s)), where T is the lower bound on ride time. Expanding T with the landmark
+ * bounds, the minimum over s can be taken once per landmark when the heuristic is initialized, after which each
+ * estimate costs two subtractions per landmark.
+ */
+public class TransitLowerBoundHeuristic extends InterleavedBidirectionalHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransitLowerBoundHeuristic.class);
+
+    private final transient TransitLowerBounds bounds;
+
+    /** The landmark times in the direction of the main search (swapped for arriveBy searches). */
+    private transient int[][] fromLandmark, toLandmark;
+
+    /** For each landmark, the minimum over egress stops of the time from the landmark plus the egress weight. */
+    private double[] minFromLandmark;
+
+    /**
+     * For each landmark, the maximum over egress stops of the time to the landmark minus the egress weight, or positive
+     * infinity when some egress stop cannot reach the landmark.
+     */
+    private double[] maxToLandmark;
+
+    public TransitLowerBoundHeuristic(Graph graph) {
+        super(graph);
+        this.bounds = graph.transitLowerBounds;
+    }
+
+    @Override
+    public void initialize(RoutingRequest options, long abortTime) {
+        Vertex target = options.rctx.target;
+        if (target == this.target) {
+            LOG.debug("Reusing existing heuristic, the target vertex has not changed.");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        this.target = target;
+        this.options = options;
+        int nVertices = graph.countVertices();
+        weights = new TObjectDoubleHashMap((int)(Math.log(nVertices)) + 1, 0.5f, Double.POSITIVE_INFINITY);
+        // In an arriveBy search the remaining weight is that of riding from the access stops to each vertex.
+        fromLandmark = options.arriveBy ? bounds.toLandmark : bounds.fromLandmark;
+        toLandmark = options.arriveBy ? bounds.fromLandmark : bounds.toLandmark;
+        minFromLandmark = new double[bounds.nLandmarks];
+        maxToLandmark = new double[bounds.nLandmarks];
+        Arrays.fill(minFromLandmark, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxToLandmark, Double.NEGATIVE_INFINITY);
+        // do not use soft limiting in long-distance mode
+        options.softWalkLimiting = false;
+        options.softPreTransitLimiting = false;
+        // Mark street vertices around the origin so H evaluates to 0 there.
+        if (streetSearch(options, false, abortTime) == null) return; // Search timed out
+        // The egress search enqueues the stops it reaches, as in the parent, though this heuristic never polls them.
+        q = new IndexedBinHeap<Vertex>(1000, Vertex.getMaxIndex());
+        // Save weights to reach street vertices around the destination, and fold the stops near it into the tables.
+        StreetSearchCache.Result egress = streetSearch(options, true, abortTime);
+        if (egress == null) return; // Search timed out
+        int nStops = 0;
+        for (int i = 0; i < egress.size(); i++) {
+            Vertex v = egress.getVertex(i);
+            if (!(v instanceof TransitVertex)) continue;
+            int cluster = bounds.getCluster(((TransitVertex) v).getStop());
+            if (cluster < 0) continue;
+            nStops++;
+            double w = egress.getWeight(i);
+            for (int l = 0; l < bounds.nLandmarks; l++) {
+                int f = fromLandmark[l][cluster];
+                if (f != TransitLowerBounds.UNREACHED) {
+                    minFromLandmark[l] = Math.min(minFromLandmark[l], f + w);
+                }
+                // An egress stop that cannot reach the landmark might be the one the trip alights at, in which case
+                // riding to the landmark says nothing about the remaining weight. The landmark then gives no bound.
+                int t = toLandmark[l][cluster];
+                if (t == TransitLowerBounds.UNREACHED) {
+                    maxToLandmark[l] = Double.POSITIVE_INFINITY;
+                } else {
+                    maxToLandmark[l] = Math.max(maxToLandmark[l], t - w);
+                }
+            }
+        }
+        LOG.debug("end street searches {} ms, {} egress stops", System.currentTimeMillis() - start, nStops);
+        // once street searches are done, raise the limits to max
+        // because hard walk limiting is incorrect and is observed to cause problems
+        // for trips near the cutoff
+        options.setMaxWalkDistance(Double.POSITIVE_INFINITY);
+        options.setMaxPreTransitTime(Integer.MAX_VALUE);
+        options.rctx.debugOutput.finishedPrecalculating();
+    }
+
+    @Override
+    public double estimateRemainingWeight (State s) {
+        Vertex v = s.getVertex();
+        if (v instanceof TransitVertex) {
+            int cluster = bounds.getCluster(((TransitVertex) v).getStop());
+            if (cluster < 0) return 0;
+            double weight = 0;
+            for (int l = 0; l < bounds.nLandmarks; l++) {
+                int f = fromLandmark[l][cluster];
+                if (f != TransitLowerBounds.UNREACHED && minFromLandmark[l] < Double.POSITIVE_INFINITY) {
+                    weight = Math.max(weight, minFromLandmark[l] - f);
+                }
+                int t = toLandmark[l][cluster];
+                if (t != TransitLowerBounds.UNREACHED && !Double.isInfinite(maxToLandmark[l])) {
+                    weight = Math.max(weight, t - maxToLandmark[l]);
+                }
+            }
+            return weight;
+        }
+        return super.estimateRemainingWeight(s);
+    }
+
+    /** All the work is done in the precomputed tables and when initializing. */
+    @Override
+    public void doSomeWork() { }
+
+}
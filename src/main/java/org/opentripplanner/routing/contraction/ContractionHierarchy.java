@@ -0,0 +1,345 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A contraction hierarchy over the street network of a graph for one StreetProfile, which answers point to point
+ * queries by searching only a small part of the network.
+ *
+ * The hierarchy ranks every street vertex, and contains the street edges allowed in its profile along with
+ * "shortcut" arcs that each stand for a path through lower-ranked vertices. Every shortest path then has a
+ * counterpart that first climbs to higher and higher ranks and then descends, so a query is a search forward from
+ * the origin over arcs leading up, and backward from the destination over arcs coming down, that meet at the
+ * highest vertex of the path. The shortcuts on the path are then unpacked back into street edges.
+ *
+ * Only the street network is contracted. The temporary edges that link a request's origin and destination into it
+ * are crossed by small searches at each end, which provide the starting points of the two searches.
+ *
+ * The path found is the shortest one in the profile, which leaves out turn costs and the restrictions that
+ * StreetEdge.traverse applies to sequences of edges. Its edges are therefore traversed again with the real request
+ * to make a GraphPath, and if that fails (for instance because of a turn restriction) no path is returned so that the
+ * caller can fall back on a normal search.
+ *
+ * Nodes are numbered from zero in the order their vertices were found, and each vertex is kept by reference, so that
+ * a hierarchy stays valid when it is saved and loaded along with its graph and the vertex indices change.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final StreetProfile profile;
+
+    /** The graph vertex for each node. */
+    private final Vertex[] vertices;
+
+    /** The street edges that arcs which are not shortcuts stand for. */
+    private final StreetEdge[] edges;
+
+    /* For each arc, its end nodes and weight, and either an index in edges or the two arcs a shortcut stands for. */
+    private final int[] arcTail;
+    private final int[] arcHead;
+    private final double[] arcWeight;
+    private final int[] arcEdge;
+    private final int[] arcFirst;
+    private final int[] arcSecond;
+
+    /* Arcs leaving each node toward a higher-ranked node, in a compressed sparse row layout. */
+    private final int[] upOffsets;
+    private final int[] upArcs;
+
+    /* Arcs entering each node from a higher-ranked node. */
+    private final int[] downOffsets;
+    private final int[] downArcs;
+
+    /** The node for each vertex index, rebuilt when a hierarchy is loaded. */
+    private transient int[] nodeForVertex;
+
+    ContractionHierarchy(StreetProfile profile, Vertex[] vertices, StreetEdge[] edges, int[] arcTail, int[] arcHead,
+            double[] arcWeight, int[] arcEdge, int[] arcFirst, int[] arcSecond, int[] rank) {
+        this.profile = profile;
+        this.vertices = vertices;
+        this.edges = edges;
+        this.arcTail = arcTail;
+        this.arcHead = arcHead;
+        this.arcWeight = arcWeight;
+        this.arcEdge = arcEdge;
+        this.arcFirst = arcFirst;
+        this.arcSecond = arcSecond;
+        int nNodes = vertices.length;
+        upOffsets = new int[nNodes + 1];
+        downOffsets = new int[nNodes + 1];
+        for (int arc = 0; arc < arcTail.length; arc++) {
+            if (rank[arcTail[arc]] < rank[arcHead[arc]]) {
+                upOffsets[arcTail[arc] + 1]++;
+            } else {
+                downOffsets[arcHead[arc] + 1]++;
+            }
+        }
+        for (int node = 0; node < nNodes; node++) {
+            upOffsets[node + 1] += upOffsets[node];
+            downOffsets[node + 1] += downOffsets[node];
+        }
+        upArcs = new int[upOffsets[nNodes]];
+        downArcs = new int[downOffsets[nNodes]];
+        int[] upNext = Arrays.copyOf(upOffsets, nNodes);
+        int[] downNext = Arrays.copyOf(downOffsets, nNodes);
+        for (int arc = 0; arc < arcTail.length; arc++) {
+            if (rank[arcTail[arc]] < rank[arcHead[arc]]) {
+                upArcs[upNext[arcTail[arc]]++] = arc;
+            } else {
+                downArcs[downNext[arcHead[arc]]++] = arc;
+            }
+        }
+    }
+
+    /** Contract the street network of the given graph for the given profile. */
+    public static ContractionHierarchy build(Graph graph, StreetProfile profile) {
+        return new ContractionHierarchyBuilder(profile).build(graph.getEdges());
+    }
+
+    /** @return the hierarchy of the given graph that can answer the given request, or null if there is none. */
+    public static ContractionHierarchy forRequest(Graph graph, RoutingRequest options) {
+        if (graph.contractionHierarchies == null) return null;
+        StreetProfile profile = StreetProfile.forRequest(options);
+        return profile == null ? null : graph.contractionHierarchies.get(profile);
+    }
+
+    public int countNodes() {
+        return vertices.length;
+    }
+
+    public int countShortcuts() {
+        return arcTail.length - edges.length;
+    }
+
+    /** @return the node for the given vertex, or -1 if it is not part of this hierarchy. */
+    public int getNode(Vertex v) {
+        int[] nodes = nodeForVertex;
+        if (nodes == null) {
+            // Temporary vertices are numbered after those of the graph, so they fall outside this table.
+            int maxIndex = 0;
+            for (Vertex vertex : vertices) maxIndex = Math.max(maxIndex, vertex.getIndex() + 1);
+            nodes = new int[maxIndex];
+            Arrays.fill(nodes, -1);
+            for (int node = 0; node < vertices.length; node++) nodes[vertices[node].getIndex()] = node;
+            nodeForVertex = nodes;
+        }
+        int index = v.getIndex();
+        if (index >= nodes.length) return -1;
+        int node = nodes[index];
+        return node >= 0 && vertices[node] == v ? node : -1;
+    }
+
+    /**
+     * Find the shortest path in this hierarchy's profile between the from and to vertices of the given request's
+     * routing context, and traverse it with the request.
+     * @return the path, or null if there is none or it cannot be traversed with the request.
+     */
+    public GraphPath getPath(RoutingRequest options) {
+        Vertex from = options.rctx.fromVertex;
+        Vertex to = options.rctx.toVertex;
+        if (from == null || to == null) return null;
+        Map<Vertex, Link> access = link(from, false);
+        Map<Vertex, Link> egress = link(to, true);
+        List<Edge> path = new ArrayList<>();
+        Link direct = access.get(to);
+        int meet = search(access, egress, direct == null ? Double.POSITIVE_INFINITY : direct.weight, path);
+        if (meet < 0) {
+            if (direct == null) return null;
+            // The origin and destination are linked to one another without passing through the street network.
+            addAccessEdges(direct, path);
+        }
+        State state = new State(options);
+        if (options.arriveBy) {
+            for (int i = path.size() - 1; i >= 0 && state != null; i--) state = path.get(i).traverse(state);
+        } else {
+            for (int i = 0; i < path.size() && state != null; i++) state = path.get(i).traverse(state);
+        }
+        if (state == null) return null;
+        return new GraphPath(state, false);
+    }
+
+    /** The best way found from an origin or destination to a vertex over temporary edges. */
+    private static class Link {
+        final double weight;
+        final Edge edge;
+        final Link previous;
+
+        Link(double weight, Edge edge, Link previous) {
+            this.weight = weight;
+            this.edge = edge;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Search outward from the given vertex (or inward toward it) until reaching vertices in the hierarchy. Only
+     * temporary vertices are crossed, as the rest of the street network is covered by the hierarchy.
+     */
+    private Map<Vertex, Link> link(Vertex vertex, boolean incoming) {
+        Map<Vertex, Link> links = new IdentityHashMap<>();
+        BinHeap<Vertex> queue = new BinHeap<>();
+        links.put(vertex, new Link(0, null, null));
+        queue.insert(vertex, 0);
+        while (!queue.empty()) {
+            double weight = queue.peek_min_key();
+            Vertex v = queue.extract_min();
+            Link link = links.get(v);
+            if (weight > link.weight) continue;
+            if (v != vertex && !(v instanceof TemporaryVertex) || getNode(v) >= 0) continue;
+            for (Edge e : incoming ? v.getIncoming() : v.getOutgoing()) {
+                double edgeWeight;
+                if (e instanceof StreetEdge) {
+                    if (!profile.allows((StreetEdge) e)) continue;
+                    edgeWeight = profile.weight((StreetEdge) e);
+                } else if (e instanceof FreeEdge) {
+                    edgeWeight = 0;
+                } else {
+                    continue;
+                }
+                Vertex next = incoming ? e.getFromVertex() : e.getToVertex();
+                Link nextLink = links.get(next);
+                if (nextLink == null || nextLink.weight > weight + edgeWeight) {
+                    links.put(next, new Link(weight + edgeWeight, e, link));
+                    queue.insert(next, weight + edgeWeight);
+                }
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Search upward from the nodes reached from the origin and backward from those that reach the destination.
+     * @param bestWeight the weight of a path already known, which the searches need not improve on.
+     * @param path the list to which the edges of the best path are added, if one is found.
+     * @return the node at which the searches met on the best path, or -1 if they found no better path.
+     */
+    private int search(Map<Vertex, Link> access, Map<Vertex, Link> egress, double bestWeight, List<Edge> path) {
+        TIntDoubleHashMap forwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntDoubleHashMap backwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+        TIntIntHashMap forwardArc = new TIntIntHashMap(64, 0.5f, -1, -1);
+        TIntIntHashMap backwardArc = new TIntIntHashMap(64, 0.5f, -1, -1);
+        BinHeap<Integer> forwardQueue = new BinHeap<>();
+        BinHeap<Integer> backwardQueue = new BinHeap<>();
+        seed(access, forwardWeight, forwardQueue);
+        seed(egress, backwardWeight, backwardQueue);
+        int meet = -1;
+        while (!forwardQueue.empty() || !backwardQueue.empty()) {
+            boolean forward = backwardQueue.empty() ||
+                    !forwardQueue.empty() && forwardQueue.peek_min_key() <= backwardQueue.peek_min_key();
+            BinHeap<Integer> queue = forward ? forwardQueue : backwardQueue;
+            double weight = queue.peek_min_key();
+            // Both queues now hold only nodes at least this far from their end, so no better path remains.
+            if (weight >= bestWeight) break;
+            int node = queue.extract_min();
+            TIntDoubleHashMap weights = forward ? forwardWeight : backwardWeight;
+            if (weight > weights.get(node)) continue;
+            double meetWeight = weight + (forward ? backwardWeight : forwardWeight).get(node);
+            if (meetWeight < bestWeight) {
+                bestWeight = meetWeight;
+                meet = node;
+            }
+            TIntIntHashMap parents = forward ? forwardArc : backwardArc;
+            int[] offsets = forward ? upOffsets : downOffsets;
+            int[] arcs = forward ? upArcs : downArcs;
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int arc = arcs[i];
+                int next = forward ? arcHead[arc] : arcTail[arc];
+                double nextWeight = weight + arcWeight[arc];
+                if (nextWeight < weights.get(next)) {
+                    weights.put(next, nextWeight);
+                    parents.put(next, arc);
+                    queue.insert(next, nextWeight);
+                }
+            }
+        }
+        if (meet < 0) return -1;
+
+        // Climb back from the meeting node to the origin, then go down from it to the destination.
+        TIntArrayList arcs = new TIntArrayList();
+        int node = meet;
+        for (int arc = forwardArc.get(node); arc >= 0; arc = forwardArc.get(node)) {
+            arcs.add(arc);
+            node = arcTail[arc];
+        }
+        addAccessEdges(access.get(vertices[node]), path);
+        for (int i = arcs.size() - 1; i >= 0; i--) unpack(arcs.get(i), path);
+        node = meet;
+        for (int arc = backwardArc.get(node); arc >= 0; arc = backwardArc.get(node)) {
+            unpack(arc, path);
+            node = arcHead[arc];
+        }
+        for (Link link = egress.get(vertices[node]); link.edge != null; link = link.previous) {
+            path.add(link.edge);
+        }
+        return meet;
+    }
+
+    private void seed(Map<Vertex, Link> links, TIntDoubleHashMap weights, BinHeap<Integer> queue) {
+        for (Map.Entry<Vertex, Link> entry : links.entrySet()) {
+            int node = getNode(entry.getKey());
+            if (node >= 0) {
+                weights.put(node, entry.getValue().weight);
+                queue.insert(node, entry.getValue().weight);
+            }
+        }
+    }
+
+    /** Add the edges leading from the origin to the end of the given link, in order. */
+    private static void addAccessEdges(Link link, List<Edge> path) {
+        List<Edge> edges = new ArrayList<>();
+        for (; link.edge != null; link = link.previous) edges.add(link.edge);
+        Collections.reverse(edges);
+        path.addAll(edges);
+    }
+
+    /** Add the street edges the given arc stands for to the path, expanding shortcuts. */
+    private void unpack(int arc, List<Edge> path) {
+        TIntArrayList stack = new TIntArrayList();
+        stack.add(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.removeAt(stack.size() - 1);
+            if (arcEdge[a] >= 0) {
+                path.add(edges[arcEdge[a]]);
+            } else {
+                // Push the second half first so that the first half comes off the stack first.
+                stack.add(arcSecond[a]);
+                stack.add(arcFirst[a]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Contracts the street network of a graph one vertex at a time to make a ContractionHierarchy.
+ *
+ * Vertices are taken in order of their edge difference (the number of shortcuts their contraction would add, less the
+ * number of arcs it removes) plus the number of their neighbors already contracted, which spreads the contraction
+ * evenly over the network. Priorities are updated lazily: the vertex at the head of the queue is re-evaluated and put
+ * back if it is no longer the best choice, and the neighbors of each contracted vertex are re-evaluated.
+ *
+ * When contracting vertex v, a shortcut u-w is only needed for the path u-v-w if there is no other path from u to w
+ * that is at least as short. That is checked by a "witness" search from u that avoids v. The witness search settles
+ * a limited number of vertices, so it may miss a witness and add a shortcut that is not strictly necessary, which
+ * costs some space but never gives wrong answers.
+ */
+class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /** The maximum number of vertices settled by each witness search. */
+    private static final int WITNESS_SEARCH_LIMIT = 250;
+
+    private final StreetProfile profile;
+
+    private final List<Vertex> vertices = new ArrayList<>();
+
+    private final List<StreetEdge> edges = new ArrayList<>();
+
+    /* The arcs, which are the allowed street edges followed by the shortcuts. Shortcuts have an edge of -1. */
+    private final TIntArrayList arcTail = new TIntArrayList();
+    private final TIntArrayList arcHead = new TIntArrayList();
+    private final TDoubleArrayList arcWeight = new TDoubleArrayList();
+    private final TIntArrayList arcEdge = new TIntArrayList();
+    private final TIntArrayList arcFirst = new TIntArrayList();
+    private final TIntArrayList arcSecond = new TIntArrayList();
+
+    /** For each node, the arcs leaving and entering it. Arcs to contracted nodes are dropped as they are found. */
+    private TIntArrayList[] outArcs, inArcs;
+
+    private boolean[] contracted;
+
+    private int[] contractedNeighbors;
+
+    private int[] rank;
+
+    /* State of the witness searches, which is reset between searches in proportion to the vertices touched. */
+    private double[] witnessWeight;
+    private final TIntArrayList touched = new TIntArrayList();
+    private IndexedBinHeap<Integer> witnessQueue;
+
+    ContractionHierarchyBuilder(StreetProfile profile) {
+        this.profile = profile;
+    }
+
+    ContractionHierarchy build(Collection<Edge> graphEdges) {
+        long start = System.currentTimeMillis();
+        makeArcs(graphEdges);
+        int nNodes = vertices.size();
+        int nEdgeArcs = arcTail.size();
+        LOG.info("Contracting {} vertices and {} street edges for profile {}.", nNodes, nEdgeArcs, profile);
+        contracted = new boolean[nNodes];
+        contractedNeighbors = new int[nNodes];
+        rank = new int[nNodes];
+        witnessWeight = new double[nNodes];
+        Arrays.fill(witnessWeight, Double.POSITIVE_INFINITY);
+        witnessQueue = new IndexedBinHeap<>(1000, nNodes);
+
+        IndexedBinHeap<Integer> order = new IndexedBinHeap<>(nNodes, nNodes);
+        for (int node = 0; node < nNodes; node++) {
+            order.insert_or_dec_key(node, node, priority(node));
+        }
+        int nContracted = 0;
+        while (!order.empty()) {
+            int node = order.extract_min();
+            double priority = priority(node);
+            if (!order.empty() && priority > order.peek_min_key()) {
+                // Contracting other vertices has made this one a worse choice than the next one, try again later.
+                order.insert_or_dec_key(node, node, priority);
+                continue;
+            }
+            contract(node, false);
+            contracted[node] = true;
+            rank[node] = nContracted++;
+            TIntArrayList neighbors = new TIntArrayList();
+            for (int i = 0; i < inArcs[node].size(); i++) neighbors.add(arcTail.get(inArcs[node].get(i)));
+            for (int i = 0; i < outArcs[node].size(); i++) neighbors.add(arcHead.get(outArcs[node].get(i)));
+            for (int i = 0; i < neighbors.size(); i++) {
+                int neighbor = neighbors.get(i);
+                if (contracted[neighbor]) continue;
+                removeContracted(outArcs[neighbor], arcHead);
+                removeContracted(inArcs[neighbor], arcTail);
+                contractedNeighbors[neighbor] += 1;
+                if (order.contains(neighbor)) {
+                    order.insert_or_dec_key(neighbor, neighbor, priority(neighbor));
+                }
+            }
+            if (nContracted % 100000 == 0) {
+                LOG.info("Contracted {} vertices, {} shortcuts so far.", nContracted, arcTail.size() - nEdgeArcs);
+            }
+        }
+        LOG.info("Contracted the street network in {} sec, adding {} shortcuts to {} street edges.",
+                (System.currentTimeMillis() - start) / 1000, arcTail.size() - nEdgeArcs, nEdgeArcs);
+        return new ContractionHierarchy(profile, vertices.toArray(new Vertex[nNodes]),
+                edges.toArray(new StreetEdge[edges.size()]), arcTail.toArray(), arcHead.toArray(),
+                arcWeight.toArray(), arcEdge.toArray(), arcFirst.toArray(), arcSecond.toArray(), rank);
+    }
+
+    /** Make a node for each vertex at the end of an allowed street edge, and an arc for each such edge. */
+    private void makeArcs(Collection<Edge> graphEdges) {
+        int[] nodeForVertex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(nodeForVertex, -1);
+        for (Edge e : graphEdges) {
+            if (!(e instanceof StreetEdge) || e instanceof TemporaryEdge) continue;
+            StreetEdge se = (StreetEdge) e;
+            if (!profile.allows(se) || se.getFromVertex() == se.getToVertex()) continue;
+            int tail = node(se.getFromVertex(), nodeForVertex);
+            int head = node(se.getToVertex(), nodeForVertex);
+            edges.add(se);
+            addArc(tail, head, profile.weight(se), edges.size() - 1, -1, -1);
+        }
+        outArcs = new TIntArrayList[vertices.size()];
+        inArcs = new TIntArrayList[vertices.size()];
+        for (int node = 0; node < vertices.size(); node++) {
+            outArcs[node] = new TIntArrayList(4);
+            inArcs[node] = new TIntArrayList(4);
+        }
+        for (int arc = 0; arc < arcTail.size(); arc++) {
+            outArcs[arcTail.get(arc)].add(arc);
+            inArcs[arcHead.get(arc)].add(arc);
+        }
+    }
+
+    private int node(Vertex v, int[] nodeForVertex) {
+        int node = nodeForVertex[v.getIndex()];
+        if (node < 0) {
+            node = vertices.size();
+            vertices.add(v);
+            nodeForVertex[v.getIndex()] = node;
+        }
+        return node;
+    }
+
+    private int addArc(int tail, int head, double weight, int edge, int first, int second) {
+        arcTail.add(tail);
+        arcHead.add(head);
+        arcWeight.add(weight);
+        arcEdge.add(edge);
+        arcFirst.add(first);
+        arcSecond.add(second);
+        return arcTail.size() - 1;
+    }
+
+    private void removeContracted(TIntArrayList arcs, TIntArrayList ends) {
+        int j = 0;
+        for (int i = 0; i < arcs.size(); i++) {
+            int arc = arcs.get(i);
+            if (!contracted[ends.get(arc)]) arcs.set(j++, arc);
+        }
+        arcs.remove(j, arcs.size() - j);
+    }
+
+    private double priority(int node) {
+        int shortcuts = contract(node, true);
+        int removed = inArcs[node].size() + outArcs[node].size();
+        return shortcuts - removed + contractedNeighbors[node];
+    }
+
+    /**
+     * Add the shortcuts needed to bypass the given node once it is contracted.
+     * @param simulate if true only count the shortcuts, without adding them.
+     * @return the number of shortcuts needed.
+     */
+    private int contract(int node, boolean simulate) {
+        TIntArrayList in = inArcs[node];
+        TIntArrayList out = outArcs[node];
+        int shortcuts = 0;
+        for (int i = 0; i < in.size(); i++) {
+            int inArc = in.get(i);
+            int tail = arcTail.get(inArc);
+            if (contracted[tail]) continue;
+            // Arcs may have zero weight, so track whether there is any candidate separately from the maximum weight.
+            boolean hasCandidate = false;
+            double maxWeight = 0;
+            for (int j = 0; j < out.size(); j++) {
+                int outArc = out.get(j);
+                int head = arcHead.get(outArc);
+                if (head == tail || contracted[head]) continue;
+                hasCandidate = true;
+                maxWeight = Math.max(maxWeight, arcWeight.get(inArc) + arcWeight.get(outArc));
+            }
+            if (!hasCandidate) continue;
+            witnessSearch(tail, node, maxWeight);
+            for (int j = 0; j < out.size(); j++) {
+                int outArc = out.get(j);
+                int head = arcHead.get(outArc);
+                if (head == tail || contracted[head]) continue;
+                double weight = arcWeight.get(inArc) + arcWeight.get(outArc);
+                if (witnessWeight[head] <= weight) continue;
+                shortcuts += 1;
+                if (!simulate) {
+                    int arc = addArc(tail, head, weight, -1, inArc, outArc);
+                    outArcs[tail].add(arc);
+                    inArcs[head].add(arc);
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    /** Find the weights of paths from the given node to its surroundings that do not pass through the avoided node. */
+    private void witnessSearch(int source, int avoid, double maxWeight) {
+        for (int i = 0; i < touched.size(); i++) {
+            witnessWeight[touched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        touched.resetQuick();
+        witnessQueue.reset();
+        witnessWeight[source] = 0;
+        touched.add(source);
+        witnessQueue.insert_or_dec_key(source, source, 0);
+        int settled = 0;
+        while (!witnessQueue.empty()) {
+            double weight = witnessQueue.peek_min_key();
+            if (weight > maxWeight || settled++ > WITNESS_SEARCH_LIMIT) break;
+            int node = witnessQueue.extract_min();
+            TIntArrayList out = outArcs[node];
+            for (int i = 0; i < out.size(); i++) {
+                int arc = out.get(i);
+                int head = arcHead.get(arc);
+                if (head == avoid || contracted[head]) continue;
+                double headWeight = weight + arcWeight.get(arc);
+                if (headWeight < witnessWeight[head]) {
+                    if (witnessWeight[head] == Double.POSITIVE_INFINITY) touched.add(head);
+                    witnessWeight[head] = headWeight;
+                    witnessQueue.insert_or_dec_key(head, head, headWeight);
+                }
+            }
+        }
+    }
+
+}
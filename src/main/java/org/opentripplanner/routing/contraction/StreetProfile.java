@@ -0,0 +1,97 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+
+/**
+ * A way of weighting street edges that does not depend on the time of day or on request parameters, so that a
+ * ContractionHierarchy can be built for it ahead of time. Each profile weights edges in proportion to the weight
+ * StreetEdge.traverse gives them for the requests it serves, leaving out turn costs and the mode switches between
+ * riding and walking a bike, which depend on the path by which an edge is reached.
+ */
+public enum StreetProfile {
+
+    /** Driving, weighted by travel time at the speed limit of each street. */
+    CAR(TraverseMode.CAR) {
+        @Override
+        public double weight(StreetEdge edge) {
+            return edge.getDistance() / edge.getCarSpeed();
+        }
+    },
+
+    /** Cycling the quickest way, weighted by length adjusted for slope. */
+    BICYCLE_QUICK(TraverseMode.BICYCLE) {
+        @Override
+        public double weight(StreetEdge edge) {
+            return edge.getSlopeSpeedEffectiveLength();
+        }
+    },
+
+    /** Cycling the safest way, weighted by length times the bicycle safety factor of each street. */
+    BICYCLE_SAFE(TraverseMode.BICYCLE) {
+        @Override
+        public double weight(StreetEdge edge) {
+            return edge.getBicycleSafetyFactor() * edge.getDistance();
+        }
+    };
+
+    public final TraverseMode mode;
+
+    private final TraverseModeSet modes;
+
+    StreetProfile(TraverseMode mode) {
+        this.mode = mode;
+        this.modes = new TraverseModeSet(mode);
+    }
+
+    /** @return the weight of the given edge in this profile, which is only meaningful if the edge is allowed. */
+    public abstract double weight(StreetEdge edge);
+
+    /** @return true if the given edge can be traversed in the mode of this profile. */
+    public boolean allows(StreetEdge edge) {
+        return edge.canTraverse(modes);
+    }
+
+    /**
+     * @return the profile whose weights agree with those of the given request (apart from turn costs), or null if the
+     * request uses transit, several modes, time-dependent speeds or options that no profile can represent.
+     */
+    public static StreetProfile forRequest(RoutingRequest options) {
+        TraverseModeSet modes = options.modes;
+        if (modes.isTransit() || modes.getWalk() || options.wheelchairAccessible) {
+            return null;
+        }
+        if (options.allowBikeRental || options.bikeParkAndRide || options.parkAndRide || options.kissAndRide) {
+            return null;
+        }
+        if (modes.getCar() && !modes.getBicycle()) {
+            // Congested speeds vary with the time of day.
+            if (options.useTraffic && options.rctx != null && options.rctx.streetSpeedSnapshot != null) {
+                return null;
+            }
+            return CAR;
+        }
+        if (modes.getBicycle() && !modes.getCar()) {
+            if (options.optimize == OptimizeType.QUICK) return BICYCLE_QUICK;
+            if (options.optimize == OptimizeType.SAFE) return BICYCLE_SAFE;
+        }
+        return null;
+    }
+
+}
@@ -32,6 +32,7 @@ import org.opentripplanner.routing.error.TransitTimesException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.TemporaryEdgeOverlay;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
@@ -79,6 +80,12 @@ public class RoutingContext implements Cloneable {
     // target means "where this search will terminate" not "the end of the trip from the user's perspective"
     public final Vertex target;
     
+    /**
+     * The temporary edges linking the origin and destination into the graph, as seen from the permanent vertices.
+     * These are never added to the shared graph, so searches must get the edges of a vertex through this overlay.
+     */
+    public final TemporaryEdgeOverlay temporaryEdges;
+
     // The back edge associated with the origin - i.e. continuing a previous search.
     // NOTE: not final so that it can be modified post-construction for testing.
     // TODO(flamholz): figure out a better way.
@@ -302,6 +309,7 @@ public class RoutingContext implements Cloneable {
                 makePartialEdgeAlong(pse, fromStreetVertex, toStreetVertex);
             }
         }
+        temporaryEdges = TemporaryEdgeOverlay.forVertices(fromVertex, toVertex);
         
         if (opt.startingTransitStopId != null) {
             Stop stop = graph.index.stopForId.get(opt.startingTransitStopId);
@@ -409,7 +417,8 @@ public class RoutingContext implements Cloneable {
     }
 
     /**
-     * Tear down this routing context, removing any temporary edges.
+     * Tear down this routing context, disposing of any temporary vertices. Temporary edges are not attached to the
+     * permanent vertices of the graph, so the graph itself is left as it was regardless.
      */
     public void destroy() {
         if (origin instanceof TemporaryVertex) ((TemporaryVertex) origin).dispose();
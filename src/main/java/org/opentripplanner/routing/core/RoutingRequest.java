@@ -411,6 +411,19 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * If true, the shortest path tree will store its states in arrays indexed by vertex index rather than in a
+     * hash map. This is faster and produces less garbage when a large part of the graph is explored.
+     */
+    public boolean indexedShortestPathTree = false;
+
+    /**
+     * Searches whose dominance function keeps a single state per vertex use a priority queue supporting decrease-key
+     * rather than enqueueing every improved state (see DominanceFunction.allowsDecreaseKey). Setting this to false
+     * always uses the plain queue, which is only useful for comparing the two (see PriorityQueueBenchmark).
+     */
+    public boolean decreaseKey = true;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
@@ -169,6 +169,7 @@ public class OnBoardDepartPatternHop extends Edge implements OnboardEdge, Tempor
 
     @Override
     public void dispose() {
-        tov.removeIncoming(this);
+        // Only the temporary onboard vertex holds this edge, see the Edge constructor.
+        fromv.removeOutgoing(this);
     }
 }
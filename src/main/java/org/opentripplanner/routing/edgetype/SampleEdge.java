@@ -5,6 +5,7 @@ import org.opentripplanner.routing.core.StateEditor;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.SampleVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 
 import java.util.Locale;
 
@@ -29,8 +30,9 @@ public class SampleEdge extends Edge implements TemporaryEdge {
 
     @Override
     public void dispose() {
-        tov.removeIncoming(this);
-        fromv.removeOutgoing(this);
+        // Only the temporary end of this edge holds it, see the Edge constructor.
+        if (fromv instanceof TemporaryVertex) fromv.removeOutgoing(this);
+        if (tov instanceof TemporaryVertex) tov.removeIncoming(this);
     }
 
     @Override
@@ -65,6 +65,9 @@ public class StreetEdge extends Edge implements Cloneable {
 
     private static final double GREENWAY_SAFETY_FACTOR = 0.1;
 
+    /** The walk speed in meters per second for which ElevationUtils computes the walk costs of slopes. */
+    private static final double ELEVATION_UTILS_SPEED = 4.0 / 3.0;
+
     // TODO(flamholz): do something smarter with the car speed here.
     public static final float DEFAULT_CAR_SPEED = 11.2f;
 
@@ -160,6 +163,28 @@ public class StreetEdge extends Edge implements Cloneable {
         }
     }
 
+    /**
+     * Recreate a street edge from the raw field values stored in a sectioned graph file. Unlike the other
+     * constructors this recomputes nothing, and does not add the edge to the edge lists of its vertices.
+     */
+    public StreetEdge(StreetVertex v1, StreetVertex v2, int id, byte flags, int length_mm,
+                      float bicycleSafetyFactor, int[] compactGeometry, I18NString name,
+                      StreetTraversalPermission permission, long wayId, int streetClass, float carSpeed,
+                      byte inAngle, byte outAngle) {
+        super(v1, v2, id);
+        this.flags = flags;
+        this.length_mm = length_mm;
+        this.bicycleSafetyFactor = bicycleSafetyFactor;
+        this.compactGeometry = compactGeometry;
+        this.name = name;
+        this.permission = permission;
+        this.wayId = wayId;
+        this.streetClass = streetClass;
+        this.carSpeed = carSpeed;
+        this.inAngle = inAngle;
+        this.outAngle = outAngle;
+    }
+
     //For testing only
     public StreetEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
                       String name, double length,
@@ -284,75 +309,10 @@ public class StreetEdge extends Edge implements Cloneable {
         // Automobiles have variable speeds depending on the edge type
         double speed = calculateSpeed(options, traverseMode, s0.getTimeInMillis());
         
-        double time = getDistance() / speed;
-        double weight;
-        // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
-        if (options.wheelchairAccessible) {
-            weight = getSlopeSpeedEffectiveLength() / speed;
-        } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
-            time = getSlopeSpeedEffectiveLength() / speed;
-            switch (options.optimize) {
-            case SAFE:
-                weight = bicycleSafetyFactor * getDistance() / speed;
-                break;
-            case GREENWAYS:
-                weight = bicycleSafetyFactor * getDistance() / speed;
-                if (bicycleSafetyFactor <= GREENWAY_SAFETY_FACTOR) {
-                    // greenways are treated as even safer than they really are
-                    weight *= 0.66;
-                }
-                break;
-            case FLAT:
-                /* see notes in StreetVertex on speed overhead */
-                weight = getDistance() / speed + getSlopeWorkCostEffectiveLength();
-                break;
-            case QUICK:
-                weight = getSlopeSpeedEffectiveLength() / speed;
-                break;
-            case TRIANGLE:
-                double quick = getSlopeSpeedEffectiveLength();
-                double safety = bicycleSafetyFactor * getDistance();
-                // TODO This computation is not coherent with the one for FLAT
-                double slope = getSlopeWorkCostEffectiveLength();
-                weight = quick * options.triangleTimeFactor + slope
-                        * options.triangleSlopeFactor + safety
-                        * options.triangleSafetyFactor;
-                weight /= speed;
-                break;
-            default:
-                weight = getDistance() / speed;
-            }
-        } else {
-            if (walkingBike) {
-                // take slopes into account when walking bikes
-                time = getSlopeSpeedEffectiveLength() / speed;
-            }
-            weight = time;
-            if (traverseMode.equals(TraverseMode.WALK)) {
-                // take slopes into account when walking
-                // FIXME: this causes steep stairs to be avoided. see #1297.
-                double costs = ElevationUtils.getWalkCostsForSlope(getDistance(), getMaxSlope());
-                // as the cost walkspeed is assumed to be for 4.8km/h (= 1.333 m/sec) we need to adjust
-                // for the walkspeed set by the user
-                double elevationUtilsSpeed = 4.0 / 3.0;
-                weight = costs * (elevationUtilsSpeed / speed);
-                time = weight; //treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
-                /*
-                // debug code
-                if(weight > 100){
-                    double timeflat = length / speed;
-                    System.out.format("line length: %.1f m, slope: %.3f ---> slope costs: %.1f , weight: %.1f , time (flat):  %.1f %n", length, elevationProfile.getMaxSlope(), costs, weight, timeflat);
-                }
-                */
-            }
-        }
-
-        if (isStairs()) {
-            weight *= options.stairsReluctance;
-        } else {
-            // TODO: this is being applied even when biking or driving.
-            weight *= options.walkReluctance;
-        }
+        double time = computeTraversalTime(getDistance(), getSlopeSpeedEffectiveLength(), getMaxSlope(), speed,
+                options, traverseMode);
+        double weight = computeTraversalWeight(time, getDistance(), getSlopeSpeedEffectiveLength(),
+                getSlopeWorkCostEffectiveLength(), bicycleSafetyFactor, isStairs(), speed, options, traverseMode);
 
         StateEditor s1 = s0.edit(this);
         s1.setBackMode(traverseMode);
@@ -483,6 +443,84 @@ public class StreetEdge extends Edge implements Cloneable {
         return s1;
     }
 
+    /**
+     * The time in seconds to traverse a street with the given length, slope and speed, before any turn cost. This is
+     * shared with CompactStreetGraph, which stores the same properties in primitive arrays.
+     */
+    public static double computeTraversalTime(double distance, double slopeSpeedLength, float maxSlope, double speed,
+                                              RoutingRequest options, TraverseMode traverseMode) {
+        if (options.wheelchairAccessible) {
+            return distance / speed;
+        } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
+            return slopeSpeedLength / speed;
+        } else if (traverseMode.equals(TraverseMode.WALK)) {
+            // take slopes into account when walking (or walking a bike)
+            // FIXME: this causes steep stairs to be avoided. see #1297.
+            double costs = ElevationUtils.getWalkCostsForSlope(distance, maxSlope);
+            // as the cost walkspeed is assumed to be for 4.8km/h (= 1.333 m/sec) we need to adjust
+            // for the walkspeed set by the user
+            // treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
+            return costs * (ELEVATION_UTILS_SPEED / speed);
+        }
+        return distance / speed;
+    }
+
+    /**
+     * The weight of traversing a street with the given properties, before any turn cost, given the time computed by
+     * computeTraversalTime. This is shared with CompactStreetGraph.
+     */
+    public static double computeTraversalWeight(double time, double distance, double slopeSpeedLength,
+                                                double slopeWorkLength, float bicycleSafetyFactor, boolean stairs,
+                                                double speed, RoutingRequest options, TraverseMode traverseMode) {
+        double weight;
+        // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
+        if (options.wheelchairAccessible) {
+            weight = slopeSpeedLength / speed;
+        } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
+            switch (options.optimize) {
+            case SAFE:
+                weight = bicycleSafetyFactor * distance / speed;
+                break;
+            case GREENWAYS:
+                weight = bicycleSafetyFactor * distance / speed;
+                if (bicycleSafetyFactor <= GREENWAY_SAFETY_FACTOR) {
+                    // greenways are treated as even safer than they really are
+                    weight *= 0.66;
+                }
+                break;
+            case FLAT:
+                /* see notes in StreetVertex on speed overhead */
+                weight = distance / speed + slopeWorkLength;
+                break;
+            case QUICK:
+                weight = slopeSpeedLength / speed;
+                break;
+            case TRIANGLE:
+                double quick = slopeSpeedLength;
+                double safety = bicycleSafetyFactor * distance;
+                // TODO This computation is not coherent with the one for FLAT
+                double slope = slopeWorkLength;
+                weight = quick * options.triangleTimeFactor + slope
+                        * options.triangleSlopeFactor + safety
+                        * options.triangleSafetyFactor;
+                weight /= speed;
+                break;
+            default:
+                weight = distance / speed;
+            }
+        } else {
+            weight = time;
+        }
+
+        if (stairs) {
+            weight *= options.stairsReluctance;
+        } else {
+            // TODO: this is being applied even when biking or driving.
+            weight *= options.walkReluctance;
+        }
+        return weight;
+    }
+
     private double calculateOverageWeight(double firstValue, double secondValue, double maxValue,
             double softPenalty, double overageRate) {
         // apply penalty if we stepped over the limit on this traversal
@@ -740,6 +778,28 @@ public class StreetEdge extends Edge implements Cloneable {
 		return this.outAngle * 180 / 128;
 	}
 
+    /* RAW FIELD ACCESS, used to write these fields to columns in a sectioned graph file. */
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public int getLength_mm() {
+        return length_mm;
+    }
+
+    public int[] getCompactGeometry() {
+        return compactGeometry;
+    }
+
+    public byte getRawInAngle() {
+        return inAngle;
+    }
+
+    public byte getRawOutAngle() {
+        return outAngle;
+    }
+
     protected List<TurnRestriction> getTurnRestrictions(Graph graph) {
         return graph.getTurnRestrictions(this);
     }
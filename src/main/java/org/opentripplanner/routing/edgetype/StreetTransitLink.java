@@ -54,6 +54,15 @@ public class StreetTransitLink extends Edge {
         this.wheelchairAccessible = wheelchairAccessible;
     }
 
+    public boolean isWheelchairAccessible() {
+        return wheelchairAccessible;
+    }
+
+    /** @return the time in seconds taken by traverse(), which is also the weight it adds. */
+    public int getTraversalSeconds() {
+        return transitStop.getStreetToStopTime() + STL_TRAVERSE_COST;
+    }
+
     public String getDirection() {
         return null;
     }
@@ -122,8 +131,8 @@ public class StreetTransitLink extends Edge {
                 return null;
             }
         }
-        s1.incrementTimeInSeconds(transitStop.getStreetToStopTime() + STL_TRAVERSE_COST);
-        s1.incrementWeight(STL_TRAVERSE_COST + transitStop.getStreetToStopTime());
+        s1.incrementTimeInSeconds(getTraversalSeconds());
+        s1.incrementWeight(getTraversalSeconds());
         s1.setBackMode(TraverseMode.LEG_SWITCH);
         return s1.makeState();
     }
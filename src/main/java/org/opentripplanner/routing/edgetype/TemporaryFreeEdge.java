@@ -41,11 +41,9 @@ public class TemporaryFreeEdge extends FreeEdge implements TemporaryEdge {
 
     @Override
     public void dispose() {
-        if (endEdge) {
-            fromv.removeOutgoing(this);
-        } else {
-            tov.removeIncoming(this);
-        }
+        // Only the temporary end of this edge holds it, see the Edge constructor.
+        if (fromv instanceof TemporaryVertex) fromv.removeOutgoing(this);
+        if (tov instanceof TemporaryVertex) tov.removeIncoming(this);
     }
 
     @Override
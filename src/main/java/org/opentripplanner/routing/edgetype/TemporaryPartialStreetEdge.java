@@ -16,6 +16,7 @@ package org.opentripplanner.routing.edgetype;
 import com.vividsolutions.jts.geom.LineString;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 import org.opentripplanner.util.I18NString;
 
 final public class TemporaryPartialStreetEdge extends PartialStreetEdge implements TemporaryEdge {
@@ -58,13 +59,9 @@ final public class TemporaryPartialStreetEdge extends PartialStreetEdge implemen
 
     @Override
     public void dispose() {
-        if (endEdge != null) {
-            if (endEdge) {
-                fromv.removeOutgoing(this);
-            } else {
-                tov.removeIncoming(this);
-            }
-        }
+        // Only the temporary end of this edge holds it, see the Edge constructor.
+        if (fromv instanceof TemporaryVertex) fromv.removeOutgoing(this);
+        if (tov instanceof TemporaryVertex) tov.removeIncoming(this);
     }
 
     @Override
@@ -87,7 +87,35 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
-    
+
+    /**
+     * Timetables with fewer trips than this are not indexed by departure time: a linear scan over a handful of trips
+     * is as fast as a binary search and the index would only waste memory.
+     */
+    static final int MIN_TRIPS_FOR_INDEX = 16;
+
+    /**
+     * For each stop, the indexes of the trips in tripTimes sorted by departure time at that stop (ties broken by trip
+     * index), or null if the timetable is not indexed. These arrays are never modified once built, so they can be
+     * shared with Timetables copied from this one.
+     */
+    private transient int[][] departureIndex;
+
+    /**
+     * For each stop, the indexes of the trips in tripTimes sorted by arrival time at that stop (ties broken by
+     * decreasing trip index, so that scanning backward finds the same trip as a linear scan).
+     */
+    private transient int[][] arrivalIndex;
+
+    /** The TripTimes that were in this timetable when the indexes were built, used to find which trips changed. */
+    private transient TripTimes[] indexedTripTimes;
+
+    /**
+     * Whether the indexes match the trips in this timetable. Adding or replacing a trip clears this until the next call
+     * to finish(), and the indexes are then only kept to find the changed trips.
+     */
+    private transient boolean indexCurrent;
+
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
         this.pattern = pattern;
@@ -95,12 +123,18 @@ public class Timetable implements Serializable {
     }
 
     /**
-     * Copy constructor: create an un-indexed Timetable with the same TripTimes as the specified timetable.
+     * Copy constructor: create a Timetable with the same TripTimes as the specified timetable. The departure and
+     * arrival indexes are shared with the original, so that finish() only needs to reposition the trips that have
+     * been changed in the copy.
      */
     Timetable (Timetable tt, ServiceDate serviceDate) {
         tripTimes.addAll(tt.tripTimes);
         this.serviceDate = serviceDate;
         this.pattern = tt.pattern;
+        this.departureIndex = tt.departureIndex;
+        this.arrivalIndex = tt.arrivalIndex;
+        this.indexedTripTimes = tt.indexedTripTimes;
+        this.indexCurrent = tt.indexCurrent;
     }
 
     /**
@@ -140,17 +174,34 @@ public class Timetable implements Serializable {
         // NOTE the time is sometimes negative here. That is fine, we search for the first trip of the day.
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
+        // When the timetable is indexed, we visit the trips in order of departure (arrival) time at this stop,
+        // starting from the first one departing at or after (arriving at or before) the search time. Transfer rules
+        // can only push the boarding time later (alighting time earlier), so the first acceptable trip is the best
+        // one and the search can stop there.
+        // Otherwise we fall back on a linear search through the timetable. Trips cannot simply be kept in a sorted
+        // list because:
         // 1. we allow combining trips from different service IDs on the same tripPattern.
         // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
         // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
+        //    The index is therefore kept per stop and updated in finish() when realtime updates are committed.
+        int[] order = null;
+        int nTrips = tripTimes.size();
+        int i = 0, step = 1;
+        if (isIndexed()) {
+            if (boarding) {
+                order = departureIndex[stopIndex];
+                i = firstDepartureAtOrAfter(order, stopIndex, time);
+            } else {
+                order = arrivalIndex[stopIndex];
+                i = lastArrivalAtOrBefore(order, stopIndex, time);
+                step = -1;
+            }
+        }
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
         // Hoping JVM JIT will distribute the loop over the if clauses as needed.
         // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
+        for (; i >= 0 && i < nTrips; i += step) {
+            TripTimes tt = tripTimes.get(order == null ? i : order[i]);
             if (tt.isCanceled()) continue;
             if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
             if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
@@ -164,6 +215,7 @@ public class Timetable implements Serializable {
                 if (depTime >= adjustedTime && depTime < bestTime) {
                     bestTrip = tt;
                     bestTime = depTime;
+                    if (order != null) break;
                 }
             } else {
                 int arvTime = tt.getArrivalTime(stopIndex);
@@ -171,6 +223,7 @@ public class Timetable implements Serializable {
                 if (arvTime <= adjustedTime && arvTime > bestTime) {
                     bestTrip = tt;
                     bestTime = arvTime;
+                    if (order != null) break;
                 }
             }
         }
@@ -248,6 +301,38 @@ public class Timetable implements Serializable {
         return t0;
     }
 
+    /** @return true if the departure and arrival indexes are present and match the trips in this timetable. */
+    private boolean isIndexed() {
+        return indexCurrent;
+    }
+
+    /** Stop using the departure and arrival indexes until finish() brings them up to date with the trips. */
+    void invalidateIndex() {
+        indexCurrent = false;
+    }
+
+    /** @return the position in the given departure order of the first trip departing the stop at or after time. */
+    private int firstDepartureAtOrAfter(int[] order, int stopIndex, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getDepartureTime(stopIndex) < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return the position in the given arrival order of the last trip arriving at the stop at or before time. */
+    private int lastArrivalAtOrBefore(int[] order, int stopIndex, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getArrivalTime(stopIndex) <= time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+
     /**
      * Finish off a Timetable once all TripTimes have been added to it. This involves caching
      * lower bounds on the running times and dwell times at each stop, and may perform other
@@ -289,6 +374,120 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        indexTripTimes();
+    }
+
+    /**
+     * Build or update the per-stop departure and arrival indexes. When this timetable is a realtime copy of an indexed
+     * timetable, only the trips that have been replaced or added since the indexes were built are repositioned, which
+     * keeps the cost of committing a TimetableSnapshot proportional to the number of updated trips.
+     */
+    private void indexTripTimes() {
+        int nTrips = tripTimes.size();
+        if (nTrips < MIN_TRIPS_FOR_INDEX) {
+            departureIndex = null;
+            arrivalIndex = null;
+            indexedTripTimes = null;
+            indexCurrent = false;
+            return;
+        }
+        int nStops = pattern.stopPattern.size;
+        // Find the trips that have changed since the existing indexes were built, if any.
+        // Trips are only ever replaced or appended, never removed.
+        int[] changed = null;
+        if (indexedTripTimes != null && indexedTripTimes.length <= nTrips) {
+            int nChanged = 0;
+            changed = new int[nTrips];
+            for (int t = 0; t < nTrips; t++) {
+                if (t >= indexedTripTimes.length || tripTimes.get(t) != indexedTripTimes[t]) changed[nChanged++] = t;
+            }
+            changed = Arrays.copyOf(changed, nChanged);
+            // Repositioning many trips one by one is slower than sorting from scratch.
+            if (nChanged > nTrips / 8) changed = null;
+        }
+        int[][] newDepartureIndex = new int[nStops][];
+        int[][] newArrivalIndex = new int[nStops][];
+        for (int s = 0; s < nStops; s++) {
+            if (changed == null) {
+                newDepartureIndex[s] = sortTrips(s, true);
+                newArrivalIndex[s] = sortTrips(s, false);
+            } else if (changed.length == 0) {
+                newDepartureIndex[s] = departureIndex[s];
+                newArrivalIndex[s] = arrivalIndex[s];
+            } else {
+                newDepartureIndex[s] = repositionTrips(departureIndex[s], changed, s, true);
+                newArrivalIndex[s] = repositionTrips(arrivalIndex[s], changed, s, false);
+            }
+        }
+        // The existing arrays may be shared with other timetables, so they are replaced rather than modified.
+        departureIndex = newDepartureIndex;
+        arrivalIndex = newArrivalIndex;
+        indexedTripTimes = tripTimes.toArray(new TripTimes[nTrips]);
+        indexCurrent = true;
+    }
+
+    /** @return the indexes of all trips sorted by departure (arrival) time at the given stop. */
+    private int[] sortTrips(int stopIndex, boolean departures) {
+        int nTrips = tripTimes.size();
+        // Pack the time and the trip index into a single long so that a primitive sort can be used.
+        long[] keys = new long[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            keys[t] = sortKey(t, stopIndex, departures);
+        }
+        Arrays.sort(keys);
+        int[] order = new int[nTrips];
+        for (int t = 0; t < nTrips; t++) {
+            int low = (int) keys[t];
+            order[t] = departures ? low : Integer.MAX_VALUE - low;
+        }
+        return order;
+    }
+
+    /**
+     * @return a copy of the given sorted trip order in which the changed trips (given in increasing order) have been
+     * moved to their new positions. Trips beyond the end of the old order are inserted.
+     */
+    private int[] repositionTrips(int[] oldOrder, int[] changed, int stopIndex, boolean departures) {
+        int nTrips = tripTimes.size();
+        int[] order = new int[nTrips];
+        int n = 0;
+        for (int t : oldOrder) {
+            if (Arrays.binarySearch(changed, t) < 0) order[n++] = t;
+        }
+        for (int t : changed) {
+            long key = sortKey(t, stopIndex, departures);
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortKey(order[mid], stopIndex, departures) < key) lo = mid + 1;
+                else hi = mid;
+            }
+            System.arraycopy(order, lo, order, lo + 1, n - lo);
+            order[lo] = t;
+            n++;
+        }
+        return order;
+    }
+
+    /**
+     * The sort key of a trip at a stop: the time in the high 32 bits, the trip index in the low 32 bits to break ties.
+     * For arrivals ties are broken by decreasing trip index, since the arrival index is scanned backward.
+     */
+    private long sortKey(int tripIndex, int stopIndex, boolean departures) {
+        TripTimes tt = tripTimes.get(tripIndex);
+        int time = departures ? tt.getDepartureTime(stopIndex) : tt.getArrivalTime(stopIndex);
+        int low = departures ? tripIndex : Integer.MAX_VALUE - tripIndex;
+        return ((long) time << 32) | low;
+    }
+
+    /** @return the trip indexes sorted by departure time at the given stop, or null if there is no index. */
+    int[] getDepartureOrder(int stopIndex) {
+        return isIndexed() ? departureIndex[stopIndex] : null;
+    }
+
+    /** @return the trip indexes sorted by arrival time at the given stop, or null if there is no index. */
+    int[] getArrivalOrder(int stopIndex) {
+        return isIndexed() ? arrivalIndex[stopIndex] : null;
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -332,6 +531,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        invalidateIndex();
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -512,6 +712,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        invalidateIndex();
         tripTimes.add(tt);
     }
 
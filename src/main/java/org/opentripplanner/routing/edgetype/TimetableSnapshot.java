@@ -13,18 +13,20 @@
 
 package org.opentripplanner.routing.edgetype;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.PersistentHashMap;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,12 +98,10 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
+    // A persistent map, so that committing shares all the unchanged patterns with the previous snapshot rather than
+    // copying the whole map. Changes after a commit copy only the parts of the map leading to the changed patterns.
     // The SortedSet members are copy-on-write
-    // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private PersistentHashMap<TripPattern, SortedSet<Timetable>> timetables = new PersistentHashMap<>();
     
     /**
      * <p>
@@ -110,10 +110,10 @@ public class TimetableSnapshot {
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
      * <p>
-     * This is a HashMap and not a Map so the clone function is available.
+     * This is persistent for the same reason as the timetables map.
      * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private PersistentHashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new PersistentHashMap<>();
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -230,7 +230,7 @@ public class TimetableSnapshot {
 
     /**
      * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * the indexing step. Snapshotting the maps takes constant time, as they are persistent.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
@@ -242,7 +242,6 @@ public class TimetableSnapshot {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -253,9 +252,8 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables.snapshot();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern.snapshot();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -289,38 +287,41 @@ public class TimetableSnapshot {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
 
-        boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        // Only replace the timetable sets that actually lose a timetable, leaving the others shared with the
+        // last committed snapshot. The changes are gathered first as the map cannot be modified while iterating.
+        Map<TripPattern, SortedSet<Timetable>> changedTimetables = new HashMap<>();
+        timetables.forEach((pattern, sortedTimetables) -> {
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
-
-            if(toKeepTimetables.isEmpty()) {
-                it.remove();
+            if (toKeepTimetables.size() < sortedTimetables.size()) {
+                changedTimetables.put(pattern, toKeepTimetables);
+            }
+        });
+        for (Map.Entry<TripPattern, SortedSet<Timetable>> entry : changedTimetables.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                timetables.remove(entry.getKey());
             } else {
-                timetables.put(pattern, toKeepTimetables);
+                timetables.put(entry.getKey(), entry.getValue());
             }
         }
         
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
+        List<TripIdAndServiceDate> expiredTrips = new ArrayList<>();
+        lastAddedTripPattern.forEach((tripIdAndServiceDate, pattern) -> {
             if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
+                expiredTrips.add(tripIdAndServiceDate);
             }
+        });
+        for (TripIdAndServiceDate tripIdAndServiceDate : expiredTrips) {
+            lastAddedTripPattern.remove(tripIdAndServiceDate);
         }
 
-        return modified;
+        return !changedTimetables.isEmpty() || !expiredTrips.isEmpty();
     }
 
     public boolean isDirty() {
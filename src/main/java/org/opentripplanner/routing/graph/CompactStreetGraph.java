@@ -0,0 +1,380 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A frozen, read-only copy of the adjacency structure of a Graph, built once after the graph is loaded.
+ *
+ * Every permanent edge is given a dense integer index. The outgoing and incoming edges of each vertex are stored in
+ * compressed sparse row form: the edges of vertex v are found in outgoingEdges (resp. incomingEdges) between
+ * outgoingOffsets[v] and outgoingOffsets[v + 1], where v is the vertex index. The fields of StreetEdges that are
+ * used when traversing them are copied into parallel primitive arrays indexed by edge index, so street searches can
+ * run over a few contiguous arrays instead of chasing Edge objects scattered across the heap.
+ *
+ * Non-street edges keep only their endpoints here; the Edge object can be retrieved with getEdge() when they must be
+ * traversed. Temporary vertices and edges created per request (vertex index beyond nVertices) are not included, nor
+ * are any changes made to the Graph after this was built. It must be rebuilt if the street network is modified.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    /* Bits in the flags array. */
+    private static final byte STREET_FLAG = 1;
+    private static final byte LINK_FLAG = 2;
+    private static final byte STAIRS_FLAG = 4;
+    private static final byte NO_THRU_TRAFFIC_FLAG = 8;
+    private static final byte WHEELCHAIR_ACCESSIBLE_FLAG = 16;
+    private static final byte BACK_FLAG = 32;
+    private static final byte ROUNDABOUT_FLAG = 64;
+
+    /** One more than the highest vertex index at the time this was built. */
+    public final int nVertices;
+
+    public final int nEdges;
+
+    /** The edges of vertex v are outgoingEdges[outgoingOffsets[v]] to outgoingEdges[outgoingOffsets[v + 1] - 1]. */
+    public final int[] outgoingOffsets;
+    public final int[] outgoingEdges;
+    public final int[] incomingOffsets;
+    public final int[] incomingEdges;
+
+    /* Edge columns, indexed by edge index. */
+    public final int[] fromVertex;
+    public final int[] toVertex;
+    private final byte[] flags;
+    private final int[] lengthMm;
+    /** The StreetTraversalPermission code, 0 for non-street edges. */
+    private final byte[] permission;
+    private final float[] carSpeed;
+    private final float[] bicycleSafetyFactor;
+    private final float[] maxSlope;
+    /** Effective lengths in meters accounting for slope, which are equal to the length on flat edges. */
+    private final float[] slopeSpeedLength;
+    private final float[] slopeWorkLength;
+
+    /** The original edges, for retrieving paths and traversing non-street edges. */
+    private final Edge[] edges;
+
+    /** The vertices by index, null where there was no vertex with that index. */
+    private final Vertex[] vertices;
+
+    /** Edge index for each edge ID, or -1. */
+    private final int[] edgeIndexForId;
+
+    /** The scratch space of getStreetDistances, made the first time each thread needs it. */
+    private final ThreadLocal<DistanceSearch> distanceSearches = ThreadLocal.withInitial(DistanceSearch::new);
+
+    public CompactStreetGraph (Graph graph) {
+        long startTime = System.currentTimeMillis();
+        Collection<Vertex> vertices = graph.getVertices();
+        int maxVertexIndex = 0;
+        int maxEdgeId = 0;
+        int edgeCount = 0;
+        for (Vertex v : vertices) {
+            maxVertexIndex = Math.max(maxVertexIndex, v.getIndex());
+            for (Edge e : v.getOutgoing()) {
+                maxEdgeId = Math.max(maxEdgeId, e.getId());
+                edgeCount++;
+            }
+        }
+        nVertices = maxVertexIndex + 1;
+        Vertex[] vertexForIndex = new Vertex[nVertices];
+        for (Vertex v : vertices) {
+            vertexForIndex[v.getIndex()] = v;
+        }
+        this.vertices = vertexForIndex;
+        edges = new Edge[edgeCount];
+        edgeIndexForId = new int[maxEdgeId + 1];
+        Arrays.fill(edgeIndexForId, -1);
+        fromVertex = new int[edgeCount];
+        toVertex = new int[edgeCount];
+        flags = new byte[edgeCount];
+        lengthMm = new int[edgeCount];
+        permission = new byte[edgeCount];
+        carSpeed = new float[edgeCount];
+        bicycleSafetyFactor = new float[edgeCount];
+        maxSlope = new float[edgeCount];
+        slopeSpeedLength = new float[edgeCount];
+        slopeWorkLength = new float[edgeCount];
+
+        // Number the edges, grouping them by from vertex so that the outgoing lists are contiguous ranges.
+        outgoingOffsets = new int[nVertices + 1];
+        outgoingEdges = new int[edgeCount];
+        int[] inDegree = new int[nVertices + 1];
+        int e = 0;
+        for (int v = 0; v < nVertices; v++) {
+            outgoingOffsets[v] = e;
+            Vertex vertex = vertexForIndex[v];
+            if (vertex == null) continue;
+            for (Edge edge : vertex.getOutgoing()) {
+                // Edges to temporary vertices outside the graph are not part of the frozen structure.
+                if (edge.getToVertex() == null || edge.getToVertex().getIndex() >= nVertices) continue;
+                copyEdge(e, edge);
+                outgoingEdges[e] = e;
+                inDegree[toVertex[e]]++;
+                e++;
+            }
+        }
+        outgoingOffsets[nVertices] = e;
+        nEdges = e;
+
+        // Counting sort of the edges by to vertex to build the incoming lists.
+        incomingOffsets = new int[nVertices + 1];
+        for (int v = 0; v < nVertices; v++) {
+            incomingOffsets[v + 1] = incomingOffsets[v] + inDegree[v];
+        }
+        incomingEdges = new int[e];
+        int[] fill = Arrays.copyOf(incomingOffsets, nVertices);
+        for (int i = 0; i < e; i++) {
+            incomingEdges[fill[toVertex[i]]++] = i;
+        }
+        LOG.info("Built compact street graph with {} vertices and {} edges in {} ms.", nVertices, nEdges,
+                System.currentTimeMillis() - startTime);
+    }
+
+    private void copyEdge (int e, Edge edge) {
+        edges[e] = edge;
+        if (edge.getId() >= 0 && edge.getId() < edgeIndexForId.length) {
+            edgeIndexForId[edge.getId()] = e;
+        }
+        fromVertex[e] = edge.getFromVertex().getIndex();
+        toVertex[e] = edge.getToVertex().getIndex();
+        if (edge instanceof StreetEdge) {
+            StreetEdge se = (StreetEdge) edge;
+            byte f = STREET_FLAG;
+            if (se.isStairs()) f |= STAIRS_FLAG;
+            if (se.isNoThruTraffic()) f |= NO_THRU_TRAFFIC_FLAG;
+            if (se.isWheelchairAccessible()) f |= WHEELCHAIR_ACCESSIBLE_FLAG;
+            if (se.isBack()) f |= BACK_FLAG;
+            if (se.isRoundabout()) f |= ROUNDABOUT_FLAG;
+            flags[e] = f;
+            lengthMm[e] = (int) Math.round(se.getDistance() * 1000);
+            permission[e] = (byte) se.getPermission().code;
+            carSpeed[e] = se.getCarSpeed();
+            bicycleSafetyFactor[e] = se.getBicycleSafetyFactor();
+            maxSlope[e] = se.getMaxSlope();
+            slopeSpeedLength[e] = (float) se.getSlopeSpeedEffectiveLength();
+            slopeWorkLength[e] = (float) se.getSlopeWorkCostEffectiveLength();
+        } else if (edge instanceof StreetTransitLink) {
+            byte f = LINK_FLAG;
+            if (((StreetTransitLink) edge).isWheelchairAccessible()) f |= WHEELCHAIR_ACCESSIBLE_FLAG;
+            flags[e] = f;
+        }
+    }
+
+    /** @return true if the given vertex existed when this structure was built. */
+    public boolean contains (Vertex vertex) {
+        return vertex.getIndex() < nVertices;
+    }
+
+    public Edge getEdge (int edge) {
+        return edges[edge];
+    }
+
+    /** @return the vertex with the given index, or null if there was none when this was built. */
+    public Vertex getVertex (int vertex) {
+        return vertex < nVertices ? vertices[vertex] : null;
+    }
+
+    /** @return the time in seconds to traverse the given link between the street network and a transit stop. */
+    public int getLinkSeconds (int edge) {
+        return ((StreetTransitLink) edges[edge]).getTraversalSeconds();
+    }
+
+    /** @return the index of the given edge, or -1 if it is not part of this structure (e.g. a temporary edge). */
+    public int getIndex (Edge edge) {
+        int id = edge.getId();
+        if (id < 0 || id >= edgeIndexForId.length) return -1;
+        int e = edgeIndexForId[id];
+        return (e >= 0 && edges[e] == edge) ? e : -1;
+    }
+
+    public boolean isStreet (int edge) {
+        return (flags[edge] & STREET_FLAG) != 0;
+    }
+
+    /** @return true if this is a link between the street network and a transit stop. */
+    public boolean isLink (int edge) {
+        return (flags[edge] & LINK_FLAG) != 0;
+    }
+
+    public boolean isStairs (int edge) {
+        return (flags[edge] & STAIRS_FLAG) != 0;
+    }
+
+    public boolean isNoThruTraffic (int edge) {
+        return (flags[edge] & NO_THRU_TRAFFIC_FLAG) != 0;
+    }
+
+    public boolean isWheelchairAccessible (int edge) {
+        return (flags[edge] & WHEELCHAIR_ACCESSIBLE_FLAG) != 0;
+    }
+
+    public boolean isBack (int edge) {
+        return (flags[edge] & BACK_FLAG) != 0;
+    }
+
+    public boolean isRoundabout (int edge) {
+        return (flags[edge] & ROUNDABOUT_FLAG) != 0;
+    }
+
+    public int getLengthMm (int edge) {
+        return lengthMm[edge];
+    }
+
+    public double getDistance (int edge) {
+        return lengthMm[edge] / 1000.0;
+    }
+
+    public float getCarSpeed (int edge) {
+        return carSpeed[edge];
+    }
+
+    public StreetTraversalPermission getPermission (int edge) {
+        return StreetTraversalPermission.get(permission[edge]);
+    }
+
+    /** Equivalent to StreetEdge.canTraverse(options, mode) for the street edge with the given index. */
+    public boolean canTraverse (int edge, RoutingRequest options, TraverseMode mode) {
+        if (options.wheelchairAccessible) {
+            if (!isWheelchairAccessible(edge)) {
+                return false;
+            }
+            if (maxSlope[edge] > options.maxSlope) {
+                return false;
+            }
+        }
+        int allowed;
+        switch (mode) {
+            case WALK: allowed = StreetTraversalPermission.PEDESTRIAN.code; break;
+            case BICYCLE: allowed = StreetTraversalPermission.BICYCLE.code; break;
+            case CAR: allowed = StreetTraversalPermission.CAR.code; break;
+            default: return false;
+        }
+        return (permission[edge] & allowed) != 0;
+    }
+
+    /**
+     * The speed on the given street edge in meters per second, as in StreetEdge.calculateSpeed but without traffic
+     * (which depends on the time of day).
+     */
+    public double getSpeed (int edge, RoutingRequest options, TraverseMode mode) {
+        return mode.isDriving() ? carSpeed[edge] : options.getSpeed(mode);
+    }
+
+    /**
+     * The time in seconds to traverse the given street edge, computed in the same way as StreetEdge.traverse but
+     * without the turn cost at the start of the edge or the mode switching penalties, which depend on the previous
+     * edge. This is not rounded up to a whole number of seconds.
+     */
+    public double getTraversalTime (int edge, RoutingRequest options, TraverseMode mode) {
+        return StreetEdge.computeTraversalTime(getDistance(edge), slopeSpeedLength[edge], maxSlope[edge],
+                getSpeed(edge, options, mode), options, mode);
+    }
+
+    /**
+     * The weight of traversing the given street edge, computed in the same way as StreetEdge.traverse with the same
+     * exclusions as getTraversalTime.
+     */
+    public double getTraversalWeight (int edge, RoutingRequest options, TraverseMode mode) {
+        double speed = getSpeed(edge, options, mode);
+        double time = StreetEdge.computeTraversalTime(getDistance(edge), slopeSpeedLength[edge], maxSlope[edge],
+                speed, options, mode);
+        return StreetEdge.computeTraversalWeight(time, getDistance(edge), slopeSpeedLength[edge],
+                slopeWorkLength[edge], bicycleSafetyFactor[edge], isStairs(edge), speed, options, mode);
+    }
+
+    /**
+     * Find the shortest distances over the street network from the given vertex, following only street edges that
+     * allow the given mode and links to transit stops (which have zero length). This does not touch any Edge objects.
+     *
+     * @param arriveBy if true, follow edges backward to find distances to rather than from the origin.
+     * @return a flattened array of (vertexIndex, distanceMeters) pairs for every vertex within maxDistanceMeters,
+     *         in the format used by StopTreeCache.
+     */
+    public int[] getStreetDistances (int originVertex, RoutingRequest options, TraverseMode mode,
+                                     int maxDistanceMeters, boolean arriveBy) {
+        int[] offsets = arriveBy ? incomingOffsets : outgoingOffsets;
+        int[] adjacent = arriveBy ? incomingEdges : outgoingEdges;
+        int[] otherVertex = arriveBy ? fromVertex : toVertex;
+        long maxDistanceMm = maxDistanceMeters * 1000L;
+        DistanceSearch search = distanceSearches.get();
+        IndexedBinHeap<Object> queue = search.queue;
+        int[] bestMm = search.bestMm;
+        TIntArrayList reached = new TIntArrayList();
+        bestMm[originVertex] = 0;
+        queue.insert_or_dec_key(originVertex, null, 0);
+        while (!queue.empty()) {
+            int v = queue.peek_min_index();
+            queue.extract_min();
+            int d = bestMm[v];
+            reached.add(v);
+            reached.add(d / 1000);
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int e = adjacent[i];
+                int d1;
+                if (isStreet(e)) {
+                    if (!canTraverse(e, options, mode)) continue;
+                    d1 = d + lengthMm[e];
+                } else if (isLink(e)) {
+                    d1 = d;
+                } else {
+                    continue;
+                }
+                int v1 = otherVertex[e];
+                if (d1 < bestMm[v1] && d1 <= maxDistanceMm) {
+                    bestMm[v1] = d1;
+                    queue.insert_or_dec_key(v1, null, d1);
+                }
+            }
+        }
+        // Every vertex given a distance was queued and then reached, so only those need to be reset.
+        for (int i = 0; i < reached.size(); i += 2) {
+            bestMm[reached.get(i)] = Integer.MAX_VALUE;
+        }
+        return reached.toArray();
+    }
+
+    /**
+     * The best distance found to each vertex and the queue of a street distance search, reused by the searches made
+     * on one thread so that each search costs space in proportion to the vertices it reaches.
+     */
+    private class DistanceSearch {
+
+        final int[] bestMm = new int[nVertices];
+
+        /* Queue of vertex indices, whose elements are unused. */
+        final IndexedBinHeap<Object> queue = new IndexedBinHeap<>(1000, nVertices);
+
+        DistanceSearch () {
+            Arrays.fill(bestMm, Integer.MAX_VALUE);
+        }
+
+    }
+
+}
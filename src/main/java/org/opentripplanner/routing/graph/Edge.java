@@ -18,8 +18,10 @@ import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
 import org.opentripplanner.routing.util.IncrementingIdGenerator;
 import org.opentripplanner.routing.util.UniqueIdGenerator;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 
 import javax.xml.bind.annotation.XmlTransient;
 import java.io.IOException;
@@ -66,8 +68,32 @@ public abstract class Edge implements Serializable {
         // " constructed with bad vertex types");
         // }
 
-        fromv.addOutgoing(this);
-        tov.addIncoming(this);
+        // A temporary edge is only attached to its temporary end(s), so that linking a request's origin and
+        // destination never modifies the shared graph. Searches see it from the permanent side through the
+        // TemporaryEdgeOverlay of their RoutingContext.
+        boolean temporary = this instanceof TemporaryEdge;
+        if (!temporary || fromv instanceof TemporaryVertex) {
+            fromv.addOutgoing(this);
+        }
+        if (!temporary || tov instanceof TemporaryVertex) {
+            tov.addIncoming(this);
+        }
+    }
+
+    /**
+     * Recreate an edge that was stored with the given ID, without taking a new ID and without adding it to the edge
+     * lists of its vertices. The caller is responsible for doing that, which allows many edges to be created in
+     * parallel and then attached to their vertices in a deterministic order.
+     */
+    protected Edge(Vertex v1, Vertex v2, int id) {
+        if (v1 == null || v2 == null) {
+            String err = String.format("%s constructed with null vertex : %s %s", this.getClass(),
+                    v1, v2);
+            throw new IllegalStateException(err);
+        }
+        this.fromv = v1;
+        this.tov = v2;
+        this.id = id;
     }
 
     public Vertex getFromVertex() {
@@ -38,6 +38,8 @@ import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.StreetProfile;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -45,6 +47,7 @@ import org.opentripplanner.routing.edgetype.EdgeWithCleanup;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.StreetSearchCache;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.services.notes.StreetNotesService;
@@ -110,6 +113,24 @@ public class Graph implements Serializable {
 
     public transient GraphIndex index;
 
+    /** Optional frozen copy of the adjacency lists and street edge fields in primitive arrays, see buildCompactStreetGraph. */
+    public transient CompactStreetGraph compactStreetGraph;
+
+    /** Optional lower bounds on transit ride times between stops, see buildTransitLowerBounds. */
+    public transient TransitLowerBounds transitLowerBounds;
+
+    /**
+     * Cached walking searches around request origins and destinations, made when the graph is indexed. Null disables
+     * the cache. This must be invalidated whenever the street network or its notes or speeds are changed.
+     */
+    public transient StreetSearchCache streetSearchCache;
+
+    /**
+     * Optional contraction hierarchies of the street network for fixed-weight street profiles, which are built by the
+     * ContractionHierarchyModule and saved with the graph.
+     */
+    public Map<StreetProfile, ContractionHierarchy> contractionHierarchies;
+
     private transient GeometryIndex geomIndex;
 
     private transient SampleFactory sampleFactory;
@@ -445,32 +466,41 @@ public class Graph implements Serializable {
 
     @SuppressWarnings("unchecked")
     public <T> T putService(Class<T> serviceType, T service) {
-        return (T) _services.put(serviceType, service);
+        // Services are synchronized because graph builder modules may run concurrently.
+        synchronized (_services) {
+            return (T) _services.put(serviceType, service);
+        }
     }
 
     public boolean hasService(Class<?> serviceType) {
-        return _services.containsKey(serviceType);
+        synchronized (_services) {
+            return _services.containsKey(serviceType);
+        }
     }
 
     @SuppressWarnings("unchecked")
     public <T> T getService(Class<T> serviceType) {
-        return (T) _services.get(serviceType);
+        synchronized (_services) {
+            return (T) _services.get(serviceType);
+        }
     }
 
     public <T> T getService(Class<T> serviceType, boolean autoCreate) {
-        @SuppressWarnings("unchecked")
-        T t = (T) _services.get(serviceType);
-        if (t == null && autoCreate) {
-            try {
-                t = (T)serviceType.newInstance();
-            } catch (InstantiationException e) {
-                throw new RuntimeException(e);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
+        synchronized (_services) {
+            @SuppressWarnings("unchecked")
+            T t = (T) _services.get(serviceType);
+            if (t == null && autoCreate) {
+                try {
+                    t = (T)serviceType.newInstance();
+                } catch (InstantiationException e) {
+                    throw new RuntimeException(e);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                _services.put(serviceType, t);
             }
-            _services.put(serviceType, t);
+            return t;
         }
-        return t;
     }
 
     public void remove(Vertex vertex) {
@@ -623,8 +653,11 @@ public class Graph implements Serializable {
      */
     public String addBuilderAnnotation(GraphBuilderAnnotation gba) {
         String ret = gba.getMessage();
-        if (this.graphBuilderAnnotations != null)
-            this.graphBuilderAnnotations.add(gba);
+        if (this.graphBuilderAnnotations != null) {
+            synchronized (this.graphBuilderAnnotations) {
+                this.graphBuilderAnnotations.add(gba);
+            }
+        }
         return ret;
     }
 
@@ -653,8 +686,9 @@ public class Graph implements Serializable {
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return load(in, level);
+        }
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
@@ -667,7 +701,20 @@ public class Graph implements Serializable {
 
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph from a stream holding either a single Java serialization stream or a sectioned graph file,
+     * detecting which one it is.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws ClassNotFoundException, IOException {
+        InputStream in = is.markSupported() ? is : new BufferedInputStream(is);
+        if (SectionedGraphFile.isSectionedGraphFile(in)) {
+            return loadSectioned(in, level, indexFactory);
+        }
+        return load(new ObjectInputStream(in), level, indexFactory);
     }
 
     /**
@@ -704,8 +751,25 @@ public class Graph implements Serializable {
         }
         // TODO: Move this ^ stuff into the graph index
         this.index = new GraphIndex(this);
+        this.streetSearchCache = new StreetSearchCache(StreetSearchCache.DEFAULT_MAX_VERTICES);
     }
     
+    /**
+     * Build a compact, read-only copy of the graph's adjacency lists and street edge fields for cache-friendly street
+     * searches. This must be called again if the street network is modified afterward.
+     */
+    public void buildCompactStreetGraph() {
+        compactStreetGraph = new CompactStreetGraph(this);
+    }
+
+    /**
+     * Precompute lower bounds on transit ride times between stops, which allows transit searches to use the
+     * TransitLowerBoundHeuristic. This must be called again if trip patterns are added to the graph afterward.
+     */
+    public void buildTransitLowerBounds(int nLandmarks) {
+        transitLowerBounds = new TransitLowerBounds(this, nLandmarks);
+    }
+
     /**
      * Loading which allows you to specify StreetVertexIndexFactory and inject other implementation.
      * @param in
@@ -729,15 +793,7 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
-
-            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-            graph.index(indexFactory);
+            graph.indexLoadedEdges(edges, indexFactory);
 
             if (level == LoadLevel.FULL) {
                 return graph;
@@ -756,6 +812,50 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Load a graph from a sectioned graph file, in which the street network is read in parallel from packed columns.
+     * @see SectionedGraphFile
+     */
+    private static Graph loadSectioned(InputStream in, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        try {
+            SectionedGraphFile.Contents contents = SectionedGraphFile.read(in, level == LoadLevel.DEBUG);
+            Graph graph = contents.graph;
+            LOG.debug("Sectioned graph file read.");
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            graph.indexLoadedEdges(contents.edges, indexFactory);
+            if (level == LoadLevel.FULL) {
+                return graph;
+            }
+            if (graph.debugData) {
+                graph.graphBuilderAnnotations = contents.annotations;
+                LOG.debug("Debug info read.");
+            } else {
+                LOG.warn("Graph file does not contain debug data.");
+            }
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
+    /** Rebuild the (transient) vertex map from the edges read from a graph file, and index the graph. */
+    private void indexLoadedEdges(List<Edge> edges, StreetVertexIndexFactory indexFactory) {
+        vertices = new HashMap<String, Vertex>();
+
+        for (Edge e : edges) {
+            vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+
+        LOG.info("Main graph read. |V|={} |E|={}", countVertices(), countEdges());
+        index(indexFactory);
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -790,12 +890,23 @@ public class Graph implements Serializable {
     }
 
     public void save(File file) throws IOException {
+        save(file, false);
+    }
+
+    /**
+     * @param sectioned whether to write a sectioned graph file, which loads much faster, rather than a single Java
+     *                  serialization stream. Graph.load detects which kind of file it is reading.
+     */
+    public void save(File file, boolean sectioned) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
         try {
-            save(out);
+            if (sectioned) {
+                saveSectioned(out);
+            } else {
+                save(new ObjectOutputStream(out));
+            }
             out.close();
         } catch (RuntimeException e) {
             out.close();
@@ -804,19 +915,16 @@ public class Graph implements Serializable {
         }
     }
 
+    /** Write this graph as a sectioned graph file. */
+    public void saveSectioned(OutputStream out) throws IOException {
+        List<Edge> edges = consolidateEdges();
+        LOG.debug("Writing sections...");
+        SectionedGraphFile.write(this, edges, debugData ? graphBuilderAnnotations : null, out);
+        LOG.info("Graph written.");
+    }
+
     public void save(ObjectOutputStream out) throws IOException {
-        LOG.debug("Consolidating edges...");
-        // this is not space efficient
-        List<Edge> edges = new ArrayList<Edge>(this.countEdges());
-        for (Vertex v : getVertices()) {
-            // there are assumed to be no edges in an incoming list that are not
-            // in an outgoing list
-            edges.addAll(v.getOutgoing());
-            if (v.getDegreeOut() + v.getDegreeIn() == 0)
-                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
-        }
-        LOG.debug("Assigning vertex/edge ID numbers...");
-        this.rebuildVertexAndEdgeIndices();
+        List<Edge> edges = consolidateEdges();
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
@@ -832,6 +940,23 @@ public class Graph implements Serializable {
         LOG.info("Graph written.");
     }
 
+    /** @return a list of all the edges in the graph, after assigning the vertex and edge ID numbers. */
+    private List<Edge> consolidateEdges() {
+        LOG.debug("Consolidating edges...");
+        // this is not space efficient
+        List<Edge> edges = new ArrayList<Edge>(this.countEdges());
+        for (Vertex v : getVertices()) {
+            // there are assumed to be no edges in an incoming list that are not
+            // in an outgoing list
+            edges.addAll(v.getOutgoing());
+            if (v.getDegreeOut() + v.getDegreeIn() == 0)
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+        }
+        LOG.debug("Assigning vertex/edge ID numbers...");
+        this.rebuildVertexAndEdgeIndices();
+        return edges;
+    }
+
     /* deserialization for org.opentripplanner.customize */
     private static class GraphObjectInputStream extends ObjectInputStream {
         ClassLoader classLoader;
@@ -947,9 +1072,11 @@ public class Graph implements Serializable {
     /**
      * Calculates envelope out of all OSM coordinates
      *
-     * Transit stops are added to the envelope as they are added to the graph
+     * Transit stops are added to the envelope as they are added to the graph. This and expandToInclude are
+     * synchronized because graph builder modules that load streets and stops may run concurrently: a stop added while
+     * the envelope is being calculated either is seen by the vertex loop or expands the new envelope afterward.
      */
-    public void calculateEnvelope() {
+    public synchronized void calculateEnvelope() {
         this.envelope = new WorldEnvelope();
 
         for (Vertex v : this.getVertices()) {
@@ -982,7 +1109,7 @@ public class Graph implements Serializable {
      * @param  x  the value to lower the minimum x to or to raise the maximum x to
      * @param  y  the value to lower the minimum y to or to raise the maximum y to
      */
-    public void expandToInclude(double x, double y) {
+    public synchronized void expandToInclude(double x, double y) {
         //Envelope can be empty if graph building is run without OSM data
         if (this.envelope == null) {
             calculateEnvelope();
@@ -990,7 +1117,7 @@ public class Graph implements Serializable {
         this.envelope.expandToInclude(x, y);
     }
 
-    public WorldEnvelope getEnvelope() {
+    public synchronized WorldEnvelope getEnvelope() {
         return this.envelope;
     }
 
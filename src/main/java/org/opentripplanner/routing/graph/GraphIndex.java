@@ -38,6 +38,7 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
@@ -101,6 +102,9 @@ public class GraphIndex {
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
+    /** If set, the stop tree cache is loaded from this file when it matches the graph, and saved to it when built. */
+    public transient File stopTreeCacheFile = null;
+
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
         for (Agency a : graph.getAgencies()) {
@@ -444,7 +448,15 @@ public class GraphIndex {
         if (stopTreeCache == null) {
             synchronized (this) {
                 if (stopTreeCache == null) {
-                    stopTreeCache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                    StopTreeCache cache = null;
+                    if (stopTreeCacheFile != null) {
+                        cache = StopTreeCache.load(stopTreeCacheFile, graph, MAX_WALK_METERS);
+                    }
+                    if (cache == null) {
+                        cache = new StopTreeCache(graph, MAX_WALK_METERS); // TODO make this max-distance variable
+                        if (stopTreeCacheFile != null) cache.save(stopTreeCacheFile, graph);
+                    }
+                    stopTreeCache = cache;
                 }
             }
         }
@@ -0,0 +1,653 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * An alternative to writing the whole graph as a single Java serialization stream, which can only be read back by a
+ * single thread and takes minutes for a large region.
+ *
+ * The file is split into sections, each carrying its own CRC so it can be validated independently. The bulk of a
+ * typical graph (plain intersection vertices, plain street edges and street geometries) is stored in packed primitive
+ * columns, in blocks of a fixed number of elements that are decoded in parallel. Everything else, including the Graph
+ * object itself with its transit patterns and services, is written in one Java serialization section in which
+ * references to the packed vertices and edges are replaced by their numbers in the columns. The transient indexes
+ * are rebuilt on load as they always have been.
+ *
+ * Layout: the magic bytes, the format version, the UID of the OTP version that wrote the file, the number of
+ * sections, a table with the type, element count, length and CRC of each section, then the section contents in the
+ * same order. All column sections precede the objects section.
+ */
+public class SectionedGraphFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SectionedGraphFile.class);
+
+    /** Java serialization streams begin with 0xACED, so this can never be mistaken for one. */
+    private static final byte[] MAGIC = "OTPGSECT".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte SECTION_VERTICES = 1;
+    private static final byte SECTION_GEOMETRIES = 2;
+    private static final byte SECTION_STREET_EDGES = 3;
+    private static final byte SECTION_OBJECTS = 4;
+
+    /** The number of elements in each block of columns. Each block is a section that can be decoded by one thread. */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private static final byte KIND_INTERSECTION = 0;
+    private static final byte KIND_OSM = 1;
+    private static final int TRAFFIC_LIGHT_FLAG = 1 << 2;
+    private static final int FREE_FLOWING_FLAG = 1 << 3;
+
+    private static final StreetTraversalPermission[] PERMISSIONS = StreetTraversalPermission.values();
+
+    /** What is read back from a sectioned graph file. The edges are all attached to their vertices. */
+    public static class Contents {
+        public Graph graph;
+        public List<Edge> edges;
+        public List<GraphBuilderAnnotation> annotations;
+    }
+
+    private static class Section {
+        byte type;
+        int count;
+        byte[] bytes;
+        long crc;
+
+        Section(byte type, int count, byte[] bytes) {
+            this.type = type;
+            this.count = count;
+            this.bytes = bytes;
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            this.crc = crc32.getValue();
+        }
+
+        Section(byte type, int count, byte[] bytes, long crc) {
+            this.type = type;
+            this.count = count;
+            this.bytes = bytes;
+            this.crc = crc;
+        }
+    }
+
+    /** Stands in for a packed vertex or edge in the objects section. */
+    private static class PackedReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final boolean vertex;
+        final int number;
+
+        PackedReference(boolean vertex, int number) {
+            this.vertex = vertex;
+            this.number = number;
+        }
+    }
+
+    /**
+     * @return whether the stream holds a sectioned graph file. The stream must support mark and reset, and is left
+     * at the same position.
+     */
+    public static boolean isSectionedGraphFile(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int n = 0;
+        while (n < magic.length) {
+            int read = in.read(magic, n, magic.length - n);
+            if (read < 0) break;
+            n += read;
+        }
+        in.reset();
+        return n == magic.length && Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Write the given graph and edges. The edges must be all the edges in the graph, and the graph's vertex and edge
+     * indices should be up to date as for Java serialization.
+     * @param annotations the graph builder annotations to save, or null if they are not to be saved.
+     */
+    public static void write(Graph graph, List<Edge> edges, List<GraphBuilderAnnotation> annotations,
+            OutputStream out) throws IOException {
+        // Decide which vertices and edges can be packed into columns. Only vertices that are endpoints of edges are
+        // written, as with Java serialization.
+        int[] packedVertexNumber = new int[Vertex.getMaxIndex()];
+        Arrays.fill(packedVertexNumber, -1);
+        List<Vertex> packedVertices = new ArrayList<>();
+        List<StreetEdge> packedEdges = new ArrayList<>();
+        List<Edge> otherEdges = new ArrayList<>();
+        for (Edge e : edges) {
+            for (Vertex v : new Vertex[] { e.getFromVertex(), e.getToVertex() }) {
+                if (isPackable(v) && packedVertexNumber[v.getIndex()] < 0) {
+                    packedVertexNumber[v.getIndex()] = packedVertices.size();
+                    packedVertices.add(v);
+                }
+            }
+        }
+        Map<Edge, Integer> packedEdgeNumber = new IdentityHashMap<>();
+        Map<int[], Integer> geometryNumber = new IdentityHashMap<>();
+        List<int[]> geometries = new ArrayList<>();
+        for (Edge e : edges) {
+            if (isPackable(e, packedVertexNumber)) {
+                StreetEdge se = (StreetEdge) e;
+                packedEdgeNumber.put(se, packedEdges.size());
+                packedEdges.add(se);
+                // Geometries are shared between the two directions of a street, keep them shared.
+                int[] geometry = se.getCompactGeometry();
+                if (geometry != null && !geometryNumber.containsKey(geometry)) {
+                    geometryNumber.put(geometry, geometries.size());
+                    geometries.add(geometry);
+                }
+            } else {
+                otherEdges.add(e);
+            }
+        }
+        LOG.info("Packing {} of {} vertices and {} of {} edges into columns.", packedVertices.size(),
+                graph.countVertices(), packedEdges.size(), edges.size());
+
+        // Encode the objects section alongside the column blocks, which are encoded in parallel.
+        CompletableFuture<Section> objectsSection = CompletableFuture.supplyAsync(() -> {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream objects = new PackedReferenceOutputStream(bytes, packedVertexNumber,
+                        packedEdgeNumber);
+                objects.writeObject(graph);
+                objects.writeObject(otherEdges);
+                objects.writeObject(annotations);
+                objects.close();
+                return new Section(SECTION_OBJECTS, 1, bytes.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        List<Section> sections = new ArrayList<>();
+        try {
+            sections.addAll(encodeBlocks(SECTION_VERTICES, packedVertices.size(), (from, to) ->
+                    writeVertices(packedVertices.subList(from, to))));
+            sections.addAll(encodeBlocks(SECTION_GEOMETRIES, geometries.size(), (from, to) ->
+                    writeGeometries(geometries.subList(from, to))));
+            sections.addAll(encodeBlocks(SECTION_STREET_EDGES, packedEdges.size(), (from, to) ->
+                    writeStreetEdges(packedEdges.subList(from, to), packedVertexNumber, geometryNumber)));
+            sections.add(objectsSection.join());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(MavenVersion.VERSION.getUID());
+        data.writeInt(sections.size());
+        for (Section section : sections) {
+            data.writeByte(section.type);
+            data.writeInt(section.count);
+            data.writeInt(section.bytes.length);
+            data.writeLong(section.crc);
+        }
+        for (Section section : sections) {
+            data.write(section.bytes);
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a sectioned graph file, positioned just before the magic bytes.
+     * @param readAnnotations whether to read the graph builder annotations, which are otherwise skipped.
+     */
+    @SuppressWarnings("unchecked")
+    public static Contents read(InputStream in, boolean readAnnotations) throws IOException, ClassNotFoundException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalStateException("Not a sectioned graph file.");
+        }
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalStateException("Sectioned graph file format version " + version +
+                    " is not supported by this version of OTP, please rebuild the graph.");
+        }
+        if (data.readLong() != MavenVersion.VERSION.getUID()) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error");
+        }
+        int nSections = data.readInt();
+        List<Section> sections = new ArrayList<>(nSections);
+        int[] lengths = new int[nSections];
+        for (int i = 0; i < nSections; i++) {
+            byte type = data.readByte();
+            int count = data.readInt();
+            lengths[i] = data.readInt();
+            long crc = data.readLong();
+            sections.add(new Section(type, count, null, crc));
+        }
+        for (int i = 0; i < nSections; i++) {
+            sections.get(i).bytes = new byte[lengths[i]];
+            data.readFully(sections.get(i).bytes);
+        }
+
+        // Validate every section and decode the columns, all in parallel.
+        Object[] decoded = new Object[nSections];
+        try {
+            IntStream.range(0, nSections).parallel().forEach(i -> decoded[i] = decode(sections.get(i), i));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Vertices must be created in order on one thread, since creating a vertex assigns it the next index.
+        List<Vertex> vertexList = new ArrayList<>();
+        List<int[]> geometryList = new ArrayList<>();
+        List<Integer> edgeBlocks = new ArrayList<>();
+        for (int i = 0; i < nSections; i++) {
+            Section section = sections.get(i);
+            if (section.type == SECTION_VERTICES) {
+                ((VertexColumns) decoded[i]).createVertices(vertexList);
+            } else if (section.type == SECTION_GEOMETRIES) {
+                geometryList.addAll(Arrays.asList((int[][]) decoded[i]));
+            } else if (section.type == SECTION_STREET_EDGES) {
+                edgeBlocks.add(i);
+            }
+        }
+        Vertex[] vertices = vertexList.toArray(new Vertex[vertexList.size()]);
+        int[][] geometries = geometryList.toArray(new int[geometryList.size()][]);
+
+        // Street edges are created in parallel, then attached to their vertices in order so that the edge lists of
+        // every vertex come out the same on every load.
+        List<StreetEdge[]> edgeArrays = edgeBlocks.parallelStream()
+                .map(i -> ((StreetEdgeColumns) decoded[i]).createEdges(vertices, geometries))
+                .collect(Collectors.toList());
+        List<Edge> edges = new ArrayList<>();
+        for (StreetEdge[] block : edgeArrays) {
+            for (StreetEdge e : block) {
+                e.getFromVertex().addOutgoing(e);
+                e.getToVertex().addIncoming(e);
+                edges.add(e);
+            }
+        }
+        Edge[] packedEdges = edges.toArray(new Edge[edges.size()]);
+        LOG.info("Read {} vertices and {} edges from columns.", vertices.length, packedEdges.length);
+
+        Contents contents = new Contents();
+        for (Section section : sections) {
+            if (section.type != SECTION_OBJECTS) continue;
+            ObjectInputStream objects = new PackedReferenceInputStream(new ByteArrayInputStream(section.bytes),
+                    vertices, packedEdges);
+            contents.graph = (Graph) objects.readObject();
+            // Edges in the objects section attach themselves to their vertices as they are deserialized.
+            edges.addAll((List<Edge>) objects.readObject());
+            if (readAnnotations) {
+                contents.annotations = (List<GraphBuilderAnnotation>) objects.readObject();
+            }
+        }
+        if (contents.graph == null) {
+            throw new IllegalStateException("Sectioned graph file has no objects section.");
+        }
+        contents.edges = edges;
+        return contents;
+    }
+
+    private static boolean isPackable(Vertex v) {
+        Class<?> c = v.getClass();
+        return (c == IntersectionVertex.class || c == OsmVertex.class) && v.getRawName() instanceof NonLocalizedString;
+    }
+
+    private static boolean isPackable(Edge e, int[] packedVertexNumber) {
+        return e.getClass() == StreetEdge.class
+                && ((StreetEdge) e).getRawName() instanceof NonLocalizedString
+                && ((StreetEdge) e).getPermission() != null
+                && packedVertexNumber[e.getFromVertex().getIndex()] >= 0
+                && packedVertexNumber[e.getToVertex().getIndex()] >= 0;
+    }
+
+    private interface BlockEncoder {
+        byte[] encode(int from, int to) throws IOException;
+    }
+
+    /** Split n elements into blocks and encode them in parallel, returning the sections in order. */
+    private static List<Section> encodeBlocks(byte type, int n, BlockEncoder encoder) {
+        int nBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return IntStream.range(0, nBlocks).parallel().mapToObj(b -> {
+            int from = b * BLOCK_SIZE;
+            int to = Math.min(n, from + BLOCK_SIZE);
+            try {
+                return new Section(type, to - from, encoder.encode(from, to));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /** Validate a section, and decode it if it is a column section. */
+    private static Object decode(Section section, int i) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(section.bytes);
+        if (crc32.getValue() != section.crc) {
+            throw new IllegalStateException("Section " + i + " of the graph file is corrupt, please rebuild it.");
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(section.bytes));
+        try {
+            switch (section.type) {
+                case SECTION_VERTICES:
+                    return new VertexColumns(data, section.count);
+                case SECTION_GEOMETRIES:
+                    return readGeometries(data, section.count);
+                case SECTION_STREET_EDGES:
+                    return new StreetEdgeColumns(data, section.count);
+                case SECTION_OBJECTS:
+                    return null;
+                default:
+                    throw new IllegalStateException("Unknown section type " + section.type + " in graph file.");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* VERTICES */
+
+    private static byte[] writeVertices(List<Vertex> vertices) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        StringTable names = new StringTable();
+        int[] nameIndex = new int[vertices.size()];
+        for (int i = 0; i < vertices.size(); i++) {
+            nameIndex[i] = names.indexOf(vertices.get(i).getRawName().toString());
+        }
+        names.write(data);
+        for (Vertex v : vertices) data.writeUTF(v.getLabel());
+        for (int i : nameIndex) data.writeInt(i);
+        for (Vertex v : vertices) data.writeDouble(v.getX());
+        for (Vertex v : vertices) data.writeDouble(v.getY());
+        for (Vertex v : vertices) {
+            IntersectionVertex iv = (IntersectionVertex) v;
+            int flags = (v instanceof OsmVertex) ? KIND_OSM : KIND_INTERSECTION;
+            if (iv.trafficLight) flags |= TRAFFIC_LIGHT_FLAG;
+            if (iv.freeFlowing) flags |= FREE_FLOWING_FLAG;
+            data.writeByte(flags);
+        }
+        for (Vertex v : vertices) data.writeLong((v instanceof OsmVertex) ? ((OsmVertex) v).nodeId : 0);
+        data.close();
+        return bytes.toByteArray();
+    }
+
+    private static class VertexColumns {
+        final String[] labels;
+        final I18NString[] names;
+        final double[] x, y;
+        final byte[] flags;
+        final long[] nodeIds;
+
+        VertexColumns(DataInputStream data, int n) throws IOException {
+            I18NString[] nameTable = StringTable.read(data);
+            labels = new String[n];
+            for (int i = 0; i < n; i++) labels[i] = data.readUTF();
+            names = new I18NString[n];
+            for (int i = 0; i < n; i++) names[i] = nameTable[data.readInt()];
+            x = new double[n];
+            for (int i = 0; i < n; i++) x[i] = data.readDouble();
+            y = new double[n];
+            for (int i = 0; i < n; i++) y[i] = data.readDouble();
+            flags = new byte[n];
+            data.readFully(flags);
+            nodeIds = new long[n];
+            for (int i = 0; i < n; i++) nodeIds[i] = data.readLong();
+        }
+
+        void createVertices(List<Vertex> vertices) {
+            for (int i = 0; i < labels.length; i++) {
+                IntersectionVertex v;
+                if ((flags[i] & 3) == KIND_OSM) {
+                    v = new OsmVertex(null, labels[i], x[i], y[i], nodeIds[i], names[i]);
+                } else {
+                    v = new IntersectionVertex(null, labels[i], x[i], y[i], names[i]);
+                }
+                v.trafficLight = (flags[i] & TRAFFIC_LIGHT_FLAG) != 0;
+                v.freeFlowing = (flags[i] & FREE_FLOWING_FLAG) != 0;
+                vertices.add(v);
+            }
+        }
+    }
+
+    /* GEOMETRIES */
+
+    private static byte[] writeGeometries(List<int[]> geometries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        for (int[] geometry : geometries) data.writeInt(geometry.length);
+        for (int[] geometry : geometries) {
+            for (int c : geometry) data.writeInt(c);
+        }
+        data.close();
+        return bytes.toByteArray();
+    }
+
+    private static int[][] readGeometries(DataInputStream data, int n) throws IOException {
+        int[][] geometries = new int[n][];
+        for (int i = 0; i < n; i++) geometries[i] = new int[data.readInt()];
+        for (int[] geometry : geometries) {
+            for (int j = 0; j < geometry.length; j++) geometry[j] = data.readInt();
+        }
+        return geometries;
+    }
+
+    /* STREET EDGES */
+
+    private static byte[] writeStreetEdges(List<StreetEdge> edges, int[] packedVertexNumber,
+            Map<int[], Integer> geometryNumber) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        StringTable names = new StringTable();
+        int[] nameIndex = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            nameIndex[i] = names.indexOf(edges.get(i).getRawName().toString());
+        }
+        names.write(data);
+        for (StreetEdge e : edges) data.writeInt(e.getId());
+        for (StreetEdge e : edges) data.writeInt(packedVertexNumber[e.getFromVertex().getIndex()]);
+        for (StreetEdge e : edges) data.writeInt(packedVertexNumber[e.getToVertex().getIndex()]);
+        for (int i : nameIndex) data.writeInt(i);
+        for (StreetEdge e : edges) {
+            int[] geometry = e.getCompactGeometry();
+            data.writeInt(geometry == null ? -1 : geometryNumber.get(geometry));
+        }
+        for (StreetEdge e : edges) data.writeByte(e.getFlags());
+        for (StreetEdge e : edges) data.writeInt(e.getLength_mm());
+        for (StreetEdge e : edges) data.writeFloat(e.getBicycleSafetyFactor());
+        for (StreetEdge e : edges) data.writeByte(e.getPermission().ordinal());
+        for (StreetEdge e : edges) data.writeLong(e.wayId);
+        for (StreetEdge e : edges) data.writeInt(e.getStreetClass());
+        for (StreetEdge e : edges) data.writeFloat(e.getCarSpeed());
+        for (StreetEdge e : edges) data.writeByte(e.getRawInAngle());
+        for (StreetEdge e : edges) data.writeByte(e.getRawOutAngle());
+        data.close();
+        return bytes.toByteArray();
+    }
+
+    private static class StreetEdgeColumns {
+        final int n;
+        final int[] ids, from, to, geometry, lengthMm, streetClass;
+        final I18NString[] names;
+        final byte[] flags, permission, inAngle, outAngle;
+        final float[] bicycleSafetyFactor, carSpeed;
+        final long[] wayIds;
+
+        StreetEdgeColumns(DataInputStream data, int n) throws IOException {
+            this.n = n;
+            I18NString[] nameTable = StringTable.read(data);
+            ids = readInts(data, n);
+            from = readInts(data, n);
+            to = readInts(data, n);
+            names = new I18NString[n];
+            for (int i = 0; i < n; i++) names[i] = nameTable[data.readInt()];
+            geometry = readInts(data, n);
+            flags = readBytes(data, n);
+            lengthMm = readInts(data, n);
+            bicycleSafetyFactor = readFloats(data, n);
+            permission = readBytes(data, n);
+            wayIds = new long[n];
+            for (int i = 0; i < n; i++) wayIds[i] = data.readLong();
+            streetClass = readInts(data, n);
+            carSpeed = readFloats(data, n);
+            inAngle = readBytes(data, n);
+            outAngle = readBytes(data, n);
+        }
+
+        StreetEdge[] createEdges(Vertex[] vertices, int[][] geometries) {
+            StreetEdge[] edges = new StreetEdge[n];
+            for (int i = 0; i < n; i++) {
+                edges[i] = new StreetEdge((StreetVertex) vertices[from[i]], (StreetVertex) vertices[to[i]], ids[i],
+                        flags[i], lengthMm[i], bicycleSafetyFactor[i],
+                        geometry[i] < 0 ? null : geometries[geometry[i]], names[i], PERMISSIONS[permission[i]],
+                        wayIds[i], streetClass[i], carSpeed[i], inAngle[i], outAngle[i]);
+            }
+            return edges;
+        }
+    }
+
+    /* UTILITIES */
+
+    /** The distinct strings used in one block, which are written once and referred to by index. */
+    private static class StringTable {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+
+        int indexOf(String s) {
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(s, index);
+                strings.add(s);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream data) throws IOException {
+            data.writeInt(strings.size());
+            for (String s : strings) data.writeUTF(s);
+        }
+
+        /** Read a table written by write(), making a single name object for each distinct string. */
+        static I18NString[] read(DataInputStream data) throws IOException {
+            I18NString[] table = new I18NString[data.readInt()];
+            for (int i = 0; i < table.length; i++) table[i] = new NonLocalizedString(data.readUTF());
+            return table;
+        }
+    }
+
+    private static int[] readInts(DataInputStream data, int n) throws IOException {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) values[i] = data.readInt();
+        return values;
+    }
+
+    private static float[] readFloats(DataInputStream data, int n) throws IOException {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) values[i] = data.readFloat();
+        return values;
+    }
+
+    private static byte[] readBytes(DataInputStream data, int n) throws IOException {
+        byte[] values = new byte[n];
+        data.readFully(values);
+        return values;
+    }
+
+    /** Replaces references to packed vertices and edges with their numbers in the columns. */
+    private static class PackedReferenceOutputStream extends ObjectOutputStream {
+        private final int[] packedVertexNumber;
+        private final Map<Edge, Integer> packedEdgeNumber;
+
+        PackedReferenceOutputStream(OutputStream out, int[] packedVertexNumber, Map<Edge, Integer> packedEdgeNumber)
+                throws IOException {
+            super(out);
+            this.packedVertexNumber = packedVertexNumber;
+            this.packedEdgeNumber = packedEdgeNumber;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof Vertex) {
+                int index = ((Vertex) obj).getIndex();
+                if (index < packedVertexNumber.length && packedVertexNumber[index] >= 0) {
+                    return new PackedReference(true, packedVertexNumber[index]);
+                }
+            } else if (obj instanceof Edge) {
+                Integer number = packedEdgeNumber.get(obj);
+                if (number != null) return new PackedReference(false, number);
+            }
+            return obj;
+        }
+    }
+
+    /** Resolves the numbers written by PackedReferenceOutputStream back to the vertices and edges read from columns. */
+    private static class PackedReferenceInputStream extends ObjectInputStream {
+        private final Vertex[] vertices;
+        private final Edge[] edges;
+
+        PackedReferenceInputStream(InputStream in, Vertex[] vertices, Edge[] edges) throws IOException {
+            super(in);
+            this.vertices = vertices;
+            this.edges = edges;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof PackedReference) {
+                PackedReference ref = (PackedReference) obj;
+                return ref.vertex ? vertices[ref.number] : edges[ref.number];
+            }
+            return obj;
+        }
+    }
+
+}
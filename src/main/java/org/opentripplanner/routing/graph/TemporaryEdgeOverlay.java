@@ -0,0 +1,106 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The temporary edges of a single request, as seen from the permanent vertices they connect to.
+ *
+ * Temporary edges (linking a request's origin and destination into the street network) are only added to the edge
+ * lists of their temporary vertices, never to those of the permanent vertices in the shared graph. Otherwise every
+ * request would copy the edge arrays of the vertices it links to, and concurrent requests could see one another's
+ * temporary edges. A search that needs to step from a permanent vertex onto a temporary edge (for instance onto the
+ * destination in a depart-after search) gets the edges of each vertex through this overlay instead, which adds the
+ * request's temporary edges to the permanent ones. Only the handful of vertices next to the origin and destination
+ * have any extra edges, and all other vertices return their own edge lists unchanged.
+ */
+public class TemporaryEdgeOverlay {
+
+    /** An overlay with no edges, for searches that do not have any temporary vertices. */
+    public static final TemporaryEdgeOverlay EMPTY = new TemporaryEdgeOverlay();
+
+    private final Map<Vertex, List<Edge>> extraOutgoing = new IdentityHashMap<>(4);
+
+    private final Map<Vertex, List<Edge>> extraIncoming = new IdentityHashMap<>(4);
+
+    /**
+     * Make an overlay holding the temporary edges attached to the given vertices. Vertices that are not temporary,
+     * or are null, are ignored.
+     */
+    public static TemporaryEdgeOverlay forVertices(Vertex... vertices) {
+        TemporaryEdgeOverlay overlay = new TemporaryEdgeOverlay();
+        VERTICES: for (int i = 0; i < vertices.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (vertices[j] == vertices[i]) continue VERTICES;
+            }
+            overlay.addTemporaryVertex(vertices[i]);
+        }
+        return overlay;
+    }
+
+    /** Add the edges between the given temporary vertex and any permanent vertices to this overlay. */
+    private void addTemporaryVertex(Vertex v) {
+        if (!(v instanceof TemporaryVertex)) return;
+        for (Edge e : v.getOutgoing()) {
+            if (!(e.getToVertex() instanceof TemporaryVertex)) {
+                add(extraIncoming, e.getToVertex(), e);
+            }
+        }
+        for (Edge e : v.getIncoming()) {
+            if (!(e.getFromVertex() instanceof TemporaryVertex)) {
+                add(extraOutgoing, e.getFromVertex(), e);
+            }
+        }
+    }
+
+    private static void add(Map<Vertex, List<Edge>> edges, Vertex v, Edge e) {
+        List<Edge> list = edges.get(v);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            edges.put(v, list);
+        }
+        list.add(e);
+    }
+
+    /** @return the edges leading away from the given vertex, including temporary ones. */
+    public Collection<Edge> getOutgoing(Vertex v) {
+        return combine(v.getOutgoing(), extraOutgoing.get(v));
+    }
+
+    /** @return the edges leading to the given vertex, including temporary ones. */
+    public Collection<Edge> getIncoming(Vertex v) {
+        return combine(v.getIncoming(), extraIncoming.get(v));
+    }
+
+    /** @return the outgoing edges when searching forward, or the incoming edges when searching backward. */
+    public Collection<Edge> getEdges(Vertex v, boolean arriveBy) {
+        return arriveBy ? getIncoming(v) : getOutgoing(v);
+    }
+
+    private static Collection<Edge> combine(Collection<Edge> edges, List<Edge> extraEdges) {
+        if (extraEdges == null) return edges;
+        List<Edge> combined = new ArrayList<>(edges.size() + extraEdges.size());
+        combined.addAll(edges);
+        combined.addAll(extraEdges);
+        return combined;
+    }
+
+}
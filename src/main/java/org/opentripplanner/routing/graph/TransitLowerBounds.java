@@ -0,0 +1,325 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.edgetype.PathwayEdge;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.StationStopEdge;
+import org.opentripplanner.routing.edgetype.TransferEdge;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.vertextype.TransitStationStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precomputed lower bounds on the time needed to ride transit between any two stops, for use in goal-directed transit
+ * searches (see TransitLowerBoundHeuristic).
+ *
+ * Stops are merged with their parent stations and with the stops they are joined to by pathways into clusters, so
+ * moving around inside a station is treated as free. Between clusters we keep the shortest running time of any trip
+ * on any pattern for each hop, ignoring waits and dwells, and the time to walk each SimpleTransfer at MAX_WALK_SPEED.
+ * Transfers from transfers.txt may specify any time, so they are kept as links taking no time. Shortest paths over this
+ * small graph are lower bounds on the weight of any transit path between two stops, since riding transit has a weight
+ * equal to its duration and everything else only adds to the weight. Like InterleavedBidirectionalHeuristic, this
+ * ignores any transfers made by walking through the street network rather than along SimpleTransfers.
+ *
+ * Storing the distances between all pairs of clusters would take too much space in large networks, so we use the
+ * ALT method: the shortest path times from and to a few landmark clusters are stored in primitive arrays, and by the
+ * triangle inequality d(u, v) >= d(L, v) - d(L, u) and d(u, v) >= d(u, L) - d(v, L) for any landmark L. Landmarks are
+ * chosen far apart and on the edges of the network, where these bounds are tightest.
+ *
+ * The bounds are derived from the scheduled timetables, so this must be rebuilt if patterns are added to the graph.
+ */
+public class TransitLowerBounds {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransitLowerBounds.class);
+
+    public static final int DEFAULT_LANDMARKS = 16;
+
+    /**
+     * The walking speed in meters per second used to bound the time taken by SimpleTransfers. The bounds are only
+     * admissible for requests that walk no faster than this.
+     */
+    public static final double MAX_WALK_SPEED = 3.0;
+
+    /** The time recorded for clusters that cannot be reached. */
+    public static final int UNREACHED = Integer.MAX_VALUE;
+
+    public final int nClusters;
+
+    public final int nLandmarks;
+
+    /** The landmark clusters. */
+    public final int[] landmarks;
+
+    /** fromLandmark[l][c] is the lower bound on the time to ride from landmark l to cluster c, or UNREACHED. */
+    public final int[][] fromLandmark;
+
+    /** toLandmark[l][c] is the lower bound on the time to ride from cluster c to landmark l, or UNREACHED. */
+    public final int[][] toLandmark;
+
+    private final TObjectIntMap<Stop> clusterForStop = new TObjectIntHashMap<>(100, 0.5f, -1);
+
+    /* The cluster graph in compressed sparse row form, in both directions. */
+    private final int[] outgoingOffsets;
+    private final int[] outgoingTargets;
+    private final int[] outgoingTimes;
+    private final int[] incomingOffsets;
+    private final int[] incomingSources;
+    private final int[] incomingTimes;
+
+    public TransitLowerBounds(Graph graph) {
+        this(graph, DEFAULT_LANDMARKS);
+    }
+
+    public TransitLowerBounds(Graph graph, int maxLandmarks) {
+        long startTime = System.currentTimeMillis();
+
+        // Merge stops with their stations and the stops they share pathways with into clusters.
+        List<TransitStationStop> stops = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof TransitStationStop) stops.add((TransitStationStop) v);
+        }
+        int[] parent = new int[stops.size()];
+        int[] stopForVertexIndex = new int[Vertex.getMaxIndex()];
+        Arrays.fill(stopForVertexIndex, -1);
+        for (int s = 0; s < stops.size(); s++) {
+            parent[s] = s;
+            stopForVertexIndex[stops.get(s).getIndex()] = s;
+        }
+        for (int s = 0; s < stops.size(); s++) {
+            for (Edge e : stops.get(s).getOutgoing()) {
+                if (isStationEdge(e) && e.getToVertex() instanceof TransitStationStop) {
+                    int other = stopForVertexIndex[e.getToVertex().getIndex()];
+                    if (other >= 0) union(parent, s, other);
+                }
+            }
+        }
+        int[] clusterForRoot = new int[stops.size()];
+        Arrays.fill(clusterForRoot, -1);
+        int nClusters = 0;
+        for (int s = 0; s < stops.size(); s++) {
+            int root = find(parent, s);
+            if (clusterForRoot[root] == -1) clusterForRoot[root] = nClusters++;
+            clusterForStop.put(stops.get(s).getStop(), clusterForRoot[root]);
+        }
+        this.nClusters = nClusters;
+
+        // Keep the best running time of any pattern between each pair of clusters, keyed on (from << 32 | to).
+        TLongIntHashMap bestTimes = new TLongIntHashMap(nClusters * 4, 0.5f, -1, -1);
+        for (TripPattern pattern : graph.index.patternForId.values()) {
+            Stop[] patternStops = pattern.stopPattern.stops;
+            for (int hop = 0; hop < patternStops.length - 1; hop++) {
+                int from = clusterForStop.get(patternStops[hop]);
+                int to = clusterForStop.get(patternStops[hop + 1]);
+                int time = pattern.scheduledTimetable.getBestRunningTime(hop);
+                if (from < 0 || to < 0 || from == to || time == Integer.MAX_VALUE) continue;
+                time = Math.max(time, 0);
+                long key = ((long) from) << 32 | to;
+                int existing = bestTimes.get(key);
+                if (existing == -1 || time < existing) bestTimes.put(key, time);
+            }
+        }
+
+        // Add walking transfers between clusters.
+        for (TransitStationStop stop : stops) {
+            int from = clusterForStop.get(stop.getStop());
+            for (Edge e : stop.getOutgoing()) {
+                int time;
+                if (e instanceof SimpleTransfer) time = (int) (e.getDistance() / MAX_WALK_SPEED);
+                else if (e instanceof TransferEdge) time = 0;
+                else continue;
+                if (!(e.getToVertex() instanceof TransitStationStop)) continue;
+                int to = clusterForStop.get(((TransitStationStop) e.getToVertex()).getStop());
+                if (to < 0 || from == to) continue;
+                long key = ((long) from) << 32 | to;
+                int existing = bestTimes.get(key);
+                if (existing == -1 || time < existing) bestTimes.put(key, time);
+            }
+        }
+
+        // Build adjacency arrays in both directions.
+        int nLinks = bestTimes.size();
+        outgoingOffsets = new int[nClusters + 1];
+        incomingOffsets = new int[nClusters + 1];
+        for (TLongIntIterator it = bestTimes.iterator(); it.hasNext(); ) {
+            it.advance();
+            outgoingOffsets[(int) (it.key() >>> 32) + 1]++;
+            incomingOffsets[(int) it.key() + 1]++;
+        }
+        for (int c = 0; c < nClusters; c++) {
+            outgoingOffsets[c + 1] += outgoingOffsets[c];
+            incomingOffsets[c + 1] += incomingOffsets[c];
+        }
+        outgoingTargets = new int[nLinks];
+        outgoingTimes = new int[nLinks];
+        incomingSources = new int[nLinks];
+        incomingTimes = new int[nLinks];
+        int[] outgoingFill = Arrays.copyOf(outgoingOffsets, nClusters);
+        int[] incomingFill = Arrays.copyOf(incomingOffsets, nClusters);
+        for (TLongIntIterator it = bestTimes.iterator(); it.hasNext(); ) {
+            it.advance();
+            int from = (int) (it.key() >>> 32);
+            int to = (int) it.key();
+            int o = outgoingFill[from]++;
+            outgoingTargets[o] = to;
+            outgoingTimes[o] = it.value();
+            int i = incomingFill[to]++;
+            incomingSources[i] = from;
+            incomingTimes[i] = it.value();
+        }
+
+        // Choose landmarks and store the times from and to each of them.
+        List<int[]> from = new ArrayList<>();
+        List<int[]> to = new ArrayList<>();
+        int[] chosen = chooseLandmarks(Math.min(maxLandmarks, nClusters), from, to);
+        this.nLandmarks = chosen.length;
+        this.landmarks = chosen;
+        this.fromLandmark = from.toArray(new int[nLandmarks][]);
+        this.toLandmark = to.toArray(new int[nLandmarks][]);
+        LOG.info("Transit lower bounds: {} stops in {} clusters, {} links, {} landmarks, built in {} msec.",
+                stops.size(), nClusters, nLinks, nLandmarks, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Greedily choose landmarks far from the ones already chosen. The first landmark is the cluster farthest from an
+     * arbitrary cluster, and each subsequent one is the cluster with the greatest round trip time to its nearest
+     * landmark, preferring clusters that no landmark can reach at all so that every part of the network is covered.
+     * Clusters with no links to other clusters are never chosen.
+     */
+    private int[] chooseLandmarks(int maxLandmarks, List<int[]> from, List<int[]> to) {
+        List<Integer> chosen = new ArrayList<>();
+        long[] score = new long[nClusters];
+        Arrays.fill(score, Long.MAX_VALUE);
+        int[] seed = null;
+        while (chosen.size() < maxLandmarks) {
+            int best = -1;
+            if (seed == null) {
+                // Start from the cluster farthest from the first one with service.
+                for (int c = 0; c < nClusters && seed == null; c++) {
+                    if (hasService(c)) seed = minimumTimes(c, true);
+                }
+                if (seed == null) break;
+                for (int c = 0; c < nClusters; c++) {
+                    if (seed[c] != UNREACHED && (best == -1 || seed[c] > seed[best])) best = c;
+                }
+            } else {
+                for (int c = 0; c < nClusters; c++) {
+                    if (score[c] > 0 && hasService(c) && (best == -1 || score[c] > score[best])) best = c;
+                }
+            }
+            if (best == -1) break;
+            chosen.add(best);
+            int[] f = minimumTimes(best, true);
+            int[] t = minimumTimes(best, false);
+            from.add(f);
+            to.add(t);
+            for (int c = 0; c < nClusters; c++) {
+                long roundTrip;
+                if (f[c] == UNREACHED && t[c] == UNREACHED) roundTrip = Long.MAX_VALUE;
+                else if (f[c] == UNREACHED) roundTrip = t[c];
+                else if (t[c] == UNREACHED) roundTrip = f[c];
+                else roundTrip = (long) f[c] + t[c];
+                score[c] = Math.min(score[c], roundTrip);
+            }
+            score[best] = 0;
+        }
+        int[] landmarks = new int[chosen.size()];
+        for (int i = 0; i < landmarks.length; i++) landmarks[i] = chosen.get(i);
+        return landmarks;
+    }
+
+    private boolean hasService(int cluster) {
+        return outgoingOffsets[cluster + 1] > outgoingOffsets[cluster]
+                || incomingOffsets[cluster + 1] > incomingOffsets[cluster];
+    }
+
+    /**
+     * @return the lower bounds on the time to ride from the given cluster to every cluster (if forward is true) or
+     * from every cluster to the given one (if forward is false), with UNREACHED for clusters that are not connected.
+     */
+    public int[] minimumTimes(int cluster, boolean forward) {
+        int[] offsets = forward ? outgoingOffsets : incomingOffsets;
+        int[] neighbors = forward ? outgoingTargets : incomingSources;
+        int[] times = forward ? outgoingTimes : incomingTimes;
+        int[] result = new int[nClusters];
+        Arrays.fill(result, UNREACHED);
+        IndexedBinHeap<Integer> queue = new IndexedBinHeap<>(100, nClusters);
+        result[cluster] = 0;
+        queue.insert_or_dec_key(cluster, cluster, 0);
+        while (!queue.empty()) {
+            int c = queue.extract_min();
+            for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+                int n = neighbors[i];
+                int time = result[c] + times[i];
+                if (time < result[n]) {
+                    result[n] = time;
+                    queue.insert_or_dec_key(n, n, time);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return the cluster containing the given stop or station, or -1 if it is not in the graph. */
+    public int getCluster(Stop stop) {
+        return clusterForStop.get(stop);
+    }
+
+    /** @return a lower bound on the time needed to ride transit from one cluster to another, which may be zero. */
+    public int lowerBound(int fromCluster, int toCluster) {
+        long bound = 0;
+        for (int l = 0; l < nLandmarks; l++) {
+            int[] f = fromLandmark[l];
+            int[] t = toLandmark[l];
+            if (f[fromCluster] != UNREACHED && f[toCluster] != UNREACHED) {
+                bound = Math.max(bound, (long) f[toCluster] - f[fromCluster]);
+            }
+            if (t[fromCluster] != UNREACHED && t[toCluster] != UNREACHED) {
+                bound = Math.max(bound, (long) t[fromCluster] - t[toCluster]);
+            }
+        }
+        return (int) bound;
+    }
+
+    /** @return whether the given edge joins a stop to its station or to another part of the same station. */
+    private static boolean isStationEdge(Edge e) {
+        return e instanceof StationStopEdge || e instanceof PathwayEdge;
+    }
+
+    private static int find(int[] parent, int s) {
+        while (parent[s] != s) {
+            parent[s] = parent[parent[s]];
+            s = parent[s];
+        }
+        return s;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) parent[rootB] = rootA;
+    }
+
+}
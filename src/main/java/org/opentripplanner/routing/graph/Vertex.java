@@ -19,6 +19,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -42,7 +43,8 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Vertex.class);
 
-    private static int maxIndex = 0;
+    /* Vertices may be created from several threads when graph builder modules run concurrently. */
+    private static final AtomicInteger maxIndex = new AtomicInteger();
 
     private int index;
     
@@ -67,7 +69,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         this.label = label;
         this.x = x;
         this.y = y;
-        this.index = maxIndex  ++;
+        this.index = maxIndex.getAndIncrement();
         // null graph means temporary vertex
         if (g != null)
             g.addVertex(this);
@@ -232,6 +234,11 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString(locale);
     }
 
+    /** @return the name of this vertex without localization. */
+    public I18NString getRawName() {
+        return this.name;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /** Every vertex has a label which is globally unique. */
@@ -265,7 +272,7 @@ public abstract class Vertex implements Serializable, Cloneable {
     }
 
     public static int getMaxIndex() {
-        return maxIndex;
+        return maxIndex.get();
     }
 
 
@@ -280,7 +287,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         in.defaultReadObject();
         this.incoming = new Edge[0];
         this.outgoing = new Edge[0];
-        index = maxIndex++;
+        index = maxIndex.getAndIncrement();
     }
 
     /* UTILITY METHODS FOR SEARCHING, GRAPH BUILDING, AND GENERATING WALKSTEPS */
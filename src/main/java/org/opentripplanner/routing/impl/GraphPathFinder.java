@@ -20,14 +20,17 @@ import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.TransitLowerBoundHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
 import org.opentripplanner.routing.error.PathNotFoundException;
 import org.opentripplanner.routing.error.VertexNotFoundException;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.TransitLowerBounds;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
@@ -113,8 +116,14 @@ public class GraphPathFinder {
         if (options.disableRemainingWeightHeuristic) {
             heuristic = new TrivialRemainingWeightHeuristic();
         } else if (options.modes.isTransit()) {
-           // Only use the BiDi heuristic for transit.
-            heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+           // Only use the BiDi heuristic for transit, replacing its transit search with tables when they are available
+           // and their walking transfer times are admissible for this request.
+            if (options.rctx.graph.transitLowerBounds != null
+                    && options.walkSpeed <= TransitLowerBounds.MAX_WALK_SPEED) {
+                heuristic = new TransitLowerBoundHeuristic(options.rctx.graph);
+            } else {
+                heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            }
         } else {
             heuristic = new EuclideanRemainingWeightHeuristic();
         }
@@ -135,6 +144,19 @@ public class GraphPathFinder {
          * the whole graph walkable. */
         if (options.maxWalkDistance == Double.MAX_VALUE) options.maxWalkDistance = DEFAULT_MAX_WALK;
         if (options.maxWalkDistance > CLAMP_MAX_WALK) options.maxWalkDistance = CLAMP_MAX_WALK;
+        // Requests on a single fixed-weight street profile can be answered from a precomputed contraction hierarchy.
+        ContractionHierarchy hierarchy = ContractionHierarchy.forRequest(options.rctx.graph, options);
+        if (hierarchy != null) {
+            GraphPath path = hierarchy.getPath(options);
+            if (path != null) return Lists.newArrayList(path);
+            LOG.debug("No traversable path in the {} contraction hierarchy, falling back on A*.", hierarchy.profile);
+        }
+        // A single multi-criteria RAPTOR search can replace the repeated searches below for transit requests.
+        if (router.raptorPathFinder != null && RaptorPathFinder.canRoute(options)) {
+            List<GraphPath> paths = router.raptorPathFinder.getPaths(options);
+            if (!paths.isEmpty()) return paths;
+            LOG.debug("No itineraries found by RAPTOR, falling back on A*.");
+        }
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
@@ -0,0 +1,263 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.profile.McRaptorWorker;
+import org.opentripplanner.profile.RaptorPlanData;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds several transit itineraries in a single multi-criteria RAPTOR search, as an alternative to the repeated A*
+ * searches with trip banning done by GraphPathFinder. The itineraries are those that are Pareto-optimal in arrival
+ * time, number of transfers and walk distance, found by a McRaptorWorker over the flat timetables of the service day
+ * of the request. The timetables of the last few service days requested are kept.
+ *
+ * The walks at either end are found by street searches from the origin and destination, as in the long distance mode
+ * of GraphPathFinder, and transfers are made over the SimpleTransfer edges made by the graph builder. Each itinerary
+ * is turned back into a sequence of graph edges (the street edges from the street searches, then the board, hop and
+ * alight edges of each pattern ridden, and the transfer edges between them) which is traversed with the request to
+ * make a GraphPath. The boarding edges pick the trips to ride, taking real-time updates into account, so an itinerary
+ * that was planned on the scheduled timetables may end up catching an earlier or later vehicle. Itineraries that can
+ * no longer be traversed at all are dropped.
+ *
+ * One instance is shared by all requests to a Router.
+ */
+public class RaptorPathFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPathFinder.class);
+
+    /** The number of service days for which flat timetables are kept. */
+    private static final int CACHED_SERVICE_DAYS = 3;
+
+    private final Graph graph;
+
+    private final LoadingCache<ServiceDate, RaptorPlanData> planData;
+
+    public RaptorPathFinder(final Graph graph) {
+        this.graph = graph;
+        this.planData = CacheBuilder.newBuilder()
+                .maximumSize(CACHED_SERVICE_DAYS)
+                .recordStats()
+                .build(new CacheLoader<ServiceDate, RaptorPlanData>() {
+                    @Override
+                    public RaptorPlanData load(ServiceDate serviceDate) {
+                        return new RaptorPlanData(graph, serviceDate);
+                    }
+                });
+    }
+
+    /** @return the hits and misses of the flat timetables kept for each service day. */
+    public CacheStats getPlanDataStats() {
+        return planData.stats();
+    }
+
+    /**
+     * @return true if the given request can be answered by this path finder: it must be a depart-after request using
+     * transit and walking only, without bike or car parking, rental or an initial trip.
+     */
+    public static boolean canRoute(RoutingRequest options) {
+        return options.modes.isTransit() && !options.arriveBy && options.startingTransitTripId == null
+                && !options.modes.getBicycle() && !options.modes.getCar() && !options.allowBikeRental
+                && !options.parkAndRide && !options.kissAndRide && !options.bikeParkAndRide;
+    }
+
+    /**
+     * Find up to options.numItineraries paths for the given request, whose routing context must already be set.
+     * @return the paths found, which is empty if there are none or the request is outside the service of the graph.
+     */
+    public List<GraphPath> getPaths(RoutingRequest options) {
+        long searchBeginTime = System.currentTimeMillis();
+        Calendar calendar = Calendar.getInstance(graph.getTimeZone());
+        calendar.setTimeInMillis(options.getSecondsSinceEpoch() * 1000);
+        ServiceDate serviceDate = new ServiceDate(calendar);
+        RaptorPlanData data = planData.getUnchecked(serviceDate);
+        long midnight = serviceDate.getAsDate(graph.getTimeZone()).getTime() / 1000;
+
+        List<GraphPath> paths = new ArrayList<>();
+        TIntObjectMap<State> access = new TIntObjectHashMap<>();
+        State walkOnly = streetSearch(options, false, data, access);
+        TIntObjectMap<State> egress = new TIntObjectHashMap<>();
+        streetSearch(options, true, data, egress);
+
+        McRaptorWorker worker = new McRaptorWorker(data, options.boardSlack, options.transferSlack, options.walkSpeed);
+        List<McRaptorWorker.Result> results = worker.route((int) (options.getSecondsSinceEpoch() - midnight),
+                elapsedTimes(access), walkDistances(access), elapsedTimes(egress), walkDistances(egress),
+                options.maxTransfers + 1);
+        LOG.debug("McRAPTOR found {} itineraries in {} msec.", results.size(),
+                System.currentTimeMillis() - searchBeginTime);
+
+        // Walking all the way is an itinerary of its own if no transit itinerary arrives sooner.
+        if (walkOnly != null && (results.isEmpty() ||
+                walkOnly.getTimeSeconds() <= midnight + results.get(0).arrivalTime)) {
+            paths.add(new GraphPath(walkOnly, false));
+        }
+        // Several results may come down to the same path once the vehicles have been chosen again.
+        Set<List<Object>> seen = new HashSet<>();
+        for (McRaptorWorker.Result result : results) {
+            if (paths.size() >= options.numItineraries) break;
+            GraphPath path = makePath(options, data, result, access, egress);
+            if (path == null) {
+                LOG.debug("Could not traverse itinerary arriving at {}, dropping it.", result.arrivalTime);
+                continue;
+            }
+            if (seen.add(pathKey(path))) paths.add(path);
+        }
+        Collections.sort(paths, new PathWeightComparator());
+        return paths;
+    }
+
+    /**
+     * Search the streets outward from the origin, or inward toward the destination, up to the maximum walk distance.
+     * The best state at each transit stop in the plan data is recorded by stop index.
+     * @return in a forward search, the state reaching the destination by walking alone if there is one.
+     */
+    private State streetSearch(RoutingRequest options, boolean fromTarget, RaptorPlanData data,
+                               TIntObjectMap<State> stopStates) {
+        RoutingRequest rr = options.clone();
+        if (fromTarget) rr.setArriveBy(true);
+        Vertex initVertex = fromTarget ? rr.rctx.toVertex : rr.rctx.fromVertex;
+        Vertex otherVertex = fromTarget ? rr.rctx.fromVertex : rr.rctx.toVertex;
+        State found = null;
+        ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(rr);
+        BinHeap<State> pq = new BinHeap<>();
+        pq.insert(new State(initVertex, rr), 0);
+        while (!pq.empty()) {
+            State s = pq.extract_min();
+            Vertex v = s.getVertex();
+            if (v == otherVertex && found == null) found = s;
+            if (v instanceof TransitVertex) {
+                if (v instanceof TransitStop) {
+                    int stop = data.indexForStop.get(v.getIndex());
+                    if (stop != -1 && !stopStates.containsKey(stop)) stopStates.put(stop, s);
+                }
+                // Prune the street search at stops, transit is searched by RAPTOR.
+                continue;
+            }
+            for (Edge e : rr.rctx.temporaryEdges.getEdges(v, rr.arriveBy)) {
+                State s1 = e.traverse(s);
+                if (s1 == null || s1.getWalkDistance() > rr.maxWalkDistance) continue;
+                if (spt.add(s1)) pq.insert(s1, s1.getWeight());
+            }
+        }
+        return found;
+    }
+
+    private static TIntIntMap elapsedTimes(TIntObjectMap<State> stopStates) {
+        TIntIntMap times = new TIntIntHashMap();
+        for (int stop : stopStates.keys()) times.put(stop, (int) stopStates.get(stop).getElapsedTimeSeconds());
+        return times;
+    }
+
+    private static TIntIntMap walkDistances(TIntObjectMap<State> stopStates) {
+        TIntIntMap distances = new TIntIntHashMap();
+        for (int stop : stopStates.keys()) distances.put(stop, (int) stopStates.get(stop).getWalkDistance());
+        return distances;
+    }
+
+    /** Turn a RAPTOR result back into edges of the graph and traverse them with the request. */
+    private GraphPath makePath(RoutingRequest options, RaptorPlanData data, McRaptorWorker.Result result,
+                               TIntObjectMap<State> access, TIntObjectMap<State> egress) {
+        List<McRaptorWorker.Label> labels = new ArrayList<>();
+        for (McRaptorWorker.Label label = result.label; label != null; label = label.parent) labels.add(label);
+        Collections.reverse(labels);
+
+        List<Edge> edges = new ArrayList<>();
+        // The access state chain runs backward in time from the first stop to the origin.
+        List<Edge> accessEdges = new ArrayList<>();
+        for (State s = access.get(labels.get(0).stop); s.getBackState() != null; s = s.getBackState()) {
+            accessEdges.add(s.getBackEdge());
+        }
+        Collections.reverse(accessEdges);
+        edges.addAll(accessEdges);
+        for (McRaptorWorker.Label label : labels.subList(1, labels.size())) {
+            TransitStop from = data.stops[label.parent.stop];
+            TransitStop to = data.stops[label.stop];
+            if (label.isRide()) {
+                TripPattern pattern = data.patterns[label.pattern];
+                edges.add(findEdge(from, from.departVertex, PreBoardEdge.class));
+                edges.add(pattern.boardEdges[label.boardPosition]);
+                for (int position = label.boardPosition; position < label.alightPosition; position++) {
+                    if (position > label.boardPosition) edges.add(pattern.dwellEdges[position]);
+                    edges.add(pattern.hopEdges[position]);
+                }
+                edges.add(pattern.alightEdges[label.alightPosition]);
+                edges.add(findEdge(to.arriveVertex, to, PreAlightEdge.class));
+            } else {
+                edges.add(findEdge(from, to, SimpleTransfer.class));
+            }
+        }
+        // The egress state chain, from an arrive-by search, runs forward in time from the last stop.
+        for (State s = egress.get(result.label.stop); s.getBackState() != null; s = s.getBackState()) {
+            edges.add(s.getBackEdge());
+        }
+
+        State state = new State(options);
+        for (Edge edge : edges) {
+            if (edge == null) return null;
+            state = edge.traverse(state);
+            if (state == null) return null;
+        }
+        if (state.getVertex() != options.rctx.target) return null;
+        return new GraphPath(state, true);
+    }
+
+    private static Edge findEdge(Vertex from, Vertex to, Class<? extends Edge> type) {
+        for (Edge e : from.getOutgoing()) {
+            if (e.getToVertex() == to && type.isInstance(e)) return e;
+        }
+        return null;
+    }
+
+    /** Paths that ride the same trips and leave and arrive at the same times are the same itinerary. */
+    private static List<Object> pathKey(GraphPath path) {
+        List<Object> key = new ArrayList<>();
+        key.addAll(path.getTrips());
+        key.add(path.getStartTime());
+        key.add(path.getEndTime());
+        return key;
+    }
+
+}
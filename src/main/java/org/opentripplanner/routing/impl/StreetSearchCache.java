@@ -0,0 +1,249 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the walking searches made around the origin and destination of transit requests, which are
+ * repeated identically whenever requests start or end at the same place (a station, a popular destination, the points
+ * of a grid). The plan router uses it for the street searches of the InterleavedBidirectionalHeuristic and the profile
+ * router for the access search of RepeatedRaptorProfileRouter.
+ *
+ * Entries are keyed on the vertex the search starts from and on the request parameters that affect walking. When the
+ * search starts from a temporary vertex made for the request, the key is its position and the permanent vertices it
+ * is linked to, so requests snapped to the same point of the same street share an entry. Only walk searches are
+ * cached: other modes depend on time of day, traffic and the state of bike rental stations and parking lots.
+ *
+ * The cache is bounded by the total number of vertices in its entries. One instance is made for each graph when it is
+ * indexed, and it must be invalidated when the street network changes, as the street note and traffic updaters do.
+ * It is safe for concurrent use.
+ */
+public class StreetSearchCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetSearchCache.class);
+
+    /** The default bound on the total number of vertices in all entries, about 100MB. */
+    public static final long DEFAULT_MAX_VERTICES = 5000000;
+
+    /** Positions of temporary vertices are rounded to this many degrees, about a centimeter. */
+    private static final double POSITION_RESOLUTION = 1e-7;
+
+    private final Cache<Key, Result> cache;
+
+    public StreetSearchCache(long maxVertices) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxVertices)
+                .weigher((Key key, Result result) -> result.size())
+                .recordStats()
+                .build();
+    }
+
+    /** @return the cached result for the given key, or null if there is none or the key is null. */
+    public Result get(Key key) {
+        return key == null ? null : cache.getIfPresent(key);
+    }
+
+    /** Save the result of a search under the given key, unless the key is null. */
+    public void put(Key key, Result result) {
+        if (key != null) cache.put(key, result);
+    }
+
+    /** @return the hits, misses and evictions since the cache was made. */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /** Drop all entries, when the streets or the costs of walking them have changed. */
+    public void invalidate() {
+        CacheStats stats = cache.stats();
+        LOG.info("Invalidating street search cache, {} hits and {} misses so far.", stats.hitCount(),
+                stats.missCount());
+        cache.invalidateAll();
+    }
+
+    /**
+     * Make the key for a search from the given vertex with the given request.
+     * @param search identifies the kind of search, since different callers prune and record their searches differently.
+     * @return the key, or null if the search should not be cached.
+     */
+    public static Key key(String search, RoutingRequest rr, Vertex from) {
+        if (!rr.modes.getWalk() || rr.modes.getBicycle() || rr.modes.getCar() || rr.allowBikeRental ||
+                rr.parkAndRide || rr.kissAndRide || rr.bikeParkAndRide) {
+            return null;
+        }
+        return new Key(search, rr, from);
+    }
+
+    /** Identifies a search by its kind, direction, starting point and the request parameters that affect walking. */
+    public static class Key {
+
+        private final String search;
+
+        private final boolean arriveBy;
+
+        private final int modes;
+
+        private final boolean wheelchairAccessible;
+
+        private final double[] parameters;
+
+        /* The vertex index, or -1 for a temporary vertex, identified by its rounded position and its neighbors. */
+        private final int vertex;
+        private final long x, y;
+        private final int[] neighbors;
+
+        private Key(String search, RoutingRequest rr, Vertex from) {
+            this.search = search;
+            this.arriveBy = rr.arriveBy;
+            this.modes = rr.modes.getMask();
+            this.wheelchairAccessible = rr.wheelchairAccessible;
+            this.parameters = new double[] {
+                    rr.walkSpeed, rr.walkReluctance, rr.stairsReluctance, rr.turnReluctance, rr.maxSlope,
+                    rr.maxWalkDistance, rr.softWalkLimiting ? 1 : 0, rr.softWalkPenalty, rr.softWalkOverageRate,
+                    rr.elevatorBoardTime, rr.elevatorBoardCost, rr.elevatorHopTime, rr.elevatorHopCost
+            };
+            if (from instanceof TemporaryVertex) {
+                this.vertex = -1;
+                this.x = Math.round(from.getX() / POSITION_RESOLUTION);
+                this.y = Math.round(from.getY() / POSITION_RESOLUTION);
+                TIntArrayList neighbors = new TIntArrayList();
+                for (Edge e : from.getOutgoing()) {
+                    if (!(e.getToVertex() instanceof TemporaryVertex)) neighbors.add(e.getToVertex().getIndex());
+                }
+                for (Edge e : from.getIncoming()) {
+                    if (!(e.getFromVertex() instanceof TemporaryVertex)) neighbors.add(-1 - e.getFromVertex().getIndex());
+                }
+                neighbors.sort();
+                this.neighbors = neighbors.toArray();
+            } else {
+                this.vertex = from.getIndex();
+                this.x = this.y = 0;
+                this.neighbors = null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return search.equals(other.search) && arriveBy == other.arriveBy && modes == other.modes &&
+                    wheelchairAccessible == other.wheelchairAccessible && vertex == other.vertex &&
+                    x == other.x && y == other.y && Arrays.equals(parameters, other.parameters) &&
+                    Arrays.equals(neighbors, other.neighbors);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = search.hashCode() * 31 + vertex;
+            hash = hash * 31 + Long.hashCode(x) * 17 + Long.hashCode(y);
+            hash = hash * 31 + Arrays.hashCode(parameters);
+            hash = hash * 31 + Arrays.hashCode(neighbors);
+            return hash * 31 + modes * 2 + (arriveBy ? 1 : 0);
+        }
+    }
+
+    /**
+     * The states of a street search in compact form: for each entry the vertex, the weight, the elapsed time in
+     * seconds and the walk distance in meters. What the entries are (every state settled, in order, or only the best
+     * state at each vertex) is up to the caller. States at temporary vertices should not be recorded, since those
+     * vertices only exist for the request that made them.
+     */
+    public static class Result {
+
+        private Vertex[] vertices = new Vertex[64];
+        private double[] weights = new double[64];
+        private int[] seconds = new int[64];
+        private double[] walkDistances = new double[64];
+        private int size = 0;
+
+        /**
+         * Record the best state at each vertex of a shortest path tree, except that the elapsed time is the lowest of
+         * all the states at the vertex.
+         */
+        public static Result fromShortestPathTree(ShortestPathTree spt) {
+            Result result = new Result();
+            for (Vertex v : spt.getVertices()) {
+                State best = spt.getState(v);
+                if (best == null || v instanceof TemporaryVertex) continue;
+                long seconds = best.getElapsedTimeSeconds();
+                for (State s : spt.getStates(v)) seconds = Math.min(seconds, s.getElapsedTimeSeconds());
+                result.add(v, best.getWeight(), (int) seconds, best.getWalkDistance());
+            }
+            return result.trim();
+        }
+
+        public void add(State s) {
+            add(s.getVertex(), s.getWeight(), (int) s.getElapsedTimeSeconds(), s.getWalkDistance());
+        }
+
+        public void add(Vertex vertex, double weight, int elapsedSeconds, double walkDistance) {
+            if (size == vertices.length) {
+                int capacity = size * 2;
+                vertices = Arrays.copyOf(vertices, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                seconds = Arrays.copyOf(seconds, capacity);
+                walkDistances = Arrays.copyOf(walkDistances, capacity);
+            }
+            vertices[size] = vertex;
+            weights[size] = weight;
+            seconds[size] = elapsedSeconds;
+            walkDistances[size] = walkDistance;
+            size += 1;
+        }
+
+        /** Release the unused capacity once the search is complete. */
+        public Result trim() {
+            vertices = Arrays.copyOf(vertices, size);
+            weights = Arrays.copyOf(weights, size);
+            seconds = Arrays.copyOf(seconds, size);
+            walkDistances = Arrays.copyOf(walkDistances, size);
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Vertex getVertex(int i) {
+            return vertices[i];
+        }
+
+        public double getWeight(int i) {
+            return weights[i];
+        }
+
+        public int getElapsedSeconds(int i) {
+            return seconds[i];
+        }
+
+        public double getWalkDistance(int i) {
+            return walkDistances[i];
+        }
+    }
+
+}
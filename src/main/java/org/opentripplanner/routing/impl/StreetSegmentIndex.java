@@ -0,0 +1,275 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.streets.VertexStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A packed spatial index of the segments of the walkable street edges of a graph, for linking large numbers of points
+ * to the street network. Segment end points are kept as fixed-precision integer coordinates (as in the VertexStore) in
+ * parallel arrays, and the grid is stored as a sorted array of cell keys with the segments of each cell in one flat
+ * array, rather than as a map of lists of edges. The index is built once and is not modified, so any number of threads
+ * can query it at once.
+ *
+ * Like the IntHashGrid, each segment is placed in all the cells touched by its bounding box, so queries return false
+ * positives and may return a segment more than once; callers filter by distance.
+ */
+public class StreetSegmentIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreetSegmentIndex.class);
+
+    /** About 200m, the same default as the IntHashGrid. */
+    private static final double CELL_SIZE_DEGREES = 0.0018;
+
+    /** The first search radius when snapping a point, doubled until a street is found or the maximum is reached. */
+    private static final double INITIAL_SNAP_RADIUS_METERS = 100;
+
+    private static final double METERS_PER_FIXED_DEGREE =
+            SphericalDistanceLibrary.RADIUS_OF_EARTH_IN_M * Math.PI / 180 / VertexStore.FIXED_FACTOR;
+
+    private final int cellSize;
+
+    /* The edges, and for each segment the edge it belongs to and its position within the edge geometry. */
+    private final StreetEdge[] edges;
+    private final int[] segmentEdge;
+    private final int[] segmentIndex;
+
+    /* The end points of each segment in fixed-precision degrees. */
+    private final int[] x0s, y0s, x1s, y1s;
+
+    /* The keys of the non-empty cells in ascending order, and the segments of cell i at offsets[i] until offsets[i+1]. */
+    private final long[] cellKeys;
+    private final int[] cellOffsets;
+    private final int[] cellSegments;
+
+    public StreetSegmentIndex(Graph graph) {
+        cellSize = VertexStore.floatingDegreesToFixed(CELL_SIZE_DEGREES);
+        List<StreetEdge> edgeList = new ArrayList<>();
+        TIntArrayList segEdges = new TIntArrayList(), segIndices = new TIntArrayList();
+        TIntArrayList xs0 = new TIntArrayList(), ys0 = new TIntArrayList();
+        TIntArrayList xs1 = new TIntArrayList(), ys1 = new TIntArrayList();
+        for (Edge e : graph.getEdges()) {
+            if (!(e instanceof StreetEdge) || e instanceof TemporaryEdge) continue;
+            StreetEdge se = (StreetEdge) e;
+            if (!se.canTraverse(new TraverseModeSet(TraverseMode.WALK)) || se.getGeometry() == null) continue;
+            int edgeIndex = edgeList.size();
+            edgeList.add(se);
+            CoordinateSequence coords = se.getGeometry().getCoordinateSequence();
+            for (int s = 0; s < coords.size() - 1; s++) {
+                segEdges.add(edgeIndex);
+                segIndices.add(s);
+                xs0.add(VertexStore.floatingDegreesToFixed(coords.getX(s)));
+                ys0.add(VertexStore.floatingDegreesToFixed(coords.getY(s)));
+                xs1.add(VertexStore.floatingDegreesToFixed(coords.getX(s + 1)));
+                ys1.add(VertexStore.floatingDegreesToFixed(coords.getY(s + 1)));
+            }
+        }
+        edges = edgeList.toArray(new StreetEdge[edgeList.size()]);
+        segmentEdge = segEdges.toArray();
+        segmentIndex = segIndices.toArray();
+        x0s = xs0.toArray();
+        y0s = ys0.toArray();
+        x1s = xs1.toArray();
+        y1s = ys1.toArray();
+        int nSegments = segmentEdge.length;
+
+        // First count the segments in each cell, then lay the cells out in key order and fill them.
+        TLongIntMap counts = new TLongIntHashMap();
+        for (int seg = 0; seg < nSegments; seg++) {
+            forEachCell(seg, key -> counts.adjustOrPutValue(key, 1, 1));
+        }
+        cellKeys = counts.keys();
+        Arrays.sort(cellKeys);
+        cellOffsets = new int[cellKeys.length + 1];
+        for (int c = 0; c < cellKeys.length; c++) {
+            cellOffsets[c + 1] = cellOffsets[c] + counts.get(cellKeys[c]);
+        }
+        cellSegments = new int[cellOffsets[cellKeys.length]];
+        int[] fill = Arrays.copyOf(cellOffsets, cellKeys.length);
+        for (int seg = 0; seg < nSegments; seg++) {
+            final int s = seg;
+            forEachCell(seg, key -> cellSegments[fill[Arrays.binarySearch(cellKeys, key)]++] = s);
+        }
+        LOG.info("Indexed {} segments of {} walkable street edges in {} cells.", nSegments, edges.length,
+                cellKeys.length);
+    }
+
+    /* A visitor of cell keys, which are longs and so cannot be passed to an IntConsumer. */
+    private interface CellVisitor {
+        void visit(long key);
+    }
+
+    private void forEachCell(int seg, CellVisitor visitor) {
+        forEachCell(Math.min(x0s[seg], x1s[seg]), Math.min(y0s[seg], y1s[seg]),
+                Math.max(x0s[seg], x1s[seg]), Math.max(y0s[seg], y1s[seg]), visitor);
+    }
+
+    private void forEachCell(int minX, int minY, int maxX, int maxY, CellVisitor visitor) {
+        int minCellX = Math.floorDiv(minX, cellSize), maxCellX = Math.floorDiv(maxX, cellSize);
+        int minCellY = Math.floorDiv(minY, cellSize), maxCellY = Math.floorDiv(maxY, cellSize);
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                visitor.visit(((long) cy << 32) | (cx & 0xFFFFFFFFL));
+            }
+        }
+    }
+
+    /**
+     * Call the given function with each segment in the cells touching the given box of fixed-precision degrees. A
+     * segment may be visited more than once, and segments outside the box may be visited.
+     */
+    public void query(int minX, int minY, int maxX, int maxY, IntConsumer segmentConsumer) {
+        forEachCell(minX, minY, maxX, maxY, key -> {
+            int c = Arrays.binarySearch(cellKeys, key);
+            if (c < 0) return;
+            for (int i = cellOffsets[c]; i < cellOffsets[c + 1]; i++) {
+                segmentConsumer.accept(cellSegments[i]);
+            }
+        });
+    }
+
+    /**
+     * Call the given function with each vertex that has a walkable street leaving it and lies within the given radius
+     * of the given point. A vertex may be visited more than once.
+     */
+    public void queryVertices(double lat, double lon, double radiusMeters, Consumer<Vertex> consumer) {
+        int radius = (int) Math.ceil(radiusMeters / METERS_PER_FIXED_DEGREE);
+        int xRadius = (int) Math.ceil(radius / Math.cos(Math.toRadians(lat)));
+        int x = VertexStore.floatingDegreesToFixed(lon), y = VertexStore.floatingDegreesToFixed(lat);
+        query(x - xRadius, y - radius, x + xRadius, y + radius, seg -> {
+            // The first segment of an edge starts at its from vertex.
+            if (segmentIndex[seg] == 0) consumer.accept(edges[segmentEdge[seg]].getFromVertex());
+        });
+    }
+
+    public int getSegmentCount() {
+        return segmentEdge.length;
+    }
+
+    /**
+     * Find the closest point on a walkable street to each of the given points, using all available processors.
+     * @param maxDistanceMeters points further than this from any walkable street are not snapped.
+     */
+    public SnapResults snap(double[] lats, double[] lons, double maxDistanceMeters) {
+        if (lats.length != lons.length) {
+            throw new IllegalArgumentException("There must be as many latitudes as longitudes.");
+        }
+        SnapResults results = new SnapResults(lats.length);
+        IntStream.range(0, lats.length).parallel().forEach(i -> snap(lats[i], lons[i], maxDistanceMeters, results, i));
+        return results;
+    }
+
+    /** Snap a single point, saving the result at the given position of the results. */
+    private void snap(double lat, double lon, double maxDistanceMeters, SnapResults results, int i) {
+        final int x = VertexStore.floatingDegreesToFixed(lon), y = VertexStore.floatingDegreesToFixed(lat);
+        final double xscale = Math.cos(Math.toRadians(lat));
+        // Best squared distance in fixed-precision latitude units, segment and fraction along it.
+        final double[] best = { Double.POSITIVE_INFINITY, -1, 0 };
+        double radiusMeters = Math.min(INITIAL_SNAP_RADIUS_METERS, maxDistanceMeters);
+        while (true) {
+            int radius = (int) Math.ceil(radiusMeters / METERS_PER_FIXED_DEGREE);
+            int xRadius = (int) Math.ceil(radius / xscale);
+            query(x - xRadius, y - radius, x + xRadius, y + radius, seg -> {
+                double dx = (double) x1s[seg] - x0s[seg], dy = (double) y1s[seg] - y0s[seg];
+                double px = (double) x - x0s[seg], py = (double) y - y0s[seg];
+                double len2 = dx * dx * xscale * xscale + dy * dy;
+                double frac = len2 == 0 ? 0 : (px * dx * xscale * xscale + py * dy) / len2;
+                frac = Math.max(0, Math.min(1, frac));
+                double ex = (px - frac * dx) * xscale, ey = py - frac * dy;
+                double dist2 = ex * ex + ey * ey;
+                // Break ties on the segment number so that results do not depend on the order of the cells.
+                if (dist2 < best[0] || (dist2 == best[0] && seg < best[1])) {
+                    best[0] = dist2;
+                    best[1] = seg;
+                    best[2] = frac;
+                }
+            });
+            // Segments found within the query box but beyond the radius may not be the closest.
+            if (best[1] >= 0 && Math.sqrt(best[0]) * METERS_PER_FIXED_DEGREE <= radiusMeters) break;
+            if (radiusMeters >= maxDistanceMeters) break;
+            radiusMeters = Math.min(radiusMeters * 2, maxDistanceMeters);
+        }
+        if (best[1] < 0 || Math.sqrt(best[0]) * METERS_PER_FIXED_DEGREE > maxDistanceMeters) {
+            results.distances[i] = Float.NaN;
+            return;
+        }
+        int seg = (int) best[1];
+        double frac = best[2];
+        results.edges[i] = edges[segmentEdge[seg]];
+        results.segments[i] = segmentIndex[seg];
+        results.fractions[i] = (float) frac;
+        results.lons[i] = VertexStore.fixedDegreesToFloating(x0s[seg]) +
+                frac * (VertexStore.fixedDegreesToFloating(x1s[seg]) - VertexStore.fixedDegreesToFloating(x0s[seg]));
+        results.lats[i] = VertexStore.fixedDegreesToFloating(y0s[seg]) +
+                frac * (VertexStore.fixedDegreesToFloating(y1s[seg]) - VertexStore.fixedDegreesToFloating(y0s[seg]));
+        results.distances[i] = (float) SphericalDistanceLibrary.fastDistance(lat, lon, results.lats[i], results.lons[i]);
+    }
+
+    /**
+     * The closest points on the street network to a batch of points, one entry per point in parallel arrays. When a
+     * point could not be snapped its edge is null and its distance is NaN.
+     */
+    public static class SnapResults {
+
+        /** The edge holding the closest point. */
+        public final StreetEdge[] edges;
+
+        /** The segment of the edge geometry holding the closest point. */
+        public final int[] segments;
+
+        /** How far along the segment the closest point is, from 0 at its start to 1 at its end. */
+        public final float[] fractions;
+
+        /** The coordinates of the closest point. */
+        public final double[] lats, lons;
+
+        /** The distance from the point to the street in meters. */
+        public final float[] distances;
+
+        public SnapResults(int size) {
+            edges = new StreetEdge[size];
+            segments = new int[size];
+            fractions = new float[size];
+            lats = new double[size];
+            lons = new double[size];
+            distances = new float[size];
+        }
+
+        public int size() {
+            return edges.length;
+        }
+    }
+
+}
@@ -67,6 +67,9 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
     private SpatialIndex transitStopTree;
     private SpatialIndex verticesTree;
 
+    /* Built on first use, since only point set linking and snapping need it. */
+    private volatile StreetSegmentIndex streetSegmentIndex;
+
     // private static final double SEARCH_RADIUS_M = 100; // meters
     // private static final double SEARCH_RADIUS_DEG = DistanceLibrary.metersToDegrees(SEARCH_RADIUS_M);
 
@@ -590,6 +593,25 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         return e != null ? e.nearestPointOnEdge : null;
     }
 
+    @Override
+    public StreetSegmentIndex getStreetSegmentIndex() {
+        StreetSegmentIndex index = streetSegmentIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = streetSegmentIndex;
+                if (index == null) {
+                    streetSegmentIndex = index = new StreetSegmentIndex(graph);
+                }
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public StreetSegmentIndex.SnapResults snap(double[] lats, double[] lons) {
+        return getStreetSegmentIndex().snap(lats, lons, MAX_DISTANCE_FROM_STREET_METERS);
+    }
+
     @Override
     public Vertex getSampleVertexAt(Coordinate coordinate, boolean dest) {
         SampleFactory sfac = graph.getSampleFactory();
@@ -21,6 +21,7 @@ import org.opentripplanner.routing.core.TraversalRequirements;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.CandidateEdgeBundle;
+import org.opentripplanner.routing.impl.StreetSegmentIndex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.util.Collection;
@@ -101,6 +102,17 @@ public interface StreetVertexIndexService {
      */
     public Coordinate getClosestPointOnStreet(Coordinate coordinate);
 
+    /**
+     * @return a packed index of the segments of all walkable streets, for linking many points to the street network.
+     */
+    public StreetSegmentIndex getStreetSegmentIndex();
+
+    /**
+     * Find the closest point on a walkable street to each of the given points, using all available processors.
+     * Points further than MAX_DISTANCE_FROM_STREET_METERS from any street are not snapped.
+     */
+    public StreetSegmentIndex.SnapResults snap(double[] lats, double[] lons);
+
 	/** Get a vertex at a given coordinate, using the same logic as in Samples. Used in Analyst
 	 * so that origins and destinations are linked the same way. */
 	public Vertex getSampleVertexAt(Coordinate coordinate, boolean dest);
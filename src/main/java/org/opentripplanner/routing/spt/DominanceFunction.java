@@ -1,8 +1,10 @@
 package org.opentripplanner.routing.spt;
 
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
 
 import java.io.Serializable;
 import java.util.Objects;
@@ -81,15 +83,56 @@ public abstract class DominanceFunction implements Serializable {
     /**
      * Create a new shortest path tree using this function, considering whether it allows co-dominant States.
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
+     * If the request asks for it, the states will be stored in arrays indexed by vertex index rather than in a map.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        if (routingRequest.indexedShortestPathTree) {
+            return new IndexedShortestPathTree(routingRequest, this);
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
+    /**
+     * Return true if, among comparable states, this function always lets exactly one state survive at a vertex.
+     * In that case it defines a total order rather than a partial one and no co-dominant states can exist.
+     */
+    protected boolean isTotalOrder() {
+        return false;
+    }
+
+    /**
+     * Return true if a search using this function with the given request will never hold more than one state per
+     * vertex, except for states arriving through turn-restricted edges (see getQueueIndex). This is the case when
+     * the function is a total order and the request cannot produce states on separate planes (transit, bike rental,
+     * parking). Searches can then use a priority queue that supports decrease-key, updating a queued state in place
+     * rather than enqueueing a new one and discarding the dominated one when it comes out of the queue.
+     */
+    public boolean allowsDecreaseKey(RoutingRequest options) {
+        return isTotalOrder() && !options.modes.isTransit() && !options.allowBikeRental && !options.parkAndRide
+                && !options.kissAndRide && !options.bikeParkAndRide;
+    }
+
+    /**
+     * When decrease-key is allowed, return the index under which the given state can replace an earlier state in an
+     * IndexedBinHeap. This is the vertex index, unless the state arrived through a turn-restricted edge: such states
+     * are incomparable with other states at the same vertex, so they are enqueued without an index.
+     */
+    public static int getQueueIndex(State state) {
+        Edge backEdge = state.backEdge;
+        if (backEdge instanceof StreetEdge &&
+                !state.getOptions().getRoutingContext().graph.getTurnRestrictions(backEdge).isEmpty()) {
+            return IndexedBinHeap.NO_INDEX;
+        }
+        return state.getVertex().getIndex();
+    }
+
     public static class MinimumWeight extends DominanceFunction {
         /** Return true if the first state has lower weight than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.weight <= b.weight; }
+
+        @Override
+        protected boolean isTotalOrder() { return true; }
     }
 
     /**
@@ -100,6 +143,9 @@ public abstract class DominanceFunction implements Serializable {
         /** Return true if the first state has lower elapsed time than the second state. */
         @Override
         public boolean betterOrEqual (State a, State b) { return a.getElapsedTimeSeconds() <= b.getElapsedTimeSeconds(); }
+
+        @Override
+        protected boolean isTotalOrder() { return true; }
     }
     
     /**
@@ -115,6 +161,9 @@ public abstract class DominanceFunction implements Serializable {
             return a.getWalkDistance() <= b.getWalkDistance(); 
         }
 
+        @Override
+        protected boolean isTotalOrder() { return true; }
+
     }
 
     /** In this implementation the relation is not symmetric. There are sets of mutually co-dominant states. */
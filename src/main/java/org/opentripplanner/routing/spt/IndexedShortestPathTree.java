@@ -0,0 +1,245 @@
+/* This program is free software: you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public License
+as published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * A ShortestPathTree that stores its states in flat arrays indexed by vertex index rather than in an
+ * IdentityHashMap of ArrayLists. This has exactly the same semantics as the general multi-state ShortestPathTree
+ * (it works with any DominanceFunction) but adding or visiting a state neither hashes the vertex nor allocates a
+ * new list per vertex.
+ *
+ * All the states in the tree live in a single pool of slots. Each vertex index maps to the first slot of a singly
+ * linked list of slots holding the co-dominant states at that vertex. Slots freed when a state is dominated are
+ * recycled through a free list. Slot number zero is never used, so that a zero entry means "no state" and the
+ * arrays never need to be filled with a sentinel value.
+ *
+ * The per-vertex head array is sized to Vertex.getMaxIndex() up front, so this is meant for large searches (plan
+ * requests, analyst trees) where a large fraction of the graph is explored. Temporary vertices created after the
+ * tree are handled by growing the array.
+ */
+public class IndexedShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTree.class);
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    /** For each vertex index, the first slot in the list of states at that vertex, or 0 if there are none. */
+    private int[] head;
+
+    /** The state held in each slot. */
+    private State[] slotStates = new State[INITIAL_SLOTS];
+
+    /** For each slot, the next slot at the same vertex, or 0 at the end of the list. Also chains the free list. */
+    private int[] slotNext = new int[INITIAL_SLOTS];
+
+    /** The number of slots that have ever been used, including the unused slot zero. */
+    private int nSlots = 1;
+
+    /** The first slot in the free list, or 0 if the free list is empty. */
+    private int freeSlot = 0;
+
+    /** The indexes of all vertices that have been reached, in the order they were first reached. */
+    private int[] reachedVertices = new int[INITIAL_SLOTS];
+
+    private int nReachedVertices = 0;
+
+    public IndexedShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(options, dominanceFunction);
+        head = new int[Vertex.getMaxIndex()];
+    }
+
+    @Override
+    public boolean add(State newState) {
+        int vertexIndex = newState.getVertex().getIndex();
+        if (vertexIndex >= head.length) {
+            head = Arrays.copyOf(head, Math.max(vertexIndex + 1, head.length + head.length / 2));
+        }
+
+        // if the vertex has no states, add one and return
+        if (head[vertexIndex] == 0) {
+            if (nReachedVertices == reachedVertices.length) {
+                reachedVertices = Arrays.copyOf(reachedVertices, nReachedVertices * 2);
+            }
+            reachedVertices[nReachedVertices++] = vertexIndex;
+            head[vertexIndex] = newSlot(newState);
+            return true;
+        }
+
+        // if the vertex has any states that dominate the new state, don't add the state
+        // if the new state dominates any old states, remove them
+        int prev = 0;
+        int slot = head[vertexIndex];
+        while (slot != 0) {
+            State oldState = slotStates[slot];
+            int next = slotNext[slot];
+            // order is important, because in the case of a tie
+            // we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                if (prev == 0) {
+                    head[vertexIndex] = next;
+                } else {
+                    slotNext[prev] = next;
+                }
+                freeSlot(slot);
+            } else {
+                prev = slot;
+            }
+            slot = next;
+        }
+
+        // any states remaining are co-dominant with the new state, append it after them to preserve ordering
+        int newSlot = newSlot(newState);
+        if (prev == 0) {
+            head[vertexIndex] = newSlot;
+        } else {
+            slotNext[prev] = newSlot;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsState(State state) {
+        int vertexIndex = state.getVertex().getIndex();
+        if (vertexIndex >= head.length) return false;
+        for (int slot = head[vertexIndex]; slot != 0; slot = slotNext[slot]) {
+            if (slotStates[slot] == state) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        int vertexIndex = dest.getIndex();
+        if (vertexIndex >= head.length) return null;
+        State ret = null;
+        for (int slot = head[vertexIndex]; slot != 0; slot = slotNext[slot]) {
+            State s = slotStates[slot];
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Unlike the general implementation, this returns a copy of the states at the given vertex rather than the
+     * internal list itself, since there is no such list.
+     */
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int vertexIndex = dest.getIndex();
+        if (vertexIndex >= head.length || head[vertexIndex] == 0) return null;
+        List<State> states = new ArrayList<>(2);
+        for (int slot = head[vertexIndex]; slot != 0; slot = slotNext[slot]) {
+            states.add(slotStates[slot]);
+        }
+        return states;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = new HashSet<>(nReachedVertices * 2);
+        for (int i = 0; i < nReachedVertices; i++) {
+            int slot = head[reachedVertices[i]];
+            if (slot != 0) vertices.add(slotStates[slot].getVertex());
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        // A vertex that has been reached always keeps at least one state, since a state is only removed when it is
+        // replaced by a dominating one.
+        return nReachedVertices;
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<State>(nReachedVertices);
+        for (int i = 0; i < nReachedVertices; i++) {
+            for (int slot = head[reachedVertices[i]]; slot != 0; slot = slotNext[slot]) {
+                allStates.add(slotStates[slot]);
+            }
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        Multiset<Integer> histogram = HashMultiset.create();
+        int statesCount = 0;
+        int maxSize = 0;
+        for (int i = 0; i < nReachedVertices; i++) {
+            int size = 0;
+            for (int slot = head[reachedVertices[i]]; slot != 0; slot = slotNext[slot]) size++;
+            histogram.add(size);
+            statesCount += size;
+            if (size > maxSize) {
+                maxSize = size;
+            }
+        }
+        LOG.info("SPT: vertices: " + nReachedVertices + " states: total: "
+                + statesCount + " per vertex max: " + maxSize + " avg: "
+                + (statesCount * 1.0 / nReachedVertices) + " slots used: " + nSlots);
+        List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
+        Collections.sort(nStates);
+        for (Integer nState : nStates) {
+            LOG.info(nState + " states: " + histogram.count(nState) + " vertices.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedShortestPathTree(" + nReachedVertices + " vertices)";
+    }
+
+    /** Store the given state in a recycled or new slot, and return that slot number. */
+    private int newSlot(State state) {
+        int slot;
+        if (freeSlot != 0) {
+            slot = freeSlot;
+            freeSlot = slotNext[slot];
+        } else {
+            if (nSlots == slotStates.length) {
+                int newLength = slotStates.length * 2;
+                slotStates = Arrays.copyOf(slotStates, newLength);
+                slotNext = Arrays.copyOf(slotNext, newLength);
+            }
+            slot = nSlots++;
+        }
+        slotStates[slot] = state;
+        slotNext[slot] = 0;
+        return slot;
+    }
+
+    /** Release a slot whose state has been dominated, so that the state can be garbage collected. */
+    private void freeSlot(int slot) {
+        slotStates[slot] = null;
+        slotNext[slot] = freeSlot;
+        freeSlot = slot;
+    }
+
+}
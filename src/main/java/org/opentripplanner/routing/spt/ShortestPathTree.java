@@ -35,6 +35,9 @@ import java.util.*;
  * Note that turn restrictions make all searches multi-state; however turn restrictions do not apply when walking.
  * The turn restriction handling is done in the base dominance function implementation, and applies to all subclasses.
  * It essentially splits each vertex into N vertices depending on the incoming edge being taken.
+ *
+ * IndexedShortestPathTree is a drop-in replacement with the same semantics that stores states in arrays indexed by
+ * vertex index instead of a map, which avoids hashing and per-vertex list allocation in large searches.
  */
 public class ShortestPathTree {
 
@@ -214,14 +217,20 @@ public class ShortestPathTree {
      * @return - whether this state is still considered worth visiting.
      */
     public boolean visit(State state) {
-        boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
-            if (s == state) {
-                ret = true;
-                break;
-            }
+        return containsState(state);
+    }
+
+    /**
+     * @return whether the given state (not just an equal one) is among the states kept at its vertex. Unlike checking
+     * the list returned by getStates, this never allocates.
+     */
+    public boolean containsState(State state) {
+        List<State> states = stateSets.get(state.getVertex());
+        if (states == null) return false;
+        for (State s : states) {
+            if (s == state) return true;
         }
-        return ret;
+        return false;
     }
 
     /** @return every state in this tree */
@@ -1,5 +1,6 @@
 package org.opentripplanner.standalone;
 
+import org.opentripplanner.graph_builder.module.osm.OSMNodeStore;
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
 import org.opentripplanner.routing.impl.DefaultFareServiceFactory;
 import org.opentripplanner.routing.services.FareServiceFactory;
@@ -112,6 +113,40 @@ public class GraphBuilderParameters {
      */
     public boolean staticBikeParkAndRide = false;
 
+    /**
+     * Save the graph as a sectioned file, in which the street network is stored in packed columns that are read in
+     * parallel, rather than as a single Java serialization stream. Such files load several times faster.
+     */
+    public final boolean sectionedGraphFile;
+
+    /**
+     * Build contraction hierarchies of the street network for car and bicycle routing, which answer requests without
+     * transit much faster at the cost of a longer build and a larger graph.
+     */
+    public final boolean contractionHierarchies;
+
+    /**
+     * Where to keep the OSM nodes used in ways while building the street network: HEAP, OFF_HEAP (direct memory) or
+     * MAPPED_FILE (a memory-mapped temporary file). The last two allow building regions too large for the heap.
+     */
+    public final OSMNodeStore.Type osmNodeStore;
+
+    /**
+     * Run graph builder modules concurrently when their declared prerequisites and products allow it, for instance
+     * loading GTFS while OSM is being read. Modules whose effects are not declared still run one at a time.
+     * Vertices created by concurrent modules are interleaved, so vertex indexes differ from one build to the next. A
+     * stop tree cache saved for one build will then fail its vertex fingerprint check against another build of the
+     * same inputs and be recomputed.
+     */
+    public final boolean parallelModules;
+
+    /**
+     * Save the street graph (OSM with islands pruned and elevation applied) in the cache directory, keyed on a hash of
+     * the OSM and DEM files and this configuration, and reuse it in later builds with the same inputs so that only
+     * transit is rebuilt when only GTFS changes.
+     */
+    public final boolean streetGraphCache;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -138,6 +173,11 @@ public class GraphBuilderParameters {
         staticParkAndRide = config.path("staticParkAndRide").asBoolean(true);
         staticBikeParkAndRide = config.path("staticBikeParkAndRide").asBoolean(false);
         maxHtmlAnnotationsPerFile = config.path("maxHtmlAnnotationsPerFile").asInt(1000);
+        sectionedGraphFile = config.path("sectionedGraphFile").asBoolean(false);
+        contractionHierarchies = config.path("contractionHierarchies").asBoolean(false);
+        osmNodeStore = OSMNodeStore.Type.valueOf(config.path("osmNodeStore").asText("HEAP").toUpperCase());
+        parallelModules = config.path("parallelModules").asBoolean(false);
+        streetGraphCache = config.path("streetGraphCache").asBoolean(false);
     }
 
 }
@@ -92,6 +92,7 @@ public class OTPApplication extends Application {
             GraphInspectorTileResource.class,
             ScriptResource.class,
             UpdaterStatusResource.class,
+            MetricsResource.class,
             ScenarioResource.class,
             RepeatedRaptorTestResource.class,
             /* Features and Filters: extend Jersey, manipulate requests and responses. */
@@ -7,7 +7,11 @@ import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.TransitLowerBounds;
+import org.opentripplanner.routing.impl.RaptorPathFinder;
+import org.opentripplanner.routing.impl.StreetSearchCache;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
 import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +50,12 @@ public class Router {
     /** Storage for non-descructive alternatives analysis scenarios. */
     public ScenarioStore scenarioStore = new ScenarioStore();
 
+    /** If set, transit itineraries are planned with a single multi-criteria RAPTOR search instead of repeated A*. */
+    public RaptorPathFinder raptorPathFinder = null;
+
+    /** Counters and histograms of the trip planning requests made to this router, for the metrics API. */
+    public final RoutingMetrics routingMetrics = new RoutingMetrics();
+
     public Router(String id, Graph graph) {
         this.id = id;
         this.graph = graph;
@@ -110,6 +120,35 @@ public class Router {
         }
         LOG.info("Timeouts for router '{}': {}", this.id, this.timeouts);
 
+        /* Optionally freeze the street network into primitive arrays for faster street searches. */
+        if (config.path("compactStreetGraph").asBoolean(false)) {
+            LOG.info("Building compact street graph for router '{}'.", this.id);
+            this.graph.buildCompactStreetGraph();
+        }
+
+        /* Optionally precompute transit lower bounds, replacing the per-request backward transit search. */
+        JsonNode transitLowerBounds = config.path("transitLowerBounds");
+        if (transitLowerBounds.asBoolean(false) || transitLowerBounds.isInt()) {
+            int nLandmarks = transitLowerBounds.isInt() ?
+                    transitLowerBounds.asInt() : TransitLowerBounds.DEFAULT_LANDMARKS;
+            LOG.info("Building transit lower bounds with {} landmarks for router '{}'.", nLandmarks, this.id);
+            this.graph.buildTransitLowerBounds(nLandmarks);
+        }
+
+        /* Optionally plan transit itineraries with multi-criteria RAPTOR, building timetables on first use. */
+        if (config.path("raptorPlanner").asBoolean(false)) {
+            LOG.info("Planning transit itineraries with McRAPTOR for router '{}'.", this.id);
+            this.raptorPathFinder = new RaptorPathFinder(this.graph);
+        }
+
+        /* Optionally resize or disable the cache of walking searches around request origins and destinations. */
+        JsonNode streetSearchCacheSize = config.path("streetSearchCacheSize");
+        if (streetSearchCacheSize.isNumber()) {
+            long maxVertices = streetSearchCacheSize.asLong();
+            LOG.info("Caching street searches of up to {} vertices in total for router '{}'.", maxVertices, this.id);
+            this.graph.streetSearchCache = maxVertices > 0 ? new StreetSearchCache(maxVertices) : null;
+        }
+
         /* Create Graph updater modules from JSON config. */
         GraphUpdaterConfigurator.setupGraph(this.graph, config);
 
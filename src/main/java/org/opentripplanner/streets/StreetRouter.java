@@ -7,7 +7,7 @@ import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +32,8 @@ public class StreetRouter {
 
     TIntObjectMap<State> bestStates = new TIntObjectHashMap<>();
 
-    BinHeap<State> queue = new BinHeap<>();
+    /** There is only one state per vertex, so queued states are keyed on their vertex and updated in place. */
+    IndexedBinHeap<State> queue = new IndexedBinHeap<>();
 
     boolean goalDirection = false;
 
@@ -108,8 +109,8 @@ public class StreetRouter {
         startState1.weight = split.distance1_mm / 1000;
         bestStates.put(split.vertex0, startState0);
         bestStates.put(split.vertex1, startState1);
-        queue.insert(startState0, startState0.weight);
-        queue.insert(startState1, startState1.weight);
+        queue.insert_or_dec_key(split.vertex0, startState0, startState0.weight);
+        queue.insert_or_dec_key(split.vertex1, startState1, startState1.weight);
     }
 
     public void setOrigin (int fromVertex) {
@@ -117,7 +118,7 @@ public class StreetRouter {
         queue.reset();
         State startState = new State(fromVertex, -1, null);
         bestStates.put(fromVertex, startState);
-        queue.insert(startState, 0);
+        queue.insert_or_dec_key(fromVertex, startState, 0);
     }
 
     /**
@@ -175,9 +176,10 @@ public class StreetRouter {
                 State existingBest = bestStates.get(s1.vertex);
                 if (existingBest == null || existingBest.weight > s1.weight) {
                     bestStates.put(s1.vertex, s1);
+                    // Replaces any state already queued at this vertex, which has just been dominated.
+                    int remainingWeight = goalDirection ? heuristic(s1) : 0;
+                    queue.insert_or_dec_key(s1.vertex, s1, s1.weight + remainingWeight);
                 }
-                int remainingWeight = goalDirection ? heuristic(s1) : 0;
-                queue.insert(s1, s1.weight + remainingWeight);
                 return true; // Iteration over edges should continue.
             });
         }
@@ -107,6 +107,9 @@ public class TimetableSnapshotSource {
 
     protected long lastSnapshotTime = -1;
 
+    /** The time in milliseconds when the current snapshot was committed, or -1 if none has been yet. */
+    private volatile long lastCommitTime = -1;
+
     private final TimeZone timeZone;
 
     private GraphIndex graphIndex;
@@ -151,12 +154,18 @@ public class TimetableSnapshotSource {
         return snapshotToReturn;
     }
 
+    /** @return the time in milliseconds when the current snapshot was committed, or -1 if none has been yet. */
+    public long getLastCommitTime() {
+        return lastCommitTime;
+    }
+
     private TimetableSnapshot getTimetableSnapshot(boolean force) {
         long now = System.currentTimeMillis();
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                lastCommitTime = System.currentTimeMillis();
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
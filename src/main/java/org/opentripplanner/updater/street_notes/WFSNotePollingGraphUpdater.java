@@ -164,6 +164,7 @@ public abstract class WFSNotePollingGraphUpdater extends PollingGraphUpdater {
     private class WFSGraphWriter implements GraphWriterRunnable {
         public void run(Graph graph) {
             notesSource.setNotes(notesForEdge);
+            if (graph.streetSearchCache != null) graph.streetSearchCache.invalidate();
         }
     }
 
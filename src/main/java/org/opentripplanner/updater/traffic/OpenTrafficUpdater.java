@@ -76,6 +76,7 @@ public class OpenTrafficUpdater extends PollingGraphUpdater {
 
         graphUpdaterManager.execute(graph -> {
             graph.streetSpeedSource.setSnapshot(new StreetSpeedSnapshot(speedIndex));
+            if (graph.streetSearchCache != null) graph.streetSearchCache.invalidate();
         });
     }
 
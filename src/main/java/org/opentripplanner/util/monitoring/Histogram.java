@@ -0,0 +1,104 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (durations, counts) with fixed buckets, which can be added to by many threads at
+ * once without locking. Each bucket counts the values up to and including its upper bound and above the bound of the
+ * previous bucket, and a last bucket counts the values above all bounds.
+ *
+ * Reads are not atomic across buckets: a snapshot taken while values are being added may include some of them in the
+ * count and not in the sum, which is fine for monitoring.
+ */
+public class Histogram {
+
+    /** Bounds for durations in milliseconds, from one millisecond to a minute. */
+    public static final long[] MILLISECOND_BOUNDS =
+            { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000 };
+
+    /** Bounds for counts of things such as search states, from ten to ten million. */
+    public static final long[] COUNT_BOUNDS =
+            { 10, 100, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000, 10000000 };
+
+    private final long[] bounds;
+
+    private final AtomicLongArray counts;
+
+    private final LongAdder sum = new LongAdder();
+
+    /** @param bounds the upper bounds of the buckets, in increasing order. */
+    public Histogram(long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Histogram bounds must be increasing.");
+            }
+        }
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void add(long value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        // When the value is not a bound, binarySearch returns (-(insertion point) - 1).
+        if (bucket < 0) bucket = -bucket - 1;
+        counts.incrementAndGet(bucket);
+        sum.add(value);
+    }
+
+    /** @return the upper bounds of the buckets, not including the last one which has no bound. */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /** @return the number of values in each bucket, the last one being for values above all bounds. */
+    public long[] getCounts() {
+        long[] ret = new long[counts.length()];
+        for (int i = 0; i < ret.length; i++) ret[i] = counts.get(i);
+        return ret;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) count += counts.get(i);
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @param fraction a fraction between 0 and 1, for instance 0.99 for the 99th percentile.
+     * @return the upper bound of the bucket holding the given percentile, Long.MAX_VALUE if that is the last bucket,
+     * or 0 if there are no values.
+     */
+    public long getPercentileBound(double fraction) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long c : snapshot) total += c;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return bounds[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+}
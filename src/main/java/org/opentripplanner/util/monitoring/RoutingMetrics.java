@@ -0,0 +1,76 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.util.monitoring;
+
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.routing.error.PathNotFoundException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of the trip planning requests made to one router, taken from the DebugOutput of each request
+ * once it has been answered. Unlike the MonitoringStore, which holds a few named values behind a lock, this is updated
+ * by every request without contention and is read by the metrics API.
+ */
+public class RoutingMetrics {
+
+    public final long startTime = System.currentTimeMillis();
+
+    public final LongAdder requests = new LongAdder();
+
+    /** Requests for which at least one search ran out of time, whether or not itineraries were found. */
+    public final LongAdder timeouts = new LongAdder();
+
+    public final LongAdder pathsNotFound = new LongAdder();
+
+    /** Requests that failed for any other reason, such as an invalid parameter or a location off the street network. */
+    public final LongAdder errors = new LongAdder();
+
+    public final Histogram statesVisited = new Histogram(Histogram.COUNT_BOUNDS);
+
+    /** Time spent setting up the remaining weight heuristic, in milliseconds. */
+    public final Histogram heuristicMillis = new Histogram(Histogram.MILLISECOND_BOUNDS);
+
+    /** Time spent searching once the heuristic was ready, in milliseconds. */
+    public final Histogram searchMillis = new Histogram(Histogram.MILLISECOND_BOUNDS);
+
+    /** Time spent turning paths into itineraries, in milliseconds. */
+    public final Histogram renderingMillis = new Histogram(Histogram.MILLISECOND_BOUNDS);
+
+    public final Histogram totalMillis = new Histogram(Histogram.MILLISECOND_BOUNDS);
+
+    /**
+     * Record a request once it has been answered.
+     * @param debugOutput the debug output of the request, or null if it failed before a routing context was made.
+     * @param error the exception thrown while answering the request, or null if itineraries were found.
+     */
+    public void record(DebugOutput debugOutput, Exception error) {
+        requests.increment();
+        if (error instanceof PathNotFoundException) {
+            pathsNotFound.increment();
+        } else if (error != null) {
+            errors.increment();
+        }
+        if (debugOutput == null) return;
+        if (debugOutput.timedOut) timeouts.increment();
+        statesVisited.add(debugOutput.statesVisited);
+        if (debugOutput.isSummarized()) {
+            heuristicMillis.add(debugOutput.precalculationTime);
+            searchMillis.add(debugOutput.pathCalculationTime);
+            renderingMillis.add(debugOutput.renderingTime);
+            totalMillis.add(debugOutput.totalTime);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.opentripplanner.analyst.broker;
+
+import org.glassfish.grizzly.http.server.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+import org.opentripplanner.analyst.cluster.AnalystWorker;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Hands tasks to a mocked worker connection, to check how the broker tracks tasks around the write to the worker.
+ */
+public class BrokerDeliveryTest {
+
+    private static final String GRAPH_ID = "GRAPH";
+    private static final String JOB_ID = "JOB";
+
+    private Broker broker;
+
+    @Before
+    public void setUp () {
+        Properties config = new Properties();
+        config.setProperty("graphs-bucket", "FAKE");
+        config.setProperty("pointsets-bucket", "FAKE");
+        config.setProperty("work-offline", "true");
+        broker = new Broker(config, "localhost", 9001);
+        AnalystClusterRequest task = new AnalystClusterRequest();
+        task.graphId = GRAPH_ID;
+        task.jobId = JOB_ID;
+        broker.enqueueTasks(Arrays.asList(task));
+    }
+
+    /** A worker that reports its task complete before the broker has returned from delivering it. */
+    @Test
+    public void testCompletionBeforeDeliveryReturns () throws Exception {
+        Job job = broker.findJob(JOB_ID);
+        int taskId = job.tasksById.keys()[0];
+        Response worker = worker(true);
+        doAnswer(invocation -> broker.markTaskCompleted(taskId)).when(worker).resume();
+
+        broker.registerSuspendedResponse(GRAPH_ID, worker);
+
+        assertTrue(job.isComplete());
+        assertTrue(job.invisibleUntil.isEmpty());
+        assertTrue(job.tasksAwaitingDelivery.isEmpty());
+        assertEquals(0, broker.nUndeliveredTasks.get());
+    }
+
+    /** A worker whose connection has closed must not take the task with it. */
+    @Test
+    public void testClosedConnection () {
+        Job job = broker.findJob(JOB_ID);
+
+        broker.registerSuspendedResponse(GRAPH_ID, worker(false));
+
+        assertFalse(job.isComplete());
+        assertTrue(job.invisibleUntil.isEmpty());
+        assertEquals(1, job.tasksAwaitingDelivery.size());
+        assertEquals(1, broker.nUndeliveredTasks.get());
+    }
+
+    private static Response worker (boolean connectionOpen) {
+        Response response = mock(Response.class, RETURNS_DEEP_STUBS);
+        when(response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER)).thenReturn("worker");
+        when(response.getRequest().getRequest().getConnection().isOpen()).thenReturn(connectionOpen);
+        return response;
+    }
+
+}
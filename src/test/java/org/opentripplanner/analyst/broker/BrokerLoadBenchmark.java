@@ -0,0 +1,77 @@
+package org.opentripplanner.analyst.broker;
+
+import org.opentripplanner.analyst.cluster.AnalystWorker;
+import org.opentripplanner.analyst.cluster.JobSimulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+
+/**
+ * This is not an automatic unit test. It is a load benchmark that must be started manually, in the same way as
+ * RedeliveryTest. It starts a broker and a growing number of local dry-run workers (which report every task complete
+ * without doing any work), and for each worker count has JobSimulator submit a job, timing how long the broker takes
+ * to hand out and collect every task. Since the workers do no work, this measures how task throughput through the
+ * broker scales with the number of workers polling it.
+ */
+public class BrokerLoadBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerLoadBenchmark.class);
+    static final int N_TASKS = 5000;
+    static final int[] WORKER_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] params) {
+
+        // Start a broker in a new thread.
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("graphs-bucket", "FAKE");
+        brokerConfig.setProperty("pointsets-bucket", "FAKE");
+        brokerConfig.setProperty("work-offline", "true");
+        BrokerMain brokerMain = new BrokerMain(brokerConfig);
+        Thread brokerThread = new Thread(brokerMain);
+        brokerThread.setDaemon(true);
+        brokerThread.start();
+
+        Properties workerConfig = new Properties();
+        workerConfig.setProperty("initial-graph-id", "GRAPH");
+        workerConfig.setProperty("raptor-data-cache", "none");
+
+        // Workers cannot be stopped, so rather than starting over for each round we add workers up to the next count.
+        int nWorkers = 0;
+        StringBuilder summary = new StringBuilder();
+        for (int targetWorkers : WORKER_COUNTS) {
+            for (; nWorkers < targetWorkers; nWorkers++) {
+                AnalystWorker worker = new AnalystWorker(workerConfig);
+                worker.dryRunFailureRate = 0;
+                Thread workerThread = new Thread(worker);
+                workerThread.setDaemon(true);
+                workerThread.start();
+            }
+
+            long startTime = System.currentTimeMillis();
+            JobSimulator jobSimulator = new JobSimulator();
+            jobSimulator.nOrigins = N_TASKS;
+            jobSimulator.graphId = "GRAPH";
+            jobSimulator.sendFakeJob();
+
+            // Wait for all tasks to be marked finished
+            while (brokerMain.broker.anyJobsActive()) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            long elapsed = System.currentTimeMillis() - startTime;
+            String result = String.format("%d workers: %d tasks in %d ms, %.1f tasks/sec",
+                    nWorkers, N_TASKS, elapsed, N_TASKS * 1000.0 / elapsed);
+            LOG.info(result);
+            summary.append(result).append('\n');
+        }
+
+        System.out.println(summary);
+        System.exit(0);
+    }
+
+}
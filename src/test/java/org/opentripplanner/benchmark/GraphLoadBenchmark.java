@@ -0,0 +1,66 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare loading the Columbus test graph (with transit) from a single Java serialization stream and from a
+ * sectioned graph file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GraphLoadBenchmark {
+
+    @Param({"false", "true"})
+    public boolean sectioned;
+
+    private File graphFile;
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransit(graph);
+        FakeGraph.link(graph);
+        graphFile = File.createTempFile("graph", ".obj");
+        graph.save(graphFile, sectioned);
+    }
+
+    @TearDown
+    public void tearDown () {
+        graphFile.delete();
+    }
+
+    /** @return the number of edges loaded, so that the load cannot be optimized away. */
+    @Benchmark
+    public int load () throws Exception {
+        Graph graph = Graph.load(graphFile, Graph.LoadLevel.FULL);
+        return graph.countEdges();
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GraphLoadBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
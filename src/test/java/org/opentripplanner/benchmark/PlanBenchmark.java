@@ -0,0 +1,107 @@
+package org.opentripplanner.benchmark;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.standalone.Router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plan point-to-point trips with the A* search of the GraphPathFinder, as the trip planner API does, between random
+ * points of the Columbus test graph with transit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PlanBenchmark {
+
+    private static final int N_PAIRS = 20;
+
+    @Param({"WALK", "WALK,TRANSIT"})
+    public String modes;
+
+    private Router router;
+
+    private long dateTime;
+
+    private List<GenericLocation> origins = new ArrayList<>();
+
+    private List<GenericLocation> destinations = new ArrayList<>();
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        router = new Router("default", graph);
+        // just before the morning service of the test feed
+        dateTime = new LocalDateTime(2015, 9, 17, 7, 50)
+                .toDateTime(DateTimeZone.forTimeZone(graph.getTimeZone())).getMillis() / 1000;
+
+        List<Vertex> intersections = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof IntersectionVertex) intersections.add(v);
+        }
+        // fixed seed so that every run of the benchmark plans between the same points
+        Random random = new Random(42);
+        for (int i = 0; i < N_PAIRS; i++) {
+            Vertex from = intersections.get(random.nextInt(intersections.size()));
+            Vertex to = intersections.get(random.nextInt(intersections.size()));
+            origins.add(new GenericLocation(from.getLat(), from.getLon()));
+            destinations.add(new GenericLocation(to.getLat(), to.getLon()));
+        }
+    }
+
+    /** @return the total number of paths found, so that the searches cannot be optimized away. */
+    @Benchmark
+    public int plan () {
+        int nPaths = 0;
+        for (int i = 0; i < N_PAIRS; i++) {
+            RoutingRequest options = new RoutingRequest(modes);
+            options.from = origins.get(i);
+            options.to = destinations.get(i);
+            options.dateTime = dateTime;
+            options.numItineraries = 1;
+            options.maxWalkDistance = 2000;
+            List<GraphPath> paths = new GraphPathFinder(router).getPaths(options);
+            nPaths += paths.size();
+            options.cleanup();
+        }
+        return nPaths;
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PlanBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
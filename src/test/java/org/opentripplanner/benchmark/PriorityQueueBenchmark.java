@@ -0,0 +1,199 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the plain BinHeap (which enqueues every improved state and discards dominated ones as they come out of
+ * the queue) with the decrease-key IndexedBinHeap. The heaps are first filled and drained in isolation from any
+ * search, with keys drawn so that, like the weights of a search, most new keys are a little above the last key taken
+ * out. They are then compared on point-to-point street searches over the Columbus test graph. The parameters of each
+ * kind of benchmark are held in a separate state, so they do not multiply the runs of the other kind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PriorityQueueBenchmark {
+
+    private static final int N_PAIRS = 20;
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+
+        @Param({"1000", "100000"})
+        public int size;
+
+        /** If true use an IndexedBinHeap, inserting every element under its own index. */
+        @Param({"false", "true"})
+        public boolean indexed;
+
+        private double[] increments;
+
+        @Setup
+        public void setup () {
+            // fixed seed so that every run of the benchmark uses the same keys
+            Random random = new Random(42);
+            increments = new double[size];
+            for (int i = 0; i < size; i++) increments[i] = random.nextDouble() * 100;
+        }
+
+        Heap newHeap () {
+            if (indexed) {
+                IndexedBinHeap<Integer> heap = new IndexedBinHeap<>(1000, size + 1);
+                return new Heap() {
+                    @Override
+                    public void insert (int i, double key) {
+                        heap.insert_or_dec_key(i, i, key);
+                    }
+
+                    @Override
+                    public double extractMinKey () {
+                        double key = heap.peek_min_key();
+                        heap.extract_min();
+                        return key;
+                    }
+
+                    @Override
+                    public boolean empty () {
+                        return heap.empty();
+                    }
+                };
+            }
+            BinHeap<Integer> heap = new BinHeap<>();
+            return new Heap() {
+                @Override
+                public void insert (int i, double key) {
+                    heap.insert(i, key);
+                }
+
+                @Override
+                public double extractMinKey () {
+                    double key = heap.peek_min_key();
+                    heap.extract_min();
+                    return key;
+                }
+
+                @Override
+                public boolean empty () {
+                    return heap.empty();
+                }
+            };
+        }
+    }
+
+    /** The operations common to both heaps. */
+    interface Heap {
+        void insert (int i, double key);
+        double extractMinKey ();
+        boolean empty ();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Searches {
+
+        @Param({"WALK", "CAR"})
+        public TraverseMode mode;
+
+        @Param({"true", "false"})
+        public boolean decreaseKey;
+
+        private Graph graph;
+
+        private List<Vertex> origins = new ArrayList<>();
+
+        private List<Vertex> destinations = new ArrayList<>();
+
+        @Setup
+        public void setup () throws Exception {
+            graph = FakeGraph.buildGraphNoTransit();
+            List<Vertex> intersections = new ArrayList<>();
+            for (Vertex v : graph.getVertices()) {
+                if (v instanceof IntersectionVertex) intersections.add(v);
+            }
+            // fixed seed so that every run of the benchmark searches between the same points
+            Random random = new Random(42);
+            for (int i = 0; i < N_PAIRS; i++) {
+                origins.add(intersections.get(random.nextInt(intersections.size())));
+                destinations.add(intersections.get(random.nextInt(intersections.size())));
+            }
+        }
+    }
+
+    /** Insert all keys up front, then take them all out. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double fillThenDrain (Keys keys) {
+        Heap heap = keys.newHeap();
+        for (int i = 0; i < keys.size; i++) heap.insert(i, keys.increments[i]);
+        double sum = 0;
+        while (!heap.empty()) sum += heap.extractMinKey();
+        return sum;
+    }
+
+    /** Take out one key and insert two keys above it at each step, as a search expanding vertices does. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double interleaved (Keys keys) {
+        Heap heap = keys.newHeap();
+        heap.insert(keys.size, 0);
+        double sum = 0;
+        for (int i = 0; i + 1 < keys.size; i += 2) {
+            double key = heap.extractMinKey();
+            sum += key;
+            heap.insert(i, key + keys.increments[i]);
+            heap.insert(i + 1, key + keys.increments[i + 1]);
+        }
+        return sum;
+    }
+
+    /** @return the total number of vertices reached, so that the searches cannot be optimized away. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int pointToPoint (Searches searches) {
+        int nVertices = 0;
+        for (int i = 0; i < N_PAIRS; i++) {
+            RoutingRequest options = new RoutingRequest(searches.mode);
+            options.dominanceFunction = new DominanceFunction.MinimumWeight();
+            options.decreaseKey = searches.decreaseKey;
+            options.setRoutingContext(searches.graph, searches.origins.get(i), searches.destinations.get(i));
+            ShortestPathTree spt = new AStar().getShortestPathTree(options);
+            nVertices += spt.getVertexCount();
+            options.cleanup();
+        }
+        return nVertices;
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PriorityQueueBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.profile.PropagatedTimesStore;
+import org.opentripplanner.profile.RaptorWorker;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarize the travel times of every departure minute of a two hour window to many targets, as done at the end of
+ * each profile request, with each way of calculating the spread of travel times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PropagatedTimesStoreBenchmark {
+
+    private static final int N_MINUTES = 120;
+
+    private static final int N_TARGETS = 20000;
+
+    @Param({"MIN_MAX", "PERCENTILE", "BOOTSTRAP"})
+    public PropagatedTimesStore.ConfidenceCalculationMethod method;
+
+    private int[][] times;
+
+    @Setup
+    public void setup () {
+        // fixed seed so that every run of the benchmark summarizes the same times
+        Random random = new Random(42);
+        times = new int[N_MINUTES][N_TARGETS];
+        for (int target = 0; target < N_TARGETS; target++) {
+            // a tenth of the targets are not reached at all, the others are unreached at some minutes
+            boolean reached = random.nextInt(10) > 0;
+            int base = 600 + random.nextInt(3600);
+            for (int minute = 0; minute < N_MINUTES; minute++) {
+                times[minute][target] = reached && random.nextInt(20) > 0 ?
+                        base + random.nextInt(900) : RaptorWorker.UNREACHED;
+            }
+        }
+    }
+
+    /** @return the average time to one target, so that the calculation cannot be optimized away. */
+    @Benchmark
+    public int setFromArray () {
+        PropagatedTimesStore store = new PropagatedTimesStore(null, N_TARGETS);
+        store.setFromArray(times, method);
+        return store.avgs[N_TARGETS / 2];
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PropagatedTimesStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.opentripplanner.benchmark;
+
+import gnu.trove.map.TIntIntMap;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.profile.PropagatedTimesStore;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorker;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run the repeated RAPTOR searches of a profile request over a two hour departure window on the Columbus test graph
+ * with transit, from stops found and tables built beforehand, so that only RaptorWorker.runRaptor is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RaptorWorkerBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Graph graph;
+
+    private ProfileRequest request;
+
+    private RaptorWorkerData data;
+
+    private TIntIntMap accessTimes;
+
+    private int[] nonTransitTimes;
+
+    @Setup
+    public void setup () throws Exception {
+        graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        request = new ProfileRequest();
+        request.date = new LocalDate(2015, 9, 17);
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.fromLat = request.toLat = 39.9908;
+        request.fromLon = request.toLon = -83.0118;
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        request.transitModes = new TraverseModeSet("TRANSIT");
+
+        data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null, new TaskStatistics());
+        accessTimes = new RepeatedRaptorProfileRouter(graph, request).findInitialStops(false, data);
+        nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+    }
+
+    /** @return the best time to one target, so that the search cannot be optimized away. */
+    @Benchmark
+    public int runRaptor () {
+        RaptorWorker worker = new RaptorWorker(data, request);
+        worker.parallel = parallel;
+        PropagatedTimesStore times = worker.runRaptor(graph, accessTimes, nonTransitTimes, new TaskStatistics());
+        return times.mins[0];
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RaptorWorkerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
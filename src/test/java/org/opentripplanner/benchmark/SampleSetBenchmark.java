@@ -0,0 +1,71 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagate travel times from the vertices of the Columbus test graph to a regular grid of points linked to its
+ * streets, as done for every departure minute of a profile request with a destination point set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleSetBenchmark {
+
+    private static final double GRID_SIZE_METERS = 200;
+
+    private SampleSet sampleSet;
+
+    private int[] times;
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        graph.index(new DefaultStreetVertexIndexFactory());
+        PointSet grid = PointSet.regularGrid(graph.getExtent(), GRID_SIZE_METERS);
+        sampleSet = new SampleSet(grid, graph.getSampleFactory());
+
+        // fixed seed so that every run of the benchmark propagates the same times
+        Random random = new Random(42);
+        times = new int[Vertex.getMaxIndex()];
+        for (int v = 0; v < times.length; v++) {
+            // a tenth of the vertices are not reached
+            times[v] = random.nextInt(10) > 0 ? random.nextInt(7200) : Integer.MAX_VALUE;
+        }
+    }
+
+    /** @return the time at one point, so that the propagation cannot be optimized away. */
+    @Benchmark
+    public int eval () {
+        int[] pointTimes = sampleSet.eval(times);
+        return pointTimes[pointTimes.length / 2];
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SampleSetBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.opentripplanner.benchmark;
+
+import com.google.common.collect.Iterables;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traverse every street edge of the Columbus test graph once, from a state at its start vertex, which is the innermost
+ * step of all street searches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StreetEdgeTraverseBenchmark {
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public TraverseMode mode;
+
+    private List<StreetEdge> edges = new ArrayList<>();
+
+    private List<org.opentripplanner.routing.core.State> states = new ArrayList<>();
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        IntersectionVertex origin = Iterables.getFirst(Iterables.filter(graph.getVertices(), IntersectionVertex.class), null);
+        RoutingRequest options = new RoutingRequest(mode);
+        options.setRoutingContext(graph, origin, origin);
+        for (StreetEdge e : graph.getStreetEdges()) {
+            edges.add(e);
+            states.add(new org.opentripplanner.routing.core.State(e.getFromVertex(), options));
+        }
+    }
+
+    /** @return the number of edges that could be traversed, so that the traversals cannot be optimized away. */
+    @Benchmark
+    public int traverse () {
+        int nTraversed = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            if (edges.get(i).traverse(states.get(i)) != null) nTraversed++;
+        }
+        return nTraversed;
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StreetEdgeTraverseBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.opentripplanner.benchmark;
+
+import com.google.common.collect.Iterables;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search for the next trip at every stop of every pattern in the Columbus test graph with transit, by traversing
+ * the boarding edges in a depart-after search, or the alighting edges in an arrive-by search. This is where
+ * Timetable.getNextTrip is called.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TransitBoardAlightBenchmark {
+
+    @Param({"false", "true"})
+    public boolean arriveBy;
+
+    private List<TransitBoardAlight> edges = new ArrayList<>();
+
+    private List<org.opentripplanner.routing.core.State> states = new ArrayList<>();
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        RoutingRequest options = new RoutingRequest("WALK,TRANSIT");
+        // in the middle of the morning service of the test feed
+        options.dateTime = new LocalDateTime(2015, 9, 17, 8, 0)
+                .toDateTime(DateTimeZone.forTimeZone(graph.getTimeZone())).getMillis() / 1000;
+        options.setArriveBy(arriveBy);
+        TransitStop stop = Iterables.getFirst(Iterables.filter(graph.getVertices(), TransitStop.class), null);
+        options.setRoutingContext(graph, stop, stop);
+        for (TransitBoardAlight e : Iterables.filter(graph.getEdges(), TransitBoardAlight.class)) {
+            // the edges that search for a trip in this direction
+            if (e.boarding == arriveBy) continue;
+            edges.add(e);
+            states.add(new org.opentripplanner.routing.core.State(arriveBy ? e.getToVertex() : e.getFromVertex(),
+                    options));
+        }
+    }
+
+    /** @return the number of edges on which a trip was found, so that the traversals cannot be optimized away. */
+    @Benchmark
+    public int traverse () {
+        int nTraversed = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            if (edges.get(i).traverse(states.get(i)) != null) nTraversed++;
+        }
+        return nTraversed;
+    }
+
+    public static void main (String... args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TransitBoardAlightBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,106 @@
+package org.opentripplanner.common;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PersistentHashMapTest extends TestCase {
+
+    /** A key with a chosen hash code, to exercise keys whose hashes collide partly or entirely. */
+    private static class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).id == id;
+        }
+    }
+
+    /**
+     * Apply random puts and removes to a PersistentHashMap and a HashMap side by side, taking snapshots along the
+     * way, and check that each snapshot still holds exactly what the map held when it was taken.
+     */
+    @Test
+    public void testRandomOperationsAndSnapshots() {
+        Random random = new Random(42);
+        Key[] keys = new Key[2000];
+        for (int i = 0; i < keys.length; i++) {
+            // Few distinct hash codes, so that many keys share some or all of their hash bits.
+            keys[i] = new Key(i, random.nextInt(500) * (1 << 20));
+        }
+
+        PersistentHashMap<Key, Integer> map = new PersistentHashMap<>();
+        Map<Key, Integer> expected = new HashMap<>();
+        List<PersistentHashMap<Key, Integer>> snapshots = new ArrayList<>();
+        List<Map<Key, Integer>> expectedSnapshots = new ArrayList<>();
+
+        for (int op = 0; op < 50000; op++) {
+            Key key = keys[random.nextInt(keys.length)];
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                map.put(key, op);
+                expected.put(key, op);
+            }
+            if (op % 5000 == 0) {
+                snapshots.add(map.snapshot());
+                expectedSnapshots.add(new HashMap<>(expected));
+            }
+        }
+        snapshots.add(map.snapshot());
+        expectedSnapshots.add(new HashMap<>(expected));
+
+        for (int s = 0; s < snapshots.size(); s++) {
+            checkContents(keys, expectedSnapshots.get(s), snapshots.get(s));
+        }
+        checkContents(keys, expected, map);
+    }
+
+    @Test
+    public void testSnapshotIsReadOnly() {
+        PersistentHashMap<String, String> map = new PersistentHashMap<>();
+        map.put("a", "1");
+        PersistentHashMap<String, String> snapshot = map.snapshot();
+        assertTrue(snapshot.isReadOnly());
+        assertFalse(map.isReadOnly());
+        try {
+            snapshot.put("b", "2");
+            fail("A snapshot should not be writable.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        map.put("a", "2");
+        map.clear();
+        assertEquals("1", snapshot.get("a"));
+        assertEquals(1, snapshot.size());
+        assertTrue(map.isEmpty());
+    }
+
+    private static void checkContents(Key[] keys, Map<Key, Integer> expected, PersistentHashMap<Key, Integer> map) {
+        assertEquals(expected.size(), map.size());
+        for (Key key : keys) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<Key, Integer> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+    }
+
+}
@@ -142,5 +142,52 @@ public class TestPQueues extends TestCase {
 		    assertTrue(bh.empty());
 
         }
-    }    
+    }
+
+    /*
+     * Insert each index several times with random keys, keeping only the lowest key per index as a lazy-deletion
+     * BinHeap would, and check that the indexed heap returns each index exactly once in key order.
+     */
+    public void testDecreaseKey() {
+        final int N = 5000;
+        IndexedBinHeap<Integer> ih = new IndexedBinHeap<Integer>(20, 20);
+        double[] best = new double[N];
+        for (int i = 0; i < N; i++) best[i] = Double.POSITIVE_INFINITY;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < N; i++) {
+                double key = Math.random() * 10000;
+                if (key < best[i]) {
+                    best[i] = key;
+                    ih.insert_or_dec_key(i, i, key);
+                }
+            }
+        }
+        // unindexed elements are mixed in alongside the indexed ones
+        ih.insert(-1, -1.0);
+        ih.insert(-2, 20000.0);
+        assertEquals(N + 2, ih.size());
+        assertEquals(Integer.valueOf(-1), ih.extract_min());
+        double lastKey = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < N; i++) {
+            double key = ih.peek_min_key();
+            Integer index = ih.extract_min();
+            assertFalse(ih.contains(index));
+            assertEquals(best[index], key, 0.0);
+            assertTrue(key >= lastKey);
+            lastKey = key;
+        }
+        assertEquals(Integer.valueOf(-2), ih.extract_min());
+        assertTrue(ih.empty());
+        assertNull(ih.extract_min());
+
+        // a higher key moves the element down rather than being ignored
+        ih.insert_or_dec_key(1, 1, 1.0);
+        ih.insert_or_dec_key(2, 2, 2.0);
+        ih.insert_or_dec_key(1, 1, 3.0);
+        assertEquals(Integer.valueOf(2), ih.extract_min());
+        assertEquals(Integer.valueOf(1), ih.extract_min());
+        ih.insert_or_dec_key(3, 3, 3.0);
+        ih.reset();
+        assertFalse(ih.contains(3));
+    }
 }
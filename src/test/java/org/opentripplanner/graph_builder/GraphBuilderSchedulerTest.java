@@ -0,0 +1,133 @@
+package org.opentripplanner.graph_builder;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class GraphBuilderSchedulerTest extends TestCase {
+
+    /** Modules wait only for the earlier modules whose declarations conflict with theirs. */
+    @Test
+    public void testDependencies () {
+        List<GraphBuilderModule> modules = Arrays.asList(
+                new FakeModule(Arrays.asList("streets"), Collections.emptyList()),
+                new FakeModule(Arrays.asList("transit"), Collections.emptyList()),
+                new FakeModule(Arrays.asList("elevation"), Arrays.asList("streets")),
+                new FakeModule(Arrays.asList("linking"), Arrays.asList("transit")),
+                new FakeModule(Collections.emptyList(), Collections.emptyList()),
+                new FakeModule(Arrays.asList("transit"), Collections.emptyList()));
+        GraphBuilderScheduler scheduler = new GraphBuilderScheduler(modules);
+        assertEquals(Collections.emptyList(), scheduler.getDependencies(1));
+        assertEquals(Arrays.asList(0), scheduler.getDependencies(2));
+        assertEquals(Arrays.asList(1), scheduler.getDependencies(3));
+        // A module declaring nothing waits for everything before it, and everything after it waits for it.
+        assertEquals(Arrays.asList(0, 1, 2, 3), scheduler.getDependencies(4));
+        assertEquals(Arrays.asList(1, 3, 4), scheduler.getDependencies(5));
+    }
+
+    /** Independent modules overlap, and each module starts only once the modules it waits for are done. */
+    @Test
+    public void testParallelRun () {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        List<String> finished = Collections.synchronizedList(new ArrayList<>());
+        List<GraphBuilderModule> modules = new ArrayList<>();
+        modules.add(new FakeModule(Arrays.asList("streets"), Collections.emptyList()) {
+            @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+                awaitBoth(bothStarted);
+                extra.put(String.class, "streets");
+                finished.add("streets");
+            }
+        });
+        modules.add(new FakeModule(Arrays.asList("transit"), Collections.emptyList()) {
+            @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+                awaitBoth(bothStarted);
+                finished.add("transit");
+            }
+        });
+        modules.add(new FakeModule(Arrays.asList("linking"), Arrays.asList("streets", "transit")) {
+            @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+                assertEquals(2, finished.size());
+                assertEquals("streets", extra.get(String.class));
+                finished.add("linking");
+            }
+        });
+        BuildReport report = new GraphBuilderScheduler(modules).run(new Graph(), true);
+        assertEquals(3, finished.size());
+        assertEquals("linking", finished.get(2));
+        assertEquals(3, report.modules.size());
+        for (BuildReport.ModuleReport moduleReport : report.modules) {
+            assertTrue(moduleReport.completed);
+            assertTrue(moduleReport.peakHeapBytes > 0);
+        }
+    }
+
+    /** A failing module stops the build, and the modules waiting for it are never run. */
+    @Test
+    public void testFailure () {
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        List<GraphBuilderModule> modules = new ArrayList<>();
+        modules.add(new FakeModule(Arrays.asList("streets"), Collections.emptyList()) {
+            @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+                throw new IllegalStateException("no streets");
+            }
+        });
+        modules.add(new FakeModule(Arrays.asList("elevation"), Arrays.asList("streets")) {
+            @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+                ran.add("elevation");
+            }
+        });
+        for (boolean parallel : new boolean[] { false, true }) {
+            try {
+                new GraphBuilderScheduler(modules).run(new Graph(), parallel);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("no streets", e.getMessage());
+            }
+        }
+        assertTrue(ran.isEmpty());
+    }
+
+    private static void awaitBoth (CountDownLatch latch) {
+        latch.countDown();
+        try {
+            assertTrue("Independent modules did not run concurrently", latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class FakeModule implements GraphBuilderModule {
+
+        private final List<String> provides;
+
+        private final List<String> prerequisites;
+
+        FakeModule (List<String> provides, List<String> prerequisites) {
+            this.provides = provides;
+            this.prerequisites = prerequisites;
+        }
+
+        @Override public List<String> provides() {
+            return provides;
+        }
+
+        @Override public List<String> getPrerequisites() {
+            return prerequisites;
+        }
+
+        @Override public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) { }
+
+        @Override public void checkInputs() { }
+
+    }
+
+}
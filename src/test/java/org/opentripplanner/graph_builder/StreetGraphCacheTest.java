@@ -0,0 +1,75 @@
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
+
+public class StreetGraphCacheTest extends TestCase {
+
+    /** The key depends on the content of the inputs and the configuration, but not on the order of the inputs. */
+    @Test
+    public void testKey () throws Exception {
+        File dir = Files.createTempDir();
+        File osm = new File(dir, "city.osm.pbf");
+        File dem = new File(dir, "city.tif");
+        Files.write(new byte[] { 1, 2, 3 }, osm);
+        Files.write(new byte[] { 4, 5, 6 }, dem);
+        ObjectMapper mapper = new ObjectMapper();
+
+        String key = StreetGraphCache.computeKey(Arrays.asList(osm, dem), mapper.readTree("{}"));
+        assertEquals(key, StreetGraphCache.computeKey(Arrays.asList(dem, osm), mapper.readTree("{}")));
+        assertFalse(key.equals(StreetGraphCache.computeKey(Arrays.asList(osm, dem),
+                mapper.readTree("{\"areaVisibility\": true}"))));
+        Files.write(new byte[] { 1, 2, 4 }, osm);
+        assertFalse(key.equals(StreetGraphCache.computeKey(Arrays.asList(osm, dem), mapper.readTree("{}"))));
+        osm.delete();
+        dem.delete();
+        dir.delete();
+    }
+
+    /** A saved street graph is loaded back for the same inputs, replacing any graph saved for other inputs. */
+    @Test
+    public void testSaveAndLoad () throws Exception {
+        File dir = Files.createTempDir();
+        File input = new File(dir, "city.osm");
+        Files.write(new byte[] { 1 }, input);
+        StreetGraphCache cache = new StreetGraphCache(dir, Arrays.asList(input), null);
+        assertNull(cache.load());
+
+        Graph graph = buildGraphNoTransit();
+        cache.saveModule().checkInputs();
+        cache.saveModule().buildGraph(graph, new HashMap<>());
+        assertTrue(cache.getFile().exists());
+
+        Graph loaded = new StreetGraphCache(dir, Arrays.asList(input), null).load();
+        assertNotNull(loaded);
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+        assertNull(loaded.index);
+
+        // Saving the graph for changed inputs removes the outdated one.
+        Files.write(new byte[] { 2 }, input);
+        StreetGraphCache changed = new StreetGraphCache(dir, Arrays.asList(input), null);
+        assertNull(changed.load());
+        changed.saveModule().buildGraph(graph, new HashMap<>());
+        assertTrue(changed.getFile().exists());
+        assertFalse(cache.getFile().exists());
+
+        // A file that cannot be read is deleted rather than used.
+        Files.write(new byte[] { 0, 1, 2 }, changed.getFile());
+        assertNull(changed.load());
+        assertFalse(changed.getFile().exists());
+
+        input.delete();
+        dir.delete();
+    }
+
+}
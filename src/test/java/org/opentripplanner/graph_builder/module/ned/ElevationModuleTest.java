@@ -0,0 +1,172 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ElevationModuleTest extends TestCase {
+
+    /* The area covered by the test elevation model. */
+    private static final double WEST = -83.1, EAST = -83.0, SOUTH = 39.9, NORTH = 40.0;
+
+    private static final int SIZE = 200;
+
+    /** Sampling the edges from several threads must give exactly the same profiles as sampling them one by one. */
+    @Test
+    public void testParallelSamplingMatchesSequential () throws Exception {
+        File tiff = writeGeotiff();
+
+        Graph sequential = buildGrid(30);
+        ElevationModule sequentialModule = new ElevationModule(new GeotiffGridCoverageFactoryImpl(tiff));
+        sequentialModule.setSampleInParallel(false);
+        sequentialModule.buildGraph(sequential, new HashMap<>());
+
+        Graph parallel = buildGrid(30);
+        new ElevationModule(new GeotiffGridCoverageFactoryImpl(tiff)).buildGraph(parallel, new HashMap<>());
+
+        assertSameProfiles(sequential, parallel);
+    }
+
+    /** A raster too large to copy into memory must be sampled from the file with the same results. */
+    @Test
+    public void testLargeRasterIsNotCopied () throws Exception {
+        File tiff = writeGeotiff();
+
+        Graph inMemory = buildGrid(30);
+        new ElevationModule(new GeotiffGridCoverageFactoryImpl(tiff)).buildGraph(inMemory, new HashMap<>());
+
+        Graph fromFile = buildGrid(30);
+        ElevationModule fromFileModule = new ElevationModule(new GeotiffGridCoverageFactoryImpl(tiff));
+        fromFileModule.setMaxInMemoryBytes(0);
+        fromFileModule.buildGraph(fromFile, new HashMap<>());
+
+        assertSameProfiles(inMemory, fromFile);
+    }
+
+    private static void assertSameProfiles (Graph expectedGraph, Graph actualGraph) {
+        Map<String, StreetWithElevationEdge> expectedEdges = edgesByName(expectedGraph);
+        Map<String, StreetWithElevationEdge> actualEdges = edgesByName(actualGraph);
+        assertEquals(expectedEdges.keySet(), actualEdges.keySet());
+        boolean hilly = false;
+        for (String name : expectedEdges.keySet()) {
+            Coordinate[] expected = expectedEdges.get(name).getElevationProfile().toCoordinateArray();
+            Coordinate[] actual = actualEdges.get(name).getElevationProfile().toCoordinateArray();
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i].x, actual[i].x, 0);
+                assertEquals(expected[i].y, actual[i].y, 0);
+                if (expected[i].y != expected[0].y) hilly = true;
+            }
+        }
+        // The profiles must actually have been sampled from the model.
+        assertTrue(hilly);
+    }
+
+    /** The raster size is that of the pixels, a 32-bit float per pixel. */
+    @Test
+    public void testRasterBytes () throws Exception {
+        GridCoverage2D coverage = new GeotiffGridCoverageFactoryImpl(writeGeotiff()).getGridCoverage();
+        assertEquals(SIZE * SIZE * 4L, GeotiffGridCoverageFactoryImpl.getRasterBytes(coverage));
+    }
+
+    /** The in-memory copy of a GeoTIFF coverage must hold the same pixels as the file. */
+    @Test
+    public void testLoadIntoMemory () throws Exception {
+        GridCoverage2D coverage = new GeotiffGridCoverageFactoryImpl(writeGeotiff()).getGridCoverage();
+        GridCoverage2D copy = GeotiffGridCoverageFactoryImpl.loadIntoMemory(coverage);
+        Raster expected = coverage.getRenderedImage().getData();
+        Raster actual = copy.getRenderedImage().getData();
+        assertEquals(expected.getBounds(), actual.getBounds());
+        for (int y = expected.getMinY(); y < expected.getMinY() + expected.getHeight(); y++) {
+            for (int x = expected.getMinX(); x < expected.getMinX() + expected.getWidth(); x++) {
+                assertEquals(expected.getSampleFloat(x, y, 0), actual.getSampleFloat(x, y, 0), 0);
+            }
+        }
+        assertEquals(coverage.getEnvelope2D(), copy.getEnvelope2D());
+    }
+
+    /** Write a hilly elevation model over the test area to a temporary GeoTIFF, in tiles of 64 pixels. */
+    private static File writeGeotiff () throws Exception {
+        float[][] elevations = new float[SIZE][SIZE];
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                elevations[row][col] = (float) (200 + 50 * Math.sin(col / 10.0) * Math.cos(row / 15.0));
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(WEST, EAST, SOUTH, NORTH, GeometryUtils.WGS84_XY);
+        GridCoverage2D coverage = new GridCoverageFactory().create("dem", elevations, envelope);
+        File file = File.createTempFile("dem", ".tif");
+        file.deleteOnExit();
+        GeoTiffWriteParams wp = new GeoTiffWriteParams();
+        wp.setTilingMode(GeoTiffWriteParams.MODE_EXPLICIT);
+        wp.setTiling(64, 64);
+        ParameterValueGroup params = new GeoTiffFormat().getWriteParameters();
+        params.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString()).setValue(wp);
+        GeoTiffWriter writer = new GeoTiffWriter(file);
+        writer.write(coverage, (GeneralParameterValue[]) params.values().toArray(new GeneralParameterValue[1]));
+        writer.dispose();
+        return file;
+    }
+
+    /** Build a graph of n by n intersections inside the test area, joined by streets to their east and north. */
+    private static Graph buildGrid (int n) {
+        Graph graph = new Graph();
+        IntersectionVertex[][] vertices = new IntersectionVertex[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double lon = WEST + 0.005 + (EAST - WEST - 0.01) * i / (n - 1);
+                double lat = SOUTH + 0.005 + (NORTH - SOUTH - 0.01) * j / (n - 1);
+                vertices[i][j] = new IntersectionVertex(graph, i + "_" + j, lon, lat);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i + 1 < n) street(vertices[i][j], vertices[i + 1][j]);
+                if (j + 1 < n) street(vertices[i][j], vertices[i][j + 1]);
+            }
+        }
+        return graph;
+    }
+
+    private static void street (IntersectionVertex from, IntersectionVertex to) {
+        Coordinate[] coords = new Coordinate[] { from.getCoordinate(), to.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        double length = SphericalDistanceLibrary.distance(from.getCoordinate(), to.getCoordinate());
+        new StreetWithElevationEdge(from, to, geom, from.getLabel() + "-" + to.getLabel(), length,
+                StreetTraversalPermission.ALL, false);
+    }
+
+    private static Map<String, StreetWithElevationEdge> edgesByName (Graph graph) {
+        Map<String, StreetWithElevationEdge> edges = new HashMap<>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof StreetWithElevationEdge) edges.put(e.getName(), (StreetWithElevationEdge) e);
+            }
+        }
+        return edges;
+    }
+
+}
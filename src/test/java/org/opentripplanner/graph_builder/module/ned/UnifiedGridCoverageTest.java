@@ -0,0 +1,86 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import junit.framework.TestCase;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class UnifiedGridCoverageTest extends TestCase {
+
+    private static final int N_THREADS = 8;
+
+    private static final int N_POINTS = 20000;
+
+    /** Evaluating the coverage from several threads at once must give the same elevations as from a single thread. */
+    @Test
+    public void testConcurrentEvaluation () throws Exception {
+        GridCoverageFactory factory = new GridCoverageFactory();
+        GridCoverage2D west = factory.create("west", hills(0),
+                new ReferencedEnvelope(-83.1, -83.05, 39.9, 40.0, GeometryUtils.WGS84_XY));
+        GridCoverage2D east = factory.create("east", hills(100),
+                new ReferencedEnvelope(-83.05, -83.0, 39.9, 40.0, GeometryUtils.WGS84_XY));
+        // A vertical datum raising every elevation by one meter.
+        float[][] offsets = new float[5][5];
+        for (float[] row : offsets) Arrays.fill(row, 1);
+        UnifiedGridCoverage coverage = new UnifiedGridCoverage("unified", west,
+                Arrays.asList(new VerticalDatum(-84, 39, 2, 2, offsets)));
+        coverage.add(east);
+
+        // Points in both regions, a few pixels away from their edges.
+        Random random = new Random(42);
+        DirectPosition2D[] points = new DirectPosition2D[N_POINTS];
+        for (int i = 0; i < N_POINTS; i++) {
+            double lon = (i % 2 == 0 ? -83.098 : -83.048) + random.nextDouble() * 0.046;
+            double lat = 39.902 + random.nextDouble() * 0.096;
+            points[i] = new DirectPosition2D(GeometryUtils.WGS84_XY, lon, lat);
+        }
+        double[] expected = evaluate(coverage, points);
+
+        ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            List<Future<double[]>> futures = new ArrayList<>();
+            for (int t = 0; t < N_THREADS; t++) {
+                futures.add(executor.submit(() -> evaluate(coverage, points)));
+            }
+            for (Future<double[]> future : futures) {
+                double[] actual = future.get();
+                for (int i = 0; i < N_POINTS; i++) {
+                    assertEquals(expected[i], actual[i], 0);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static double[] evaluate (UnifiedGridCoverage coverage, DirectPosition2D[] points) {
+        double[] elevations = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            elevations[i] = coverage.evaluate(points[i], new double[1])[0];
+        }
+        return elevations;
+    }
+
+    /** @return a 100 by 100 pixel elevation grid of hills at the given height. */
+    private static float[][] hills (double base) {
+        float[][] elevations = new float[100][100];
+        for (int row = 0; row < 100; row++) {
+            for (int col = 0; col < 100; col++) {
+                elevations[row][col] = (float) (base + 50 * Math.sin(col / 7.0) * Math.cos(row / 11.0));
+            }
+        }
+        return elevations;
+    }
+
+}
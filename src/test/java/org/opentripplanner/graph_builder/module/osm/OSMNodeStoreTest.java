@@ -0,0 +1,64 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+public class OSMNodeStoreTest extends TestCase {
+
+    @Test
+    public void testHeapStore () {
+        checkStore(OSMNodeStore.Type.HEAP.create());
+    }
+
+    @Test
+    public void testOffHeapStore () {
+        SortedNodeStore store = (SortedNodeStore) OSMNodeStore.Type.OFF_HEAP.create();
+        checkStore(store);
+        // The second batch of IDs starts a new run.
+        assertEquals(2, store.getRunCount());
+    }
+
+    @Test
+    public void testMappedFileStore () {
+        checkStore(OSMNodeStore.Type.MAPPED_FILE.create());
+    }
+
+    /** Add two ascending batches of nodes, the second one lower than the first, spanning several chunks. */
+    private static void checkStore (OSMNodeStore store) {
+        int n = 4300000;
+        for (int i = 0; i < n; i++) {
+            store.put(1000 + 2L * i, lat(i), lon(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            store.put(-10000L + 3 * i, -lat(i), -lon(i));
+        }
+        assertEquals(n + 100, store.size());
+
+        for (int i = 0; i < n; i += 997) {
+            OSMNode node = store.get(1000 + 2L * i);
+            assertNotNull(node);
+            assertEquals(1000 + 2L * i, node.getId());
+            assertEquals(lat(i), node.lat);
+            assertEquals(lon(i), node.lon);
+            assertNull(node.getTags());
+            assertFalse(store.contains(1001 + 2L * i));
+        }
+        OSMNode node = store.get(-10000L + 3 * 42);
+        assertEquals(-lat(42), node.lat);
+        assertEquals(-lon(42), node.lon);
+        assertNull(store.get(-10001));
+        assertNull(store.get(1000 + 2L * n));
+        assertTrue(store.contains(1000 + 2L * (n - 1)));
+        store.close();
+    }
+
+    private static double lat (int i) {
+        return 40 + i * 1e-7;
+    }
+
+    private static double lon (int i) {
+        return -83 - i * 3e-7;
+    }
+
+}
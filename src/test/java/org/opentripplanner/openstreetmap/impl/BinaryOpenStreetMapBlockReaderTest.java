@@ -0,0 +1,78 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import crosby.binary.file.BlockInputStream;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BinaryOpenStreetMapBlockReaderTest extends TestCase {
+
+    /** Each pass of the parallel reader should give the handler the same entities in the same order as the parser. */
+    @Test
+    public void testSameAsSequentialParser () throws Exception {
+        File file = new File(URLDecoder.decode(getClass()
+                .getResource("/org/opentripplanner/graph_builder/module/columbus.osm.pbf").getPath(), "UTF-8"));
+
+        BinaryOpenStreetMapBlockReader reader = new BinaryOpenStreetMapBlockReader(file, 4);
+        try {
+            for (int pass = 0; pass < 3; pass++) {
+                boolean nodes = pass == 2, ways = pass == 1, relations = pass == 0;
+                RecordingHandler expected = new RecordingHandler();
+                BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(expected);
+                parser.setParseNodes(nodes);
+                parser.setParseWays(ways);
+                parser.setParseRelations(relations);
+                new BlockInputStream(new FileInputStream(file), parser).process();
+
+                RecordingHandler actual = new RecordingHandler();
+                reader.read(actual, nodes, ways, relations);
+                if (!relations) assertFalse(expected.calls.isEmpty());
+                assertEquals(expected.calls, actual.calls);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class RecordingHandler implements OpenStreetMapContentHandler {
+
+        List<String> calls = new ArrayList<>();
+
+        @Override
+        public void addNode(OSMNode node) {
+            calls.add("node " + node.getId() + " " + node.lat + " " + node.lon + " " + node.getTags());
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            calls.add("way " + way.getId() + " " + way.getNodeRefs() + " " + way.getTags());
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            calls.add("relation " + relation.getId() + " " + relation.getMembers().size() + " " + relation.getTags());
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {
+        }
+
+        @Override
+        public void doneSecondPhaseWays() {
+        }
+
+        @Override
+        public void doneThirdPhaseNodes() {
+        }
+    }
+
+}
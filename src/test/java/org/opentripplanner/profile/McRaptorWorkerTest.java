@@ -0,0 +1,313 @@
+package org.opentripplanner.profile;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+import org.mapdb.Fun;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.RaptorPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test the multi-criteria RAPTOR worker used for point to point transit routing.
+ */
+public class McRaptorWorkerTest extends TestCase {
+
+    /** Riding the single line should catch the first trip leaving after the departure time plus the board slack. */
+    @Test
+    public void testSingleRide () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        RaptorPlanData data = new RaptorPlanData(gg, new ServiceDate(2015, 9, 17));
+        assertEquals(1, data.nPatterns);
+        assertEquals(2, data.nStops);
+        int[] stopIndices = data.timetables[0].stopIndices;
+
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        TIntIntMap accessDistances = new TIntIntHashMap();
+        accessTimes.put(stopIndices[0], 120);
+        accessDistances.put(stopIndices[0], 150);
+        TIntIntMap egressTimes = new TIntIntHashMap();
+        TIntIntMap egressDistances = new TIntIntHashMap();
+        egressTimes.put(stopIndices[1], 60);
+        egressDistances.put(stopIndices[1], 75);
+
+        // Arrive at the stop at 7:12, which with a minute of slack misses the 7:10 trip and catches the 7:20 one.
+        McRaptorWorker worker = new McRaptorWorker(data, 60, 120, 1.33);
+        List<McRaptorWorker.Result> results = worker.route(7 * 3600 + 600, accessTimes, accessDistances,
+                egressTimes, egressDistances, 3);
+        assertEquals(1, results.size());
+        McRaptorWorker.Result result = results.get(0);
+        assertEquals(7 * 3600 + 2 * FREQUENCY + TRAVEL_TIME + 60, result.arrivalTime);
+        assertEquals(225, result.walkDistance);
+        assertEquals(0, result.getTransfers());
+        assertTrue(result.label.isRide());
+        assertEquals(0, result.label.pattern);
+        assertEquals(0, result.label.boardPosition);
+        assertEquals(1, result.label.alightPosition);
+        assertNull(result.label.parent.parent);
+    }
+
+    /** A search after the last trip of the day finds nothing. */
+    @Test
+    public void testNoService () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        RaptorPlanData data = new RaptorPlanData(gg, new ServiceDate(2015, 9, 17));
+        int[] stopIndices = data.timetables[0].stopIndices;
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        accessTimes.put(stopIndices[0], 0);
+        TIntIntMap egressTimes = new TIntIntHashMap();
+        egressTimes.put(stopIndices[1], 0);
+        TIntIntMap zero = new TIntIntHashMap();
+        zero.put(stopIndices[0], 0);
+        zero.put(stopIndices[1], 0);
+
+        McRaptorWorker worker = new McRaptorWorker(data, 0, 0, 1.33);
+        assertTrue(worker.route(21 * 3600, accessTimes, zero, egressTimes, zero, 3).isEmpty());
+    }
+
+    /**
+     * A trip that is faster but has a transfer does not dominate a slower direct trip, so both must be found. Neither
+     * may be pruned by the other on reaching the destination in a later round.
+     */
+    @Test
+    public void testFasterWithTransferAndSlowerDirect () throws Exception {
+        Graph gg = buildTestGraph();
+        RaptorPlanData data = new RaptorPlanData(gg, new ServiceDate(2015, 9, 17));
+        int a = stopIndex(data, "A");
+        int m = stopIndex(data, "M");
+        int d = stopIndex(data, "D");
+
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        TIntIntMap accessDistances = new TIntIntHashMap();
+        accessTimes.put(a, 0);
+        accessDistances.put(a, 0);
+        TIntIntMap egressTimes = new TIntIntHashMap();
+        TIntIntMap egressDistances = new TIntIntHashMap();
+        egressTimes.put(d, 0);
+        egressDistances.put(d, 0);
+
+        McRaptorWorker worker = new McRaptorWorker(data, 0, 0, 1.33);
+        List<McRaptorWorker.Result> results = worker.route(7 * 3600 + 50 * 60, accessTimes, accessDistances,
+                egressTimes, egressDistances, 3);
+        assertEquals(2, results.size());
+
+        // Riding A to M and then M to D arrives at 8:30 with one transfer.
+        McRaptorWorker.Result fast = results.get(0);
+        assertEquals(8 * 3600 + 30 * 60, fast.arrivalTime);
+        assertEquals(1, fast.getTransfers());
+        assertEquals(d, fast.label.stop);
+        assertEquals(m, fast.label.parent.stop);
+        assertEquals(a, fast.label.parent.parent.stop);
+        assertNull(fast.label.parent.parent.parent);
+
+        // Riding A to D directly arrives at 8:50 with no transfers.
+        McRaptorWorker.Result direct = results.get(1);
+        assertEquals(8 * 3600 + 50 * 60, direct.arrivalTime);
+        assertEquals(0, direct.getTransfers());
+        assertEquals(a, direct.label.parent.stop);
+        assertNull(direct.label.parent.parent);
+    }
+
+    /** A trip that arrives earlier but walks further does not dominate one that arrives later walking less. */
+    @Test
+    public void testMoreWalkingAndLessWalking () throws Exception {
+        Graph gg = buildTestGraph();
+        RaptorPlanData data = new RaptorPlanData(gg, new ServiceDate(2015, 9, 17));
+        int a = stopIndex(data, "A");
+        int b = stopIndex(data, "B");
+        int d = stopIndex(data, "D");
+
+        // A is a long walk from the origin, B a short one.
+        TIntIntMap accessTimes = new TIntIntHashMap();
+        TIntIntMap accessDistances = new TIntIntHashMap();
+        accessTimes.put(a, 600);
+        accessDistances.put(a, 1000);
+        accessTimes.put(b, 60);
+        accessDistances.put(b, 100);
+        TIntIntMap egressTimes = new TIntIntHashMap();
+        TIntIntMap egressDistances = new TIntIntHashMap();
+        egressTimes.put(d, 0);
+        egressDistances.put(d, 0);
+
+        // Only direct rides, so the trade-off is between arrival time and walk distance alone.
+        McRaptorWorker worker = new McRaptorWorker(data, 0, 0, 1.33);
+        List<McRaptorWorker.Result> results = worker.route(7 * 3600 + 45 * 60, accessTimes, accessDistances,
+                egressTimes, egressDistances, 1);
+        assertEquals(2, results.size());
+
+        McRaptorWorker.Result moreWalking = results.get(0);
+        assertEquals(8 * 3600 + 50 * 60, moreWalking.arrivalTime);
+        assertEquals(1000, moreWalking.walkDistance);
+        assertEquals(a, moreWalking.label.parent.stop);
+
+        McRaptorWorker.Result lessWalking = results.get(1);
+        assertEquals(9 * 3600, lessWalking.arrivalTime);
+        assertEquals(100, lessWalking.walkDistance);
+        assertEquals(b, lessWalking.label.parent.stop);
+    }
+
+    /** The path made from an itinerary with a transfer must board and alight the trips at the stops of its labels. */
+    @Test
+    public void testPathWithTransfer () throws Exception {
+        Graph gg = buildTestGraph();
+
+        RoutingRequest options = new RoutingRequest("WALK,TRANSIT");
+        options.from = new GenericLocation(40.2182, -83.0889);
+        options.to = new GenericLocation(39.9621, -83.0007);
+        options.dateTime = new LocalDateTime(2015, 9, 17, 7, 50)
+                .toDateTime(DateTimeZone.forTimeZone(gg.getTimeZone())).getMillis() / 1000;
+        options.numItineraries = 3;
+        options.maxWalkDistance = 2000;
+        options.setRoutingContext(gg);
+        List<GraphPath> paths = new RaptorPathFinder(gg).getPaths(options);
+        options.cleanup();
+
+        GraphPath transferPath = null;
+        for (GraphPath path : paths) {
+            if (path.getTrips().size() == 2) transferPath = path;
+        }
+        assertNotNull(transferPath);
+        List<String> trips = new ArrayList<>();
+        for (AgencyAndId trip : transferPath.getTrips()) trips.add(trip.getId());
+        assertEquals(Arrays.asList("AM", "MD"), trips);
+
+        List<String> legs = new ArrayList<>();
+        for (State s : transferPath.states) {
+            if (!(s.getBackEdge() instanceof TransitBoardAlight)) continue;
+            boolean boarding = ((TransitBoardAlight) s.getBackEdge()).boarding;
+            legs.add((boarding ? "board " : "alight ") + ((TransitVertex) s.getVertex()).getStop().getId().getId());
+        }
+        assertEquals(Arrays.asList("board A", "alight M", "board M", "alight D"), legs);
+        assertEquals(new LocalDateTime(2015, 9, 17, 8, 30)
+                .toDateTime(DateTimeZone.forTimeZone(gg.getTimeZone())).getMillis() / 1000,
+                transferPath.getEndTime(), 120);
+    }
+
+    /**
+     * Build a graph with a slow direct line from A to D, leaving at 8:00 and arriving at 8:50, and a faster way with a
+     * transfer at M, from A to M at 8:00-8:10 and from M to D at 8:20-8:30. A slower line leaves B at 8:00 and arrives
+     * at D at 9:00.
+     */
+    private static Graph buildTestGraph () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        GTFSFeed feed = new GTFSFeed();
+        Stop a = addStop(feed, "A", 40.2182, -83.0889);
+        Stop m = addStop(feed, "M", 40.0800, -83.0500);
+        Stop b = addStop(feed, "B", 40.0500, -83.0200);
+        Stop d = addStop(feed, "D", 39.9621, -83.0007);
+        addLine(feed, "AD", a, d, 8 * 3600, 3000);
+        addLine(feed, "AM", a, m, 8 * 3600, 600);
+        addLine(feed, "MD", m, d, 8 * 3600 + 1200, 600);
+        addLine(feed, "BD", b, d, 8 * 3600, 3600);
+        File tempFile = File.createTempFile("gtfs", ".zip");
+        feed.toFile(tempFile.getAbsolutePath());
+        new GtfsModule(Arrays.asList(new GtfsBundle(tempFile))).buildGraph(gg, new HashMap<>());
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+        return gg;
+    }
+
+    private static int stopIndex (RaptorPlanData data, String id) {
+        for (int i = 0; i < data.nStops; i++) {
+            if (data.stops[i].getStop().getId().getId().equals(id)) return i;
+        }
+        throw new IllegalArgumentException("No stop " + id);
+    }
+
+    private static Stop addStop (GTFSFeed feed, String id, double lat, double lon) {
+        Stop stop = new Stop();
+        stop.stop_id = stop.stop_name = id;
+        stop.stop_lat = lat;
+        stop.stop_lon = lon;
+        feed.stops.put(stop.stop_id, stop);
+        return stop;
+    }
+
+    /** Add a route with a single daily trip from one stop to another. */
+    private static void addLine (GTFSFeed feed, String id, Stop from, Stop to, int departure, int rideTime)
+            throws Exception {
+        if (feed.agency.isEmpty()) {
+            Agency a = new Agency();
+            a.agency_id = "agency";
+            a.agency_name = "Agency";
+            a.agency_timezone = "America/New_York";
+            a.agency_url = new URL("http://www.example.com");
+            feed.agency.put(a.agency_id, a);
+
+            Service s = new Service("service");
+            s.calendar = new Calendar();
+            s.calendar.service = s;
+            s.calendar.monday = s.calendar.tuesday = s.calendar.wednesday = s.calendar.thursday = s.calendar.friday =
+                    s.calendar.saturday = s.calendar.sunday = 1;
+            s.calendar.start_date = 19991231;
+            s.calendar.end_date = 21001231;
+            feed.services.put(s.service_id, s);
+        }
+
+        Route r = new Route();
+        r.route_short_name = r.route_long_name = id;
+        r.route_type = 3;
+        r.agency = feed.agency.get("agency");
+        r.route_id = id;
+        feed.routes.put(r.route_id, r);
+
+        Trip t = new Trip();
+        t.trip_id = id;
+        t.service = feed.services.get("service");
+        t.route = r;
+        feed.trips.put(t.trip_id, t);
+
+        StopTime st1 = new StopTime();
+        st1.trip_id = t.trip_id;
+        st1.arrival_time = st1.departure_time = departure;
+        st1.stop_id = from.stop_id;
+        st1.stop_sequence = 1;
+        feed.stop_times.put(new Fun.Tuple2(st1.trip_id, st1.stop_sequence), st1);
+
+        StopTime st2 = new StopTime();
+        st2.trip_id = t.trip_id;
+        st2.arrival_time = st2.departure_time = departure + rideTime;
+        st2.stop_id = to.stop_id;
+        st2.stop_sequence = 2;
+        feed.stop_times.put(new Fun.Tuple2(st2.trip_id, st2.stop_sequence), st2);
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test the summary statistics computed over the travel times from many RAPTOR searches.
+ */
+public class PropagatedTimesStoreTest extends TestCase {
+
+    /** Enough targets to span several blocks and be split across threads, including a partial last block. */
+    private static final int N_TARGETS = 5000;
+
+    private static final int N_ITERATIONS = 120;
+
+    @Test
+    public void testMinMax () {
+        int[][] times = makeTimes();
+        PropagatedTimesStore pts = new PropagatedTimesStore(null, N_TARGETS);
+        pts.setFromArray(times, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        for (int t = 0; t < N_TARGETS; t++) {
+            int[] reached = reachedTimes(times, t);
+            if (reached.length == 0) {
+                assertEquals(Integer.MAX_VALUE, pts.mins[t]);
+                assertEquals(Integer.MAX_VALUE, pts.maxs[t]);
+                assertEquals(Integer.MAX_VALUE, pts.avgs[t]);
+                continue;
+            }
+            assertEquals(Arrays.stream(reached).min().getAsInt(), pts.mins[t]);
+            assertEquals(Arrays.stream(reached).max().getAsInt(), pts.maxs[t]);
+            assertEquals(Arrays.stream(reached).sum() / reached.length, pts.avgs[t]);
+        }
+    }
+
+    @Test
+    public void testPercentile () {
+        int[][] times = makeTimes();
+        PropagatedTimesStore pts = new PropagatedTimesStore(null, N_TARGETS);
+        pts.setFromArray(times, PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+        for (int t = 0; t < N_TARGETS; t++) {
+            int[] reached = reachedTimes(times, t);
+            if (reached.length == 0) continue;
+            Arrays.sort(reached);
+            assertEquals(reached[reached.length / 40], pts.mins[t]);
+            assertEquals(reached[39 * reached.length / 40], pts.maxs[t]);
+        }
+    }
+
+    @Test
+    public void testBootstrap () {
+        int[][] times = makeTimes();
+        PropagatedTimesStore pts = new PropagatedTimesStore(null, N_TARGETS);
+        pts.setFromArray(times, PropagatedTimesStore.ConfidenceCalculationMethod.BOOTSTRAP);
+        for (int t = 0; t < N_TARGETS; t++) {
+            int[] reached = reachedTimes(times, t);
+            if (reached.length == 0) continue;
+            // the bootstrapped confidence interval of the mean must lie within the range of the observations
+            assertTrue(pts.mins[t] <= pts.maxs[t]);
+            assertTrue(pts.mins[t] >= Arrays.stream(reached).min().getAsInt());
+            assertTrue(pts.maxs[t] <= Arrays.stream(reached).max().getAsInt());
+        }
+    }
+
+    /** Make random travel times, with some targets never reached and others reached in only some iterations. */
+    private static int[][] makeTimes () {
+        Random random = new Random(42);
+        int[][] times = new int[N_ITERATIONS][N_TARGETS];
+        for (int i = 0; i < N_ITERATIONS; i++) {
+            for (int t = 0; t < N_TARGETS; t++) {
+                boolean reached = t % 7 != 0 && (t % 3 != 0 || random.nextBoolean());
+                times[i][t] = reached ? random.nextInt(7200) : RaptorWorker.UNREACHED;
+            }
+        }
+        return times;
+    }
+
+    private static int[] reachedTimes (int[][] times, int target) {
+        return Arrays.stream(times).mapToInt(row -> row[target]).filter(t -> t != RaptorWorker.UNREACHED).toArray();
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.opentripplanner.profile;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test saving and restoring RaptorWorkerData.
+ */
+public class RaptorWorkerDataTest extends TestCase {
+
+    @Test
+    public void testWriteRead () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+        assertTrue(data.isWritable());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        data.write(out, gg);
+        out.flush();
+
+        RaptorWorkerData read = new RaptorWorkerData(CodedInputStream.newInstance(bytes.toByteArray()), gg);
+
+        assertEquals(data.nStops, read.nStops);
+        assertEquals(data.nPatterns, read.nPatterns);
+        assertEquals(data.nTargets, read.nTargets);
+        assertEquals(data.hasSchedules, read.hasSchedules);
+        assertEquals(data.hasFrequencies, read.hasFrequencies);
+        assertEquals(data.boardingAssumption, read.boardingAssumption);
+        assertEquals(data.indexForStop, read.indexForStop);
+        assertTrue(Arrays.deepEquals(data.transfersForStop.toArray(), read.transfersForStop.toArray()));
+        assertTrue(Arrays.deepEquals(data.patternsForStop.toArray(), read.patternsForStop.toArray()));
+        assertTrue(Arrays.deepEquals(data.targetsForStop.toArray(), read.targetsForStop.toArray()));
+        assertEquals(data.timetablesForPattern.size(), read.timetablesForPattern.size());
+        for (int p = 0; p < data.timetablesForPattern.size(); p++) {
+            RaptorWorkerTimetable tt = data.timetablesForPattern.get(p);
+            RaptorWorkerTimetable rtt = read.timetablesForPattern.get(p);
+            if (tt == null) {
+                assertNull(rtt);
+                continue;
+            }
+            assertSame(read, rtt.raptorData);
+            assertEquals(tt.dataIndex, rtt.dataIndex);
+            assertEquals(tt.mode, rtt.mode);
+            assertTrue(Arrays.equals(tt.stopIndices, rtt.stopIndices));
+            assertTrue(Arrays.deepEquals(tt.timesPerTrip, rtt.timesPerTrip));
+            assertTrue(Arrays.deepEquals(tt.frequencyTrips, rtt.frequencyTrips));
+            assertTrue(Arrays.equals(tt.headwaySecs, rtt.headwaySecs));
+            assertTrue(Arrays.equals(tt.startTimes, rtt.startTimes));
+            assertTrue(Arrays.equals(tt.endTimes, rtt.endTimes));
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.opentripplanner.profile;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.mapdb.Fun;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test the RAPTOR worker used in repeated RAPTOR profile routing.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    /** Splitting the departure window up and searching it in parallel should give exactly the same results. */
+    @Test
+    public void testParallelDepartureMinutes () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.fromLat = req.toLat = 39.9908;
+        req.fromLon = req.toLon = -83.0118;
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        // Use a deterministic boarding assumption so that frequency-based searches are repeatable.
+        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.HALF_HEADWAY;
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(gg, req).findInitialStops(false, data);
+        assertFalse(accessTimes.isEmpty());
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        RaptorWorker serialWorker = new RaptorWorker(data, req);
+        PropagatedTimesStore serial = serialWorker.runRaptor(gg, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        RaptorWorker parallelWorker = new RaptorWorker(data, req);
+        parallelWorker.parallel = true;
+        PropagatedTimesStore parallel = parallelWorker.runRaptor(gg, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        assertTrue(Arrays.equals(serial.mins, parallel.mins));
+        assertTrue(Arrays.equals(serial.maxs, parallel.maxs));
+        assertTrue(Arrays.equals(serial.avgs, parallel.avgs));
+    }
+
+    /**
+     * Range-RAPTOR carries stop times over from later departure minutes, which keeps trips that a search from an
+     * earlier minute alone would cut off at MAX_DURATION. Each parallel chunk must start from the stop times of the
+     * later chunks, so that every departure minute has the same travel times as when the window is searched in one go.
+     */
+    @Test
+    public void testParallelDepartureMinutesCarryOver () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        GTFSFeed feed = new GTFSFeed();
+        Stop o = addStop(feed, "O", 39.9908, -83.0118);
+        Stop x = addStop(feed, "X", 39.9750, -82.9900);
+        Stop y = addStop(feed, "Y", 39.9600, -83.0300);
+        Stop z = addStop(feed, "Z", 40.0600, -83.0200);
+        // Two frequent lines with a transfer between them lead to a third line that runs once, arriving at 10:55. Only
+        // departures from O after 8:55 reach Z within MAX_DURATION, the rest of the window only through range-RAPTOR.
+        addLine(feed, "1", o, x, 7 * 3600, 10 * 3600, 600, 600);
+        addLine(feed, "2", x, y, 7 * 3600 + 300, 10 * 3600 + 300, 600, 1200);
+        addLine(feed, "3", y, z, 10 * 3600 + 1800, 10 * 3600 + 1800, 600, 1500);
+        File tempFile = File.createTempFile("gtfs", ".zip");
+        feed.toFile(tempFile.getAbsolutePath());
+        new GtfsModule(Arrays.asList(new GtfsBundle(tempFile))).buildGraph(gg, new HashMap<>());
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.fromLat = req.toLat = o.stop_lat;
+        req.fromLon = req.toLon = o.stop_lon;
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(gg, req).findInitialStops(false, data);
+        assertFalse(accessTimes.isEmpty());
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        int[][] serial = new RaptorWorker(data, req).runIterations(accessTimes, nonTransitTimes, new TaskStatistics());
+
+        RaptorWorker parallelWorker = new RaptorWorker(data, req);
+        parallelWorker.parallel = true;
+        int[][] parallel = parallelWorker.runIterations(accessTimes, nonTransitTimes, new TaskStatistics());
+
+        // One iteration per departure minute, as there are no frequencies.
+        assertEquals(120, serial.length);
+        assertEquals(serial.length, parallel.length);
+        boolean carriedOver = false;
+        for (int minute = 0; minute < serial.length; minute++) {
+            assertTrue("minute " + minute, Arrays.equals(serial[minute], parallel[minute]));
+            for (int time : serial[minute]) {
+                if (time != RaptorWorker.UNREACHED && time > RaptorWorker.MAX_DURATION) carriedOver = true;
+            }
+        }
+        // Make sure the test exercises trips carried over from later minutes.
+        assertTrue(carriedOver);
+    }
+
+    private static Stop addStop (GTFSFeed feed, String id, double lat, double lon) {
+        Stop stop = new Stop();
+        stop.stop_id = stop.stop_name = id;
+        stop.stop_lat = lat;
+        stop.stop_lon = lon;
+        feed.stops.put(stop.stop_id, stop);
+        return stop;
+    }
+
+    /** Add a route with trips from one stop to another at the given headway, all times in seconds. */
+    private static void addLine (GTFSFeed feed, String id, Stop from, Stop to, int firstDeparture, int lastDeparture,
+                                 int headway, int rideTime) throws Exception {
+        if (feed.agency.isEmpty()) {
+            Agency a = new Agency();
+            a.agency_id = "agency";
+            a.agency_name = "Agency";
+            a.agency_timezone = "America/New_York";
+            a.agency_url = new URL("http://www.example.com");
+            feed.agency.put(a.agency_id, a);
+
+            Service s = new Service("service");
+            s.calendar = new Calendar();
+            s.calendar.service = s;
+            s.calendar.monday = s.calendar.tuesday = s.calendar.wednesday = s.calendar.thursday = s.calendar.friday =
+                    s.calendar.saturday = s.calendar.sunday = 1;
+            s.calendar.start_date = 19991231;
+            s.calendar.end_date = 21001231;
+            feed.services.put(s.service_id, s);
+        }
+
+        Route r = new Route();
+        r.route_short_name = r.route_long_name = id;
+        r.route_type = 3;
+        r.agency = feed.agency.get("agency");
+        r.route_id = id;
+        feed.routes.put(r.route_id, r);
+
+        for (int departure = firstDeparture; departure <= lastDeparture; departure += headway) {
+            Trip t = new Trip();
+            t.trip_id = id + "_" + departure;
+            t.service = feed.services.get("service");
+            t.route = r;
+            feed.trips.put(t.trip_id, t);
+
+            StopTime st1 = new StopTime();
+            st1.trip_id = t.trip_id;
+            st1.arrival_time = st1.departure_time = departure;
+            st1.stop_id = from.stop_id;
+            st1.stop_sequence = 1;
+            feed.stop_times.put(new Fun.Tuple2(st1.trip_id, st1.stop_sequence), st1);
+
+            StopTime st2 = new StopTime();
+            st2.trip_id = t.trip_id;
+            st2.arrival_time = st2.departure_time = departure + rideTime;
+            st2.stop_id = to.stop_id;
+            st2.stop_sequence = 2;
+            feed.stop_times.put(new Fun.Tuple2(st2.trip_id, st2.stop_sequence), st2);
+        }
+    }
+
+}
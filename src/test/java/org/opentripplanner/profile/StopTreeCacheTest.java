@@ -0,0 +1,82 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class StopTreeCacheTest extends TestCase {
+
+    /** Trees built in the compact street graph should match those built with A*, up to turn tie-breakers. */
+    @Test
+    public void testCompactTrees () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        StopTreeCache astar = new StopTreeCache(gg, 1000);
+        gg.buildCompactStreetGraph();
+        StopTreeCache compact = new StopTreeCache(gg, 1000);
+
+        int nTrees = 0;
+        for (TransitStop stop : gg.index.stopVertexForStop.values()) {
+            TIntIntMap expected = tree(astar, stop);
+            TIntIntMap actual = tree(compact, stop);
+            for (int v : expected.keys()) {
+                // Tie-breakers can push vertices right at the cutoff out of either tree.
+                if (expected.get(v) > 990) continue;
+                assertTrue(actual.containsKey(v));
+                assertEquals(expected.get(v), actual.get(v), 5);
+            }
+            if (!actual.isEmpty()) nTrees++;
+        }
+        assertTrue(nTrees > 0);
+    }
+
+    /** A saved cache loads back identically for the same graph, and is rejected for a different walk distance. */
+    @Test
+    public void testSaveAndLoad () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransit(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+        gg.buildCompactStreetGraph();
+
+        StopTreeCache stc = new StopTreeCache(gg, 1000);
+        File file = File.createTempFile("stop_trees", ".dat");
+        try {
+            stc.save(file, gg);
+            StopTreeCache loaded = StopTreeCache.load(file, gg, 1000);
+            assertNotNull(loaded);
+            assertTrue(Arrays.equals(stc.distances, loaded.distances));
+            for (TransitStop stop : gg.index.stopVertexForStop.values()) {
+                assertEquals(stc.getStart(stop), loaded.getStart(stop));
+                assertEquals(stc.getEnd(stop), loaded.getEnd(stop));
+            }
+
+            assertNull(StopTreeCache.load(file, gg, 2000));
+            // The unusable file is deleted.
+            assertFalse(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static TIntIntMap tree (StopTreeCache stc, TransitStop stop) {
+        TIntIntMap tree = new TIntIntHashMap();
+        for (int i = stc.getStart(stop); i < stc.getEnd(stop); i += 2) {
+            tree.put(stc.distances[i], stc.distances[i + 1]);
+        }
+        return tree;
+    }
+
+}
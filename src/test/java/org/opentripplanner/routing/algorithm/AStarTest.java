@@ -17,12 +17,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.State;
@@ -34,15 +39,31 @@ import org.opentripplanner.routing.graph.TemporaryConcreteEdge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import org.opentripplanner.util.NonLocalizedString;
 
+/**
+ * Every test is run with both the hash-based and the array-based (indexed) shortest path tree.
+ */
+@RunWith(Parameterized.class)
 public class AStarTest {
 
+    private final boolean indexedShortestPathTree;
+
     private Graph _graph;
 
+    @Parameters
+    public static Collection<Object[]> shortestPathTreeTypes() {
+        return Arrays.asList(new Object[][] { { false }, { true } });
+    }
+
+    public AStarTest(boolean indexedShortestPathTree) {
+        this.indexedShortestPathTree = indexedShortestPathTree;
+    }
+
     @Before
     public void before() {
 
@@ -96,8 +117,7 @@ public class AStarTest {
 
     @Test
     public void testForward() {
-        RoutingRequest options = new RoutingRequest();
-        options.walkSpeed = 1.0;
+        RoutingRequest options = request();
         options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
         ShortestPathTree tree = new AStar().getShortestPathTree(options);
 
@@ -119,8 +139,7 @@ public class AStarTest {
     @Test
     public void testBack() {
 
-        RoutingRequest options = new RoutingRequest();
-        options.walkSpeed = 1.0;
+        RoutingRequest options = request();
         options.setArriveBy(true);
         options.setRoutingContext(_graph, _graph.getVertex("56th_24th"),
                 _graph.getVertex("leary_20th"));
@@ -154,8 +173,7 @@ public class AStarTest {
     @Test
     public void testForwardExtraEdges() {
 
-        RoutingRequest options = new RoutingRequest();
-        options.walkSpeed = 1.0;
+        RoutingRequest options = request();
 
         TemporaryStreetLocation from = new TemporaryStreetLocation("near_shilshole_22nd",
                 new Coordinate(-122.385050, 47.666620), new NonLocalizedString("near_shilshole_22nd"), false);
@@ -169,6 +187,10 @@ public class AStarTest {
         ShortestPathTree tree = new AStar().getShortestPathTree(options);
         options.cleanup();
 
+        // The temporary vertices have indexes beyond those that existed when the graph was built.
+        assertEquals(indexedShortestPathTree, tree instanceof IndexedShortestPathTree);
+        assertEquals(tree.getVertexCount(), tree.getVertices().size());
+
         GraphPath path = tree.getPath(to, false);
 
         List<State> states = path.states;
@@ -189,8 +211,7 @@ public class AStarTest {
     @Test
     public void testBackExtraEdges() {
 
-        RoutingRequest options = new RoutingRequest();
-        options.walkSpeed = 1.0;
+        RoutingRequest options = request();
         options.setArriveBy(true);
 
         TemporaryStreetLocation from = new TemporaryStreetLocation("near_shilshole_22nd",
@@ -224,8 +245,7 @@ public class AStarTest {
 
     @Test
     public void testMultipleTargets() {
-        RoutingRequest options = new RoutingRequest();
-        options.walkSpeed = 1.0;
+        RoutingRequest options = request();
         options.batch = true;
         options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
 
@@ -248,6 +268,14 @@ public class AStarTest {
      * Private Methods
      ****/
 
+    /** A walking request whose states are kept in the type of shortest path tree under test. */
+    private RoutingRequest request() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.indexedShortestPathTree = indexedShortestPathTree;
+        return options;
+    }
+
     private SimpleConcreteVertex vertex(String label, double lat, double lon) {
         SimpleConcreteVertex v = new SimpleConcreteVertex(_graph, label, lat, lon);
         return v;
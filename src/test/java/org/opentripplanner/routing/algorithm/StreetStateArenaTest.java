@@ -0,0 +1,92 @@
+package org.opentripplanner.routing.algorithm;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.spt.DominanceFunction;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class StreetStateArenaTest extends TestCase {
+
+    /** The arena search should reach the same stops at the same walk distances as a least-walk A* search. */
+    @Test
+    public void testWalkDistances () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+        gg.buildCompactStreetGraph();
+
+        RoutingRequest rr = walkRequest(gg);
+        ShortestPathTree spt = new AStar().getShortestPathTree(rr);
+        StreetStateArena arena = new StreetStateArena(gg.compactStreetGraph);
+        new GenericDijkstra(walkRequest(gg)).getStreetStates(arena, true, Integer.MAX_VALUE);
+
+        int nStops = 0;
+        for (TransitStop stop : gg.index.stopVertexForStop.values()) {
+            State state = spt.getState(stop);
+            int s = arena.getBestState(stop.getIndex());
+            if (state == null) {
+                assertEquals(StreetStateArena.NONE, s);
+                continue;
+            }
+            nStops++;
+            assertTrue(s != StreetStateArena.NONE);
+            // A* adds a small tie-breaker for turns to the walk distance.
+            assertEquals(state.getWalkDistance(), arena.getWalkDistance(s), 5.0);
+            // Following the back states leads to an initial state.
+            int back = s;
+            while (arena.getBackState(back) != StreetStateArena.NONE) back = arena.getBackState(back);
+            assertEquals(StreetStateArena.NONE, arena.getBackEdge(back));
+        }
+        assertTrue(nStops > 0);
+    }
+
+    /** Reusing an arena for a second search should give the same results. */
+    @Test
+    public void testReuse () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        gg.index(new DefaultStreetVertexIndexFactory());
+        gg.buildCompactStreetGraph();
+
+        StreetStateArena arena = StreetStateArena.forCurrentThread(gg.compactStreetGraph);
+        int[] first = new GenericDijkstra(walkRequest(gg)).getStreetStates(arena, false, 1800)
+                .getElapsedSecondsByVertex();
+        int size = arena.size();
+        assertSame(arena, StreetStateArena.forCurrentThread(gg.compactStreetGraph));
+        int[] second = new GenericDijkstra(walkRequest(gg)).getStreetStates(arena, false, 1800)
+                .getElapsedSecondsByVertex();
+        assertEquals(size, arena.size());
+        assertTrue(Arrays.equals(first, second));
+        int reached = 0;
+        for (int t : first) {
+            if (t == Integer.MAX_VALUE) continue;
+            assertTrue(t <= 1800);
+            reached++;
+        }
+        assertTrue(reached > 0);
+        assertTrue(reached < gg.compactStreetGraph.nVertices);
+    }
+
+    private static RoutingRequest walkRequest (Graph gg) {
+        RoutingRequest rr = new RoutingRequest(new TraverseModeSet("WALK"));
+        rr.batch = true;
+        rr.from = rr.to = new GenericLocation(39.9908, -83.0118);
+        rr.setRoutingContext(gg);
+        rr.maxWalkDistance = 2000;
+        rr.softWalkLimiting = false;
+        rr.dominanceFunction = new DominanceFunction.LeastWalk();
+        return rr;
+    }
+
+}
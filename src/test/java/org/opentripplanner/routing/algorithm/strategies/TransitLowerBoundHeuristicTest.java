@@ -0,0 +1,193 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.model.Agency;
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Service;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import junit.framework.TestCase;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+import org.mapdb.Fun;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.GtfsModule;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TransitVertex;
+import org.opentripplanner.standalone.Router;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class TransitLowerBoundHeuristicTest extends TestCase {
+
+    /** A long-distance search with the landmark heuristic must find the same trip as with the bidirectional one. */
+    @Test
+    public void testLongDistanceSearch () throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        Router router = new Router("default", graph);
+
+        // From near stop s1 in the north of Columbus to near stop s2 downtown, about 30km apart.
+        GenericLocation from = new GenericLocation(40.2182, -83.0889);
+        GenericLocation to = new GenericLocation(39.9621, -83.0007);
+
+        GraphPath expected = plan(router, from, to, InterleavedBidirectionalHeuristic.class);
+        graph.buildTransitLowerBounds(4);
+        GraphPath path = plan(router, from, to, TransitLowerBoundHeuristic.class);
+
+        assertTrue(path.getTrips().size() > 0);
+        assertEquals(expected.getTrips(), path.getTrips());
+        assertEquals(expected.getEndTime(), path.getEndTime());
+        assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+    }
+
+    /**
+     * The heuristic must never exceed the remaining weight of the optimal path, even when the stop the trip alights at
+     * cannot reach a landmark that other stops near the destination can reach quickly.
+     */
+    @Test
+    public void testEgressStopThatCannotReachLandmark () throws Exception {
+        Graph graph = buildGraphNoTransit();
+        GTFSFeed feed = new GTFSFeed();
+        Stop a = addStop(feed, "A", 40.2182, -83.0889);
+        Stop e = addStop(feed, "E", 39.9621, -83.0007);
+        Stop b = addStop(feed, "B", 39.9625, -83.0012);
+        Stop l = addStop(feed, "L", 40.0800, -83.0500);
+        // The trip rides from A to E, which has no service onward. A reaches L only after a long ride, while B, next
+        // to E, reaches L quickly. Bounding through L from B alone would estimate the remaining weight at A as about
+        // 3600 - 300 seconds, far more than the 600 second ride to E.
+        addLine(feed, "AE", a, e, 600);
+        addLine(feed, "AL", a, l, 3600);
+        addLine(feed, "BL", b, l, 300);
+        File tempFile = File.createTempFile("gtfs", ".zip");
+        feed.toFile(tempFile.getAbsolutePath());
+        new GtfsModule(Arrays.asList(new GtfsBundle(tempFile))).buildGraph(graph, new HashMap<>());
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        // Every cluster is a landmark.
+        graph.buildTransitLowerBounds(4);
+        Router router = new Router("default", graph);
+
+        GenericLocation from = new GenericLocation(a.stop_lat, a.stop_lon);
+        GenericLocation to = new GenericLocation(e.stop_lat, e.stop_lon);
+        RoutingRequest reference = request(router, from, to);
+        reference.disableRemainingWeightHeuristic = true;
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(reference);
+        reference.cleanup();
+        assertFalse(paths.isEmpty());
+        GraphPath path = paths.get(0);
+        assertEquals(1, path.getTrips().size());
+        assertEquals("AE", path.getTrips().get(0).getId());
+
+        RoutingRequest options = request(router, from, to);
+        options.setRoutingContext(graph);
+        TransitLowerBoundHeuristic heuristic = new TransitLowerBoundHeuristic(graph);
+        heuristic.initialize(options, Long.MAX_VALUE);
+        int nTransitStates = 0;
+        for (State s : path.states) {
+            if (!(s.getVertex() instanceof TransitVertex)) continue;
+            nTransitStates++;
+            double remaining = path.getWeight() - s.getWeight();
+            assertTrue(heuristic.estimateRemainingWeight(s) <= remaining + 1e-6);
+        }
+        assertTrue(nTransitStates > 0);
+        options.cleanup();
+    }
+
+    private static Stop addStop (GTFSFeed feed, String id, double lat, double lon) {
+        Stop stop = new Stop();
+        stop.stop_id = stop.stop_name = id;
+        stop.stop_lat = lat;
+        stop.stop_lon = lon;
+        feed.stops.put(stop.stop_id, stop);
+        return stop;
+    }
+
+    /** Add a route with a single daily trip from one stop to another, departing at 8AM. */
+    private static void addLine (GTFSFeed feed, String id, Stop from, Stop to, int rideTime) throws Exception {
+        if (feed.agency.isEmpty()) {
+            Agency a = new Agency();
+            a.agency_id = "agency";
+            a.agency_name = "Agency";
+            a.agency_timezone = "America/New_York";
+            a.agency_url = new URL("http://www.example.com");
+            feed.agency.put(a.agency_id, a);
+
+            Service s = new Service("service");
+            s.calendar = new Calendar();
+            s.calendar.service = s;
+            s.calendar.monday = s.calendar.tuesday = s.calendar.wednesday = s.calendar.thursday = s.calendar.friday =
+                    s.calendar.saturday = s.calendar.sunday = 1;
+            s.calendar.start_date = 19991231;
+            s.calendar.end_date = 21001231;
+            feed.services.put(s.service_id, s);
+        }
+
+        Route r = new Route();
+        r.route_short_name = r.route_long_name = id;
+        r.route_type = 3;
+        r.agency = feed.agency.get("agency");
+        r.route_id = id;
+        feed.routes.put(r.route_id, r);
+
+        Trip t = new Trip();
+        t.trip_id = id;
+        t.service = feed.services.get("service");
+        t.route = r;
+        feed.trips.put(t.trip_id, t);
+
+        int departure = 8 * 3600;
+        StopTime st1 = new StopTime();
+        st1.trip_id = t.trip_id;
+        st1.arrival_time = st1.departure_time = departure;
+        st1.stop_id = from.stop_id;
+        st1.stop_sequence = 1;
+        feed.stop_times.put(new Fun.Tuple2(st1.trip_id, st1.stop_sequence), st1);
+
+        StopTime st2 = new StopTime();
+        st2.trip_id = t.trip_id;
+        st2.arrival_time = st2.departure_time = departure + rideTime;
+        st2.stop_id = to.stop_id;
+        st2.stop_sequence = 2;
+        feed.stop_times.put(new Fun.Tuple2(st2.trip_id, st2.stop_sequence), st2);
+    }
+
+    private static RoutingRequest request (Router router, GenericLocation from, GenericLocation to) {
+        RoutingRequest options = new RoutingRequest("WALK,TRANSIT");
+        options.from = from;
+        options.to = to;
+        // just before the morning service of the test feed
+        options.dateTime = new LocalDateTime(2015, 9, 17, 7, 50)
+                .toDateTime(DateTimeZone.forTimeZone(router.graph.getTimeZone())).getMillis() / 1000;
+        options.numItineraries = 1;
+        options.maxWalkDistance = 2000;
+        return options;
+    }
+
+    private static GraphPath plan (Router router, GenericLocation from, GenericLocation to, Class<?> heuristic) {
+        RoutingRequest options = request(router, from, to);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(options);
+        assertEquals(heuristic, options.rctx.remainingWeightHeuristic.getClass());
+        options.cleanup();
+        assertFalse(paths.isEmpty());
+        return paths.get(0);
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.opentripplanner.routing.contraction;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ContractionHierarchyTest extends TestCase {
+
+    private static final int SIZE = 12;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    /**
+     * Make a grid of streets with random lengths and safety factors, some of them one-way and some closed to cars or
+     * to bicycles.
+     */
+    @Override
+    public void setUp() {
+        Random random = new Random(42);
+        graph = new Graph();
+        grid = new IntersectionVertex[SIZE][SIZE];
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, "v" + x + "_" + y, x * 0.001, y * 0.001);
+            }
+        }
+        StreetTraversalPermission[] permissions = new StreetTraversalPermission[] {
+                StreetTraversalPermission.ALL, StreetTraversalPermission.ALL, StreetTraversalPermission.ALL,
+                StreetTraversalPermission.CAR, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE };
+        for (int x = 0; x < SIZE; x++) {
+            for (int y = 0; y < SIZE; y++) {
+                if (x + 1 < SIZE) street(grid[x][y], grid[x + 1][y], random, permissions);
+                if (y + 1 < SIZE) street(grid[x][y], grid[x][y + 1], random, permissions);
+            }
+        }
+    }
+
+    private static void street(IntersectionVertex a, IntersectionVertex b, Random random,
+                               StreetTraversalPermission[] permissions) {
+        double length = 50 + random.nextInt(150);
+        StreetTraversalPermission permission = permissions[random.nextInt(permissions.length)];
+        float safety = 1 + random.nextFloat();
+        edge(a, b, length, permission, safety);
+        // One street in six is one-way.
+        if (random.nextInt(6) > 0) edge(b, a, length, permission, safety);
+    }
+
+    private static void edge(IntersectionVertex from, IntersectionVertex to, double length,
+                             StreetTraversalPermission permission, float safety) {
+        Coordinate[] coords = new Coordinate[] { from.getCoordinate(), to.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetEdge e = new StreetEdge(from, to, geom, from.getLabel() + "_" + to.getLabel(), length, permission, false);
+        e.setBicycleSafetyFactor(safety);
+    }
+
+    /** The weight of every path found must be that of the shortest path found by a plain Dijkstra search. */
+    @Test
+    public void testShortestPaths() {
+        for (StreetProfile profile : StreetProfile.values()) {
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, profile);
+            assertEquals(SIZE * SIZE, hierarchy.countNodes());
+            Random random = new Random(profile.ordinal());
+            for (int i = 0; i < 30; i++) {
+                Vertex from = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+                Vertex to = grid[random.nextInt(SIZE)][random.nextInt(SIZE)];
+                if (from == to) continue;
+                Double expected = dijkstra(from, profile).get(to);
+                for (boolean arriveBy : new boolean[] { false, true }) {
+                    RoutingRequest options = request(profile);
+                    options.setArriveBy(arriveBy);
+                    options.setRoutingContext(graph, from, to);
+                    GraphPath path = hierarchy.getPath(options);
+                    if (expected == null) {
+                        assertNull(path);
+                        continue;
+                    }
+                    assertNotNull(path);
+                    assertSame(from, path.states.getFirst().getVertex());
+                    assertSame(to, path.states.getLast().getVertex());
+                    double weight = 0;
+                    for (Edge e : path.edges) {
+                        assertTrue(profile.allows((StreetEdge) e));
+                        weight += profile.weight((StreetEdge) e);
+                    }
+                    assertEquals(expected, weight, 0.001);
+                }
+            }
+        }
+    }
+
+    /** Contracting the middle of a chain of zero-weight streets must still leave its ends connected. */
+    @Test
+    public void testZeroWeightChain() {
+        Graph chainGraph = new Graph();
+        IntersectionVertex[] chain = new IntersectionVertex[5];
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = new IntersectionVertex(chainGraph, "c" + i, i * 0.001, 0);
+            if (i > 0) {
+                edge(chain[i - 1], chain[i], 0, StreetTraversalPermission.ALL, 1);
+                edge(chain[i], chain[i - 1], 0, StreetTraversalPermission.ALL, 1);
+            }
+        }
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(chainGraph, StreetProfile.BICYCLE_SAFE);
+        for (int from = 0; from < chain.length; from++) {
+            for (int to = 0; to < chain.length; to++) {
+                if (from == to) continue;
+                RoutingRequest options = request(StreetProfile.BICYCLE_SAFE);
+                options.setRoutingContext(chainGraph, chain[from], chain[to]);
+                GraphPath path = hierarchy.getPath(options);
+                assertNotNull(path);
+                assertSame(chain[from], path.states.getFirst().getVertex());
+                assertSame(chain[to], path.states.getLast().getVertex());
+                assertEquals(Math.abs(from - to), path.edges.size());
+            }
+        }
+    }
+
+    /** Requests are only answered by a hierarchy whose profile agrees with their weights. */
+    @Test
+    public void testProfileForRequest() {
+        assertEquals(StreetProfile.CAR, StreetProfile.forRequest(request(StreetProfile.CAR)));
+        assertEquals(StreetProfile.BICYCLE_QUICK, StreetProfile.forRequest(request(StreetProfile.BICYCLE_QUICK)));
+        assertEquals(StreetProfile.BICYCLE_SAFE, StreetProfile.forRequest(request(StreetProfile.BICYCLE_SAFE)));
+        assertNull(StreetProfile.forRequest(new RoutingRequest(TraverseMode.BICYCLE, OptimizeType.TRIANGLE)));
+        assertNull(StreetProfile.forRequest(new RoutingRequest(new TraverseModeSet("WALK,TRANSIT"))));
+        RoutingRequest parkAndRide = request(StreetProfile.CAR);
+        parkAndRide.parkAndRide = true;
+        assertNull(StreetProfile.forRequest(parkAndRide));
+    }
+
+    private static RoutingRequest request(StreetProfile profile) {
+        switch (profile) {
+            case CAR:
+                return new RoutingRequest(TraverseMode.CAR);
+            case BICYCLE_SAFE:
+                return new RoutingRequest(TraverseMode.BICYCLE, OptimizeType.SAFE);
+            default:
+                return new RoutingRequest(TraverseMode.BICYCLE, OptimizeType.QUICK);
+        }
+    }
+
+    /** @return the weight in the given profile of the shortest path to each vertex reached from the origin. */
+    private Map<Vertex, Double> dijkstra(Vertex origin, StreetProfile profile) {
+        Map<Vertex, Double> weights = new HashMap<>();
+        BinHeap<Vertex> queue = new BinHeap<>();
+        weights.put(origin, 0.0);
+        queue.insert(origin, 0);
+        while (!queue.empty()) {
+            double weight = queue.peek_min_key();
+            Vertex v = queue.extract_min();
+            if (weight > weights.get(v)) continue;
+            for (Edge e : v.getOutgoing()) {
+                StreetEdge se = (StreetEdge) e;
+                if (!profile.allows(se)) continue;
+                double next = weight + profile.weight(se);
+                Double previous = weights.get(se.getToVertex());
+                if (previous == null || next < previous) {
+                    weights.put(se.getToVertex(), next);
+                    queue.insert(se.getToVertex(), next);
+                }
+            }
+        }
+        return weights;
+    }
+
+}
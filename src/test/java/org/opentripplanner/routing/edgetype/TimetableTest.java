@@ -16,10 +16,14 @@ package org.opentripplanner.routing.edgetype;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -27,19 +31,25 @@ import com.google.common.collect.Iterables;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.request.BannedStopSet;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStopDepart;
 import org.opentripplanner.util.TestUtils;
@@ -313,4 +323,166 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    @Test
+    public void testDepartureIndex() {
+        // Fill a realtime copy of the timetable with delayed copies of its trips, so that it is large enough to be
+        // indexed and its trips are not in departure order.
+        Timetable big = new Timetable(timetable, serviceDate);
+        TripTimes base = timetable.getTripTimes(0);
+        int nStops = base.getNumStops();
+        for (int i = 0; big.tripTimes.size() < Timetable.MIN_TRIPS_FOR_INDEX * 2; i++) {
+            TripTimes delayed = new TripTimes(base);
+            int delay = ((i * 7919) % 50) * 60;
+            for (int s = 0; s < nStops; s++) {
+                delayed.updateArrivalDelay(s, delay);
+                delayed.updateDepartureDelay(s, delay);
+            }
+            big.addTripTimes(delayed);
+        }
+        big.finish();
+        checkIndex(big, nStops);
+
+        // Replace a few trips and add one in a further copy, which should reposition only those trips.
+        Timetable updated = new Timetable(big, serviceDate);
+        for (int t : new int[] {3, 11, 20}) {
+            TripTimes delayed = new TripTimes(base);
+            for (int s = 0; s < nStops; s++) {
+                delayed.updateArrivalDelay(s, 3600 - t * 60);
+                delayed.updateDepartureDelay(s, 3600 - t * 60);
+            }
+            updated.setTripTimes(t, delayed);
+        }
+        TripTimes extra = new TripTimes(base);
+        for (int s = 0; s < nStops; s++) {
+            extra.updateArrivalDelay(s, 90);
+            extra.updateDepartureDelay(s, 90);
+        }
+        updated.addTripTimes(extra);
+        updated.finish();
+        checkIndex(updated, nStops);
+
+        // The original timetable's index must not have been affected.
+        checkIndex(big, nStops);
+    }
+
+    /**
+     * The indexed search must find the same trip as the linear scan for every departure and arrival time in the
+     * timetable, in both directions, whatever the service day and trip filters, and must not use a stale index.
+     */
+    @Test
+    public void testDepartureIndexMatchesLinearSearch() {
+        // Distinct trips on different services, some of them wheelchair accessible and one canceled.
+        Timetable indexed = new Timetable(timetable, serviceDate);
+        TripTimes base = timetable.getTripTimes(0);
+        List<StopTime> stopTimes = context.getDao().getStopTimesForTrip(base.trip);
+        Integer[] serviceCodes = graph.serviceCodes.values().toArray(new Integer[0]);
+        Deduplicator deduplicator = new Deduplicator();
+        for (int i = 0; indexed.tripTimes.size() < Timetable.MIN_TRIPS_FOR_INDEX * 2; i++) {
+            TripTimes tt = delayedCopy(base.trip, "copy" + i, i % 3 == 0, stopTimes, deduplicator,
+                    ((i * 7919) % 50) * 60);
+            tt.serviceCode = serviceCodes[i % serviceCodes.length];
+            if (i == 5) tt.cancel();
+            indexed.addTripTimes(tt);
+        }
+        indexed.finish();
+        assertNotNull(indexed.getDepartureOrder(0));
+        Timetable linear = new Timetable(indexed, serviceDate);
+        linear.invalidateIndex();
+        assertNull(linear.getDepartureOrder(0));
+        checkSameNextTrips(indexed, linear);
+
+        // Replacing or adding trips leaves the index stale until the timetable is finished again, and until then the
+        // trips must be searched linearly.
+        Timetable updated = new Timetable(indexed, serviceDate);
+        TripTimes early = delayedCopy(base.trip, "early", false, stopTimes, deduplicator, -1800);
+        early.serviceCode = base.serviceCode;
+        TripTimes extra = delayedCopy(base.trip, "extra", true, stopTimes, deduplicator, 90);
+        extra.serviceCode = base.serviceCode;
+        updated.setTripTimes(7, early);
+        assertNull(updated.getDepartureOrder(0));
+        linear.setTripTimes(7, early);
+        checkSameNextTrips(updated, linear);
+        updated.finish();
+        updated.addTripTimes(extra);
+        assertNull(updated.getArrivalOrder(0));
+        linear.addTripTimes(extra);
+        checkSameNextTrips(updated, linear);
+        updated.finish();
+        assertNotNull(updated.getDepartureOrder(0));
+        checkSameNextTrips(updated, linear);
+    }
+
+    /** @return a trip with its own ID and wheelchair accessibility, running the given stop times with a delay. */
+    private static TripTimes delayedCopy(Trip baseTrip, String id, boolean wheelchairAccessible,
+            List<StopTime> stopTimes, Deduplicator deduplicator, int delay) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId(baseTrip.getId().getAgencyId(), id));
+        trip.setRoute(baseTrip.getRoute());
+        trip.setServiceId(baseTrip.getServiceId());
+        trip.setWheelchairAccessible(wheelchairAccessible ? 1 : 0);
+        TripTimes tt = new TripTimes(trip, stopTimes, deduplicator);
+        for (int s = 0; s < tt.getNumStops(); s++) {
+            tt.updateArrivalDelay(s, delay);
+            tt.updateDepartureDelay(s, delay);
+        }
+        return tt;
+    }
+
+    /** Check that both timetables find the same next trip at and around every time in the first one. */
+    private static void checkSameNextTrips(Timetable a, Timetable b) {
+        CalendarService calendarService = graph.getCalendarService();
+        Vertex stop = graph.getVertex("agency:A");
+        RoutingRequest plain = new RoutingRequest();
+        RoutingRequest wheelchair = new RoutingRequest();
+        wheelchair.wheelchairAccessible = true;
+        RoutingRequest banned = new RoutingRequest();
+        for (int t = 0; t < a.tripTimes.size(); t += 3) {
+            banned.bannedTrips.put(a.getTripTimes(t).trip.getId(), BannedStopSet.ALL);
+        }
+        int nStops = a.getTripTimes(0).getNumStops();
+        for (ServiceDate date : new ServiceDate[] {serviceDate.previous(), serviceDate, serviceDate.next()}) {
+            ServiceDay serviceDay = new ServiceDay(graph, date, calendarService, "agency");
+            for (RoutingRequest options : new RoutingRequest[] {plain, wheelchair, banned}) {
+                for (TripTimes tt : a.tripTimes) {
+                    for (int s = 0; s < nStops; s++) {
+                        for (int time : new int[] {tt.getDepartureTime(s), tt.getArrivalTime(s)}) {
+                            for (int offset = -1; offset <= 1; offset++) {
+                                State s0 = new State(stop, serviceDay.time(time + offset), options);
+                                for (boolean boarding : new boolean[] {true, false}) {
+                                    assertSame(b.getNextTrip(s0, serviceDay, s, boarding),
+                                            a.getNextTrip(s0, serviceDay, s, boarding));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Check that each stop's index is a permutation of the trips sorted by time. */
+    private static void checkIndex(Timetable tt, int nStops) {
+        int nTrips = tt.tripTimes.size();
+        for (int s = 0; s < nStops; s++) {
+            int[] departures = tt.getDepartureOrder(s);
+            int[] arrivals = tt.getArrivalOrder(s);
+            assertNotNull(departures);
+            assertNotNull(arrivals);
+            assertEquals(nTrips, departures.length);
+            assertEquals(nTrips, arrivals.length);
+            for (int i = 1; i < nTrips; i++) {
+                assertTrue(tt.getTripTimes(departures[i - 1]).getDepartureTime(s) <=
+                        tt.getTripTimes(departures[i]).getDepartureTime(s));
+                assertTrue(tt.getTripTimes(arrivals[i - 1]).getArrivalTime(s) <=
+                        tt.getTripTimes(arrivals[i]).getArrivalTime(s));
+            }
+            int[] sorted = departures.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < nTrips; i++) assertEquals(i, sorted[i]);
+            sorted = arrivals.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < nTrips; i++) assertEquals(i, sorted[i]);
+        }
+    }
 }
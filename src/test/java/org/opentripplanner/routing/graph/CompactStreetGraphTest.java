@@ -0,0 +1,182 @@
+package org.opentripplanner.routing.graph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import junit.framework.TestCase;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class CompactStreetGraphTest extends TestCase {
+
+    private Graph graph;
+
+    private IntersectionVertex a, b, c, d;
+
+    private StreetEdge ab, bc, ac, cd;
+
+    @Override
+    public void setUp () {
+        graph = new Graph();
+        a = new IntersectionVertex(graph, "a", 0.0, 0.0);
+        b = new IntersectionVertex(graph, "b", 0.001, 0.0);
+        c = new IntersectionVertex(graph, "c", 0.002, 0.0);
+        d = new IntersectionVertex(graph, "d", 0.003, 0.0);
+        ab = edge(a, b, 100, StreetTraversalPermission.ALL);
+        bc = edge(b, c, 100, StreetTraversalPermission.ALL);
+        ac = edge(a, c, 150, StreetTraversalPermission.CAR);
+        cd = edge(c, d, 300, StreetTraversalPermission.PEDESTRIAN);
+    }
+
+    public void testAdjacency () {
+        CompactStreetGraph compact = new CompactStreetGraph(graph);
+        assertEquals(4, compact.nEdges);
+        for (Vertex v : graph.getVertices()) {
+            int vi = v.getIndex();
+            assertEquals(v.getDegreeOut(), compact.outgoingOffsets[vi + 1] - compact.outgoingOffsets[vi]);
+            assertEquals(v.getDegreeIn(), compact.incomingOffsets[vi + 1] - compact.incomingOffsets[vi]);
+            for (int i = compact.outgoingOffsets[vi]; i < compact.outgoingOffsets[vi + 1]; i++) {
+                int e = compact.outgoingEdges[i];
+                assertEquals(vi, compact.fromVertex[e]);
+                assertTrue(v.getOutgoing().contains(compact.getEdge(e)));
+            }
+            for (int i = compact.incomingOffsets[vi]; i < compact.incomingOffsets[vi + 1]; i++) {
+                int e = compact.incomingEdges[i];
+                assertEquals(vi, compact.toVertex[e]);
+                assertTrue(v.getIncoming().contains(compact.getEdge(e)));
+            }
+        }
+        int e = compact.getIndex(ac);
+        assertEquals(150.0, compact.getDistance(e), 0.001);
+        assertEquals(StreetTraversalPermission.CAR, compact.getPermission(e));
+        assertTrue(compact.isStreet(e));
+    }
+
+    public void testStreetDistances () {
+        CompactStreetGraph compact = new CompactStreetGraph(graph);
+        RoutingRequest options = new RoutingRequest();
+
+        TIntIntMap walk = distances(compact.getStreetDistances(a.getIndex(), options, TraverseMode.WALK, 1000, false));
+        assertEquals(0, walk.get(a.getIndex()));
+        assertEquals(100, walk.get(b.getIndex()));
+        assertEquals(200, walk.get(c.getIndex()));
+        assertEquals(500, walk.get(d.getIndex()));
+
+        // The car-only shortcut is used by cars, and the pedestrian-only edge is not.
+        TIntIntMap car = distances(compact.getStreetDistances(a.getIndex(), options, TraverseMode.CAR, 1000, false));
+        assertEquals(150, car.get(c.getIndex()));
+        assertFalse(car.containsKey(d.getIndex()));
+
+        // Distance limit
+        TIntIntMap near = distances(compact.getStreetDistances(a.getIndex(), options, TraverseMode.WALK, 150, false));
+        assertTrue(near.containsKey(b.getIndex()));
+        assertFalse(near.containsKey(c.getIndex()));
+
+        // Searching backward from d follows the edges in reverse.
+        TIntIntMap back = distances(compact.getStreetDistances(d.getIndex(), options, TraverseMode.WALK, 1000, true));
+        assertEquals(500, back.get(a.getIndex()));
+
+        // The searches share their scratch space, which must be left as it was found.
+        assertEquals(walk, distances(compact.getStreetDistances(a.getIndex(), options, TraverseMode.WALK, 1000, false)));
+    }
+
+    /**
+     * The time and weight of every street edge must be the same as when traversing the StreetEdge itself from a fresh
+     * state (so there is no turn cost), for every mode and optimization, on edges with slopes, stairs and greenways.
+     */
+    public void testTraversalMatchesStreetEdge () {
+        Graph g = new Graph();
+        IntersectionVertex p = new IntersectionVertex(g, "p", 0.0, 0.0);
+        IntersectionVertex q = new IntersectionVertex(g, "q", 0.001, 0.0);
+        IntersectionVertex r = new IntersectionVertex(g, "r", 0.002, 0.0);
+        IntersectionVertex s = new IntersectionVertex(g, "s", 0.003, 0.0);
+        IntersectionVertex t = new IntersectionVertex(g, "t", 0.004, 0.0);
+        IntersectionVertex u = new IntersectionVertex(g, "u", 0.005, 0.0);
+        edge(p, q, 100, StreetTraversalPermission.ALL);
+        StreetWithElevationEdge steep = elevationEdge(q, r, 200, StreetTraversalPermission.ALL, 0, 20);
+        StreetWithElevationEdge gentle = elevationEdge(r, s, 300, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE,
+                10, 0);
+        gentle.setBicycleSafetyFactor(1.5f);
+        StreetEdge stairs = edge(s, t, 20, StreetTraversalPermission.PEDESTRIAN);
+        stairs.setStairs(true);
+        StreetWithElevationEdge greenway = elevationEdge(t, u, 400, StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE,
+                0, 8);
+        greenway.setBicycleSafetyFactor(0.05f);
+        CompactStreetGraph compact = new CompactStreetGraph(g);
+
+        RoutingRequest walk = new RoutingRequest(TraverseMode.WALK);
+        RoutingRequest wheelchair = new RoutingRequest(TraverseMode.WALK);
+        wheelchair.wheelchairAccessible = true;
+        RoutingRequest car = new RoutingRequest(TraverseMode.CAR);
+        checkTraversal(compact, walk, TraverseMode.WALK);
+        checkTraversal(compact, wheelchair, TraverseMode.WALK);
+        checkTraversal(compact, car, TraverseMode.CAR);
+        for (OptimizeType optimize : new OptimizeType[] { OptimizeType.QUICK, OptimizeType.SAFE, OptimizeType.FLAT,
+                OptimizeType.GREENWAYS, OptimizeType.TRIANGLE }) {
+            RoutingRequest bike = new RoutingRequest(TraverseMode.BICYCLE, optimize);
+            bike.setTriangleNormalized(0.4, 0.3, 0.3);
+            checkTraversal(compact, bike, TraverseMode.BICYCLE);
+        }
+    }
+
+    private static void checkTraversal (CompactStreetGraph compact, RoutingRequest options, TraverseMode mode) {
+        options.walkReluctance = 1.5;
+        options.bikeSwitchTime = 0;
+        options.bikeSwitchCost = 0;
+        options.setMaxWalkDistance(Double.MAX_VALUE);
+        for (int e = 0; e < compact.nEdges; e++) {
+            StreetEdge edge = (StreetEdge) compact.getEdge(e);
+            boolean canTraverse = compact.canTraverse(e, options, mode);
+            assertEquals(edge.canTraverse(options, mode), canTraverse);
+            if (!canTraverse) continue;
+            State s1 = edge.traverse(new State(edge.getFromVertex(), options));
+            assertNotNull(s1);
+            double time = compact.getTraversalTime(e, options, mode);
+            // StreetEdge rounds the time up to whole seconds. The slope lengths are stored here as floats.
+            assertTrue(time <= s1.getElapsedTimeSeconds() + 1e-3);
+            assertTrue(time > s1.getElapsedTimeSeconds() - 1 - 1e-3);
+            assertEquals(s1.getWeight(), compact.getTraversalWeight(e, options, mode), 1e-3);
+        }
+    }
+
+    private static TIntIntMap distances (int[] pairs) {
+        TIntIntMap map = new TIntIntHashMap();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put(pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+
+    private static StreetEdge edge (IntersectionVertex from, IntersectionVertex to, double length,
+                                    StreetTraversalPermission permission) {
+        Coordinate[] coords = new Coordinate[] { from.getCoordinate(), to.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new StreetEdge(from, to, geom, from.getLabel() + "_" + to.getLabel(), length, permission, false);
+    }
+
+    /** A street edge whose elevation changes evenly from one end to the other. */
+    private static StreetWithElevationEdge elevationEdge (IntersectionVertex from, IntersectionVertex to,
+                                                          double length, StreetTraversalPermission permission,
+                                                          double fromElevation, double toElevation) {
+        Coordinate[] coords = new Coordinate[] { from.getCoordinate(), to.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        StreetWithElevationEdge edge = new StreetWithElevationEdge(from, to, geom,
+                from.getLabel() + "_" + to.getLabel(), length, permission, false);
+        Coordinate[] profile = new Coordinate[] {
+                new Coordinate(0, fromElevation),
+                new Coordinate(length, toElevation)
+        };
+        edge.setElevationProfile(new PackedCoordinateSequence.Double(profile), false);
+        return edge;
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.opentripplanner.routing.graph;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SectionedGraphFileTest extends TestCase {
+
+    /** Save a graph with streets and transit as a sectioned file, load it back, and compare the two. */
+    @Test
+    public void testRoundTrip () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransit(graph);
+        FakeGraph.link(graph);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        graph.saveSectioned(out);
+        byte[] bytes = out.toByteArray();
+        assertTrue(SectionedGraphFile.isSectionedGraphFile(new ByteArrayInputStream(bytes)));
+
+        Graph loaded = Graph.load(new ByteArrayInputStream(bytes), Graph.LoadLevel.FULL);
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+
+        Map<String, StreetEdge> loadedEdges = new HashMap<>();
+        for (StreetEdge e : loaded.getStreetEdges()) {
+            loadedEdges.put(key(e), e);
+        }
+        for (StreetEdge e : graph.getStreetEdges()) {
+            StreetEdge l = loadedEdges.get(key(e));
+            assertNotNull(l);
+            assertEquals(e.getClass(), l.getClass());
+            assertEquals(e.getId(), l.getId());
+            assertEquals(e.getLength_mm(), l.getLength_mm());
+            assertEquals(e.getPermission(), l.getPermission());
+            assertEquals(e.getName(), l.getName());
+            assertEquals(e.getBicycleSafetyFactor(), l.getBicycleSafetyFactor());
+            assertEquals(e.getCarSpeed(), l.getCarSpeed());
+            assertEquals(e.getInAngle(), l.getInAngle());
+            assertEquals(e.getOutAngle(), l.getOutAngle());
+            assertEquals(e.getGeometry(), l.getGeometry());
+        }
+        for (Vertex v : graph.getVertices()) {
+            Vertex l = loaded.getVertex(v.getLabel());
+            assertNotNull(l);
+            assertEquals(v.getClass(), l.getClass());
+            assertEquals(v.getCoordinate(), l.getCoordinate());
+            assertEquals(v.getDegreeOut(), l.getDegreeOut());
+            assertEquals(v.getDegreeIn(), l.getDegreeIn());
+        }
+        assertEquals(graph.index.patternForId.size(), loaded.index.patternForId.size());
+    }
+
+    /** A file written by Java serialization must still be detected and loaded by the same method. */
+    @Test
+    public void testLoadSerialized () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        graph.save(new ObjectOutputStream(out));
+        byte[] bytes = out.toByteArray();
+        assertFalse(SectionedGraphFile.isSectionedGraphFile(new ByteArrayInputStream(bytes)));
+
+        Graph loaded = Graph.load(new ByteArrayInputStream(bytes), Graph.LoadLevel.FULL);
+        assertEquals(graph.countVertices(), loaded.countVertices());
+        assertEquals(graph.countEdges(), loaded.countEdges());
+    }
+
+    private static String key (Edge e) {
+        return e.getFromVertex().getLabel() + " " + e.getToVertex().getLabel() + " " + e.getId();
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.opentripplanner.routing.graph;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.TemporaryFreeEdge;
+import org.opentripplanner.routing.edgetype.TemporaryPartialStreetEdge;
+import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.util.NonLocalizedString;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class TemporaryEdgeOverlayTest extends TestCase {
+
+    /** Linking temporary vertices must leave the permanent vertices untouched, with the overlay adding the links. */
+    @Test
+    public void testTemporaryEdgesStayOutOfGraph() {
+        Graph graph = new Graph();
+        Vertex a = new SimpleConcreteVertex(graph, "a", 47.669457, -122.387577);
+        Vertex b = new SimpleConcreteVertex(graph, "b", 47.669462, -122.384739);
+        Edge ab = new SimpleConcreteEdge(a, b);
+
+        TemporaryStreetLocation start = new TemporaryStreetLocation("start",
+                new Coordinate(-122.387, 47.6694), new NonLocalizedString("start"), false);
+        TemporaryStreetLocation end = new TemporaryStreetLocation("end",
+                new Coordinate(-122.385, 47.6694), new NonLocalizedString("end"), true);
+        Edge startA = new TemporaryConcreteEdge(start, a);
+        Edge bEnd = new TemporaryConcreteEdge(b, end);
+
+        // The temporary edges are only attached to the temporary vertices.
+        assertEquals(1, a.getDegreeOut());
+        assertEquals(0, a.getDegreeIn());
+        assertEquals(0, b.getDegreeOut());
+        assertEquals(1, b.getDegreeIn());
+        assertTrue(start.getOutgoing().contains(startA));
+        assertTrue(end.getIncoming().contains(bEnd));
+
+        TemporaryEdgeOverlay overlay = TemporaryEdgeOverlay.forVertices(start, end);
+        Collection<Edge> bOutgoing = overlay.getOutgoing(b);
+        assertEquals(1, bOutgoing.size());
+        assertTrue(bOutgoing.contains(bEnd));
+        Collection<Edge> aIncoming = overlay.getIncoming(a);
+        assertEquals(1, aIncoming.size());
+        assertTrue(aIncoming.contains(startA));
+        assertTrue(overlay.getOutgoing(a).contains(ab));
+        assertEquals(overlay.getOutgoing(a), overlay.getEdges(a, false));
+        assertEquals(overlay.getIncoming(b), overlay.getEdges(b, true));
+
+        // Another request's overlay does not see these edges.
+        assertTrue(TemporaryEdgeOverlay.forVertices(a, b).getOutgoing(b).isEmpty());
+        assertTrue(TemporaryEdgeOverlay.EMPTY.getIncoming(a).isEmpty());
+    }
+
+    /** Destroying a routing context must leave the edges of permanent vertices as they were, without logging errors. */
+    @Test
+    public void testDestroyLeavesGraphUntouched() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.387577, 47.669457);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.384739, 47.669462);
+        LineString geometry = GeometryUtils.makeLineString(a.getX(), a.getY(), b.getX(), b.getY());
+        StreetEdge ab = new StreetEdge(a, b, geometry, "ab", 200, StreetTraversalPermission.ALL, false);
+        List<Edge> aOutgoing = new ArrayList<>(a.getOutgoing());
+        List<Edge> aIncoming = new ArrayList<>(a.getIncoming());
+        List<Edge> bOutgoing = new ArrayList<>(b.getOutgoing());
+        List<Edge> bIncoming = new ArrayList<>(b.getIncoming());
+
+        // Link an origin and a destination the way the street index does, from the street's end vertices and along it.
+        TemporaryStreetLocation start = new TemporaryStreetLocation("start",
+                new Coordinate(-122.387, 47.66946), new NonLocalizedString("start"), false);
+        TemporaryStreetLocation end = new TemporaryStreetLocation("end",
+                new Coordinate(-122.385, 47.66946), new NonLocalizedString("end"), true);
+        new TemporaryFreeEdge(start, a);
+        new TemporaryPartialStreetEdge(ab, start, b, geometry, new NonLocalizedString("ab"), 100);
+        new TemporaryFreeEdge(b, end);
+        new TemporaryPartialStreetEdge(ab, a, end, geometry, new NonLocalizedString("ab"), 150);
+
+        Logger vertexLog = (Logger) LoggerFactory.getLogger(Vertex.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        vertexLog.addAppender(appender);
+        try {
+            RoutingContext rctx = new RoutingContext(new RoutingRequest("WALK"), graph, start, end);
+            rctx.destroy();
+        } finally {
+            vertexLog.detachAppender(appender);
+        }
+
+        for (ILoggingEvent event : appender.list) {
+            assertFalse(event.getFormattedMessage(), event.getLevel().isGreaterOrEqual(Level.ERROR));
+        }
+        assertEquals(aOutgoing, new ArrayList<>(a.getOutgoing()));
+        assertEquals(aIncoming, new ArrayList<>(a.getIncoming()));
+        assertEquals(bOutgoing, new ArrayList<>(b.getOutgoing()));
+        assertEquals(bIncoming, new ArrayList<>(b.getIncoming()));
+        // The temporary vertices no longer hold their links.
+        assertTrue(start.getOutgoing().isEmpty());
+        assertTrue(end.getIncoming().isEmpty());
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.opentripplanner.routing.graph;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.HashMap;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class TransitLowerBoundsTest extends TestCase {
+
+    /** The landmark bounds must never exceed the shortest ride time between two clusters. */
+    @Test
+    public void testBoundsAreAdmissible () throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransitMultipleLines(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+
+        TransitLowerBounds bounds = new TransitLowerBounds(graph, 4);
+        assertTrue(bounds.nClusters > 1);
+        assertEquals(4, bounds.nLandmarks);
+
+        for (TransitStop stop : graph.index.stopVertexForStop.values()) {
+            assertTrue(bounds.getCluster(stop.getStop()) >= 0);
+        }
+
+        int nTight = 0;
+        for (int from = 0; from < bounds.nClusters; from++) {
+            int[] exact = bounds.minimumTimes(from, true);
+            for (int to = 0; to < bounds.nClusters; to++) {
+                int bound = bounds.lowerBound(from, to);
+                assertTrue(bound >= 0);
+                if (exact[to] != TransitLowerBounds.UNREACHED) {
+                    assertTrue(bound <= exact[to]);
+                    if (bound == exact[to]) nTight++;
+                }
+            }
+        }
+        assertTrue(nTight > 0);
+
+        // Bounds from a landmark are exact.
+        int landmark = bounds.landmarks[0];
+        int[] exact = bounds.minimumTimes(landmark, true);
+        for (int to = 0; to < bounds.nClusters; to++) {
+            if (exact[to] != TransitLowerBounds.UNREACHED) {
+                assertEquals(exact[to], bounds.lowerBound(landmark, to));
+            }
+        }
+    }
+
+    /** SimpleTransfers are walking links between clusters, not a reason to merge the stops they join. */
+    @Test
+    public void testSimpleTransfersKeepClustersApart () throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransitMultipleLines(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        new DirectTransferGenerator().buildGraph(graph, new HashMap<>());
+
+        TransitLowerBounds bounds = new TransitLowerBounds(graph, 4);
+        // None of these stops have a parent station, so each stop is its own cluster.
+        assertEquals(graph.index.stopVertexForStop.size(), bounds.nClusters);
+
+        int nTransfers = 0;
+        for (TransitStop stop : graph.index.stopVertexForStop.values()) {
+            int from = bounds.getCluster(stop.getStop());
+            int[] exact = bounds.minimumTimes(from, true);
+            for (Edge e : stop.getOutgoing()) {
+                if (!(e instanceof SimpleTransfer)) continue;
+                int to = bounds.getCluster(((TransitStop) e.getToVertex()).getStop());
+                assertTrue(from != to);
+                assertTrue(exact[to] <= e.getDistance() / TransitLowerBounds.MAX_WALK_SPEED);
+                nTransfers++;
+            }
+        }
+        assertTrue(nTransfers > 0);
+
+        int nPositive = 0;
+        for (int from = 0; from < bounds.nClusters; from += 97) {
+            int[] exact = bounds.minimumTimes(from, true);
+            for (int to = 0; to < bounds.nClusters; to++) {
+                int bound = bounds.lowerBound(from, to);
+                if (exact[to] != TransitLowerBounds.UNREACHED) assertTrue(bound <= exact[to]);
+                if (bound > 0) nPositive++;
+            }
+        }
+        assertTrue(nPositive > 0);
+    }
+
+}
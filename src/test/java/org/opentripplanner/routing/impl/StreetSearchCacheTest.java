@@ -0,0 +1,99 @@
+package org.opentripplanner.routing.impl;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class StreetSearchCacheTest extends TestCase {
+
+    /** Requests snapped to the same place with the same walking parameters share a key, others do not. */
+    @Test
+    public void testKeys () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        RoutingRequest rr1 = walkRequest(gg);
+        RoutingRequest rr2 = walkRequest(gg);
+        // Each request makes its own temporary vertex at the origin.
+        assertNotSame(rr1.rctx.origin, rr2.rctx.origin);
+        StreetSearchCache.Key key1 = StreetSearchCache.key("test", rr1, rr1.rctx.origin);
+        StreetSearchCache.Key key2 = StreetSearchCache.key("test", rr2, rr2.rctx.origin);
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertFalse(key1.equals(StreetSearchCache.key("other", rr2, rr2.rctx.origin)));
+
+        rr2.walkSpeed = 2.0;
+        assertFalse(key1.equals(StreetSearchCache.key("test", rr2, rr2.rctx.origin)));
+
+        rr2.setModes(new TraverseModeSet("BICYCLE"));
+        assertNull(StreetSearchCache.key("test", rr2, rr2.rctx.origin));
+    }
+
+    @Test
+    public void testInvalidate () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        gg.index(new DefaultStreetVertexIndexFactory());
+        RoutingRequest rr = walkRequest(gg);
+        StreetSearchCache.Key key = StreetSearchCache.key("test", rr, rr.rctx.origin);
+
+        StreetSearchCache cache = new StreetSearchCache(1000);
+        assertNull(cache.get(key));
+        StreetSearchCache.Result result = new StreetSearchCache.Result();
+        result.add(gg.getVertices().iterator().next(), 1.0, 1, 1.0);
+        cache.put(key, result.trim());
+        assertSame(result, cache.get(key));
+        cache.invalidate();
+        assertNull(cache.get(key));
+    }
+
+    /** A profile search taking its access search from the cache should find the same stops as one that does not. */
+    @Test
+    public void testProfileAccessSearch () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        addTransitMultipleLines(gg);
+        link(gg);
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.date = new LocalDate(2015, 9, 17);
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.fromLat = req.toLat = 39.9908;
+        req.fromLon = req.toLon = -83.0118;
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, gg, null, new TaskStatistics());
+
+        StreetSearchCache cache = gg.streetSearchCache;
+        gg.streetSearchCache = null;
+        TIntIntMap uncached = new RepeatedRaptorProfileRouter(gg, req).findInitialStops(false, data);
+        assertFalse(uncached.isEmpty());
+
+        gg.streetSearchCache = cache;
+        TIntIntMap first = new RepeatedRaptorProfileRouter(gg, req).findInitialStops(false, data);
+        TIntIntMap second = new RepeatedRaptorProfileRouter(gg, req).findInitialStops(false, data);
+        assertEquals(uncached, first);
+        assertEquals(uncached, second);
+    }
+
+    private static RoutingRequest walkRequest (Graph gg) {
+        RoutingRequest rr = new RoutingRequest(new TraverseModeSet("WALK,TRANSIT"));
+        rr.batch = true;
+        rr.from = rr.to = new GenericLocation(39.9908, -83.0118);
+        rr.setRoutingContext(gg);
+        return rr;
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.opentripplanner.routing.impl;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.request.SampleFactory;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.Random;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class StreetSegmentIndexTest extends TestCase {
+
+    /** Batch snapping should find streets as close as an exhaustive search over all walkable edges does. */
+    @Test
+    public void testSnap () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        gg.index(new DefaultStreetVertexIndexFactory());
+
+        Random random = new Random(42);
+        int n = 200;
+        double[] lats = new double[n], lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = 39.98 + random.nextDouble() * 0.03;
+            lons[i] = -83.03 + random.nextDouble() * 0.04;
+        }
+        StreetSegmentIndex.SnapResults results = gg.streetIndex.snap(lats, lons);
+        assertEquals(n, results.size());
+
+        for (int i = 0; i < n; i++) {
+            double best = Double.POSITIVE_INFINITY;
+            for (Edge e : gg.getEdges()) {
+                if (!(e instanceof StreetEdge) || !((StreetEdge) e).canTraverse(new TraverseModeSet(TraverseMode.WALK)))
+                    continue;
+                best = Math.min(best, distanceToEdge((StreetEdge) e, lats[i], lons[i]));
+            }
+            if (best > StreetVertexIndexServiceImpl.MAX_DISTANCE_FROM_STREET_METERS) {
+                assertNull(results.edges[i]);
+                continue;
+            }
+            assertNotNull(results.edges[i]);
+            assertEquals(best, results.distances[i], 1.0);
+            assertEquals(results.distances[i], distanceToEdge(results.edges[i], lats[i], lons[i]), 1.0);
+        }
+    }
+
+    /** Linking many points at once gives the same samples as linking them one by one. */
+    @Test
+    public void testSamples () throws Exception {
+        Graph gg = buildGraphNoTransit();
+        gg.index(new DefaultStreetVertexIndexFactory());
+        SampleFactory sfac = gg.getSampleFactory();
+
+        Random random = new Random(7);
+        int n = 100;
+        double[] lats = new double[n], lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = 39.98 + random.nextDouble() * 0.03;
+            lons[i] = -83.03 + random.nextDouble() * 0.04;
+        }
+        Sample[] samples = sfac.getSamples(lons, lats);
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            Sample sample = sfac.getSample(lons[i], lats[i]);
+            if (sample == null) {
+                assertNull(samples[i]);
+                continue;
+            }
+            found++;
+            assertSame(sample.v0, samples[i].v0);
+            assertSame(sample.v1, samples[i].v1);
+            assertEquals(sample.d0, samples[i].d0);
+            assertEquals(sample.d1, samples[i].d1);
+        }
+        assertTrue(found > 0);
+    }
+
+    private static double distanceToEdge (StreetEdge e, double lat, double lon) {
+        double xscale = Math.cos(Math.toRadians(lat));
+        CoordinateSequence cs = e.getGeometry().getCoordinateSequence();
+        double best = Double.POSITIVE_INFINITY;
+        for (int s = 0; s < cs.size() - 1; s++) {
+            double frac = GeometryUtils.segmentFraction(cs.getX(s), cs.getY(s), cs.getX(s + 1), cs.getY(s + 1),
+                    lon, lat, xscale);
+            Coordinate c = new Coordinate(cs.getX(s) + frac * (cs.getX(s + 1) - cs.getX(s)),
+                    cs.getY(s) + frac * (cs.getY(s + 1) - cs.getY(s)));
+            best = Math.min(best, SphericalDistanceLibrary.fastDistance(lat, lon, c.y, c.x));
+        }
+        return best;
+    }
+
+}
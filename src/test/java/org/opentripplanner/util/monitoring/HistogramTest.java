@@ -0,0 +1,72 @@
+package org.opentripplanner.util.monitoring;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.api.resource.DebugOutput;
+import org.opentripplanner.routing.error.PathNotFoundException;
+
+public class HistogramTest extends TestCase {
+
+    @Test
+    public void testBuckets () {
+        Histogram histogram = new Histogram(10, 100, 1000);
+        histogram.add(0);
+        histogram.add(10);
+        histogram.add(11);
+        histogram.add(1000);
+        histogram.add(5000);
+        assertEquals(5, histogram.getCount());
+        assertEquals(6021, histogram.getSum());
+        long[] counts = histogram.getCounts();
+        assertEquals(4, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+        assertEquals(1, counts[3]);
+        assertEquals(100, histogram.getPercentileBound(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileBound(1));
+        assertEquals(0, new Histogram(10).getPercentileBound(0.5));
+    }
+
+    @Test
+    public void testConcurrentAdds () throws Exception {
+        final Histogram histogram = new Histogram(Histogram.MILLISECOND_BOUNDS);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) histogram.add(i % 100);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4 * 100 * 4950, histogram.getSum());
+    }
+
+    /** Requests that fail before their timings are summarized are counted but not timed. */
+    @Test
+    public void testRoutingMetrics () {
+        RoutingMetrics metrics = new RoutingMetrics();
+        DebugOutput found = new DebugOutput();
+        found.startedCalculating();
+        found.statesVisited = 2000;
+        found.finishedCalculating();
+        found.finishedRendering();
+        metrics.record(found, null);
+
+        DebugOutput notFound = new DebugOutput();
+        notFound.startedCalculating();
+        notFound.timedOut = true;
+        metrics.record(notFound, new PathNotFoundException());
+        metrics.record(null, new IllegalArgumentException());
+
+        assertEquals(3, metrics.requests.sum());
+        assertEquals(1, metrics.timeouts.sum());
+        assertEquals(1, metrics.pathsNotFound.sum());
+        assertEquals(1, metrics.errors.sum());
+        assertEquals(2, metrics.statesVisited.getCount());
+        assertEquals(2000, metrics.statesVisited.getSum());
+        assertEquals(1, metrics.totalMillis.getCount());
+    }
+
+}